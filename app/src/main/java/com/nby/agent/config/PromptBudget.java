@@ -0,0 +1,97 @@
+package com.nby.agent.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fills a prompt's token budget in priority order. Fixed parts (system prompt, template text) are
+ * reserved first. Content is then added in the order the caller offers it, so the most valuable
+ * goes first. When something no longer fits it is cut to the space left, and whatever comes after
+ * it is dropped.
+ */
+public class PromptBudget {
+
+  /** Tokens left for the chat template's role markers and special tokens. */
+  static final int TEMPLATE_OVERHEAD = 64;
+  /** A trailing chunk is only kept in part if at least this many tokens of it fit. */
+  static final int MIN_PARTIAL_TOKENS = 48;
+
+  private final int limit;
+  private int used;
+  private int dropped;
+  private boolean trimmed;
+
+  public PromptBudget(int limit) {
+    this.limit = limit;
+  }
+
+  /** Budget for a model with {@code LLM_CONTEXT_TOKENS} of context that must still write {@code answerTokens}. */
+  public static PromptBudget forAnswer(int answerTokens) {
+    return new PromptBudget(contextTokens() - answerTokens - TEMPLATE_OVERHEAD);
+  }
+
+  public static int contextTokens() {
+    return Integer.parseInt(System.getenv().getOrDefault("LLM_CONTEXT_TOKENS", "8192"));
+  }
+
+  /** Counts text that is always sent, even if that overruns the budget. */
+  public PromptBudget reserve(String fixed) {
+    used += TokenEstimator.estimate(fixed);
+    return this;
+  }
+
+  /** Returns {@code text} cut down to the tokens left. */
+  public String fit(String text) {
+    if (text == null || text.isEmpty()) return "";
+    int cost = TokenEstimator.estimate(text);
+    if (cost <= remaining()) {
+      used += cost;
+      return text;
+    }
+    trimmed = true;
+    String cut = TokenEstimator.truncate(text, remaining());
+    used += TokenEstimator.estimate(cut);
+    return cut;
+  }
+
+  /** Keeps items in order while they fit; the first one that doesn't is cut if enough of it fits, the rest are dropped. */
+  public List<String> fitInOrder(List<String> items) {
+    List<String> kept = new ArrayList<>(items.size());
+    for (int i = 0; i < items.size(); i++) {
+      String item = items.get(i);
+      int cost = TokenEstimator.estimate(item);
+      if (cost <= remaining()) {
+        kept.add(item);
+        used += cost;
+        continue;
+      }
+      trimmed = true;
+      if (remaining() >= MIN_PARTIAL_TOKENS) {
+        String cut = TokenEstimator.truncate(item, remaining());
+        kept.add(cut);
+        used += TokenEstimator.estimate(cut);
+      } else {
+        dropped++;
+      }
+      dropped += items.size() - i - 1;
+      break;
+    }
+    return kept;
+  }
+
+  public int remaining() {
+    return Math.max(0, limit - used);
+  }
+
+  public int used() {
+    return used;
+  }
+
+  public int dropped() {
+    return dropped;
+  }
+
+  public boolean trimmed() {
+    return trimmed;
+  }
+}
@@ -3,6 +3,9 @@ package com.nby.agent.config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class PromptTemplates {
   private static final Logger logger = LoggerFactory.getLogger(PromptTemplates.class);
 
@@ -46,4 +49,32 @@ public class PromptTemplates {
     logger.debug("User prompt generated, total length: {} characters", prompt.length());
     return prompt;
   }
+
+  /** A user prompt sized to the context budget, with its estimated size (system prompt included). */
+  public record FittedPrompt(String user, int tokens, boolean trimmed, int droppedChunks) {}
+
+  /**
+   * Builds the case prompt within the context budget. The system prompt and template come first, then
+   * the case text, then RAG chunks in score order. The lowest-scored chunks go first when space runs
+   * short; the case description is only cut once no chunk fits at all.
+   */
+  public static FittedPrompt fitUserPrompt(String system, String caseSubject, String caseDescription,
+                                           List<String> ragChunks, int answerTokens) {
+    PromptBudget budget = PromptBudget.forAnswer(answerTokens)
+        .reserve(system)
+        .reserve(userPrompt(caseSubject, "", ""));
+    String desc = budget.fit(caseDescription);
+
+    List<String> numbered = new ArrayList<>(ragChunks.size());
+    for (int i = 0; i < ragChunks.size(); i++) {
+      numbered.add((i + 1) + ") " + ragChunks.get(i) + "\n\n");
+    }
+    String ragContext = String.join("", budget.fitInOrder(numbered));
+
+    if (budget.trimmed()) {
+      logger.info("Prompt trimmed to ~{} tokens: description {} -> {} chars, {} of {} RAG chunks dropped",
+          budget.used(), caseDescription == null ? 0 : caseDescription.length(), desc.length(), budget.dropped(), ragChunks.size());
+    }
+    return new FittedPrompt(userPrompt(caseSubject, desc, ragContext), budget.used(), budget.trimmed(), budget.dropped());
+  }
 }
@@ -0,0 +1,75 @@
+package com.nby.agent.config;
+
+/**
+ * Local token count estimate for Llama-3-class BPE tokenizers, so prompts can be sized without a
+ * round trip to the model. Text is split into runs of one character class, and each run costs
+ * {@code ceil(length / charsPerToken)}. Rough calibration: English words about 4 characters per
+ * token, Hebrew about 2 (the vocabulary has few Hebrew merges), digits 3 (numbers are split into
+ * groups of up to three), and every punctuation or other symbol its own token. Spaces merge into
+ * the following word; a run of line breaks costs one token. Estimates lean slightly high, which is
+ * the safe side for fitting a context window.
+ */
+public final class TokenEstimator {
+
+  private static final int OTHER = 0, SPACE = 1, NEWLINE = 2, LATIN = 3, HEBREW = 4, DIGIT = 5;
+  // characters per token for each class above
+  private static final double[] CHARS_PER_TOKEN = {1, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, 4, 2, 3};
+
+  private TokenEstimator() {}
+
+  public static int estimate(String s) {
+    if (s == null || s.isEmpty()) return 0;
+    int tokens = 0;
+    int i = 0;
+    while (i < s.length()) {
+      int cls = classOf(s.charAt(i));
+      int end = runEnd(s, i, cls);
+      tokens += runTokens(cls, end - i);
+      i = end;
+    }
+    return tokens;
+  }
+
+  /** Longest prefix of {@code s} whose estimate fits in {@code maxTokens}. */
+  public static String truncate(String s, int maxTokens) {
+    if (s == null || maxTokens <= 0) return "";
+    int tokens = 0;
+    int i = 0;
+    while (i < s.length()) {
+      int cls = classOf(s.charAt(i));
+      int end = runEnd(s, i, cls);
+      int cost = runTokens(cls, end - i);
+      if (tokens + cost > maxTokens) {
+        int fits = (int) Math.floor((maxTokens - tokens) * CHARS_PER_TOKEN[cls]);
+        int cut = i + Math.max(0, Math.min(end - i, fits));
+        // don't split a surrogate pair
+        if (cut > 0 && cut < s.length() && Character.isHighSurrogate(s.charAt(cut - 1))) cut--;
+        return s.substring(0, cut);
+      }
+      tokens += cost;
+      i = end;
+    }
+    return s;
+  }
+
+  private static int runEnd(String s, int start, int cls) {
+    int j = start + 1;
+    while (j < s.length() && cls != OTHER && classOf(s.charAt(j)) == cls) j++;
+    return j;
+  }
+
+  private static int runTokens(int cls, int length) {
+    if (cls == SPACE) return 0;
+    if (cls == NEWLINE) return 1;
+    return (int) Math.ceil(length / CHARS_PER_TOKEN[cls]);
+  }
+
+  private static int classOf(char c) {
+    if (c == '\n' || c == '\r') return NEWLINE;
+    if (Character.isWhitespace(c)) return SPACE;
+    if (c >= '\u0590' && c <= '\u05FF') return HEBREW;
+    if (c >= '0' && c <= '9') return DIGIT;
+    if (Character.isLetter(c)) return LATIN;
+    return OTHER;
+  }
+}
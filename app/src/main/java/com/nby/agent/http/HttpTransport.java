@@ -0,0 +1,119 @@
+package com.nby.agent.http;
+
+import com.nby.agent.metrics.MetricsService;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+
+/**
+ * One pooled, keep-alive HTTP client shared by every outbound integration (LLM, Qdrant, Salesforce).
+ * Connections are pooled per host (route) and reused across calls, so TLS/TCP handshakes are paid once
+ * per connection rather than once per request. Each caller gets its own {@link RestTemplate} with a
+ * response timeout suited to its workload, but all of them draw from the same pool.
+ * With HTTP_TAPE_MODE set, every template also records to or replays from a {@link TrafficTape}.
+ */
+@Component
+public class HttpTransport implements DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(HttpTransport.class);
+
+  private final int maxPerRoute = Integer.parseInt(System.getenv().getOrDefault("HTTP_POOL_MAX_PER_ROUTE", String.valueOf(defaultMaxPerRoute())));
+  // room for Qdrant and Salesforce on top of a fully loaded LLM route
+  private final int maxTotal = Integer.parseInt(System.getenv().getOrDefault("HTTP_POOL_MAX_TOTAL", String.valueOf(Math.max(100, maxPerRoute + 20))));
+  private final long connectTimeoutMs = Long.parseLong(System.getenv().getOrDefault("HTTP_CONNECT_TIMEOUT_MS","5000"));
+  private final long poolWaitMs = Long.parseLong(System.getenv().getOrDefault("HTTP_POOL_WAIT_MS","10000"));
+  private final long idleEvictSeconds = Long.parseLong(System.getenv().getOrDefault("HTTP_POOL_IDLE_SECONDS","30"));
+
+  private final PoolingHttpClientConnectionManager pool;
+  private final CloseableHttpClient client;
+  private final TrafficTape tape;
+
+  @Autowired
+  public HttpTransport(MetricsService metrics) {
+    this(metrics, TrafficTape.fromEnv());
+  }
+
+  HttpTransport(MetricsService metrics, TrafficTape tape) {
+    this.tape = tape;
+    this.pool = PoolingHttpClientConnectionManagerBuilder.create()
+        .setMaxConnTotal(maxTotal)
+        .setMaxConnPerRoute(maxPerRoute)
+        .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+        .setDefaultConnectionConfig(ConnectionConfig.custom()
+            .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+            // re-check sockets that sat idle, so a server-side close is not seen as a request failure
+            .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+            .build())
+        .build();
+    this.client = HttpClients.custom()
+        .setConnectionManager(pool)
+        .evictExpiredConnections()
+        .evictIdleConnections(TimeValue.ofSeconds(idleEvictSeconds))
+        .disableCookieManagement()
+        .build();
+    metrics.bindHttpPool(pool);
+    logger.info("HTTP transport initialized: maxTotal={}, maxPerRoute={}, connectTimeout={}ms", maxTotal, maxPerRoute, connectTimeoutMs);
+  }
+
+  /** A RestTemplate over the shared pool that gives up on a response after {@code readTimeout}. */
+  public RestTemplate restTemplate(Duration readTimeout) {
+    HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(client) {
+      @Override
+      protected RequestConfig mergeRequestConfig(RequestConfig defaultConfig) {
+        return RequestConfig.copy(super.mergeRequestConfig(defaultConfig))
+            .setResponseTimeout(Timeout.of(readTimeout))
+            .build();
+      }
+    };
+    factory.setConnectionRequestTimeout(Duration.ofMillis(poolWaitMs));
+    RestTemplate template = new RestTemplate(factory);
+    if (tape.mode() != TrafficTape.Mode.OFF) template.getInterceptors().add(tape);
+    return template;
+  }
+
+  /**
+   * Per-route default: 20, or what the LLM route can hold at once if that is more. The embed and chat
+   * limiters (LLM_LIMIT_MAX each) share one Ollama or OpenAI route, SSE streams keep their connection
+   * for the whole answer, and with LLM_HEDGE_ENABLED duplicates add up to LLM_HEDGE_BUDGET_PERCENT
+   * more. A smaller pool makes callers time out waiting for a connection, which the AIMD limiter
+   * would read as the model being overloaded.
+   */
+  static int defaultMaxPerRoute() {
+    return llmMaxPerRoute(
+        Boolean.parseBoolean(setting("LLM_LIMITER_ENABLED", "false")) ? Integer.parseInt(setting("LLM_LIMIT_MAX", "32")) : 0,
+        Boolean.parseBoolean(setting("LLM_HEDGE_ENABLED", "false")) ? Double.parseDouble(setting("LLM_HEDGE_BUDGET_PERCENT", "10")) : 0);
+  }
+
+  static int llmMaxPerRoute(int limitMax, double hedgeBudgetPercent) {
+    return Math.max(20, (int) Math.ceil(2 * limitMax * (1 + hedgeBudgetPercent / 100.0)));
+  }
+
+  private static String setting(String key, String def) {
+    return System.getProperty(key, System.getenv().getOrDefault(key, def));
+  }
+
+  /** Reads a timeout in milliseconds from the environment, for callers picking their own read timeout. */
+  public static Duration timeout(String envKey, long defaultMs) {
+    return Duration.ofMillis(Long.parseLong(System.getenv().getOrDefault(envKey, String.valueOf(defaultMs))));
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    tape.close();
+    client.close();
+  }
+}
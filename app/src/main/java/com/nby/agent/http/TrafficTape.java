@@ -0,0 +1,348 @@
+package com.nby.agent.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records outbound HTTP exchanges (LLM, Qdrant, Salesforce) to a compact gzip file and replays them
+ * later, so two builds can be compared on the same traffic without live services.
+ * <p>
+ * Each record holds the method, URI, SHA-256 of the request body, status, content type, time to
+ * first byte, total time and the response body. Request headers and bodies are never written, so
+ * credentials sent to Salesforce stay out of the file. Response bodies are written, and those include
+ * access tokens, so treat a tape as a secret.
+ * <p>
+ * Replay matches on method + URI + body hash. If nothing matches, it falls back to method + URI,
+ * because some bodies (random point ids) differ between runs. Repeated requests cycle through their
+ * recordings in order. With {@code paced} set, replay waits out the recorded time to first byte and
+ * then releases the body at the recorded rate, so streams keep their token cadence.
+ */
+public class TrafficTape implements ClientHttpRequestInterceptor, Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(TrafficTape.class);
+
+  public enum Mode { OFF, RECORD, REPLAY }
+
+  record Exchange(String method, String uri, String bodyHash, int status, String contentType,
+                  long firstByteNanos, long totalNanos, byte[] body) {}
+
+  /** Recordings for one key, handed out in order and then from the start again. */
+  private static final class Reel {
+    final List<Exchange> exchanges = new ArrayList<>();
+    final AtomicInteger next = new AtomicInteger();
+
+    Exchange take() {
+      return exchanges.get(Math.floorMod(next.getAndIncrement(), exchanges.size()));
+    }
+  }
+
+  private final Mode mode;
+  private final Path file;
+  private final boolean paced;
+  private DataOutputStream out;
+  private final Map<String, Reel> exact = new ConcurrentHashMap<>();
+  private final Map<String, Reel> loose = new ConcurrentHashMap<>();
+
+  public TrafficTape(Mode mode, Path file, boolean paced) {
+    this.mode = mode;
+    this.file = file;
+    this.paced = paced;
+    try {
+      if (mode == Mode.RECORD) {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        // sync-flush after every record keeps the file readable if the process dies mid-run
+        out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(file)), true));
+        logger.info("Recording outbound HTTP traffic to {}", file);
+      } else if (mode == Mode.REPLAY) {
+        int n = load();
+        logger.info("Replaying {} recorded HTTP exchanges from {} (paced={})", n, file, paced);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot open traffic tape " + file, e);
+    }
+  }
+
+  /** HTTP_TAPE_MODE=off|record|replay, HTTP_TAPE_FILE, HTTP_TAPE_PACED. */
+  public static TrafficTape fromEnv() {
+    Mode mode = Mode.valueOf(System.getenv().getOrDefault("HTTP_TAPE_MODE", "off").trim().toUpperCase());
+    Path file = Path.of(System.getenv().getOrDefault("HTTP_TAPE_FILE", "/data/app/traffic.tape"));
+    boolean paced = Boolean.parseBoolean(System.getenv().getOrDefault("HTTP_TAPE_PACED", "true"));
+    return new TrafficTape(mode, file, paced);
+  }
+
+  public Mode mode() {
+    return mode;
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+    String method = request.getMethod().name();
+    String uri = request.getURI().toString();
+    String hash = sha256(body);
+    if (mode == Mode.REPLAY) {
+      return replay(method, uri, hash);
+    }
+    long start = System.nanoTime();
+    ClientHttpResponse response = execution.execute(request, body);
+    if (mode != Mode.RECORD) return response;
+    return new RecordingResponse(response, method, uri, hash, start, System.nanoTime() - start);
+  }
+
+  /* ---------- recording ---------- */
+
+  private synchronized void write(Exchange e) {
+    try {
+      out.writeUTF(e.method());
+      out.writeUTF(e.uri());
+      out.writeUTF(e.bodyHash());
+      out.writeShort(e.status());
+      out.writeUTF(e.contentType());
+      out.writeLong(e.firstByteNanos());
+      out.writeLong(e.totalNanos());
+      out.writeInt(e.body().length);
+      out.write(e.body());
+      out.flush();
+    } catch (IOException ex) {
+      logger.warn("Failed to record {} {}: {}", e.method(), e.uri(), ex.getMessage());
+    }
+  }
+
+  /** Passes the body through to the caller while copying it, and writes the record once the body is closed. */
+  private final class RecordingResponse implements ClientHttpResponse {
+    private final ClientHttpResponse delegate;
+    private final String method, uri, hash;
+    private final long start, firstByteNanos;
+    private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    private final AtomicBoolean written = new AtomicBoolean();
+    private InputStream body;
+
+    RecordingResponse(ClientHttpResponse delegate, String method, String uri, String hash, long start, long firstByteNanos) {
+      this.delegate = delegate;
+      this.method = method;
+      this.uri = uri;
+      this.hash = hash;
+      this.start = start;
+      this.firstByteNanos = firstByteNanos;
+    }
+
+    @Override
+    public HttpStatusCode getStatusCode() throws IOException {
+      return delegate.getStatusCode();
+    }
+
+    @Override
+    public String getStatusText() throws IOException {
+      return delegate.getStatusText();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return delegate.getHeaders();
+    }
+
+    @Override
+    public synchronized InputStream getBody() throws IOException {
+      if (body == null) {
+        InputStream in = delegate.getBody();
+        body = new FilterInputStream(in) {
+          @Override
+          public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) copy.write(b);
+            return b;
+          }
+
+          @Override
+          public int read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0) copy.write(buf, off, n);
+            return n;
+          }
+
+          @Override
+          public void close() throws IOException {
+            finish();
+            super.close();
+          }
+        };
+      }
+      return body;
+    }
+
+    @Override
+    public void close() {
+      finish();
+      delegate.close();
+    }
+
+    private void finish() {
+      if (!written.compareAndSet(false, true)) return;
+      try {
+        String type = String.valueOf(delegate.getHeaders().getContentType());
+        write(new Exchange(method, uri, hash, delegate.getStatusCode().value(), type,
+            firstByteNanos, System.nanoTime() - start, copy.toByteArray()));
+      } catch (IOException e) {
+        logger.warn("Failed to record {} {}: {}", method, uri, e.getMessage());
+      }
+    }
+  }
+
+  /* ---------- replay ---------- */
+
+  private int load() throws IOException {
+    int count = 0;
+    try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file))))) {
+      while (true) {
+        Exchange e;
+        try {
+          String method = in.readUTF();
+          String uri = in.readUTF();
+          String hash = in.readUTF();
+          int status = in.readUnsignedShort();
+          String type = in.readUTF();
+          long firstByte = in.readLong();
+          long total = in.readLong();
+          byte[] body = new byte[in.readInt()];
+          in.readFully(body);
+          e = new Exchange(method, uri, hash, status, type, firstByte, total, body);
+        } catch (EOFException end) {
+          break; // end of tape, or a recording cut short without the gzip trailer
+        }
+        exact.computeIfAbsent(e.method() + " " + e.uri() + " " + e.bodyHash(), k -> new Reel()).exchanges.add(e);
+        loose.computeIfAbsent(e.method() + " " + e.uri(), k -> new Reel()).exchanges.add(e);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private ClientHttpResponse replay(String method, String uri, String hash) throws IOException {
+    Reel reel = exact.get(method + " " + uri + " " + hash);
+    if (reel == null) reel = loose.get(method + " " + uri);
+    if (reel == null) {
+      throw new IOException("No recorded response for " + method + " " + uri);
+    }
+    Exchange e = reel.take();
+    long start = System.nanoTime();
+    if (paced) sleepUntil(start + e.firstByteNanos());
+    return new ReplayedResponse(e, start);
+  }
+
+  private final class ReplayedResponse implements ClientHttpResponse {
+    private final Exchange exchange;
+    private final long start;
+    private final HttpHeaders headers = new HttpHeaders();
+
+    ReplayedResponse(Exchange exchange, long start) {
+      this.exchange = exchange;
+      this.start = start;
+      if (!"null".equals(exchange.contentType())) headers.set(HttpHeaders.CONTENT_TYPE, exchange.contentType());
+      headers.setContentLength(exchange.body().length);
+    }
+
+    @Override
+    public HttpStatusCode getStatusCode() {
+      return HttpStatusCode.valueOf(exchange.status());
+    }
+
+    @Override
+    public String getStatusText() {
+      return "";
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return headers;
+    }
+
+    @Override
+    public InputStream getBody() {
+      InputStream raw = new ByteArrayInputStream(exchange.body());
+      return paced ? new PacedInputStream(raw, exchange, start) : raw;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /** Releases the body linearly between the recorded first byte and the recorded end of the exchange. */
+  private static final class PacedInputStream extends FilterInputStream {
+    private static final int CHUNK = 256;
+    private final long firstAt;
+    private final long spanNanos;
+    private final int length;
+    private int pos;
+
+    PacedInputStream(InputStream in, Exchange e, long start) {
+      super(in);
+      this.firstAt = start + e.firstByteNanos();
+      this.spanNanos = Math.max(0, e.totalNanos() - e.firstByteNanos());
+      this.length = Math.max(1, e.body().length);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+      int n = Math.min(len, CHUNK);
+      sleepUntil(firstAt + spanNanos * Math.min(length, pos + n) / length);
+      int read = super.read(buf, off, n);
+      if (read > 0) pos += read;
+      return read;
+    }
+  }
+
+  private static void sleepUntil(long deadline) throws InterruptedIOException {
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted during paced replay");
+      }
+    }
+  }
+
+  private static String sha256(byte[] body) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+}
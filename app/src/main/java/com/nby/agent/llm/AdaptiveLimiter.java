@@ -0,0 +1,174 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * AIMD concurrency limit driven by observed latency.
+ * A call that fails, or takes longer than {@code tolerance} times the no-load baseline, shrinks the
+ * limit by 10%; a fast call made while the limit is in use grows it by 1/limit (about +1 per
+ * round of calls). Callers beyond the limit wait in a bounded queue. They are rejected at once
+ * when the queue is full, or after {@code queueTimeoutMs} if no slot frees up.
+ * <p>
+ * Calls differ in size (an embed batch of 64 texts, a chat answer of 500 tokens), so latency is
+ * compared per unit of work and against a baseline kept per power-of-two size class: a large batch
+ * is only "slow" next to other large batches, not next to single embeds.
+ */
+public class AdaptiveLimiter {
+  private static final Logger logger = LoggerFactory.getLogger(AdaptiveLimiter.class);
+
+  private final String provider;
+  private final String operation;
+  private final int minLimit;
+  private final int maxLimit;
+  private final int maxQueue;
+  private final long queueTimeoutMs;
+  private final double tolerance;
+  private final MetricsService metrics;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition slotFreed = lock.newCondition();
+  private double limit;
+  private int inFlight;
+  private int queued;
+  private final double[] baselineNanos = new double[Integer.SIZE]; // per unit, by size class
+
+  public AdaptiveLimiter(String provider, String operation, int initialLimit, int minLimit, int maxLimit,
+                         int maxQueue, long queueTimeoutMs, double tolerance, MetricsService metrics) {
+    this.provider = provider;
+    this.operation = operation;
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    this.maxQueue = Math.max(0, maxQueue);
+    this.queueTimeoutMs = queueTimeoutMs;
+    this.tolerance = tolerance;
+    this.metrics = metrics;
+    metrics.gaugeLlmLimiter(provider, operation, this::limit, this::inFlight, this::queued);
+  }
+
+  public <T> T call(Supplier<T> work) {
+    return call(work, r -> 1);
+  }
+
+  /** Runs {@code work}; {@code size} gives the units of work in its result (texts, output tokens). */
+  public <T> T call(Supplier<T> work, ToIntFunction<T> size) {
+    acquire();
+    long start = System.nanoTime();
+    boolean dropped = true;
+    boolean cancelled = false;
+    int units = 1;
+    try {
+      T result = work.get();
+      dropped = false;
+      units = Math.max(1, size.applyAsInt(result));
+      return result;
+    } catch (RuntimeException e) {
+      cancelled = LlmAsync.isCancellation(e);
+      throw e;
+    } finally {
+      if (cancelled) releaseUnmeasured();
+      else release(System.nanoTime() - start, units, dropped);
+    }
+  }
+
+  private void acquire() {
+    long waitStart = System.nanoTime();
+    lock.lock();
+    try {
+      if (inFlight < (int) limit) {
+        inFlight++;
+        metrics.recordLlmLimiterWait(provider, operation, 0);
+        return;
+      }
+      if (queued >= maxQueue) {
+        metrics.incLlmLimiterRejected(provider, operation);
+        throw new RejectedExecutionException(provider + " " + operation + " limit reached (" + inFlight + " in flight, " + queued + " queued)");
+      }
+      queued++;
+      try {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs);
+        while (inFlight >= (int) limit) {
+          if (remaining <= 0) {
+            metrics.incLlmLimiterRejected(provider, operation);
+            throw new RejectedExecutionException(provider + " " + operation + " queue wait exceeded " + queueTimeoutMs + "ms");
+          }
+          remaining = slotFreed.awaitNanos(remaining);
+        }
+        inFlight++;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("Interrupted while waiting for " + provider + " " + operation, e);
+      } finally {
+        queued--;
+      }
+      metrics.recordLlmLimiterWait(provider, operation, System.nanoTime() - waitStart);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void release(long rttNanos, int units, boolean dropped) {
+    lock.lock();
+    try {
+      boolean saturated = inFlight >= (int) limit / 2;
+      inFlight--;
+      boolean slow = false;
+      if (!dropped) {
+        int sizeClass = 31 - Integer.numberOfLeadingZeros(units);
+        double perUnit = (double) rttNanos / units;
+        double baseline = baselineNanos[sizeClass];
+        if (baseline == 0 || perUnit < baseline) baselineNanos[sizeClass] = perUnit;
+        else baselineNanos[sizeClass] += (perUnit - baseline) * 0.01; // let the baseline follow sustained shifts slowly
+        slow = baseline > 0 && perUnit > baseline * tolerance;
+      }
+
+      double before = limit;
+      if (dropped || slow) {
+        limit = Math.max(minLimit, limit * 0.9);
+      } else if (saturated) {
+        limit = Math.min(maxLimit, limit + 1.0 / limit);
+      }
+      if ((int) before != (int) limit) {
+        logger.debug("{} {} concurrency limit {} -> {}", provider, operation, (int) before, (int) limit);
+      }
+      slotFreed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Frees the slot of a call its caller abandoned; its latency says nothing about load. */
+  private void releaseUnmeasured() {
+    lock.lock();
+    try {
+      inFlight--;
+      slotFreed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int limit() {
+    lock.lock();
+    try { return (int) limit; } finally { lock.unlock(); }
+  }
+
+  public int inFlight() {
+    lock.lock();
+    try { return inFlight; } finally { lock.unlock(); }
+  }
+
+  public int queued() {
+    lock.lock();
+    try { return queued; } finally { lock.unlock(); }
+  }
+}
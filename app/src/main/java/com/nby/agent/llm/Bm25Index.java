@@ -0,0 +1,540 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process BM25 index over chunk text, for the exact product codes, error numbers and field names
+ * that vector search ranks poorly. It is fed by {@link #tee}, so it sees the same upserts and deletes as
+ * Qdrant on every ingest path. Each term's postings are one byte array of varint (doc-id delta, term
+ * frequency) pairs; deleted chunks are tombstoned until the next compaction. {@link #save} writes the
+ * index to BM25_INDEX_PATH and the constructor loads it back. The header carries the manifest
+ * generation the index was saved for, so a file left behind by a crash between saving it and
+ * committing the manifest is detected and rebuilt rather than trusted.
+ */
+class Bm25Index {
+  private static final Logger logger = LoggerFactory.getLogger(Bm25Index.class);
+
+  private static final int MAGIC = 0x424d3235; // "BM25"
+  private static final int VERSION = 2;
+  private static final String HEBREW_PREFIXES = "והבכלמש";
+
+  /** A chunk as stored in the index; its fields become the payload of a BM25 hit. */
+  private record Doc(String pointId, String sourceId, String contentHash, String name, String sourceType, String uri,
+                     int chunkIndex, String text, int length) {}
+
+  /** Postings of one term: (doc id - previous doc id, term frequency) varint pairs in doc id order. */
+  private static final class Postings {
+    byte[] data = new byte[8];
+    int size;
+    int lastDoc;
+    int count;
+
+    void add(int doc, int tf) {
+      if (data.length - size < 10) data = Arrays.copyOf(data, data.length * 2);
+      size = putVarint(data, size, doc - lastDoc);
+      size = putVarint(data, size, tf);
+      lastDoc = doc;
+      count++;
+    }
+  }
+
+  private final Path file;
+  private final double k1;
+  private final double b;
+  private final MetricsService metrics;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final List<Doc> docs = new ArrayList<>();
+  private final BitSet deleted = new BitSet();
+  private final Map<String, Integer> byPoint = new HashMap<>();
+  private final Map<String, List<Integer>> bySource = new HashMap<>();
+  private final Map<String, Postings> terms = new HashMap<>();
+  private int live;
+  private long liveLength;
+  private long manifestGeneration;
+  private boolean dirty;
+
+  Bm25Index(Path file, double k1, double b, MetricsService metrics) {
+    this.file = file;
+    this.k1 = k1;
+    this.b = b;
+    this.metrics = metrics;
+    load();
+    metrics.gaugeBm25(this::size, this::termCount);
+  }
+
+  static Bm25Index fromEnv(MetricsService metrics) {
+    return new Bm25Index(
+        Paths.get(System.getenv().getOrDefault("BM25_INDEX_PATH", "/data/app/bm25.idx")),
+        Double.parseDouble(System.getenv().getOrDefault("BM25_K1", "1.2")),
+        Double.parseDouble(System.getenv().getOrDefault("BM25_B", "0.75")),
+        metrics);
+  }
+
+  /** Live (not deleted) chunks. */
+  int size() {
+    lock.readLock().lock();
+    try {
+      return live;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  int termCount() {
+    lock.readLock().lock();
+    try {
+      return terms.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** The manifest generation this index was last saved for, 0 when it was never saved. */
+  long manifestGeneration() {
+    lock.readLock().lock();
+    try {
+      return manifestGeneration;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Stamps the manifest generation the next {@link #save} commits; call it before the manifest is written. */
+  void setManifestGeneration(long generation) {
+    lock.writeLock().lock();
+    try {
+      if (generation != manifestGeneration) dirty = true;
+      manifestGeneration = generation;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Indexes the text of {@code points}; a point id that is already indexed is replaced. */
+  void add(List<RagService.QPoint> points) {
+    lock.writeLock().lock();
+    try {
+      for (RagService.QPoint p : points) {
+        Map<String, Object> pl = p.payload();
+        if (pl == null || pl.get("text") == null) continue;
+        Integer old = byPoint.get(p.id());
+        if (old != null) delete(old);
+        String text = String.valueOf(pl.get("text"));
+        List<String> tokens = tokenize(text);
+        Map<String, Integer> tf = new HashMap<>();
+        for (String t : tokens) tf.merge(t, 1, Integer::sum);
+        int id = docs.size();
+        docs.add(new Doc(p.id(), str(pl.get("source_id")), str(pl.get("content_hash")), str(pl.get("name")),
+            str(pl.get("source_type")), str(pl.get("uri")), pl.get("chunk_index") instanceof Number n ? n.intValue() : 0,
+            text, tokens.size()));
+        for (Map.Entry<String, Integer> e : tf.entrySet()) terms.computeIfAbsent(e.getKey(), k -> new Postings()).add(id, e.getValue());
+        byPoint.put(p.id(), id);
+        bySource.computeIfAbsent(docs.get(id).sourceId(), k -> new ArrayList<>()).add(id);
+        live++;
+        liveLength += tokens.size();
+        dirty = true;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Same contract as {@link VectorStore#deleteBySource}. */
+  void deleteBySource(String sourceId, String keepContentHash) {
+    lock.writeLock().lock();
+    try {
+      List<Integer> ids = bySource.get(sourceId);
+      if (ids == null) return;
+      ids.removeIf(id -> {
+        if (deleted.get(id)) return true;
+        if (keepContentHash != null && keepContentHash.equals(docs.get(id).contentHash())) return false;
+        delete(id);
+        return true;
+      });
+      if (ids.isEmpty()) bySource.remove(sourceId);
+      if (deleted.cardinality() > 1024 && deleted.cardinality() > live / 4) compact();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void delete(int id) {
+    if (deleted.get(id)) return;
+    Doc d = docs.get(id);
+    deleted.set(id);
+    live--;
+    liveLength -= d.length();
+    byPoint.remove(d.pointId(), id);
+    dirty = true;
+  }
+
+  /** The {@code limit} best chunks for {@code query} by Okapi BM25, as hits with the same payload keys as Qdrant's. */
+  List<VectorStore.Hit> search(String query, int limit) {
+    long t = System.nanoTime();
+    lock.readLock().lock();
+    try {
+      if (live == 0 || limit <= 0) return List.of();
+      double avgdl = Math.max(1.0, (double) liveLength / live);
+      Map<Integer, Double> scores = new HashMap<>();
+      int[] pair = new int[2];
+      for (String term : new LinkedHashSet<>(tokenize(query))) {
+        Postings p = terms.get(term);
+        if (p == null) continue;
+        int df = 0;
+        List<int[]> matches = new ArrayList<>(p.count);
+        int doc = 0;
+        for (int pos = 0; pos < p.size; ) {
+          pos = getVarint(p.data, pos, pair, 0);
+          pos = getVarint(p.data, pos, pair, 1);
+          doc += pair[0];
+          if (deleted.get(doc)) continue;
+          df++;
+          matches.add(new int[]{doc, pair[1]});
+        }
+        if (df == 0) continue;
+        double idf = Math.log(1 + (live - df + 0.5) / (df + 0.5));
+        for (int[] m : matches) {
+          double tf = m[1];
+          double norm = k1 * (1 - b + b * docs.get(m[0]).length() / avgdl);
+          scores.merge(m[0], idf * tf * (k1 + 1) / (tf + norm), Double::sum);
+        }
+      }
+      PriorityQueue<Map.Entry<Integer, Double>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+      for (Map.Entry<Integer, Double> e : scores.entrySet()) {
+        top.add(e);
+        if (top.size() > limit) top.poll();
+      }
+      List<VectorStore.Hit> out = new ArrayList<>(top.size());
+      while (!top.isEmpty()) {
+        Map.Entry<Integer, Double> e = top.poll();
+        out.add(new VectorStore.Hit(e.getValue(), payload(docs.get(e.getKey()))));
+      }
+      Collections.reverse(out);
+      return out;
+    } finally {
+      lock.readLock().unlock();
+      metrics.recordBm25Search(System.nanoTime() - t);
+    }
+  }
+
+  private static Map<String, Object> payload(Doc d) {
+    Map<String, Object> pl = new HashMap<>();
+    pl.put("text", d.text());
+    pl.put("source_id", d.sourceId());
+    pl.put("name", d.name());
+    pl.put("source_type", d.sourceType());
+    if (d.uri() != null) pl.put("uri", d.uri());
+    pl.put("chunk_index", d.chunkIndex());
+    pl.put("content_hash", d.contentHash());
+    return pl;
+  }
+
+  /** Drops tombstoned chunks and renumbers the rest; doc order, and so postings order, is kept. */
+  private void compact() {
+    int[] remap = new int[docs.size()];
+    List<Doc> kept = new ArrayList<>(live);
+    for (int i = 0; i < docs.size(); i++) {
+      if (deleted.get(i)) {
+        remap[i] = -1;
+      } else {
+        remap[i] = kept.size();
+        kept.add(docs.get(i));
+      }
+    }
+    int[] pair = new int[2];
+    for (Iterator<Postings> it = terms.values().iterator(); it.hasNext(); ) {
+      Postings p = it.next();
+      Postings q = new Postings();
+      int doc = 0;
+      for (int pos = 0; pos < p.size; ) {
+        pos = getVarint(p.data, pos, pair, 0);
+        pos = getVarint(p.data, pos, pair, 1);
+        doc += pair[0];
+        if (remap[doc] >= 0) q.add(remap[doc], pair[1]);
+      }
+      if (q.count == 0) {
+        it.remove();
+      } else {
+        p.data = q.data;
+        p.size = q.size;
+        p.lastDoc = q.lastDoc;
+        p.count = q.count;
+      }
+    }
+    docs.clear();
+    docs.addAll(kept);
+    deleted.clear();
+    reindexDocs();
+    logger.debug("Compacted BM25 index to {} chunks, {} terms", live, terms.size());
+  }
+
+  private void reindexDocs() {
+    byPoint.clear();
+    bySource.clear();
+    live = 0;
+    liveLength = 0;
+    for (int i = 0; i < docs.size(); i++) {
+      if (deleted.get(i)) continue;
+      Doc d = docs.get(i);
+      byPoint.put(d.pointId(), i);
+      bySource.computeIfAbsent(d.sourceId(), k -> new ArrayList<>()).add(i);
+      live++;
+      liveLength += d.length();
+    }
+  }
+
+  /** Writes the index (compacted) to BM25_INDEX_PATH if it changed; the file is replaced atomically. */
+  void save() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (!dirty) return;
+      if (!deleted.isEmpty()) compact();
+      Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      if (file.getParent() != null) Files.createDirectories(file.getParent());
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(manifestGeneration);
+        out.writeInt(docs.size());
+        for (Doc d : docs) {
+          writeString(out, d.pointId());
+          writeString(out, d.sourceId());
+          writeString(out, d.contentHash());
+          writeString(out, d.name());
+          writeString(out, d.sourceType());
+          writeString(out, d.uri());
+          out.writeInt(d.chunkIndex());
+          writeString(out, d.text());
+          out.writeInt(d.length());
+        }
+        out.writeInt(terms.size());
+        for (Map.Entry<String, Postings> e : terms.entrySet()) {
+          Postings p = e.getValue();
+          writeString(out, e.getKey());
+          out.writeInt(p.count);
+          out.writeInt(p.lastDoc);
+          out.writeInt(p.size);
+          out.write(p.data, 0, p.size);
+        }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      dirty = false;
+      logger.info("Saved BM25 index: {} chunks, {} terms to {}", live, terms.size(), file);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Loads BM25_INDEX_PATH if present; an unreadable file leaves the index empty so the bootstrap rebuilds it. */
+  private void load() {
+    if (!Files.isRegularFile(file)) return;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("not a BM25 index file (version " + VERSION + ")");
+      long generation = in.readLong();
+      int n = in.readInt();
+      for (int i = 0; i < n; i++) {
+        docs.add(new Doc(readString(in), readString(in), readString(in), readString(in), readString(in), readString(in),
+            in.readInt(), readString(in), in.readInt()));
+      }
+      int termCount = in.readInt();
+      for (int i = 0; i < termCount; i++) {
+        String term = readString(in);
+        Postings p = new Postings();
+        p.count = in.readInt();
+        p.lastDoc = in.readInt();
+        p.size = in.readInt();
+        p.data = new byte[Math.max(8, p.size)];
+        in.readFully(p.data, 0, p.size);
+        terms.put(term, p);
+      }
+      reindexDocs();
+      manifestGeneration = generation;
+      logger.info("Loaded BM25 index: {} chunks, {} terms from {}", live, terms.size(), file);
+    } catch (IOException e) {
+      logger.warn("Ignoring unreadable BM25 index {}: {}", file, e.getMessage());
+      docs.clear();
+      terms.clear();
+      reindexDocs();
+      manifestGeneration = 0;
+    }
+  }
+
+  /**
+   * Lower-cased terms of {@code text}. Runs of letters and digits joined by {@code - _ . : /} (product
+   * codes, error numbers, {@code Account.Owner__c}) yield the whole run and its parts. Hebrew words lose
+   * niqqud and geresh/gershayim, final letters are folded (ם→מ ...), and up to two leading prefix
+   * letters (ו ה ב כ ל מ ש) are also indexed stripped, so בבית and הבית both match בית.
+   */
+  static List<String> tokenize(String text) {
+    List<String> out = new ArrayList<>();
+    StringBuilder run = new StringBuilder();
+    int n = text.length();
+    for (int i = 0; i <= n; i++) {
+      char c = i < n ? text.charAt(i) : ' ';
+      if (isHebrewMark(c)) continue;
+      boolean inRun = run.length() > 0;
+      boolean hebrewQuote = (c == '"' || c == '\'' || c == '׳' || c == '״')
+          && inRun && isHebrewLetter(run.charAt(run.length() - 1)) && i + 1 < n && isHebrewLetter(text.charAt(i + 1));
+      if (hebrewQuote) continue;
+      if (Character.isLetterOrDigit(c) || (inRun && "-_.:/".indexOf(c) >= 0)) {
+        run.append(foldFinal(Character.toLowerCase(c)));
+      } else if (inRun) {
+        emitRun(run, out);
+        run.setLength(0);
+      }
+    }
+    return out;
+  }
+
+  private static void emitRun(StringBuilder run, List<String> out) {
+    int end = run.length();
+    while (end > 0 && "-_.:/".indexOf(run.charAt(end - 1)) >= 0) end--;
+    if (end == 0) return;
+    String whole = run.substring(0, end);
+    int parts = 0;
+    int start = 0;
+    for (int i = 0; i <= whole.length(); i++) {
+      if (i == whole.length() || "-_.:/".indexOf(whole.charAt(i)) >= 0) {
+        if (i > start) {
+          emitWord(whole.substring(start, i), out);
+          parts++;
+        }
+        start = i + 1;
+      }
+    }
+    if (parts > 1) out.add(whole);
+  }
+
+  private static void emitWord(String word, List<String> out) {
+    out.add(word);
+    String w = word;
+    for (int strip = 0; strip < 2 && w.length() > 3 && HEBREW_PREFIXES.indexOf(w.charAt(0)) >= 0; strip++) {
+      w = w.substring(1);
+      out.add(w);
+    }
+  }
+
+  private static boolean isHebrewLetter(char c) {
+    return c >= 'א' && c <= 'ת';
+  }
+
+  /** Niqqud and cantillation marks, which are dropped without breaking the word. */
+  private static boolean isHebrewMark(char c) {
+    return c >= '֑' && c <= 'ׇ' && c != '־' && c != '׀' && c != '׃' && c != '׆';
+  }
+
+  private static char foldFinal(char c) {
+    return switch (c) {
+      case 'ך' -> 'כ';
+      case 'ם' -> 'מ';
+      case 'ן' -> 'נ';
+      case 'ף' -> 'פ';
+      case 'ץ' -> 'צ';
+      default -> c;
+    };
+  }
+
+  /** Wraps {@code qdrant} so every upsert and delete that reaches it is also applied to this index, and flushes save it. */
+  VectorStore tee(VectorStore qdrant) {
+    return new VectorStore() {
+      @Override
+      public List<Hit> search(float[] vector, int limit) throws Exception {
+        return qdrant.search(vector, limit);
+      }
+
+      @Override
+      public void upsert(List<RagService.QPoint> points, boolean wait) throws Exception {
+        qdrant.upsert(points, wait);
+        add(points);
+      }
+
+      @Override
+      public void deleteBySource(String sourceId, String keepContentHash) throws Exception {
+        qdrant.deleteBySource(sourceId, keepContentHash);
+        Bm25Index.this.deleteBySource(sourceId, keepContentHash);
+      }
+
+      @Override
+      public void deleteUnversioned() throws Exception {
+        // every chunk the index holds came through tee with a content_hash
+        qdrant.deleteUnversioned();
+      }
+
+      @Override
+      public long count() throws Exception {
+        return qdrant.count();
+      }
+
+      @Override
+      public void flush() throws Exception {
+        qdrant.flush();
+        save();
+      }
+
+      @Override
+      public void close() {
+        qdrant.close();
+        try {
+          save();
+        } catch (IOException e) {
+          logger.warn("Failed to save BM25 index on shutdown: {}", e.getMessage());
+        }
+      }
+    };
+  }
+
+  private static String str(Object o) {
+    return o == null ? null : String.valueOf(o);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int len = in.readInt();
+    if (len < 0) return null;
+    byte[] bytes = new byte[len];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int putVarint(byte[] buf, int pos, int v) {
+    while ((v & ~0x7F) != 0) {
+      buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    buf[pos++] = (byte) v;
+    return pos;
+  }
+
+  private static int getVarint(byte[] buf, int pos, int[] out, int slot) {
+    int v = 0;
+    int shift = 0;
+    byte x;
+    do {
+      x = buf[pos++];
+      v |= (x & 0x7F) << shift;
+      shift += 7;
+    } while (x < 0);
+    out[slot] = v;
+    return pos;
+  }
+}
@@ -0,0 +1,79 @@
+package com.nby.agent.llm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/** Serves embeddings from {@link EmbeddingCache} and only sends misses to the wrapped provider. */
+public class CachingLlmProvider implements LlmProvider {
+  private static final Logger logger = LoggerFactory.getLogger(CachingLlmProvider.class);
+
+  private final LlmProvider delegate;
+  private final EmbeddingCache cache;
+
+  public CachingLlmProvider(LlmProvider delegate, EmbeddingCache cache) {
+    this.delegate = delegate;
+    this.cache = cache;
+  }
+
+  @Override
+  public float[] embed(String text) {
+    String key = EmbeddingCache.key(delegate.embedModelName(), text);
+    float[] cached = cache.getAll(List.of(key)).get(key);
+    if (cached != null) return cached;
+    float[] v = delegate.embed(text);
+    cache.putAll(Map.of(key, v));
+    return v;
+  }
+
+  @Override
+  public List<float[]> embedBatch(List<String> texts) {
+    String model = delegate.embedModelName();
+    List<String> keys = new ArrayList<>(texts.size());
+    for (String t : texts) keys.add(EmbeddingCache.key(model, t));
+    Map<String, float[]> found = cache.getAll(keys);
+
+    // dedupe misses so repeated chunks in one batch are embedded once
+    LinkedHashMap<String, String> missing = new LinkedHashMap<>();
+    for (int i = 0; i < texts.size(); i++) {
+      if (!found.containsKey(keys.get(i))) missing.putIfAbsent(keys.get(i), texts.get(i));
+    }
+    logger.debug("Embedding cache: {} of {} texts cached, {} to embed", texts.size() - missing.size(), texts.size(), missing.size());
+
+    if (!missing.isEmpty()) {
+      List<float[]> fresh = delegate.embedBatch(new ArrayList<>(missing.values()));
+      Map<String, float[]> added = new HashMap<>();
+      int i = 0;
+      for (String k : missing.keySet()) added.put(k, fresh.get(i++));
+      cache.putAll(added);
+      found = new HashMap<>(found);
+      found.putAll(added);
+    }
+
+    List<float[]> out = new ArrayList<>(texts.size());
+    for (String k : keys) out.add(found.get(k));
+    return out;
+  }
+
+  @Override
+  public String chat(String system, String user, int tokens) {
+    return delegate.chat(system, user, tokens);
+  }
+
+  @Override
+  public String chatStream(String system, String user, int tokens, Consumer<String> onToken) {
+    return delegate.chatStream(system, user, tokens, onToken);
+  }
+
+  @Override
+  public String embedModelName() {
+    return delegate.embedModelName();
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+}
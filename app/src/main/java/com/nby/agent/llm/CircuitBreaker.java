@@ -0,0 +1,91 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Closed / open / half-open breaker for one provider.
+ * After {@code failureThreshold} consecutive failures the breaker opens and callers skip the provider
+ * without touching the network. Once {@code openMs} has passed, a single trial call is let through
+ * (half-open): success closes the breaker, failure re-opens it for another {@code openMs}.
+ */
+public class CircuitBreaker {
+  private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  public enum State { CLOSED, HALF_OPEN, OPEN }
+
+  private final String name;
+  private final int failureThreshold;
+  private final long openNanos;
+  private final LongSupplier clock;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAt;
+  private boolean trialInFlight;
+
+  public CircuitBreaker(String name, int failureThreshold, long openMs, MetricsService metrics) {
+    this(name, failureThreshold, openMs, metrics, System::nanoTime);
+  }
+
+  CircuitBreaker(String name, int failureThreshold, long openMs, MetricsService metrics, LongSupplier clock) {
+    this.name = name;
+    this.failureThreshold = Math.max(1, failureThreshold);
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+    this.clock = clock;
+    metrics.gaugeLlmBreaker(name, () -> state().ordinal());
+  }
+
+  /** True if a call may go to the provider now; a true answer must be followed by exactly one outcome call. */
+  public synchronized boolean tryAcquire() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (clock.getAsLong() - openedAt < openNanos) return false;
+        transition(State.HALF_OPEN);
+        trialInFlight = true;
+        return true;
+      default:
+        if (trialInFlight) return false;
+        trialInFlight = true;
+        return true;
+    }
+  }
+
+  public synchronized void onSuccess() {
+    consecutiveFailures = 0;
+    trialInFlight = false;
+    if (state != State.CLOSED) transition(State.CLOSED);
+  }
+
+  public synchronized void onFailure() {
+    trialInFlight = false;
+    if (state == State.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+      openedAt = clock.getAsLong();
+      if (state != State.OPEN) transition(State.OPEN);
+    }
+  }
+
+  /** The call ended without saying anything about provider health (e.g. it was cancelled). */
+  public synchronized void onIgnored() {
+    trialInFlight = false;
+  }
+
+  public synchronized State state() {
+    return state;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  private void transition(State next) {
+    logger.info("LLM circuit breaker {}: {} -> {}", name, state, next);
+    state = next;
+  }
+}
@@ -0,0 +1,165 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces concurrent single-text {@code embed} calls into one {@code embedBatch} call.
+ * The first waiting text opens a batch. The batch closes after {@code maxWaitMs}, or sooner once
+ * {@code maxBatch} texts are queued, and is embedded on its own virtual thread while the next batch
+ * collects. Identical texts in a batch are embedded once. Calls that are already batched, and chat,
+ * pass straight through.
+ */
+public class CoalescingLlmProvider implements LlmProvider {
+  private static final Logger logger = LoggerFactory.getLogger(CoalescingLlmProvider.class);
+
+  private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+  private record Pending(String text, CompletableFuture<float[]> result) {}
+
+  private final LlmProvider delegate;
+  private final long maxWaitNanos;
+  private final int maxBatch;
+  private final MetricsService metrics;
+  private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final ExecutorService batches = Executors.newVirtualThreadPerTaskExecutor();
+  private final Thread collector;
+  private volatile boolean closed;
+
+  public CoalescingLlmProvider(LlmProvider delegate, long maxWaitMs, int maxBatch, MetricsService metrics) {
+    this.delegate = delegate;
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+    this.maxBatch = Math.max(1, maxBatch);
+    this.metrics = metrics;
+    this.collector = Thread.ofPlatform().name("embed-coalescer").daemon().start(this::collect);
+  }
+
+  @Override
+  public float[] embed(String text) {
+    if (closed) throw new IllegalStateException("Embed coalescer closed");
+    CompletableFuture<float[]> result = new CompletableFuture<>();
+    Pending pending = new Pending(text, result);
+    queue.add(pending);
+    // close() may have drained the queue between the check and the add
+    if (closed && queue.remove(pending)) throw new IllegalStateException("Embed coalescer closed");
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      // the caller gave up; the batch still runs for the other texts in it
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for a coalesced embed");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException re) throw re;
+      if (e.getCause() instanceof Error err) throw err;
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private void collect() {
+    List<Pending> batch = new ArrayList<>(maxBatch);
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        batch.add(queue.take());
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (batch.size() < maxBatch) {
+          Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (next == null) break;
+          batch.add(next);
+          queue.drainTo(batch, maxBatch - batch.size());
+        }
+        List<Pending> ready = batch;
+        batches.execute(() -> dispatch(ready));
+        batch = new ArrayList<>(maxBatch);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RejectedExecutionException e) {
+      // close() shut the executor down between collecting this batch and handing it over
+    } finally {
+      // texts already taken off the queue are out of close()'s reach
+      batch.forEach(p -> p.result().completeExceptionally(new IllegalStateException("Embed coalescer closed")));
+    }
+  }
+
+  private void dispatch(List<Pending> batch) {
+    Map<String, List<CompletableFuture<float[]>>> byText = new LinkedHashMap<>();
+    for (Pending p : batch) {
+      byText.computeIfAbsent(p.text(), t -> new ArrayList<>(1)).add(p.result());
+    }
+    metrics.recordEmbedCoalescedBatch(batch.size());
+    try {
+      List<String> texts = new ArrayList<>(byText.keySet());
+      List<float[]> vectors = delegate.embedBatch(texts);
+      for (int i = 0; i < texts.size(); i++) {
+        for (CompletableFuture<float[]> f : byText.get(texts.get(i))) {
+          f.complete(vectors.get(i));
+        }
+      }
+      logger.debug("Coalesced {} embed calls into a batch of {}", batch.size(), texts.size());
+    } catch (RuntimeException e) {
+      batch.forEach(p -> p.result().completeExceptionally(e));
+    } catch (Error e) {
+      batch.forEach(p -> p.result().completeExceptionally(e));
+      throw e;
+    }
+  }
+
+  @Override
+  public List<float[]> embedBatch(List<String> texts) {
+    return delegate.embedBatch(texts);
+  }
+
+  @Override
+  public String chat(String system, String user, int tokens) {
+    return delegate.chat(system, user, tokens);
+  }
+
+  @Override
+  public String chatStream(String system, String user, int tokens, Consumer<String> onToken) {
+    return delegate.chatStream(system, user, tokens, onToken);
+  }
+
+  @Override
+  public String embedModelName() {
+    return delegate.embedModelName();
+  }
+
+  /**
+   * Stops collecting, fails texts still queued or collected but not dispatched, waits up to
+   * {@link #CLOSE_TIMEOUT_SECONDS} for batches in flight to finish, then closes the delegate.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    collector.interrupt();
+    try {
+      collector.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+      List<Pending> stranded = new ArrayList<>();
+      queue.drainTo(stranded);
+      stranded.forEach(p -> p.result().completeExceptionally(new IllegalStateException("Embed coalescer closed")));
+      batches.shutdown();
+      if (!batches.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        logger.warn("Coalesced embed batches still running after {}s, closing the provider under them", CLOSE_TIMEOUT_SECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    delegate.close();
+  }
+}
@@ -0,0 +1,53 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.config.TokenEstimator;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bulkhead around one provider: embed and chat calls each pass through their own {@link AdaptiveLimiter}.
+ * Batches are sized by text count and chat answers by output tokens, so the limiter compares like with like.
+ */
+public class ConcurrencyLimitedLlmProvider implements LlmProvider {
+
+  private final LlmProvider delegate;
+  private final AdaptiveLimiter embedLimiter;
+  private final AdaptiveLimiter chatLimiter;
+
+  public ConcurrencyLimitedLlmProvider(LlmProvider delegate, AdaptiveLimiter embedLimiter, AdaptiveLimiter chatLimiter) {
+    this.delegate = delegate;
+    this.embedLimiter = embedLimiter;
+    this.chatLimiter = chatLimiter;
+  }
+
+  @Override
+  public float[] embed(String text) {
+    return embedLimiter.call(() -> delegate.embed(text));
+  }
+
+  @Override
+  public List<float[]> embedBatch(List<String> texts) {
+    return embedLimiter.call(() -> delegate.embedBatch(texts), List::size);
+  }
+
+  @Override
+  public String chat(String system, String user, int tokens) {
+    return chatLimiter.call(() -> delegate.chat(system, user, tokens), TokenEstimator::estimate);
+  }
+
+  @Override
+  public String chatStream(String system, String user, int tokens, Consumer<String> onToken) {
+    return chatLimiter.call(() -> delegate.chatStream(system, user, tokens, onToken), TokenEstimator::estimate);
+  }
+
+  @Override
+  public String embedModelName() {
+    return delegate.embedModelName();
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+}
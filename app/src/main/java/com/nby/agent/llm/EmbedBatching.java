@@ -0,0 +1,45 @@
+package com.nby.agent.llm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits embedding inputs into request-sized groups.
+ * A group is closed once it holds {@code maxItems} texts or the next text would push
+ * the UTF-8 payload past {@code maxBytes}; a single oversized text still gets its own group.
+ */
+public final class EmbedBatching {
+
+  public static final int DEFAULT_BATCH_SIZE = 32;
+  public static final long DEFAULT_MAX_BYTES = 256 * 1024;
+
+  private EmbedBatching() {}
+
+  public static int batchSize() {
+    return Math.max(1, Integer.parseInt(System.getenv().getOrDefault("EMBED_BATCH_SIZE", String.valueOf(DEFAULT_BATCH_SIZE))));
+  }
+
+  public static long maxBytes() {
+    return Math.max(1, Long.parseLong(System.getenv().getOrDefault("EMBED_BATCH_MAX_BYTES", String.valueOf(DEFAULT_MAX_BYTES))));
+  }
+
+  public static List<List<String>> partition(List<String> texts, int maxItems, long maxBytes) {
+    List<List<String>> out = new ArrayList<>();
+    List<String> current = new ArrayList<>();
+    long bytes = 0;
+    for (String t : texts) {
+      // +4 covers the quotes and separator around each JSON array element
+      long size = t.getBytes(StandardCharsets.UTF_8).length + 4;
+      if (!current.isEmpty() && (current.size() >= maxItems || bytes + size > maxBytes)) {
+        out.add(current);
+        current = new ArrayList<>();
+        bytes = 0;
+      }
+      current.add(t);
+      bytes += size;
+    }
+    if (!current.isEmpty()) out.add(current);
+    return out;
+  }
+}
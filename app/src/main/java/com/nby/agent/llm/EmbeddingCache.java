@@ -0,0 +1,178 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Content-addressed store of embeddings: a bounded LRU in memory in front of a SQLite table
+ * that survives restarts. Keys are SHA-256 of model name and text, so a model change never
+ * serves stale vectors.
+ */
+public class EmbeddingCache {
+  private static final Logger logger = LoggerFactory.getLogger(EmbeddingCache.class);
+  private static final int SQL_IN_LIMIT = 500;
+
+  private final String url;
+  private final Path dbFile;
+  private final int maxEntries;
+  private final MetricsService metrics;
+  private long memoryBytes = 0;
+
+  private final LinkedHashMap<String, float[]> memory = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+      if (size() > maxEntries) {
+        memoryBytes -= bytes(eldest.getValue());
+        return true;
+      }
+      return false;
+    }
+  };
+
+  public EmbeddingCache(String dbPath, int maxEntries, MetricsService metrics) {
+    this.dbFile = Paths.get(dbPath);
+    this.url = "jdbc:sqlite:" + dbPath;
+    this.maxEntries = Math.max(1, maxEntries);
+    this.metrics = metrics;
+    logger.info("Initializing embedding cache: db={}, memoryEntries={}", dbPath, this.maxEntries);
+    init();
+    metrics.gaugeEmbedCache(this::memoryEntries, this::memoryBytes, this::diskBytes);
+  }
+
+  private void init() {
+    try {
+      if (dbFile.getParent() != null) Files.createDirectories(dbFile.getParent());
+      try (Connection c = DriverManager.getConnection(url);
+           Statement s = c.createStatement()) {
+        s.execute("PRAGMA journal_mode=WAL");
+        s.executeUpdate("CREATE TABLE IF NOT EXISTS embedding_cache (cache_key TEXT PRIMARY KEY, dim INTEGER, vec BLOB)");
+      }
+    } catch (Exception e) {
+      logger.error("Failed to initialize embedding cache", e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  public static String key(String model, String text) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(model.getBytes(StandardCharsets.UTF_8));
+      md.update((byte) 0);
+      md.update(text.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(md.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Looks keys up in memory first, then on disk; disk hits are promoted to memory. Misses are absent from the result. */
+  public Map<String, float[]> getAll(Collection<String> keys) {
+    Map<String, float[]> found = new HashMap<>();
+    List<String> diskLookups = new ArrayList<>();
+    synchronized (this) {
+      for (String k : keys) {
+        float[] v = memory.get(k);
+        if (v != null) found.put(k, v);
+        else diskLookups.add(k);
+      }
+    }
+    int memoryHits = found.size();
+
+    if (!diskLookups.isEmpty()) {
+      Map<String, float[]> fromDisk = readDisk(diskLookups);
+      synchronized (this) {
+        fromDisk.forEach(this::remember);
+      }
+      found.putAll(fromDisk);
+    }
+
+    metrics.incEmbedCacheHits("memory", memoryHits);
+    metrics.incEmbedCacheHits("disk", found.size() - memoryHits);
+    metrics.incEmbedCacheMisses(keys.size() - found.size());
+    return found;
+  }
+
+  public void putAll(Map<String, float[]> entries) {
+    if (entries.isEmpty()) return;
+    synchronized (this) {
+      entries.forEach(this::remember);
+    }
+    try (Connection c = DriverManager.getConnection(url);
+         PreparedStatement ps = c.prepareStatement("INSERT OR REPLACE INTO embedding_cache(cache_key, dim, vec) VALUES(?,?,?)")) {
+      c.setAutoCommit(false);
+      for (Map.Entry<String, float[]> e : entries.entrySet()) {
+        ps.setString(1, e.getKey());
+        ps.setInt(2, e.getValue().length);
+        ps.setBytes(3, encode(e.getValue()));
+        ps.addBatch();
+      }
+      ps.executeBatch();
+      c.commit();
+    } catch (SQLException e) {
+      // the cache is an optimization; a failed write must not fail ingestion
+      logger.warn("Failed to persist {} embeddings to cache: {}", entries.size(), e.getMessage());
+    }
+  }
+
+  private Map<String, float[]> readDisk(List<String> keys) {
+    Map<String, float[]> out = new HashMap<>();
+    try (Connection c = DriverManager.getConnection(url)) {
+      for (int from = 0; from < keys.size(); from += SQL_IN_LIMIT) {
+        List<String> slice = keys.subList(from, Math.min(keys.size(), from + SQL_IN_LIMIT));
+        String sql = "SELECT cache_key, vec FROM embedding_cache WHERE cache_key IN (" + String.join(",", Collections.nCopies(slice.size(), "?")) + ")";
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+          for (int i = 0; i < slice.size(); i++) ps.setString(i + 1, slice.get(i));
+          try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) out.put(rs.getString(1), decode(rs.getBytes(2)));
+          }
+        }
+      }
+    } catch (SQLException e) {
+      logger.warn("Failed to read embeddings from cache: {}", e.getMessage());
+    }
+    return out;
+  }
+
+  private void remember(String key, float[] v) {
+    float[] previous = memory.put(key, v);
+    if (previous != null) memoryBytes -= bytes(previous);
+    memoryBytes += bytes(v);
+  }
+
+  public synchronized int memoryEntries() { return memory.size(); }
+  public synchronized long memoryBytes() { return memoryBytes; }
+
+  public long diskBytes() {
+    try {
+      return Files.exists(dbFile) ? Files.size(dbFile) : 0;
+    } catch (Exception e) {
+      return 0;
+    }
+  }
+
+  private static long bytes(float[] v) { return (long) v.length * Float.BYTES; }
+
+  static byte[] encode(float[] v) {
+    ByteBuffer b = ByteBuffer.allocate(v.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    b.asFloatBuffer().put(v);
+    return b.array();
+  }
+
+  static float[] decode(byte[] bytes) {
+    float[] v = new float[bytes.length / Float.BYTES];
+    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(v);
+    return v;
+  }
+}
@@ -0,0 +1,164 @@
+package com.nby.agent.llm;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes embedding responses token by token with Jackson's streaming parser.
+ * Numbers go straight from the response stream into {@code float[]}s; no body String
+ * and no JsonNode per component is ever built.
+ */
+public final class EmbeddingJson {
+
+  // a mapper's factory, so parsers have a codec for readValueAsTree() on error bodies
+  private static final JsonFactory FACTORY = new ObjectMapper().getFactory();
+  // powers of ten that are exact in a double
+  private static final double[] POW10 = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  private EmbeddingJson() {}
+
+  /** Ollama {@code /api/embed}: {@code {"embeddings":[[...],[...]], ...}}. */
+  public static List<float[]> readOllama(InputStream body, int dimHint) throws IOException {
+    try (JsonParser p = FACTORY.createParser(body)) {
+      expect(p, JsonToken.START_OBJECT);
+      List<float[]> out = null;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String field = p.currentName();
+        p.nextToken();
+        if ("embeddings".equals(field)) {
+          out = new ArrayList<>();
+          requireCurrent(p, JsonToken.START_ARRAY);
+          while (p.nextToken() != JsonToken.END_ARRAY) out.add(readVector(p, dimHint));
+        } else if ("error".equals(field)) {
+          throw new IllegalStateException("Ollama embed error: " + p.getText());
+        } else {
+          p.skipChildren();
+        }
+      }
+      if (out == null) throw new IllegalStateException("No embeddings in Ollama response");
+      return out;
+    }
+  }
+
+  /** OpenAI {@code /v1/embeddings}: {@code {"data":[{"index":0,"embedding":[...]}, ...]}}, returned in index order. */
+  public static List<float[]> readOpenAi(InputStream body, int expected, int dimHint) throws IOException {
+    try (JsonParser p = FACTORY.createParser(body)) {
+      expect(p, JsonToken.START_OBJECT);
+      float[][] ordered = null;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String field = p.currentName();
+        p.nextToken();
+        if ("data".equals(field)) {
+          ordered = new float[expected][];
+          requireCurrent(p, JsonToken.START_ARRAY);
+          int position = 0;
+          while (p.nextToken() != JsonToken.END_ARRAY) {
+            requireCurrent(p, JsonToken.START_OBJECT);
+            int index = position++;
+            float[] v = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+              String f = p.currentName();
+              p.nextToken();
+              if ("embedding".equals(f)) v = readVector(p, dimHint);
+              else if ("index".equals(f)) index = p.getIntValue();
+              else p.skipChildren();
+            }
+            if (index < 0 || index >= expected) throw new IllegalStateException("Embedding index out of range: " + index);
+            ordered[index] = v;
+          }
+        } else if ("error".equals(field)) {
+          throw new IllegalStateException("OpenAI embed error: " + p.readValueAsTree());
+        } else {
+          p.skipChildren();
+        }
+      }
+      if (ordered == null) throw new IllegalStateException("No data in OpenAI embeddings response");
+      for (float[] v : ordered) if (v == null) throw new IllegalStateException("Missing embedding in OpenAI response");
+      return Arrays.asList(ordered);
+    }
+  }
+
+  /** Reads one numeric array; sized from {@code dimHint} so the common case allocates exactly one float[]. */
+  static float[] readVector(JsonParser p, int dimHint) throws IOException {
+    requireCurrent(p, JsonToken.START_ARRAY);
+    float[] v = new float[Math.max(16, dimHint)];
+    int n = 0;
+    while (p.nextToken() != JsonToken.END_ARRAY) {
+      if (n == v.length) v = Arrays.copyOf(v, v.length * 2);
+      // parse from the parser's own char buffer; getFloatValue() would build a String per number
+      v[n++] = parseFloat(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+    }
+    return n == v.length ? v : Arrays.copyOf(v, n);
+  }
+
+  /**
+   * Parses a JSON number without allocating. When the digits fit a double exactly and the scale is
+   * an exact power of ten, a single multiply/divide is correctly rounded, so the result equals
+   * {@code (float) Double.parseDouble(text)}; anything else takes that slow path.
+   */
+  static float parseFloat(char[] c, int off, int len) {
+    int i = off, end = off + len;
+    boolean negative = i < end && c[i] == '-';
+    if (negative) i++;
+    long mantissa = 0;
+    int digits = 0, scale = 0;
+    boolean seenDot = false;
+    for (; i < end; i++) {
+      char ch = c[i];
+      if (ch >= '0' && ch <= '9') {
+        if (mantissa == 0 && ch == '0') { if (seenDot) scale--; continue; }
+        if (++digits > 15) return slowFloat(c, off, len);
+        mantissa = mantissa * 10 + (ch - '0');
+        if (seenDot) scale--;
+      } else if (ch == '.' && !seenDot) {
+        seenDot = true;
+      } else if (ch == 'e' || ch == 'E') {
+        int j = i + 1;
+        boolean negExp = j < end && c[j] == '-';
+        if (j < end && (c[j] == '-' || c[j] == '+')) j++;
+        if (j == end || end - j > 3) return slowFloat(c, off, len);
+        int exp = 0;
+        for (; j < end; j++) {
+          if (c[j] < '0' || c[j] > '9') return slowFloat(c, off, len);
+          exp = exp * 10 + (c[j] - '0');
+        }
+        scale += negExp ? -exp : exp;
+        break;
+      } else {
+        return slowFloat(c, off, len);
+      }
+    }
+    double d = mantissa;
+    if (mantissa != 0) {
+      if (scale < 0 && scale >= -22) d = d / POW10[-scale];
+      else if (scale > 0 && scale <= 22) d = d * POW10[scale];
+      else if (scale != 0) return slowFloat(c, off, len);
+    }
+    return (float) (negative ? -d : d);
+  }
+
+  private static float slowFloat(char[] c, int off, int len) {
+    return (float) Double.parseDouble(new String(c, off, len));
+  }
+
+  private static void expect(JsonParser p, JsonToken token) throws IOException {
+    p.nextToken();
+    requireCurrent(p, token);
+  }
+
+  private static void requireCurrent(JsonParser p, JsonToken token) throws IOException {
+    if (p.currentToken() != token) {
+      throw new IllegalStateException("Expected " + token + " but found " + p.currentToken() + " at " + p.currentLocation());
+    }
+  }
+}
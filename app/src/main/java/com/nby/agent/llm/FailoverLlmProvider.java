@@ -0,0 +1,116 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Ordered list of providers, each behind its own {@link CircuitBreaker}. A call goes to the first
+ * provider whose breaker admits it and moves down the list when that provider fails, so an outage
+ * costs a handful of failed calls and then nothing but a breaker check.
+ * <p>
+ * Embeddings stay on the first provider unless {@code failoverEmbeddings} is set. Vectors from a
+ * different model do not match the ones already stored in the collection, so embedding failover only
+ * makes sense between providers running the same embedding model. A streamed answer is not failed
+ * over after its first token has been delivered.
+ */
+public class FailoverLlmProvider implements LlmProvider {
+  private static final Logger logger = LoggerFactory.getLogger(FailoverLlmProvider.class);
+
+  public record Member(String name, LlmProvider provider, CircuitBreaker breaker) {}
+
+  private final List<Member> members;
+  private final boolean failoverEmbeddings;
+  private final MetricsService metrics;
+
+  public FailoverLlmProvider(List<Member> members, boolean failoverEmbeddings, MetricsService metrics) {
+    if (members.isEmpty()) throw new IllegalArgumentException("At least one LLM provider is required");
+    this.members = List.copyOf(members);
+    this.failoverEmbeddings = failoverEmbeddings;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public float[] embed(String text) {
+    return call(failoverEmbeddings ? members : members.subList(0, 1), p -> p.embed(text));
+  }
+
+  @Override
+  public List<float[]> embedBatch(List<String> texts) {
+    return call(failoverEmbeddings ? members : members.subList(0, 1), p -> p.embedBatch(texts));
+  }
+
+  @Override
+  public String chat(String system, String user, int tokens) {
+    return call(members, p -> p.chat(system, user, tokens));
+  }
+
+  @Override
+  public String chatStream(String system, String user, int tokens, Consumer<String> onToken) {
+    boolean[] streamed = {false};
+    Consumer<String> tracking = t -> {
+      streamed[0] = true;
+      onToken.accept(t);
+    };
+    return call(members, p -> p.chatStream(system, user, tokens, tracking), () -> streamed[0]);
+  }
+
+  @Override
+  public String embedModelName() {
+    return members.get(0).provider().embedModelName();
+  }
+
+  private <T> T call(List<Member> order, Function<LlmProvider, T> fn) {
+    return call(order, fn, () -> false);
+  }
+
+  private <T> T call(List<Member> order, Function<LlmProvider, T> fn, BooleanSupplier committed) {
+    RuntimeException last = null;
+    for (int i = 0; i < order.size(); i++) {
+      Member m = order.get(i);
+      if (!m.breaker().tryAcquire()) {
+        logger.debug("Skipping LLM provider {}: circuit {}", m.name(), m.breaker().state());
+        continue;
+      }
+      try {
+        T result = fn.apply(m.provider());
+        m.breaker().onSuccess();
+        return result;
+      } catch (RuntimeException e) {
+        if (LlmAsync.isCancellation(e)) {
+          // the caller gave up (hedge loser, timeout): no verdict on the provider, and no point failing over
+          m.breaker().onIgnored();
+          throw LlmAsync.cancellation(e);
+        }
+        if (e instanceof RejectedExecutionException) {
+          // shed locally by a limiter: the provider is busy, not broken
+          m.breaker().onIgnored();
+        } else {
+          m.breaker().onFailure();
+          logger.warn("LLM provider {} failed: {}", m.name(), e.getMessage());
+        }
+        last = e;
+      } catch (Error e) {
+        // not a verdict on the provider, but a half-open trial must still be released or the breaker never closes
+        m.breaker().onIgnored();
+        throw e;
+      }
+      if (committed.getAsBoolean()) throw last;
+      if (i + 1 < order.size()) metrics.incLlmFailover(m.name());
+    }
+    if (last != null) throw last;
+    throw new IllegalStateException("All LLM providers unavailable (circuits open): "
+        + order.stream().map(Member::name).toList());
+  }
+
+  @Override
+  public void close() {
+    for (Member m : members) m.provider().close();
+  }
+}
@@ -0,0 +1,604 @@
+package com.nby.agent.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Embedded exact-search store (VECTOR_STORE=flat): every search scores every live vector, so recall
+ * is always 1 (0.95+ with int8). Files under VECTOR_STORE_PATH:
+ * <ul>
+ *   <li>{@code flat-vectors-NNNN.bin}: memory-mapped segments of unit-length rows, float32, or with
+ *       FLAT_QUANTIZATION=int8 a little-endian float scale followed by one signed byte per dimension;</li>
+ *   <li>{@code flat-payloads.bin}: append-only records of point id, source_id, content_hash and JSON payload;</li>
+ *   <li>{@code flat-rows.bin}: the sidecar, a header and one fixed-size row per vector holding its
+ *       payload offset, lengths and tombstone flag.</li>
+ * </ul>
+ * Every write lands in the files immediately and {@link #flush()} forces them to disk, so a restart
+ * keeps everything up to the last complete row. Re-upserting an id rewrites its row in place; deleted
+ * rows stay as tombstones until {@link #flush()} finds enough of them to copy the live rows into
+ * fresh files. Vectors are not resident on the heap: a scan copies bounded blocks of rows into a
+ * per-task scratch buffer for the {@link VectorMath} kernels, partitioned over the common fork-join
+ * pool. Searches share a read lock; upserts and deletes take the write lock.
+ */
+class FlatVectorStore implements VectorStore {
+  private static final Logger logger = LoggerFactory.getLogger(FlatVectorStore.class);
+
+  private static final int MAGIC = 0x464c4154; // "FLAT"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 16;
+  private static final int ROW_BYTES = 20;
+  private static final int DELETED = 1;
+  private static final VarHandle FLOAT_LE = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+  static final int SEGMENT_ROWS = 16384;
+  /** Rows below which a scan stays on the calling thread. */
+  static final int MIN_PARTITION_ROWS = 4096;
+  /** Floats (or bytes) copied out of the mapping per block. */
+  private static final int BLOCK_ELEMENTS = 1 << 16;
+
+  private final Path dir;
+  private final boolean int8;
+  private final MetricsService metrics;
+  private final ObjectMapper om = new ObjectMapper();
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private FileChannel rowsFile;
+  private FileChannel payloads;
+
+  private final Map<String, Integer> byId = new HashMap<>();
+  private final Map<String, List<Integer>> bySource = new HashMap<>();
+  private final BitSet deleted = new BitSet();
+  private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+  private FloatBuffer[] floats = new FloatBuffer[0];
+  private int rows;
+  private int dim;
+  private volatile int live;
+  private long payloadEnd;
+
+  FlatVectorStore(Path dir, boolean int8, MetricsService metrics) {
+    this.dir = dir;
+    this.metrics = metrics;
+    try {
+      Files.createDirectories(dir);
+      this.rowsFile = FileChannel.open(dir.resolve("flat-rows.bin"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      this.payloads = FileChannel.open(dir.resolve("flat-payloads.bin"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      this.int8 = load(int8);
+      if (rows > 0) ensureCapacity(rows - 1);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    metrics.gaugeVectorStorePoints("flat", () -> live);
+    logger.info("Embedded flat vector store at {}: {} points ({}, SIMD {})", dir, live, this.int8 ? "int8" : "float32", VectorMath.SIMD ? "on" : "off");
+  }
+
+  static FlatVectorStore fromEnv(MetricsService metrics) {
+    return new FlatVectorStore(
+        Paths.get(System.getenv().getOrDefault("VECTOR_STORE_PATH", "/data/app/vectors")),
+        System.getenv().getOrDefault("FLAT_QUANTIZATION", "none").trim().equalsIgnoreCase("int8"),
+        metrics);
+  }
+
+  /* ---------- search ---------- */
+
+  /** Bounded min-heap of the best {@code k} rows seen so far. */
+  private static final class TopK {
+    final int k;
+    final int[] rows;
+    final float[] scores;
+    int size;
+
+    TopK(int k) {
+      this.k = k;
+      this.rows = new int[k];
+      this.scores = new float[k];
+    }
+
+    void offer(int row, float score) {
+      if (size < k) {
+        int i = size++;
+        while (i > 0 && scores[(i - 1) / 2] > score) {
+          rows[i] = rows[(i - 1) / 2];
+          scores[i] = scores[(i - 1) / 2];
+          i = (i - 1) / 2;
+        }
+        rows[i] = row;
+        scores[i] = score;
+      } else if (score > scores[0]) {
+        int i = 0;
+        while (true) {
+          int c = 2 * i + 1;
+          if (c >= size) break;
+          if (c + 1 < size && scores[c + 1] < scores[c]) c++;
+          if (scores[c] >= score) break;
+          rows[i] = rows[c];
+          scores[i] = scores[c];
+          i = c;
+        }
+        rows[i] = row;
+        scores[i] = score;
+      }
+    }
+
+    TopK merge(TopK other) {
+      for (int i = 0; i < other.size; i++) offer(other.rows[i], other.scores[i]);
+      return this;
+    }
+
+    /** Heap indexes ordered best first. */
+    Integer[] order() {
+      Integer[] idx = new Integer[size];
+      for (int i = 0; i < size; i++) idx[i] = i;
+      Arrays.sort(idx, (a, b) -> Float.compare(scores[b], scores[a]));
+      return idx;
+    }
+  }
+
+  /** Splits {@code [from, to)} in halves until a part is small enough to scan directly. */
+  private final class Scan extends RecursiveTask<TopK> {
+    private final float[] q;
+    private final int from;
+    private final int to;
+    private final int k;
+    private final int partition;
+
+    Scan(float[] q, int from, int to, int k, int partition) {
+      this.q = q;
+      this.from = from;
+      this.to = to;
+      this.k = k;
+      this.partition = partition;
+    }
+
+    @Override
+    protected TopK compute() {
+      if (to - from <= partition) return scan(q, from, to, k);
+      int mid = (from + to) >>> 1;
+      Scan left = new Scan(q, from, mid, k, partition);
+      left.fork();
+      TopK right = new Scan(q, mid, to, k, partition).compute();
+      return right.merge(left.join());
+    }
+  }
+
+  @Override
+  public List<Hit> search(float[] vector, int limit) throws Exception {
+    long t = System.nanoTime();
+    if (limit <= 0) return List.of();
+    lock.readLock().lock();
+    try {
+      if (live == 0) return List.of();
+      if (vector.length != dim) {
+        throw new IllegalArgumentException("Query of " + vector.length + " dims, store has " + dim);
+      }
+      float[] q = normalized(vector);
+      int n = rows;
+      int k = Math.min(limit, live);
+      int partition = Math.max(MIN_PARTITION_ROWS, n / (ForkJoinPool.getCommonPoolParallelism() * 4) + 1);
+      TopK top = n <= partition ? scan(q, 0, n, k) : ForkJoinPool.commonPool().invoke(new Scan(q, 0, n, k, partition));
+      List<Hit> out = new ArrayList<>(top.size);
+      for (int i : top.order()) out.add(new Hit(top.scores[i], readPayload(top.rows[i])));
+      return out;
+    } finally {
+      lock.readLock().unlock();
+      metrics.recordVectorStore("flat", "search", System.nanoTime() - t);
+    }
+  }
+
+  /** Scores rows {@code [from, to)} block by block; the caller holds the read lock. */
+  private TopK scan(float[] q, int from, int to, int k) {
+    TopK top = new TopK(k);
+    int rowElements = int8 ? Float.BYTES + dim : dim;
+    int blockRows = Math.max(1, BLOCK_ELEMENTS / rowElements);
+    float[] fbuf = int8 ? null : new float[blockRows * dim];
+    byte[] bbuf = int8 ? new byte[blockRows * rowElements] : null;
+    for (int start = from; start < to; ) {
+      int segment = start / SEGMENT_ROWS;
+      int inSegment = start % SEGMENT_ROWS;
+      int count = Math.min(blockRows, Math.min(to - start, SEGMENT_ROWS - inSegment));
+      if (int8) {
+        segments[segment].get(inSegment * rowElements, bbuf, 0, count * rowElements);
+      } else {
+        floats[segment].get(inSegment * dim, fbuf, 0, count * dim);
+      }
+      for (int r = 0; r < count; r++) {
+        int row = start + r;
+        if (deleted.get(row)) continue;
+        float score;
+        if (int8) {
+          int off = r * rowElements;
+          score = (float) FLOAT_LE.get(bbuf, off) * VectorMath.dotInt8(bbuf, off + Float.BYTES, q, dim);
+        } else {
+          score = VectorMath.dot(fbuf, r * dim, q, dim);
+        }
+        top.offer(row, score);
+      }
+      start += count;
+    }
+    return top;
+  }
+
+  /* ---------- writes ---------- */
+
+  @Override
+  public void upsert(List<RagService.QPoint> points, boolean wait) throws Exception {
+    long t = System.nanoTime();
+    lock.writeLock().lock();
+    try {
+      for (RagService.QPoint p : points) insert(p);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    metrics.recordVectorStore("flat", "upsert", System.nanoTime() - t);
+  }
+
+  private void insert(RagService.QPoint p) throws IOException {
+    if (dim == 0) {
+      dim = p.vector().length;
+      writeHeader();
+    }
+    if (p.vector().length != dim) {
+      throw new IllegalArgumentException("Vector of " + p.vector().length + " dims for point " + p.id() + ", store has " + dim);
+    }
+    Integer old = byId.get(p.id());
+    int row = old != null ? old : rows;
+    String oldSourceId = old != null ? readKey(old)[1] : null;
+    ensureCapacity(row);
+    float[] v = normalized(p.vector());
+    int segment = row / SEGMENT_ROWS;
+    int inSegment = row % SEGMENT_ROWS;
+    if (int8) {
+      segments[segment].put(inSegment * (Float.BYTES + dim), quantize(v));
+    } else {
+      floats[segment].put(inSegment * dim, v);
+    }
+
+    Map<String, Object> pl = p.payload();
+    String sourceId = pl == null || pl.get("source_id") == null ? null : String.valueOf(pl.get("source_id"));
+    String hash = pl == null || pl.get("content_hash") == null ? null : String.valueOf(pl.get("content_hash"));
+    ByteArrayOutputStream key = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(key)) {
+      out.writeUTF(p.id());
+      writeNullable(out, sourceId);
+      writeNullable(out, hash);
+    }
+    byte[] json = om.writeValueAsBytes(pl);
+    long offset = payloadEnd;
+    writeFully(payloads, ByteBuffer.wrap(key.toByteArray()), offset);
+    writeFully(payloads, ByteBuffer.wrap(json), offset + key.size());
+    payloadEnd += key.size() + json.length;
+    ByteBuffer rec = ByteBuffer.allocate(ROW_BYTES).putLong(offset).putInt(key.size()).putInt(json.length).putInt(0).flip();
+    writeFully(rowsFile, rec, rowPosition(row));
+
+    if (old != null) {
+      // same row, new vector and payload record; the old record is left for compaction to drop
+      if (!Objects.equals(oldSourceId, sourceId)) {
+        if (oldSourceId != null) {
+          List<Integer> ids = bySource.get(oldSourceId);
+          ids.remove(old);
+          if (ids.isEmpty()) bySource.remove(oldSourceId);
+        }
+        if (sourceId != null) bySource.computeIfAbsent(sourceId, k -> new ArrayList<>()).add(row);
+      }
+      return;
+    }
+    rows = row + 1;
+    byId.put(p.id(), row);
+    if (sourceId != null) bySource.computeIfAbsent(sourceId, k -> new ArrayList<>()).add(row);
+    live++;
+  }
+
+  /** Row layout for int8: float scale, then each component divided by it and rounded. */
+  private byte[] quantize(float[] v) {
+    float max = 0;
+    for (float x : v) max = Math.max(max, Math.abs(x));
+    float scale = max / 127f;
+    byte[] out = new byte[Float.BYTES + v.length];
+    FLOAT_LE.set(out, 0, scale);
+    if (scale == 0) return out;
+    for (int i = 0; i < v.length; i++) out[Float.BYTES + i] = (byte) Math.round(v[i] / scale);
+    return out;
+  }
+
+  @Override
+  public void deleteBySource(String sourceId, String keepContentHash) throws Exception {
+    lock.writeLock().lock();
+    try {
+      List<Integer> ids = bySource.get(sourceId);
+      if (ids == null) return;
+      Iterator<Integer> it = ids.iterator();
+      while (it.hasNext()) {
+        int row = it.next();
+        if (!deleted.get(row) && keepContentHash != null && keepContentHash.equals(readKey(row)[2])) continue;
+        tombstone(row);
+        it.remove();
+      }
+      if (ids.isEmpty()) bySource.remove(sourceId);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void tombstone(int row) throws IOException {
+    if (deleted.get(row)) return;
+    writeFully(rowsFile, ByteBuffer.allocate(Integer.BYTES).putInt(DELETED).flip(), rowPosition(row) + ROW_BYTES - Integer.BYTES);
+    deleted.set(row);
+    byId.remove(readKey(row)[0], row);
+    live--;
+  }
+
+  @Override
+  public long count() {
+    return live;
+  }
+
+  /* ---------- storage ---------- */
+
+  private static long rowPosition(int row) {
+    return HEADER_BYTES + (long) row * ROW_BYTES;
+  }
+
+  private long segmentBytes() {
+    return (long) SEGMENT_ROWS * (int8 ? Float.BYTES + dim : (long) dim * Float.BYTES);
+  }
+
+  private Path segmentPath(int i) {
+    return dir.resolve(String.format("flat-vectors-%04d.bin", i));
+  }
+
+  private void ensureCapacity(int row) throws IOException {
+    int segment = row / SEGMENT_ROWS;
+    if (segment < segments.length) return;
+    MappedByteBuffer[] s2 = Arrays.copyOf(segments, segment + 1);
+    FloatBuffer[] f2 = Arrays.copyOf(floats, segment + 1);
+    for (int i = segments.length; i <= segment; i++) {
+      try (FileChannel ch = FileChannel.open(segmentPath(i), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        s2[i] = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes());
+      }
+      f2[i] = s2[i].order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+    segments = s2;
+    floats = f2;
+  }
+
+  private void writeHeader() throws IOException {
+    ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putInt(dim).putInt(int8 ? 1 : 0).flip();
+    writeFully(rowsFile, h, 0);
+  }
+
+  /** Id, source_id and content_hash of a row, from the start of its payload record. */
+  private String[] readKey(int row) throws IOException {
+    ByteBuffer rec = readFully(rowsFile, rowPosition(row), ROW_BYTES);
+    ByteBuffer key = readFully(payloads, rec.getLong(), rec.getInt());
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(key.array()))) {
+      return new String[] {in.readUTF(), readNullable(in), readNullable(in)};
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> readPayload(int row) throws IOException {
+    ByteBuffer rec = readFully(rowsFile, rowPosition(row), ROW_BYTES);
+    long offset = rec.getLong();
+    int keyLength = rec.getInt();
+    ByteBuffer json = readFully(payloads, offset + keyLength, rec.getInt());
+    return om.readValue(json.array(), Map.class);
+  }
+
+  private static ByteBuffer readFully(FileChannel ch, long pos, int length) throws IOException {
+    ByteBuffer bb = ByteBuffer.allocate(length);
+    while (bb.hasRemaining()) {
+      int r = ch.read(bb, pos);
+      if (r < 0) throw new EOFException("Read past end of vector store file at " + pos);
+      pos += r;
+    }
+    return bb.flip();
+  }
+
+  private static void writeFully(FileChannel ch, ByteBuffer bb, long pos) throws IOException {
+    while (bb.hasRemaining()) pos += ch.write(bb, pos);
+  }
+
+  private static float[] normalized(float[] v) {
+    double norm = 0;
+    for (float x : v) norm += x * x;
+    float inv = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+    float[] out = new float[v.length];
+    for (int i = 0; i < v.length; i++) out[i] = v[i] * inv;
+    return out;
+  }
+
+  /**
+   * Rebuilds the id and source maps from the sidecar and payload keys, dropping a trailing row whose
+   * payload or vector segment never made it to disk. Returns the quantization of existing files,
+   * which wins over {@code int8Wanted} since rows cannot be converted in place.
+   */
+  private boolean load(boolean int8Wanted) throws IOException {
+    if (rowsFile.size() < HEADER_BYTES) {
+      rowsFile.truncate(0);
+      payloads.truncate(0);
+      return int8Wanted;
+    }
+    ByteBuffer h = readFully(rowsFile, 0, HEADER_BYTES);
+    if (h.getInt() != MAGIC || h.getInt() != VERSION) {
+      logger.warn("Ignoring unreadable flat vector store in {}, starting empty", dir);
+      rowsFile.truncate(0);
+      payloads.truncate(0);
+      return int8Wanted;
+    }
+    int d = h.getInt();
+    boolean q = h.getInt() == 1;
+    if (q != int8Wanted) {
+      logger.warn("Flat vector store in {} is {}, ignoring FLAT_QUANTIZATION; delete the directory to change it", dir, q ? "int8" : "float32");
+    }
+    this.dim = d;
+    int n = (int) ((rowsFile.size() - HEADER_BYTES) / ROW_BYTES);
+    for (int s = 0; s < (n + SEGMENT_ROWS - 1) / SEGMENT_ROWS; s++) {
+      if (!Files.isRegularFile(segmentPath(s))) {
+        n = s * SEGMENT_ROWS;
+        break;
+      }
+    }
+    long payloadSize = payloads.size();
+    long end = 0;
+    for (int row = 0; row < n; row++) {
+      ByteBuffer rec = readFully(rowsFile, rowPosition(row), ROW_BYTES);
+      long offset = rec.getLong();
+      int keyLength = rec.getInt();
+      int jsonLength = rec.getInt();
+      if (offset + keyLength + jsonLength > payloadSize) {
+        n = row;
+        break;
+      }
+      // a row rewritten in place points past the records of later rows
+      end = Math.max(end, offset + keyLength + jsonLength);
+      if (rec.getInt() == DELETED) {
+        deleted.set(row);
+        continue;
+      }
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(readFully(payloads, offset, keyLength).array()))) {
+        String id = in.readUTF();
+        String sourceId = readNullable(in);
+        Integer replaced = byId.put(id, row);
+        if (replaced != null) deleted.set(replaced); // replaced but the tombstone write was lost
+        if (sourceId != null) bySource.computeIfAbsent(sourceId, k -> new ArrayList<>()).add(row);
+      }
+    }
+    rowsFile.truncate(rowPosition(n));
+    payloads.truncate(end);
+    payloadEnd = end;
+    rows = n;
+    live = byId.size();
+    return q;
+  }
+
+  private static void writeNullable(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) out.writeUTF(s);
+  }
+
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  /**
+   * Forces vectors, payloads and the sidecar to disk. Once tombstones pass 1024 and a quarter of the
+   * live rows, the live rows are first copied into fresh files instead.
+   */
+  @Override
+  public void flush() throws IOException {
+    lock.writeLock().lock();
+    try {
+      int tombstones = deleted.cardinality();
+      if (tombstones > 1024 && tombstones > live / 4) compact();
+      long t = System.nanoTime();
+      for (MappedByteBuffer b : segments) b.force();
+      payloads.force(false);
+      rowsFile.force(false);
+      metrics.recordVectorStore("flat", "flush", System.nanoTime() - t);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Copies the live rows, in order, with their current payload records into files under
+   * {@code compacting/} and moves them over these. The sidecar is removed first and replaced last, so
+   * a crash part way leaves either the old store or an empty one, which the startup bootstrap refills.
+   * Rows keep their raw bytes, so int8 rows are not quantized twice.
+   */
+  private void compact() throws IOException {
+    long t = System.nanoTime();
+    Path tmp = dir.resolve("compacting");
+    deleteTree(tmp);
+    Files.createDirectories(tmp);
+    int rowElements = int8 ? Float.BYTES + dim : dim * Float.BYTES;
+    int kept = 0;
+    long end = 0;
+    try (FileChannel newRows = FileChannel.open(tmp.resolve("flat-rows.bin"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+         FileChannel newPayloads = FileChannel.open(tmp.resolve("flat-payloads.bin"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      writeFully(newRows, ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putInt(dim).putInt(int8 ? 1 : 0).flip(), 0);
+      FileChannel segment = null;
+      byte[] buf = new byte[rowElements];
+      try {
+        for (int row = 0; row < rows; row++) {
+          if (deleted.get(row)) continue;
+          if (kept % SEGMENT_ROWS == 0) {
+            if (segment != null) segment.close();
+            segment = FileChannel.open(tmp.resolve(segmentPath(kept / SEGMENT_ROWS).getFileName()), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+          }
+          segments[row / SEGMENT_ROWS].get((row % SEGMENT_ROWS) * rowElements, buf);
+          writeFully(segment, ByteBuffer.wrap(buf), (long) (kept % SEGMENT_ROWS) * rowElements);
+          ByteBuffer rec = readFully(rowsFile, rowPosition(row), ROW_BYTES);
+          long offset = rec.getLong();
+          int keyLength = rec.getInt();
+          int jsonLength = rec.getInt();
+          writeFully(newPayloads, readFully(payloads, offset, keyLength + jsonLength), end);
+          writeFully(newRows, ByteBuffer.allocate(ROW_BYTES).putLong(end).putInt(keyLength).putInt(jsonLength).putInt(0).flip(), rowPosition(kept));
+          end += keyLength + jsonLength;
+          kept++;
+        }
+      } finally {
+        if (segment != null) segment.close();
+      }
+      newPayloads.force(false);
+      newRows.force(false);
+    }
+
+    rowsFile.close();
+    payloads.close();
+    Files.deleteIfExists(dir.resolve("flat-rows.bin"));
+    int oldSegments = segments.length;
+    for (int i = 0; i < (kept + SEGMENT_ROWS - 1) / SEGMENT_ROWS; i++) {
+      Files.move(tmp.resolve(segmentPath(i).getFileName()), segmentPath(i), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    for (int i = (kept + SEGMENT_ROWS - 1) / SEGMENT_ROWS; i < oldSegments; i++) Files.deleteIfExists(segmentPath(i));
+    Files.move(tmp.resolve("flat-payloads.bin"), dir.resolve("flat-payloads.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    Files.move(tmp.resolve("flat-rows.bin"), dir.resolve("flat-rows.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    deleteTree(tmp);
+
+    int before = rows;
+    byId.clear();
+    bySource.clear();
+    deleted.clear();
+    segments = new MappedByteBuffer[0];
+    floats = new FloatBuffer[0];
+    rowsFile = FileChannel.open(dir.resolve("flat-rows.bin"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    payloads = FileChannel.open(dir.resolve("flat-payloads.bin"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    load(int8);
+    if (rows > 0) ensureCapacity(rows - 1);
+    metrics.recordVectorStore("flat", "compact", System.nanoTime() - t);
+    logger.info("Flat vector store compacted: {} rows, {} tombstones dropped", rows, before - rows);
+  }
+
+  private static void deleteTree(Path root) throws IOException {
+    if (!Files.exists(root)) return;
+    try (Stream<Path> s = Files.walk(root)) {
+      for (Path p : s.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      flush();
+      payloads.close();
+      rowsFile.close();
+    } catch (IOException e) {
+      logger.warn("Failed to flush flat vector store on shutdown: {}", e.getMessage());
+    }
+  }
+}
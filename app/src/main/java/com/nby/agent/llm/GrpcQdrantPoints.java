@@ -0,0 +1,254 @@
+package com.nby.agent.llm;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.nby.agent.metrics.MetricsService;
+import io.qdrant.client.QdrantClient;
+import io.qdrant.client.QdrantGrpcClient;
+import io.qdrant.client.grpc.JsonWithInt.ListValue;
+import io.qdrant.client.grpc.JsonWithInt.Struct;
+import io.qdrant.client.grpc.JsonWithInt.Value;
+import io.qdrant.client.grpc.Points;
+import io.qdrant.client.grpc.Points.PointId;
+import io.qdrant.client.grpc.Points.PointStruct;
+import io.qdrant.client.grpc.Points.ScoredPoint;
+import io.qdrant.client.grpc.Points.SearchPoints;
+import io.qdrant.client.grpc.Points.UpsertPoints;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import static io.qdrant.client.ConditionFactory.isEmpty;
+import static io.qdrant.client.ConditionFactory.matchKeyword;
+import static io.qdrant.client.WithPayloadSelectorFactory.enable;
+
+/**
+ * Search and upsert over Qdrant's gRPC API (port 6334). Vectors travel as packed float32 protobuf
+ * fields instead of decimal JSON text.
+ * <p>
+ * All calls share one HTTP/2 channel, so concurrent searches and upserts are multiplexed over a single
+ * connection. Large upserts are split into pages of {@code upsertBatch} points, and up to
+ * {@code maxInFlight} pages are pipelined on that channel at once. Qdrant has no client-streaming
+ * upsert RPC, so pipelining is the streaming equivalent. When a gRPC call fails, it is retried once
+ * on the REST fallback.
+ */
+class GrpcQdrantPoints implements VectorStore {
+  private static final Logger logger = LoggerFactory.getLogger(GrpcQdrantPoints.class);
+
+  private final QdrantClient client;
+  private final String collection;
+  private final QdrantCollectionConfig config;
+  private final int upsertBatch;
+  private final int maxInFlight;
+  private final VectorStore fallback;
+  private final MetricsService metrics;
+
+  GrpcQdrantPoints(String host, int port, boolean tls, Duration timeout, String collection, QdrantCollectionConfig config,
+                   int upsertBatch, int maxInFlight, VectorStore fallback, MetricsService metrics) {
+    this(new QdrantClient(QdrantGrpcClient.newBuilder(host, port, tls).withTimeout(timeout).build()),
+        collection, config, upsertBatch, maxInFlight, fallback, metrics);
+    logger.info("Qdrant gRPC transport: {}:{} (tls={}, upsert batch {}, {} in flight)", host, port, tls, upsertBatch, maxInFlight);
+  }
+
+  GrpcQdrantPoints(QdrantClient client, String collection, QdrantCollectionConfig config,
+                   int upsertBatch, int maxInFlight, VectorStore fallback, MetricsService metrics) {
+    this.client = client;
+    this.collection = collection;
+    this.config = config;
+    this.upsertBatch = Math.max(1, upsertBatch);
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.fallback = fallback;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public List<Hit> search(float[] vector, int limit) throws Exception {
+    long start = System.nanoTime();
+    try {
+      List<ScoredPoint> points = await(client.searchAsync(searchRequest(collection, vector, limit, config)));
+      metrics.recordQdrantGrpc("search", System.nanoTime() - start, true);
+      List<Hit> hits = new ArrayList<>(points.size());
+      for (ScoredPoint p : points) hits.add(new Hit(p.getScore(), toJava(p.getPayloadMap())));
+      return hits;
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      metrics.recordQdrantGrpc("search", System.nanoTime() - start, false);
+      if (fallback == null) throw e;
+      logger.warn("Qdrant gRPC search failed, retrying over REST: {}", e.getMessage());
+      metrics.incQdrantGrpcFallback("search");
+      return fallback.search(vector, limit);
+    }
+  }
+
+  @Override
+  public void upsert(List<RagService.QPoint> points, boolean wait) throws Exception {
+    if (points.isEmpty()) return;
+    long start = System.nanoTime();
+    try {
+      Semaphore slots = new Semaphore(maxInFlight);
+      List<ListenableFuture<Points.UpdateResult>> pages = new ArrayList<>();
+      for (int from = 0; from < points.size(); from += upsertBatch) {
+        List<PointStruct> page = new ArrayList<>(upsertBatch);
+        for (RagService.QPoint p : points.subList(from, Math.min(points.size(), from + upsertBatch))) page.add(toPoint(p));
+        slots.acquire();
+        ListenableFuture<Points.UpdateResult> f = client.upsertAsync(UpsertPoints.newBuilder()
+            .setCollectionName(collection).setWait(wait).addAllPoints(page).build());
+        f.addListener(slots::release, MoreExecutors.directExecutor());
+        pages.add(f);
+      }
+      await(Futures.allAsList(pages));
+      metrics.recordQdrantGrpc("upsert", System.nanoTime() - start, true);
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      metrics.recordQdrantGrpc("upsert", System.nanoTime() - start, false);
+      if (fallback == null) throw e;
+      // upserts are idempotent by id, so pages that did land are simply written again
+      logger.warn("Qdrant gRPC upsert failed, retrying over REST: {}", e.getMessage());
+      metrics.incQdrantGrpcFallback("upsert");
+      fallback.upsert(points, wait);
+    }
+  }
+
+  @Override
+  public void deleteBySource(String sourceId, String keepContentHash) throws Exception {
+    long start = System.nanoTime();
+    try {
+      Points.Filter.Builder filter = Points.Filter.newBuilder().addMust(matchKeyword("source_id", sourceId));
+      if (keepContentHash != null) filter.addMustNot(matchKeyword("content_hash", keepContentHash));
+      await(client.deleteAsync(Points.DeletePoints.newBuilder().setCollectionName(collection).setWait(true)
+          .setPoints(Points.PointsSelector.newBuilder().setFilter(filter)).build()));
+      metrics.recordQdrantGrpc("delete", System.nanoTime() - start, true);
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      metrics.recordQdrantGrpc("delete", System.nanoTime() - start, false);
+      if (fallback == null) throw e;
+      logger.warn("Qdrant gRPC delete failed, retrying over REST: {}", e.getMessage());
+      metrics.incQdrantGrpcFallback("delete");
+      fallback.deleteBySource(sourceId, keepContentHash);
+    }
+  }
+
+  @Override
+  public void deleteUnversioned() throws Exception {
+    long start = System.nanoTime();
+    try {
+      await(client.deleteAsync(Points.DeletePoints.newBuilder().setCollectionName(collection).setWait(true)
+          .setPoints(Points.PointsSelector.newBuilder().setFilter(Points.Filter.newBuilder().addMust(isEmpty("content_hash")))).build()));
+      metrics.recordQdrantGrpc("delete", System.nanoTime() - start, true);
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      metrics.recordQdrantGrpc("delete", System.nanoTime() - start, false);
+      if (fallback == null) throw e;
+      logger.warn("Qdrant gRPC delete failed, retrying over REST: {}", e.getMessage());
+      metrics.incQdrantGrpcFallback("delete");
+      fallback.deleteUnversioned();
+    }
+  }
+
+  static SearchPoints searchRequest(String collection, float[] vector, int limit, QdrantCollectionConfig config) {
+    SearchPoints.Builder b = SearchPoints.newBuilder()
+        .setCollectionName(collection)
+        .setLimit(limit)
+        .setWithPayload(enable(true));
+    for (float f : vector) b.addVector(f);
+    Points.SearchParams.Builder params = Points.SearchParams.newBuilder();
+    boolean tuned = false;
+    if (config.searchEf() > 0) {
+      params.setHnswEf(config.searchEf());
+      tuned = true;
+    }
+    if (!config.quantization().equals("none")) {
+      params.setQuantization(Points.QuantizationSearchParams.newBuilder()
+          .setRescore(config.searchRescore()).setOversampling(config.searchOversampling()));
+      tuned = true;
+    }
+    if (tuned) b.setParams(params);
+    return b.build();
+  }
+
+  static PointStruct toPoint(RagService.QPoint p) {
+    Points.Vector.Builder v = Points.Vector.newBuilder();
+    for (float f : p.vector()) v.addData(f);
+    PointStruct.Builder b = PointStruct.newBuilder()
+        .setId(pointId(p.id()))
+        .setVectors(Points.Vectors.newBuilder().setVector(v));
+    p.payload().forEach((k, val) -> b.putPayload(k, toValue(val)));
+    return b.build();
+  }
+
+  static PointId pointId(String id) {
+    Object json = RestQdrantPoints.jsonId(id);
+    return json instanceof Long n
+        ? PointId.newBuilder().setNum(n).build()
+        : PointId.newBuilder().setUuid(UUID.fromString(id).toString()).build();
+  }
+
+  static Value toValue(Object o) {
+    Value.Builder v = Value.newBuilder();
+    if (o == null) v.setNullValueValue(0);
+    else if (o instanceof String s) v.setStringValue(s);
+    else if (o instanceof Boolean bool) v.setBoolValue(bool);
+    else if (o instanceof Integer || o instanceof Long || o instanceof Short) v.setIntegerValue(((Number) o).longValue());
+    else if (o instanceof Number n) v.setDoubleValue(n.doubleValue());
+    else if (o instanceof Map<?, ?> m) {
+      Struct.Builder s = Struct.newBuilder();
+      m.forEach((k, val) -> s.putFields(String.valueOf(k), toValue(val)));
+      v.setStructValue(s);
+    } else if (o instanceof Collection<?> c) {
+      ListValue.Builder l = ListValue.newBuilder();
+      c.forEach(item -> l.addValues(toValue(item)));
+      v.setListValue(l);
+    } else v.setStringValue(String.valueOf(o));
+    return v.build();
+  }
+
+  static Map<String, Object> toJava(Map<String, Value> payload) {
+    Map<String, Object> out = new LinkedHashMap<>();
+    payload.forEach((k, v) -> out.put(k, toJava(v)));
+    return out;
+  }
+
+  static Object toJava(Value v) {
+    return switch (v.getKindCase()) {
+      case STRING_VALUE -> v.getStringValue();
+      case INTEGER_VALUE -> v.getIntegerValue();
+      case DOUBLE_VALUE -> v.getDoubleValue();
+      case BOOL_VALUE -> v.getBoolValue();
+      case STRUCT_VALUE -> toJava(v.getStructValue().getFieldsMap());
+      case LIST_VALUE -> v.getListValue().getValuesList().stream().map(GrpcQdrantPoints::toJava).toList();
+      default -> null;
+    };
+  }
+
+  private static <T> T await(ListenableFuture<T> f) throws Exception {
+    try {
+      return f.get();
+    } catch (InterruptedException e) {
+      // the checked exception carries the interrupt to the caller, so the flag stays cleared
+      f.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ex ? ex : e;
+    }
+  }
+
+  /** Only read at startup, so it stays on the REST fallback. */
+  @Override
+  public long count() throws Exception {
+    return fallback.count();
+  }
+
+  @Override
+  public void close() {
+    client.close();
+  }
+}
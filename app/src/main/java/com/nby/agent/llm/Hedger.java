@@ -0,0 +1,199 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Hedged calls for one operation.
+ * If an attempt has not committed after the configured percentile of recent latency, a duplicate
+ * attempt starts, and the first attempt to commit wins. The other attempt is cancelled by interrupting
+ * its virtual thread, which closes a socket blocked in a read; the layers below recognise that as a
+ * cancellation ({@link LlmAsync#isCancellation}), not a provider failure. An attempt commits when it returns, or
+ * earlier by calling its commit check; streaming uses the first token. The latency sample is the time
+ * from the start of the call to the commit, whichever attempt commits. Hedges are capped by a token
+ * budget: each call earns {@code budgetRatio} of a hedge.
+ */
+public class Hedger {
+  private static final Logger logger = LoggerFactory.getLogger(Hedger.class);
+
+  private static final int WINDOW = 512;
+  private static final int MIN_SAMPLES = 20;
+  private static final double MAX_BUDGET = 10;
+
+  /** One attempt; {@code commit} claims the race and returns false if another attempt already won. */
+  @FunctionalInterface
+  public interface Attempt<T> {
+    T run(BooleanSupplier commit);
+  }
+
+  private final String operation;
+  private final double percentile;
+  private final long minDelayNanos;
+  private final double budgetRatio;
+  private final MetricsService metrics;
+  private final ExecutorService executor;
+
+  private final long[] samples = new long[WINDOW];
+  private int sampleCount;
+  private int sampleNext;
+  private long cachedDelay = -1;
+  private double budget;
+
+  public Hedger(String operation, double percentile, long minDelayMs, double budgetRatio,
+                MetricsService metrics, ExecutorService executor) {
+    this.operation = operation;
+    this.percentile = percentile;
+    this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMs);
+    this.budgetRatio = budgetRatio;
+    this.metrics = metrics;
+    this.executor = executor;
+  }
+
+  /** Stops taking new attempts; the executor may be shared, in which case its other hedgers stop too. */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  public <T> T call(Attempt<T> attempt) {
+    long delay = delayNanos();
+    earnBudget();
+    if (delay < 0) {
+      // not enough history to pick a delay yet: run inline and learn from it
+      long start = System.nanoTime();
+      boolean[] committed = {false};
+      T result = attempt.run(() -> {
+        if (!committed[0]) {
+          committed[0] = true;
+          record(System.nanoTime() - start);
+        }
+        return true;
+      });
+      if (!committed[0]) record(System.nanoTime() - start);
+      return result;
+    }
+
+    Race<T> race = new Race<>(attempt);
+    race.launch();
+    try {
+      int winner;
+      try {
+        winner = race.committed.get(delay, TimeUnit.NANOSECONDS);
+      } catch (TimeoutException slow) {
+        if (spendBudget() && race.launch()) {
+          metrics.incLlmHedgeFired(operation);
+          logger.debug("Hedging {} after {}ms", operation, TimeUnit.NANOSECONDS.toMillis(delay));
+        }
+        winner = race.committed.get();
+      }
+      race.cancelAllBut(winner);
+      if (winner > 0) metrics.incLlmHedgeWon(operation);
+      return race.futures.get(winner).get();
+    } catch (ExecutionException e) {
+      race.cancelAllBut(-1);
+      throw unwrap(e);
+    } catch (InterruptedException e) {
+      race.cancelAllBut(-1);
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for " + operation);
+    }
+  }
+
+  private static RuntimeException unwrap(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof RuntimeException re) return re;
+    if (cause instanceof Error err) throw err;
+    return new RuntimeException(cause);
+  }
+
+  /** State shared by the attempts of one hedged call. */
+  private final class Race<T> {
+    final Attempt<T> attempt;
+    final CompletableFuture<Integer> committed = new CompletableFuture<>();
+    final AtomicInteger winner = new AtomicInteger(-1);
+    final List<Future<T>> futures = new ArrayList<>(2);
+    // latency is sampled from the call's start, so a primary that stalled until a hedge won still counts as slow
+    final long start = System.nanoTime();
+    int failures;
+
+    Race(Attempt<T> attempt) {
+      this.attempt = attempt;
+    }
+
+    synchronized boolean launch() {
+      if (committed.isDone()) return false;
+      int index = futures.size();
+      BooleanSupplier commit = () -> {
+        if (winner.compareAndSet(-1, index)) {
+          record(System.nanoTime() - start);
+          committed.complete(index);
+          return true;
+        }
+        return winner.get() == index;
+      };
+      futures.add(executor.submit(() -> {
+        try {
+          T result = attempt.run(commit);
+          if (!commit.getAsBoolean()) throw new CancellationException("Lost hedge race");
+          return result;
+        } catch (RuntimeException e) {
+          failed(e);
+          throw e;
+        }
+      }));
+      return true;
+    }
+
+    synchronized void failed(RuntimeException e) {
+      // an attempt that failed before anyone committed only ends the race once every attempt has failed
+      if (winner.get() < 0 && ++failures == futures.size()) {
+        committed.completeExceptionally(e);
+      }
+    }
+
+    synchronized void cancelAllBut(int keep) {
+      for (int i = 0; i < futures.size(); i++) {
+        if (i != keep) futures.get(i).cancel(true);
+      }
+    }
+  }
+
+  private synchronized void record(long nanos) {
+    samples[sampleNext] = nanos;
+    sampleNext = (sampleNext + 1) % WINDOW;
+    if (sampleCount < WINDOW) sampleCount++;
+    if (sampleCount >= MIN_SAMPLES && (cachedDelay < 0 || sampleNext % 32 == 0)) {
+      long[] sorted = Arrays.copyOf(samples, sampleCount);
+      Arrays.sort(sorted);
+      int idx = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+      cachedDelay = Math.max(minDelayNanos, sorted[Math.max(0, idx)]);
+    }
+  }
+
+  synchronized long delayNanos() {
+    return cachedDelay;
+  }
+
+  private synchronized void earnBudget() {
+    budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+  }
+
+  private synchronized boolean spendBudget() {
+    if (budget < 1) return false;
+    budget -= 1;
+    return true;
+  }
+}
@@ -0,0 +1,61 @@
+package com.nby.agent.llm;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+/**
+ * Hedges calls to a slower-than-usual provider. Embed and chat hedge on total latency. Streaming chat
+ * hedges on time to first token, and only the winning stream's tokens reach the caller. Batch embeds
+ * learn their own latency, so ingest batches neither skew the single-embed delay nor spend its budget.
+ */
+public class HedgingLlmProvider implements LlmProvider {
+
+  private final LlmProvider delegate;
+  private final Hedger embedHedger;
+  private final Hedger embedBatchHedger;
+  private final Hedger chatHedger;
+  private final Hedger streamHedger;
+
+  public HedgingLlmProvider(LlmProvider delegate, Hedger embedHedger, Hedger embedBatchHedger, Hedger chatHedger, Hedger streamHedger) {
+    this.delegate = delegate;
+    this.embedHedger = embedHedger;
+    this.embedBatchHedger = embedBatchHedger;
+    this.chatHedger = chatHedger;
+    this.streamHedger = streamHedger;
+  }
+
+  @Override
+  public float[] embed(String text) {
+    return embedHedger.call(commit -> delegate.embed(text));
+  }
+
+  @Override
+  public List<float[]> embedBatch(List<String> texts) {
+    return embedBatchHedger.call(commit -> delegate.embedBatch(texts));
+  }
+
+  @Override
+  public String chat(String system, String user, int tokens) {
+    return chatHedger.call(commit -> delegate.chat(system, user, tokens));
+  }
+
+  @Override
+  public String chatStream(String system, String user, int tokens, Consumer<String> onToken) {
+    return streamHedger.call(commit -> delegate.chatStream(system, user, tokens, token -> {
+      if (!commit.getAsBoolean()) throw new CancellationException("Lost hedge race");
+      onToken.accept(token);
+    }));
+  }
+
+  @Override
+  public String embedModelName() {
+    return delegate.embedModelName();
+  }
+
+  @Override
+  public void close() {
+    for (Hedger h : List.of(embedHedger, embedBatchHedger, chatHedger, streamHedger)) h.shutdown();
+    delegate.close();
+  }
+}
@@ -0,0 +1,634 @@
+package com.nby.agent.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Embedded HNSW index (VECTOR_STORE=hnsw) for single-node deployments that do not want a Qdrant
+ * container. Files under VECTOR_STORE_PATH:
+ * <ul>
+ *   <li>{@code vectors-NNNN.f32}: memory-mapped segments of unit-length float32 vectors, so cosine is a dot product;</li>
+ *   <li>{@code payloads.bin}: append-only JSON payloads, read back with positional reads;</li>
+ *   <li>{@code graph.bin}: snapshot of point ids, payload offsets, tombstones and links, replaced
+ *       atomically by {@link #flush()}. Anything written after the last snapshot is dropped on load.</li>
+ * </ul>
+ * Upserts and deletes are serialized by one lock. Searches do not wait for them: a node is published
+ * only after its vector and links are written, and neighbour lists are replaced copy-on-write.
+ * Re-upserting a point with the same vector overwrites its payload in place. Deleted points, and
+ * points re-upserted with a different vector, stay in the graph as tombstones that searches route
+ * through but never return, until {@link #flush()} finds enough of them to rebuild the graph from
+ * the live points; only that swap briefly blocks searches.
+ */
+class HnswVectorStore implements VectorStore {
+  private static final Logger logger = LoggerFactory.getLogger(HnswVectorStore.class);
+
+  private static final int MAGIC = 0x484e5357; // "HNSW"
+  private static final int VERSION = 1;
+  static final int SEGMENT_VECTORS = 16384;
+
+  /** A graph node; {@code links.get(level)} are its neighbours on that level. */
+  private static final class Node {
+    final String id;
+    final String sourceId;
+    final String contentHash;
+    final long payloadOffset;
+    final int payloadLength;
+    final AtomicReferenceArray<int[]> links;
+    volatile boolean deleted;
+
+    Node(String id, String sourceId, String contentHash, long payloadOffset, int payloadLength, int levels) {
+      this(id, sourceId, contentHash, payloadOffset, payloadLength, new AtomicReferenceArray<>(levels));
+      for (int l = 0; l < levels; l++) links.set(l, new int[0]);
+    }
+
+    /** Shares {@code links}, so a payload overwrite keeps the node's place in the graph. */
+    Node(String id, String sourceId, String contentHash, long payloadOffset, int payloadLength, AtomicReferenceArray<int[]> links) {
+      this.id = id;
+      this.sourceId = sourceId;
+      this.contentHash = contentHash;
+      this.payloadOffset = payloadOffset;
+      this.payloadLength = payloadLength;
+      this.links = links;
+    }
+
+    int level() {
+      return links.length() - 1;
+    }
+  }
+
+  /** A node and its similarity to the current query. */
+  private record Scored(int node, float sim) {}
+
+  private static final Comparator<Scored> BEST_FIRST = (a, b) -> Float.compare(b.sim(), a.sim());
+  private static final Comparator<Scored> WORST_FIRST = (a, b) -> Float.compare(a.sim(), b.sim());
+
+  private final Path dir;
+  private final int m;
+  private final int efConstruct;
+  private final int efSearch;
+  private final double levelMult;
+  private final MetricsService metrics;
+  private final ObjectMapper om = new ObjectMapper();
+  private final ReentrantLock writer = new ReentrantLock();
+  /** Searches hold the read side; compaction takes the write side only to swap in the rebuilt files. */
+  private final ReentrantReadWriteLock swap = new ReentrantReadWriteLock();
+  private final Random levels = new Random(42);
+  private FileChannel payloads;
+
+  private final Map<String, Integer> byId = new ConcurrentHashMap<>();
+  private final Map<String, List<Integer>> bySource = new HashMap<>();
+  private volatile Node[] nodes = new Node[1024];
+  private volatile int size;
+  private volatile int entryPoint = -1;
+  private volatile int dim;
+  private volatile MappedByteBuffer[] mapped = new MappedByteBuffer[0];
+  private volatile FloatBuffer[] segments = new FloatBuffer[0];
+  private volatile int live;
+  private long payloadEnd;
+  private boolean dirty;
+
+  HnswVectorStore(Path dir, int m, int efConstruct, int efSearch, MetricsService metrics) {
+    this.dir = dir;
+    this.m = m;
+    this.efConstruct = efConstruct;
+    this.efSearch = efSearch;
+    this.levelMult = 1 / Math.log(m);
+    this.metrics = metrics;
+    try {
+      Files.createDirectories(dir);
+      this.payloads = FileChannel.open(dir.resolve("payloads.bin"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      load();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    metrics.gaugeVectorStorePoints("hnsw", () -> live);
+    logger.info("Embedded HNSW vector store at {}: {} points (M={}, ef_construct={}, ef_search={})", dir, live, m, efConstruct, efSearch);
+  }
+
+  static HnswVectorStore fromEnv(MetricsService metrics) {
+    return new HnswVectorStore(
+        Paths.get(System.getenv().getOrDefault("VECTOR_STORE_PATH", "/data/app/vectors")),
+        Integer.parseInt(System.getenv().getOrDefault("HNSW_M", "16")),
+        Integer.parseInt(System.getenv().getOrDefault("HNSW_EF_CONSTRUCT", "200")),
+        Integer.parseInt(System.getenv().getOrDefault("HNSW_EF_SEARCH", "64")),
+        metrics);
+  }
+
+  /* ---------- search ---------- */
+
+  @Override
+  public List<Hit> search(float[] vector, int limit) throws Exception {
+    long t = System.nanoTime();
+    swap.readLock().lock();
+    try {
+      int ep = entryPoint;
+      if (ep < 0 || limit <= 0) return List.of();
+      if (vector.length != dim) {
+        throw new IllegalArgumentException("Query of " + vector.length + " dims, store has " + dim);
+      }
+      float[] q = normalized(vector);
+      float[] buf = new float[q.length];
+      Scored cur = greedyDescent(q, ep, 0, buf);
+      List<Scored> found = List.of();
+      int ef = Math.max(efSearch, limit);
+      // tombstones take result slots, so widen the beam until enough live points are found
+      for (int attempt = 0; attempt < 4; attempt++, ef *= 2) {
+        found = searchLayer(q, List.of(cur), ef, 0, buf).stream().filter(s -> !nodes[s.node()].deleted).toList();
+        if (found.size() >= limit || ef >= size) break;
+      }
+      List<Hit> out = new ArrayList<>(Math.min(limit, found.size()));
+      for (Scored s : found) {
+        if (out.size() == limit) break;
+        out.add(new Hit(s.sim(), readPayload(nodes[s.node()])));
+      }
+      metrics.recordVectorStore("hnsw", "search", System.nanoTime() - t);
+      return out;
+    } finally {
+      swap.readLock().unlock();
+    }
+  }
+
+  /** Walks down from the top level to {@code toLevel + 1}, always moving to the most similar neighbour. */
+  private Scored greedyDescent(float[] q, int ep, int toLevel, float[] buf) {
+    Scored cur = new Scored(ep, sim(ep, q, buf));
+    for (int level = nodes[ep].level(); level > toLevel; level--) {
+      boolean moved = true;
+      while (moved) {
+        moved = false;
+        for (int n : nodes[cur.node()].links.get(level)) {
+          float s = sim(n, q, buf);
+          if (s > cur.sim()) {
+            cur = new Scored(n, s);
+            moved = true;
+          }
+        }
+      }
+    }
+    return cur;
+  }
+
+  /** Beam search on one level; returns up to {@code ef} nodes, most similar first. */
+  private List<Scored> searchLayer(float[] q, List<Scored> entry, int ef, int level, float[] buf) {
+    Set<Integer> visited = new HashSet<>();
+    PriorityQueue<Scored> candidates = new PriorityQueue<>(BEST_FIRST);
+    PriorityQueue<Scored> results = new PriorityQueue<>(WORST_FIRST);
+    for (Scored e : entry) {
+      visited.add(e.node());
+      candidates.add(e);
+      results.add(e);
+    }
+    while (!candidates.isEmpty()) {
+      Scored c = candidates.poll();
+      if (results.size() >= ef && c.sim() < results.peek().sim()) break;
+      for (int n : nodes[c.node()].links.get(level)) {
+        if (!visited.add(n)) continue;
+        float s = sim(n, q, buf);
+        if (results.size() < ef || s > results.peek().sim()) {
+          Scored sc = new Scored(n, s);
+          candidates.add(sc);
+          results.add(sc);
+          if (results.size() > ef) results.poll();
+        }
+      }
+    }
+    List<Scored> out = new ArrayList<>(results);
+    out.sort(BEST_FIRST);
+    return out;
+  }
+
+  /* ---------- writes ---------- */
+
+  @Override
+  public void upsert(List<RagService.QPoint> points, boolean wait) throws Exception {
+    long t = System.nanoTime();
+    writer.lock();
+    try {
+      for (RagService.QPoint p : points) insert(p);
+    } finally {
+      writer.unlock();
+    }
+    metrics.recordVectorStore("hnsw", "upsert", System.nanoTime() - t);
+  }
+
+  private void insert(RagService.QPoint p) throws IOException {
+    if (dim == 0) dim = p.vector().length;
+    if (p.vector().length != dim) {
+      throw new IllegalArgumentException("Vector of " + p.vector().length + " dims for point " + p.id() + ", store has " + dim);
+    }
+    float[] q = normalized(p.vector());
+    byte[] json = om.writeValueAsBytes(p.payload());
+    Map<String, Object> pl = p.payload();
+    String sourceId = pl == null || pl.get("source_id") == null ? null : String.valueOf(pl.get("source_id"));
+    String hash = pl == null || pl.get("content_hash") == null ? null : String.valueOf(pl.get("content_hash"));
+    Integer old = byId.get(p.id());
+    if (old != null) {
+      float[] current = new float[dim];
+      vector(old, current);
+      // stable point ids mean the same chunk text, so the vector rarely moves; then the graph can stay
+      if (VectorMath.dot(current, 0, q, dim) >= 1 - 1e-6f) {
+        overwrite(old, q, json, sourceId, hash);
+        return;
+      }
+      tombstone(old);
+    }
+
+    int id = size;
+    ensureCapacity(id);
+    segments[id / SEGMENT_VECTORS].put((id % SEGMENT_VECTORS) * dim, q);
+    long offset = payloadEnd;
+    writeFully(ByteBuffer.wrap(json), offset);
+    payloadEnd += json.length;
+
+    int level = (int) (-Math.log(1 - levels.nextDouble()) * levelMult);
+    Node node = new Node(p.id(), sourceId, hash, offset, json.length, level + 1);
+
+    int ep = entryPoint;
+    if (ep >= 0) {
+      float[] buf = new float[dim];
+      Scored cur = greedyDescent(q, ep, level, buf);
+      List<Scored> entry = List.of(cur);
+      for (int l = Math.min(level, nodes[ep].level()); l >= 0; l--) {
+        List<Scored> found = searchLayer(q, entry, efConstruct, l, buf);
+        node.links.set(l, selectNeighbours(found, l == 0 ? 2 * m : m));
+        entry = found;
+      }
+    }
+    // publish the node before anyone links to it, then add the reverse links
+    nodes[id] = node;
+    size = id + 1;
+    for (int l = 0; l <= level; l++) {
+      for (int n : node.links.get(l)) link(n, id, l);
+    }
+    if (ep < 0 || level > nodes[ep].level()) entryPoint = id;
+
+    byId.put(p.id(), id);
+    if (sourceId != null) bySource.computeIfAbsent(sourceId, k -> new ArrayList<>()).add(id);
+    live++;
+    dirty = true;
+  }
+
+  /** Replaces the vector and payload of live node {@code id}, keeping its links. */
+  private void overwrite(int id, float[] q, byte[] json, String sourceId, String hash) throws IOException {
+    Node n = nodes[id];
+    segments[id / SEGMENT_VECTORS].put((id % SEGMENT_VECTORS) * dim, q);
+    long offset = payloadEnd;
+    writeFully(ByteBuffer.wrap(json), offset);
+    payloadEnd += json.length;
+    nodes[id] = new Node(n.id, sourceId, hash, offset, json.length, n.links);
+    if (!Objects.equals(n.sourceId, sourceId)) {
+      if (n.sourceId != null) {
+        List<Integer> ids = bySource.get(n.sourceId);
+        ids.remove(Integer.valueOf(id));
+        if (ids.isEmpty()) bySource.remove(n.sourceId);
+      }
+      if (sourceId != null) bySource.computeIfAbsent(sourceId, k -> new ArrayList<>()).add(id);
+    }
+    dirty = true;
+  }
+
+  /** Adds {@code id} to the neighbours of {@code n} on {@code level}, pruning back to the level's limit. */
+  private void link(int n, int id, int level) {
+    int[] current = nodes[n].links.get(level);
+    int max = level == 0 ? 2 * m : m;
+    int[] grown = Arrays.copyOf(current, current.length + 1);
+    grown[current.length] = id;
+    if (grown.length <= max) {
+      nodes[n].links.set(level, grown);
+      return;
+    }
+    float[] base = new float[dim];
+    float[] buf = new float[dim];
+    vector(n, base);
+    List<Scored> candidates = new ArrayList<>(grown.length);
+    for (int c : grown) candidates.add(new Scored(c, sim(c, base, buf)));
+    candidates.sort(BEST_FIRST);
+    nodes[n].links.set(level, selectNeighbours(candidates, max));
+  }
+
+  /**
+   * HNSW neighbour heuristic: take candidates best first, skipping one that is closer to an already
+   * chosen neighbour than to the base, so links spread in different directions; skipped candidates
+   * fill any remaining slots. {@code candidates} are sorted by similarity to the base, best first.
+   */
+  private int[] selectNeighbours(List<Scored> candidates, int max) {
+    List<Scored> chosen = new ArrayList<>(max);
+    List<float[]> chosenVectors = new ArrayList<>(max);
+    List<Scored> skipped = new ArrayList<>();
+    for (Scored c : candidates) {
+      if (chosen.size() == max) break;
+      float[] v = new float[dim];
+      vector(c.node(), v);
+      boolean diverse = true;
+      for (float[] r : chosenVectors) {
+        if (VectorMath.dot(v, 0, r, dim) > c.sim()) {
+          diverse = false;
+          break;
+        }
+      }
+      if (diverse) {
+        chosen.add(c);
+        chosenVectors.add(v);
+      } else {
+        skipped.add(c);
+      }
+    }
+    for (Scored s : skipped) {
+      if (chosen.size() == max) break;
+      chosen.add(s);
+    }
+    int[] out = new int[chosen.size()];
+    for (int i = 0; i < out.length; i++) out[i] = chosen.get(i).node();
+    return out;
+  }
+
+  @Override
+  public void deleteBySource(String sourceId, String keepContentHash) throws Exception {
+    writer.lock();
+    try {
+      List<Integer> ids = bySource.get(sourceId);
+      if (ids == null) return;
+      ids.removeIf(id -> {
+        Node n = nodes[id];
+        if (n.deleted) return true;
+        if (keepContentHash != null && keepContentHash.equals(n.contentHash)) return false;
+        tombstone(id);
+        return true;
+      });
+      if (ids.isEmpty()) bySource.remove(sourceId);
+    } finally {
+      writer.unlock();
+    }
+  }
+
+  private void tombstone(int id) {
+    Node n = nodes[id];
+    if (n.deleted) return;
+    n.deleted = true;
+    byId.remove(n.id, id);
+    live--;
+    dirty = true;
+  }
+
+  @Override
+  public long count() {
+    return live;
+  }
+
+  /* ---------- storage ---------- */
+
+  private void ensureCapacity(int id) throws IOException {
+    if (id >= nodes.length) nodes = Arrays.copyOf(nodes, nodes.length * 2);
+    int segment = id / SEGMENT_VECTORS;
+    if (segment < segments.length) return;
+    MappedByteBuffer[] m2 = Arrays.copyOf(mapped, segment + 1);
+    FloatBuffer[] s2 = Arrays.copyOf(segments, segment + 1);
+    for (int i = segments.length; i <= segment; i++) {
+      try (FileChannel ch = FileChannel.open(segmentPath(i),
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        m2[i] = ch.map(FileChannel.MapMode.READ_WRITE, 0, (long) SEGMENT_VECTORS * dim * Float.BYTES);
+      }
+      s2[i] = m2[i].order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+    mapped = m2;
+    segments = s2;
+  }
+
+  private Path segmentPath(int i) {
+    return dir.resolve(String.format("vectors-%04d.f32", i));
+  }
+
+  private void vector(int node, float[] dst) {
+    segments[node / SEGMENT_VECTORS].get((node % SEGMENT_VECTORS) * dim, dst, 0, dim);
+  }
+
+  private float sim(int node, float[] q, float[] buf) {
+    vector(node, buf);
+    return VectorMath.dot(buf, 0, q, q.length);
+  }
+
+  private static float[] normalized(float[] v) {
+    double norm = 0;
+    for (float x : v) norm += x * x;
+    float inv = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+    float[] out = new float[v.length];
+    for (int i = 0; i < v.length; i++) out[i] = v[i] * inv;
+    return out;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> readPayload(Node n) throws IOException {
+    ByteBuffer bb = ByteBuffer.allocate(n.payloadLength);
+    long pos = n.payloadOffset;
+    while (bb.hasRemaining()) {
+      int r = payloads.read(bb, pos);
+      if (r < 0) throw new EOFException("Payload of " + n.id + " past end of payloads.bin");
+      pos += r;
+    }
+    return om.readValue(bb.array(), Map.class);
+  }
+
+  private void writeFully(ByteBuffer bb, long pos) throws IOException {
+    while (bb.hasRemaining()) pos += payloads.write(bb, pos);
+  }
+
+  /**
+   * Forces vectors and payloads to disk, then atomically replaces the graph snapshot. Once tombstones
+   * pass 1024 and a quarter of the live points, the graph is rebuilt from the live points instead.
+   */
+  @Override
+  public void flush() throws IOException {
+    writer.lock();
+    try {
+      if (!dirty) return;
+      int tombstones = size - live;
+      if (tombstones > 1024 && tombstones > live / 4) {
+        compact();
+        return;
+      }
+      long t = System.nanoTime();
+      for (MappedByteBuffer b : mapped) b.force();
+      payloads.force(false);
+      Path tmp = dir.resolve("graph.bin.tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dim);
+        out.writeInt(size);
+        out.writeInt(entryPoint);
+        out.writeLong(payloadEnd);
+        for (int i = 0; i < size; i++) {
+          Node n = nodes[i];
+          out.writeUTF(n.id);
+          writeNullable(out, n.sourceId);
+          writeNullable(out, n.contentHash);
+          out.writeLong(n.payloadOffset);
+          out.writeInt(n.payloadLength);
+          out.writeBoolean(n.deleted);
+          out.writeInt(n.links.length());
+          for (int l = 0; l < n.links.length(); l++) {
+            int[] links = n.links.get(l);
+            out.writeInt(links.length);
+            for (int x : links) out.writeInt(x);
+          }
+        }
+      }
+      Files.move(tmp, dir.resolve("graph.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      dirty = false;
+      metrics.recordVectorStore("hnsw", "snapshot", System.nanoTime() - t);
+      logger.info("HNSW snapshot written: {} points ({} live)", size, live);
+    } finally {
+      writer.unlock();
+    }
+  }
+
+  /**
+   * Re-inserts the live points into a fresh store under {@code compacting/}, snapshots it, then moves
+   * its files over these. {@code graph.bin} is removed first and replaced last, so a crash part way
+   * leaves either the old store or an empty one, which the startup bootstrap refills.
+   */
+  private void compact() throws IOException {
+    long t = System.nanoTime();
+    Path tmp = dir.resolve("compacting");
+    deleteTree(tmp);
+    int before = size;
+    try (HnswVectorStore next = new HnswVectorStore(tmp, m, efConstruct, efSearch, metrics)) {
+      float[] v = new float[dim];
+      for (int i = 0; i < size; i++) {
+        Node n = nodes[i];
+        if (n.deleted) continue;
+        vector(i, v);
+        next.insert(new RagService.QPoint(n.id, v.clone(), readPayload(n)));
+      }
+      next.flush();
+    }
+    swap.writeLock().lock();
+    try {
+      payloads.close();
+      Files.deleteIfExists(dir.resolve("graph.bin"));
+      List<Path> moved;
+      try (Stream<Path> s = Files.list(tmp)) {
+        moved = s.filter(f -> !f.getFileName().toString().equals("graph.bin")).toList();
+      }
+      for (Path f : moved) Files.move(f, dir.resolve(f.getFileName()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      Files.move(tmp.resolve("graph.bin"), dir.resolve("graph.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      deleteTree(tmp);
+      for (int i = (live + SEGMENT_VECTORS - 1) / SEGMENT_VECTORS; i < segments.length; i++) {
+        Files.deleteIfExists(segmentPath(i));
+      }
+      reset();
+      payloads = FileChannel.open(dir.resolve("payloads.bin"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      load();
+      dirty = false;
+    } finally {
+      swap.writeLock().unlock();
+    }
+    metrics.recordVectorStore("hnsw", "compact", System.nanoTime() - t);
+    logger.info("HNSW index compacted: {} points, {} tombstones dropped", live, before - live);
+  }
+
+  private static void deleteTree(Path root) throws IOException {
+    if (!Files.exists(root)) return;
+    try (Stream<Path> s = Files.walk(root)) {
+      for (Path p : s.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+    }
+  }
+
+  private void reset() {
+    byId.clear();
+    bySource.clear();
+    nodes = new Node[1024];
+    mapped = new MappedByteBuffer[0];
+    segments = new FloatBuffer[0];
+    dim = 0;
+    size = 0;
+    entryPoint = -1;
+    live = 0;
+    payloadEnd = 0;
+  }
+
+  private void load() throws IOException {
+    Path graph = dir.resolve("graph.bin");
+    if (!Files.isRegularFile(graph)) {
+      payloads.truncate(0);
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(graph)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("not an HNSW snapshot (version " + VERSION + ")");
+      int d = in.readInt();
+      int n = in.readInt();
+      int ep = in.readInt();
+      long end = in.readLong();
+      dim = d;
+      Node[] loaded = new Node[Math.max(1024, Integer.highestOneBit(Math.max(1, n)) * 2)];
+      int alive = 0;
+      for (int i = 0; i < n; i++) {
+        String id = in.readUTF();
+        String sourceId = readNullable(in);
+        String hash = readNullable(in);
+        long offset = in.readLong();
+        int length = in.readInt();
+        boolean deleted = in.readBoolean();
+        int lv = in.readInt();
+        Node node = new Node(id, sourceId, hash, offset, length, lv);
+        node.deleted = deleted;
+        for (int l = 0; l < lv; l++) {
+          int[] links = new int[in.readInt()];
+          for (int k = 0; k < links.length; k++) links[k] = in.readInt();
+          node.links.set(l, links);
+        }
+        loaded[i] = node;
+        if (!deleted) {
+          byId.put(node.id, i);
+          if (node.sourceId != null) bySource.computeIfAbsent(node.sourceId, k -> new ArrayList<>()).add(i);
+          alive++;
+        }
+      }
+      nodes = loaded;
+      if (n > 0) ensureCapacity(n - 1);
+      size = n;
+      entryPoint = ep;
+      live = alive;
+      payloadEnd = end;
+      payloads.truncate(end);
+    } catch (IOException e) {
+      logger.warn("Ignoring unreadable HNSW snapshot in {}, starting empty: {}", dir, e.getMessage());
+      reset();
+      payloads.truncate(0);
+    }
+  }
+
+  private static void writeNullable(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) out.writeUTF(s);
+  }
+
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  @Override
+  public void close() {
+    try {
+      flush();
+      payloads.close();
+    } catch (IOException e) {
+      logger.warn("Failed to snapshot HNSW index on shutdown: {}", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,292 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Staged ingestion: read + chunk -> batch embed -> paged upsert, with bounded queues in between.
+ * <p>
+ * One reader walks the sources and chunks each one, blocking when the chunk queue is full. A fixed
+ * number of embedders each drain up to {@link EmbedBatching#batchSize()} chunks per provider call. One
+ * upserter packs embedded points into pages of {@code pageSize}. At most {@code queueCapacity} chunks
+ * and a few embedded batches are held at once, so heap use does not grow with the size of the KB, and
+ * no single Qdrant request is larger than one page.
+ * <p>
+ * With {@code waitEachPage} off, pages are sent with {@code wait=false} and Qdrant acknowledges them
+ * once they reach its WAL. The last page always goes with {@code wait=true}. Qdrant applies WAL
+ * entries in order, so when that call returns, every earlier page is searchable too.
+ * <p>
+ * If any stage fails, the other stages are cancelled and the error propagates from {@link #run}.
+ */
+class IngestPipeline {
+  private static final Logger logger = LoggerFactory.getLogger(IngestPipeline.class);
+
+  /** One document to ingest; {@code content} is only read when the reader reaches it. */
+  record Source(String sourceId, String name, String sourceType, String uri, Callable<String> content) {}
+
+  /** Point id for a chunk; called by the single reader thread, in source and chunk order. */
+  interface PointIds {
+    String id(Source source, int chunkIndex, String text);
+  }
+
+  /** RFC 4122 URL namespace; source ids are paths and URLs. */
+  static final UUID NAMESPACE_URL = UUID.fromString("6ba7b811-9dad-11d1-80b4-00c04fd430c8");
+
+  /**
+   * UUIDv5 of (source id, chunk index, chunk text hash): re-ingesting a source overwrites its
+   * unchanged chunks in place instead of adding duplicates.
+   */
+  static final PointIds STABLE_IDS = (source, chunkIndex, text) ->
+      uuid5(NAMESPACE_URL, source.sourceId() + '\u0000' + chunkIndex + '\u0000' + contentHash(text)).toString();
+
+  /**
+   * Told about each source once it has been chunked, from the reader thread. Its points are not in
+   * Qdrant yet at that moment, so anything persisted from here should wait until {@link #run} returns.
+   */
+  interface SourceListener {
+    void chunked(Source source, String contentHash, int chunkCount) throws Exception;
+  }
+
+  record Result(int sources, int chunks, int points) {}
+
+  private record Chunk(String id, String text, Map<String, Object> payload) {}
+
+  private static final Chunk END_OF_CHUNKS = new Chunk(null, null, null);
+  private static final List<RagService.QPoint> END_OF_POINTS = List.of();
+
+  private final LlmProvider llm;
+  private final VectorStore points;
+  private final MetricsService metrics;
+  private final int parallelism;
+  private final int queueCapacity;
+  private final int pageSize;
+  private final boolean waitEachPage;
+  // a lock rather than synchronized: callers on virtual threads must not pin their carrier while waiting
+  private final ReentrantLock running = new ReentrantLock();
+  private volatile BlockingQueue<?> chunkQueue = new ArrayBlockingQueue<>(1);
+  private volatile BlockingQueue<?> pointQueue = new ArrayBlockingQueue<>(1);
+
+  IngestPipeline(LlmProvider llm, VectorStore points, MetricsService metrics,
+                 int parallelism, int queueCapacity, int pageSize, boolean waitEachPage) {
+    this.llm = llm;
+    this.points = points;
+    this.metrics = metrics;
+    this.parallelism = Math.max(1, parallelism);
+    this.queueCapacity = Math.max(1, queueCapacity);
+    this.pageSize = Math.max(1, pageSize);
+    this.waitEachPage = waitEachPage;
+    metrics.gaugeIngestQueue("chunks", () -> chunkQueue.size());
+    metrics.gaugeIngestQueue("points", () -> pointQueue.size());
+  }
+
+  /** INGEST_EMBED_PARALLELISM, INGEST_QUEUE_CHUNKS, INGEST_UPSERT_PAGE, INGEST_UPSERT_WAIT. */
+  static IngestPipeline fromEnv(LlmProvider llm, VectorStore points, MetricsService metrics) {
+    return new IngestPipeline(llm, points, metrics,
+        Integer.parseInt(System.getenv().getOrDefault("INGEST_EMBED_PARALLELISM", "2")),
+        Integer.parseInt(System.getenv().getOrDefault("INGEST_QUEUE_CHUNKS", "1024")),
+        Integer.parseInt(System.getenv().getOrDefault("INGEST_UPSERT_PAGE", "256")),
+        Boolean.parseBoolean(System.getenv().getOrDefault("INGEST_UPSERT_WAIT", "true")));
+  }
+
+  /** Runs one ingestion to completion. Runs are serialized; a second caller waits for the first. */
+  Result run(Iterator<Source> sources, PointIds ids) throws Exception {
+    return run(sources, ids, (s, hash, n) -> {});
+  }
+
+  Result run(Iterator<Source> sources, PointIds ids, SourceListener listener) throws Exception {
+    running.lockInterruptibly();
+    try {
+      return runExclusive(sources, ids, listener);
+    } finally {
+      running.unlock();
+    }
+  }
+
+  private Result runExclusive(Iterator<Source> sources, PointIds ids, SourceListener listener) throws Exception {
+    BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(queueCapacity);
+    BlockingQueue<List<RagService.QPoint>> embedded = new ArrayBlockingQueue<>(parallelism * 2);
+    chunkQueue = chunks;
+    pointQueue = embedded;
+    AtomicInteger sourceCount = new AtomicInteger();
+    AtomicInteger chunkCount = new AtomicInteger();
+    AtomicInteger pointCount = new AtomicInteger();
+    AtomicInteger embeddersLeft = new AtomicInteger(parallelism);
+    CompletableFuture<Void> outcome = new CompletableFuture<>();
+    List<Future<?>> tasks = new ArrayList<>();
+    long start = System.nanoTime();
+
+    try (ExecutorService exec = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ingest-", 0).factory())) {
+      tasks.add(exec.submit(() -> stage(outcome, () -> {
+        while (sources.hasNext()) {
+          Source s = sources.next();
+          long t = System.nanoTime();
+          String content;
+          try {
+            content = s.content().call();
+          } catch (Exception e) {
+            logger.warn("Failed to read {}: {}", s.name(), e.getMessage());
+            continue;
+          }
+          metrics.recordIngestStage("read", 1, System.nanoTime() - t);
+          sourceCount.incrementAndGet();
+          t = System.nanoTime();
+          List<String> texts = RagService.chunk(content, 1000, 200);
+          String hash = contentHash(content);
+          metrics.recordIngestStage("chunk", texts.size(), System.nanoTime() - t);
+          listener.chunked(s, hash, texts.size());
+          int idx = 0;
+          for (String text : texts) {
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("text", text);
+            payload.put("source_id", s.sourceId());
+            payload.put("name", s.name());
+            payload.put("source_type", s.sourceType());
+            if (s.uri() != null) payload.put("uri", s.uri());
+            payload.put("chunk_index", idx);
+            payload.put("content_hash", hash);
+            chunks.put(new Chunk(ids.id(s, idx, text), text, payload));
+            idx++;
+          }
+          chunkCount.addAndGet(idx);
+        }
+        for (int i = 0; i < parallelism; i++) chunks.put(END_OF_CHUNKS);
+      })));
+
+      int batchSize = EmbedBatching.batchSize();
+      for (int w = 0; w < parallelism; w++) {
+        tasks.add(exec.submit(() -> stage(outcome, () -> {
+          boolean last = false;
+          while (!last) {
+            Chunk first = chunks.take();
+            if (first == END_OF_CHUNKS) break;
+            List<Chunk> batch = new ArrayList<>(batchSize);
+            batch.add(first);
+            while (batch.size() < batchSize) {
+              Chunk c = chunks.poll();
+              if (c == null) break;
+              if (c == END_OF_CHUNKS) { // each embedder consumes exactly one end marker
+                last = true;
+                break;
+              }
+              batch.add(c);
+            }
+            embedBatch(batch, embedded);
+          }
+          if (embeddersLeft.decrementAndGet() == 0) embedded.put(END_OF_POINTS);
+        })));
+      }
+
+      tasks.add(exec.submit(() -> stage(outcome, () -> {
+        List<RagService.QPoint> page = new ArrayList<>(pageSize);
+        List<RagService.QPoint> lastSent = null;
+        while (true) {
+          List<RagService.QPoint> batch = embedded.take();
+          if (batch == END_OF_POINTS) break;
+          for (RagService.QPoint p : batch) {
+            page.add(p);
+            if (page.size() == pageSize) {
+              send(page, waitEachPage);
+              pointCount.addAndGet(page.size());
+              lastSent = page;
+              page = new ArrayList<>(pageSize);
+            }
+          }
+        }
+        if (!page.isEmpty()) {
+          send(page, true);
+          pointCount.addAndGet(page.size());
+        } else if (lastSent != null && !waitEachPage) {
+          send(lastSent, true); // consistency barrier: same ids again, with wait=true
+        }
+        outcome.complete(null);
+      })));
+
+      try {
+        outcome.get();
+      } catch (ExecutionException e) {
+        tasks.forEach(f -> f.cancel(true));
+        throw e.getCause() instanceof Exception ex ? ex : e;
+      } catch (InterruptedException e) {
+        tasks.forEach(f -> f.cancel(true));
+        throw e;
+      }
+    } finally {
+      chunkQueue = new ArrayBlockingQueue<>(1);
+      pointQueue = new ArrayBlockingQueue<>(1);
+    }
+    Result result = new Result(sourceCount.get(), chunkCount.get(), pointCount.get());
+    logger.info("Ingested {} sources, {} chunks, {} points in {} ms", result.sources(), result.chunks(), result.points(),
+        (System.nanoTime() - start) / 1_000_000);
+    return result;
+  }
+
+  /** SHA-256 of the source text, stored on every point and in the manifest to detect changed sources. */
+  static String contentHash(String content) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Name-based UUID, version 5 (SHA-1), as in RFC 4122 section 4.3. */
+  static UUID uuid5(UUID namespace, String name) {
+    try {
+      MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+      sha1.update(ByteBuffer.allocate(16).putLong(namespace.getMostSignificantBits()).putLong(namespace.getLeastSignificantBits()).array());
+      byte[] h = sha1.digest(name.getBytes(StandardCharsets.UTF_8));
+      h[6] = (byte) ((h[6] & 0x0f) | 0x50);
+      h[8] = (byte) ((h[8] & 0x3f) | 0x80);
+      ByteBuffer bb = ByteBuffer.wrap(h, 0, 16);
+      return new UUID(bb.getLong(), bb.getLong());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void embedBatch(List<Chunk> batch, BlockingQueue<List<RagService.QPoint>> embedded) throws Exception {
+    if (batch.isEmpty()) return;
+    List<String> texts = new ArrayList<>(batch.size());
+    for (Chunk c : batch) texts.add(c.text());
+    long t = System.nanoTime();
+    List<float[]> vectors = metrics.timeLlmEmbed(() -> llm.embedBatch(texts));
+    if (vectors == null || vectors.size() != texts.size()) {
+      throw new IllegalStateException("Embedding batch returned " + (vectors == null ? 0 : vectors.size()) + " vectors for " + texts.size() + " texts");
+    }
+    metrics.recordIngestStage("embed", batch.size(), System.nanoTime() - t);
+    List<RagService.QPoint> out = new ArrayList<>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      Chunk c = batch.get(i);
+      out.add(new RagService.QPoint(c.id(), vectors.get(i), c.payload()));
+    }
+    embedded.put(out);
+  }
+
+  private void send(List<RagService.QPoint> page, boolean wait) throws Exception {
+    long t = System.nanoTime();
+    points.upsert(page, wait);
+    metrics.recordIngestStage("upsert", page.size(), System.nanoTime() - t);
+  }
+
+  private interface Body {
+    void run() throws Exception;
+  }
+
+  private static void stage(CompletableFuture<Void> outcome, Body body) {
+    try {
+      body.run();
+    } catch (Throwable t) {
+      outcome.completeExceptionally(t);
+    }
+  }
+}
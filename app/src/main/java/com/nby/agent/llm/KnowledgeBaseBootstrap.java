@@ -0,0 +1,127 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prepares the Qdrant collection and ingests the knowledge base on a background thread, so the
+ * context starts in seconds even with a large KB or with Qdrant/the embed model still down. A phase
+ * that fails is retried every KB_BOOTSTRAP_RETRY_MS. Until every phase has finished this indicator
+ * reports OUT_OF_SERVICE, which keeps the readiness probe (and /actuator/health) from reporting ready.
+ */
+@Component
+public class KnowledgeBaseBootstrap implements ApplicationRunner, HealthIndicator, DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(KnowledgeBaseBootstrap.class);
+
+  static final List<String> PHASES = List.of("collection", "ingest");
+
+  private final boolean enabled = Boolean.parseBoolean(setting("KB_BOOTSTRAP", "true"));
+  private final long retryMs = Long.parseLong(setting("KB_BOOTSTRAP_RETRY_MS", "15000"));
+
+  private final RagService rag;
+  private final MetricsService metrics;
+  private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+  private final long createdAt = System.nanoTime();
+  private ScheduledExecutorService worker;
+
+  private volatile int completed;
+  private volatile int attempts;
+  private volatile String lastError;
+  private volatile RagService.ReindexReport ingested;
+
+  public KnowledgeBaseBootstrap(RagService rag, MetricsService metrics) {
+    this.rag = rag;
+    this.metrics = metrics;
+    metrics.gaugeBootstrapProgress(() -> (double) completed / PHASES.size());
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (!enabled) {
+      logger.info("Knowledge base bootstrap disabled (KB_BOOTSTRAP=false)");
+      completed = PHASES.size();
+      return;
+    }
+    worker = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "kb-bootstrap");
+      t.setDaemon(true);
+      return t;
+    });
+    worker.execute(this::advance);
+  }
+
+  /** Runs the remaining phases in order; on failure schedules another attempt from the failed phase. */
+  void advance() {
+    while (completed < PHASES.size()) {
+      String phase = PHASES.get(completed);
+      attempts++;
+      long t = System.nanoTime();
+      try {
+        runPhase(phase);
+        long nanos = System.nanoTime() - t;
+        metrics.recordStartupPhase(phase, nanos, true);
+        synchronized (phaseMillis) {
+          phaseMillis.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+        lastError = null;
+        completed++;
+        logger.info("Knowledge base bootstrap phase '{}' done in {}ms", phase, TimeUnit.NANOSECONDS.toMillis(nanos));
+      } catch (Exception e) {
+        metrics.recordStartupPhase(phase, System.nanoTime() - t, false);
+        lastError = phase + ": " + e.getMessage();
+        logger.warn("Knowledge base bootstrap phase '{}' failed (attempt {}), retrying in {}ms: {}", phase, attempts, retryMs, e.getMessage());
+        if (worker != null && !worker.isShutdown()) worker.schedule(this::advance, retryMs, TimeUnit.MILLISECONDS);
+        return;
+      }
+    }
+    logger.info("Knowledge base bootstrap finished in {}ms: {}", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdAt), ingested);
+  }
+
+  private void runPhase(String phase) throws Exception {
+    switch (phase) {
+      case "collection" -> rag.prepareCollection();
+      case "ingest" -> ingested = rag.ingestIfEmpty();
+      default -> throw new IllegalStateException("Unknown bootstrap phase " + phase);
+    }
+  }
+
+  public boolean isReady() {
+    return completed >= PHASES.size();
+  }
+
+  @Override
+  public Health health() {
+    Health.Builder h = isReady() ? Health.up() : Health.outOfService();
+    h.withDetail("phase", isReady() ? "done" : PHASES.get(completed));
+    h.withDetail("attempts", attempts);
+    synchronized (phaseMillis) {
+      h.withDetail("phaseMillis", new LinkedHashMap<>(phaseMillis));
+    }
+    if (lastError != null) h.withDetail("lastError", lastError);
+    if (ingested != null) h.withDetail("ingested", ingested);
+    return h.build();
+  }
+
+  @Override
+  public void destroy() {
+    if (worker != null) worker.shutdownNow();
+  }
+
+  private static String setting(String key, String def) {
+    return System.getProperty(key, System.getenv().getOrDefault(key, def));
+  }
+}
@@ -0,0 +1,62 @@
+package com.nby.agent.llm;
+
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Runs blocking LLM and retrieval work on virtual threads behind a {@link CompletableFuture}.
+ * A virtual thread parked on a socket read costs a few hundred bytes, not a platform thread, so
+ * callers can fan out without sizing pools around model latency. If the returned future completes
+ * before the work does (because of {@code cancel}, {@code orTimeout} or {@code completeExceptionally}),
+ * the worker is interrupted. On a virtual thread that closes the socket it is blocked on, so the HTTP
+ * call is abandoned instead of running to completion. Cancelling a stage derived from the future
+ * (thenApply etc.) does not reach back to the worker; cancel the original future.
+ * <p>
+ * An abandoned call then fails with whatever the HTTP client makes of the closed socket (usually a
+ * ResourceAccessException). Layers that judge provider health check {@link #isCancellation} first,
+ * so a cancelled call never ejects an endpoint, trips a breaker or shrinks a concurrency limit.
+ */
+public final class LlmAsync {
+
+  private LlmAsync() {}
+
+  public static <T> CompletableFuture<T> supply(String name, Callable<T> work) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    Thread worker = Thread.ofVirtual().name(name).unstarted(() -> {
+      try {
+        future.complete(work.call());
+      } catch (Throwable t) {
+        future.completeExceptionally(t instanceof CompletionException ce && ce.getCause() != null ? ce.getCause() : t);
+      }
+    });
+    future.whenComplete((result, error) -> {
+      if (error != null && Thread.currentThread() != worker) worker.interrupt();
+    });
+    worker.start();
+    return future;
+  }
+
+  /**
+   * True when {@code e} ended a call its caller had already abandoned: the current thread was
+   * interrupted (a losing hedge, a cancelled or timed-out {@link #supply} future), or the failure
+   * wraps a cancellation or interrupt.
+   */
+  public static boolean isCancellation(Throwable e) {
+    if (Thread.currentThread().isInterrupted()) return true;
+    for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+      if (t instanceof CancellationException || t instanceof InterruptedException || t instanceof ClosedByInterruptException) return true;
+    }
+    return false;
+  }
+
+  /** {@code e} as a CancellationException, for rethrowing a failure that {@link #isCancellation} recognised. */
+  public static CancellationException cancellation(Throwable e) {
+    if (e instanceof CancellationException ce) return ce;
+    CancellationException ce = new CancellationException("Call abandoned: " + e.getMessage());
+    ce.initCause(e);
+    return ce;
+  }
+}
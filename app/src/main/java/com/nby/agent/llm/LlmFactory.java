@@ -1,32 +1,128 @@
 package com.nby.agent.llm;
 
+import com.nby.agent.metrics.MetricsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 @Configuration
 public class LlmFactory {
   private static final Logger logger = LoggerFactory.getLogger(LlmFactory.class);
   
   @Bean
   @Primary
-  public LlmProvider llmProvider(OllamaClient ollama, OpenAIClient openai) {
+  public LlmProvider llmProvider(OllamaClient ollama, OpenAIClient openai, MetricsService metrics) {
+    String chain = setting("LLM_PROVIDERS", "").trim();
+    LlmProvider provider = chain.isEmpty()
+        ? single(ollama, openai, metrics)
+        : withFailover(chain, ollama, openai, metrics);
+
+    return withEmbeddingCache(withCoalescing(withHedging(provider, metrics), metrics), metrics);
+  }
+
+  private LlmProvider withCoalescing(LlmProvider provider, MetricsService metrics) {
+    if (!Boolean.parseBoolean(setting("EMBED_COALESCE_ENABLED", "false"))) return provider;
+    long maxWaitMs = Long.parseLong(setting("EMBED_COALESCE_MAX_WAIT_MS", "5"));
+    int maxBatch = Integer.parseInt(setting("EMBED_COALESCE_MAX_BATCH", String.valueOf(EmbedBatching.batchSize())));
+    logger.info("Embed coalescing enabled: maxWait={}ms, maxBatch={}", maxWaitMs, maxBatch);
+    return new CoalescingLlmProvider(provider, maxWaitMs, maxBatch, metrics);
+  }
+
+  private LlmProvider single(OllamaClient ollama, OpenAIClient openai, MetricsService metrics) {
     String p = System.getProperty("LLM_PROVIDER", System.getenv().getOrDefault("LLM_PROVIDER","ollama")).toLowerCase();
     logger.info("Configuring LLM provider: {}", p);
     
-    LlmProvider provider = switch (p) {
+    return switch (p) {
       case "openai" -> {
         logger.info("Using OpenAI as LLM provider");
-        yield openai;
+        yield withConcurrencyLimit(openai, "openai", metrics);
+      }
+      case "synthetic" -> {
+        logger.info("Using synthetic offline LLM provider (load testing)");
+        yield withConcurrencyLimit(SyntheticLlmProvider.fromEnv(), "synthetic", metrics);
       }
       default -> {
         logger.info("Using Ollama as LLM provider (default)");
-        yield ollama;
+        yield withConcurrencyLimit(ollama, "ollama", metrics);
       }
     };
-    
-    return provider;
+  }
+
+  /** LLM_PROVIDERS=ollama,openai: try providers in order, each behind its own circuit breaker. */
+  private LlmProvider withFailover(String chain, OllamaClient ollama, OpenAIClient openai, MetricsService metrics) {
+    int failures = Integer.parseInt(setting("LLM_BREAKER_FAILURES", "5"));
+    long openMs = Long.parseLong(setting("LLM_BREAKER_OPEN_MS", "30000"));
+    List<FailoverLlmProvider.Member> members = new ArrayList<>();
+    for (String name : chain.toLowerCase().split(",")) {
+      name = name.trim();
+      if (name.isEmpty()) continue;
+      LlmProvider base = switch (name) {
+        case "ollama" -> ollama;
+        case "openai" -> openai;
+        case "synthetic" -> SyntheticLlmProvider.fromEnv();
+        default -> throw new IllegalArgumentException("Unknown LLM provider in LLM_PROVIDERS: " + name);
+      };
+      members.add(new FailoverLlmProvider.Member(name, withConcurrencyLimit(base, name, metrics),
+          new CircuitBreaker(name, failures, openMs, metrics)));
+    }
+    boolean failoverEmbeddings = Boolean.parseBoolean(setting("LLM_FAILOVER_EMBEDDINGS", "false"));
+    logger.info("LLM failover chain: {} (breaker opens after {} failures for {}ms, embedding failover {})",
+        members.stream().map(FailoverLlmProvider.Member::name).toList(), failures, openMs, failoverEmbeddings);
+    return new FailoverLlmProvider(members, failoverEmbeddings, metrics);
+  }
+
+  private LlmProvider withHedging(LlmProvider provider, MetricsService metrics) {
+    if (!Boolean.parseBoolean(setting("LLM_HEDGE_ENABLED", "false"))) return provider;
+    double percentile = Double.parseDouble(setting("LLM_HEDGE_PERCENTILE", "0.95"));
+    long minDelayMs = Long.parseLong(setting("LLM_HEDGE_MIN_DELAY_MS", "50"));
+    double budget = Double.parseDouble(setting("LLM_HEDGE_BUDGET_PERCENT", "10")) / 100.0;
+    logger.info("Hedged LLM requests enabled: p{} delay, budget {}%", Math.round(percentile * 100), Math.round(budget * 100));
+    ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    return new HedgingLlmProvider(provider,
+        new Hedger("embed", percentile, minDelayMs, budget, metrics, executor),
+        new Hedger("embed_batch", percentile, minDelayMs, budget, metrics, executor),
+        new Hedger("chat", percentile, minDelayMs, budget, metrics, executor),
+        new Hedger("chat_stream", percentile, minDelayMs, budget, metrics, executor));
+  }
+
+  /**
+   * Embed and chat limits up to LLM_LIMIT_MAX each, on one route of the shared HTTP pool; the pool's
+   * per-route default is sized from the same settings (HttpTransport.defaultMaxPerRoute), so a
+   * pool-wait timeout is not mistaken for model overload.
+   */
+  private LlmProvider withConcurrencyLimit(LlmProvider provider, String name, MetricsService metrics) {
+    if (!Boolean.parseBoolean(setting("LLM_LIMITER_ENABLED", "false"))) return provider;
+    logger.info("Adaptive concurrency limiter enabled for {}", name);
+    return new ConcurrencyLimitedLlmProvider(provider, limiter(name, "embed", metrics), limiter(name, "chat", metrics));
+  }
+
+  private AdaptiveLimiter limiter(String provider, String operation, MetricsService metrics) {
+    return new AdaptiveLimiter(provider, operation,
+        Integer.parseInt(setting("LLM_LIMIT_INITIAL", "4")),
+        Integer.parseInt(setting("LLM_LIMIT_MIN", "1")),
+        Integer.parseInt(setting("LLM_LIMIT_MAX", "32")),
+        Integer.parseInt(setting("LLM_LIMIT_QUEUE", "64")),
+        Long.parseLong(setting("LLM_LIMIT_QUEUE_TIMEOUT_MS", "30000")),
+        Double.parseDouble(setting("LLM_LIMIT_LATENCY_TOLERANCE", "2.0")),
+        metrics);
+  }
+
+  private LlmProvider withEmbeddingCache(LlmProvider provider, MetricsService metrics) {
+    if (!Boolean.parseBoolean(setting("EMBED_CACHE_ENABLED", "false"))) return provider;
+    String db = setting("EMBED_CACHE_DB", "/data/app/embed-cache.db");
+    int entries = Integer.parseInt(setting("EMBED_CACHE_MEMORY_ENTRIES", "50000"));
+    logger.info("Embedding cache enabled: db={}, memoryEntries={}", db, entries);
+    return new CachingLlmProvider(provider, new EmbeddingCache(db, entries, metrics));
+  }
+
+  private static String setting(String key, String def) {
+    return System.getProperty(key, System.getenv().getOrDefault(key, def));
   }
 }
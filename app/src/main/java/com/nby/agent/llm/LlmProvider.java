@@ -1,6 +1,66 @@
 package com.nby.agent.llm;
 
-public interface LlmProvider {
-  double[] embed(String text);
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * A chat and embedding backend, or a decorator around one. Decorators that own threads or executors
+ * release them in {@link #close()} and pass the call on to their delegate, so closing the outermost
+ * provider (Spring does, on context shutdown) tears down the whole chain.
+ */
+public interface LlmProvider extends AutoCloseable {
+  /** Returns the embedding as float32, the precision Qdrant stores; doubles would only double heap and wire size. */
+  float[] embed(String text);
   String chat(String system, String user, int tokens);
-}
\ No newline at end of file
+
+  /** Identifies the embedding model, so cached vectors are never shared across models. */
+  default String embedModelName() {
+    return getClass().getSimpleName();
+  }
+
+  /**
+   * Streams a chat completion, handing each content fragment to {@code onToken} as soon as
+   * the provider emits it, and returns the full completion once the stream ends.
+   * The default delivers the non-streaming answer as a single fragment.
+   */
+  default String chatStream(String system, String user, int tokens, Consumer<String> onToken) {
+    String answer = chat(system, user, tokens);
+    onToken.accept(answer);
+    return answer;
+  }
+
+  /**
+   * Embeds many texts, returning one vector per input in the same order.
+   * Providers with a native multi-input endpoint override this; the default
+   * falls back to one {@link #embed(String)} call per text.
+   */
+  default List<float[]> embedBatch(List<String> texts) {
+    List<float[]> out = new ArrayList<>(texts.size());
+    for (String t : texts) out.add(embed(t));
+    return out;
+  }
+
+  /**
+   * Non-blocking variants: each runs the sync call on its own virtual thread (see {@link LlmAsync}).
+   * Cancelling the returned future, or letting {@code orTimeout} expire, interrupts the call and
+   * aborts its HTTP request.
+   */
+  default CompletableFuture<float[]> embedAsync(String text) {
+    return LlmAsync.supply("llm-embed", () -> embed(text));
+  }
+
+  default CompletableFuture<List<float[]>> embedBatchAsync(List<String> texts) {
+    return LlmAsync.supply("llm-embed", () -> embedBatch(texts));
+  }
+
+  default CompletableFuture<String> chatAsync(String system, String user, int tokens) {
+    return LlmAsync.supply("llm-chat", () -> chat(system, user, tokens));
+  }
+
+  /** Leaf providers are Spring beans with their own lifecycle, so the default does nothing. */
+  @Override
+  default void close() {
+  }
+}
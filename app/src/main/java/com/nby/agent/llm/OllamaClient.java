@@ -2,49 +2,170 @@ package com.nby.agent.llm;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nby.agent.config.PromptBudget;
+import com.nby.agent.http.HttpTransport;
+import com.nby.agent.metrics.MetricsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
 @Service("ollamaClient")
-public class OllamaClient implements LlmProvider {
+public class OllamaClient implements LlmProvider, DisposableBean {
   private static final Logger logger = LoggerFactory.getLogger(OllamaClient.class);
   
   private final String base = System.getenv().getOrDefault("OLLAMA_BASE","http://localhost:11434");
+  // comma-separated url[=model|model] list; when unset, OLLAMA_BASE is the only endpoint
+  private final String endpointSpec = System.getenv().getOrDefault("OLLAMA_ENDPOINTS", base);
+  private final long healthIntervalMs = Long.parseLong(System.getenv().getOrDefault("OLLAMA_HEALTH_INTERVAL_MS","10000"));
+  // how long Ollama keeps a model loaded after each request ("30m", "1h", or -1 for forever)
+  private final String keepAlive = System.getenv().getOrDefault("OLLAMA_KEEP_ALIVE","30m");
+  // Ollama reports a few ms of load_duration even on warm calls; only longer loads count as cold starts
+  private final long coldLoadNanos = Long.parseLong(System.getenv().getOrDefault("OLLAMA_COLD_LOAD_MS","100")) * 1_000_000L;
   private final String chatModel = System.getenv().getOrDefault("OLLAMA_CHAT_MODEL","llama3.1:8b");
   private final String embedModel = System.getenv().getOrDefault("OLLAMA_EMBED_MODEL","mxbai-embed-large");
+  // sent as num_ctx so Ollama's window matches the budget prompts are built for
+  private final int numCtx = PromptBudget.contextTokens();
+  private final int embedBatchSize = EmbedBatching.batchSize();
+  private final long embedBatchMaxBytes = EmbedBatching.maxBytes();
 
-  private final RestTemplate http = new RestTemplate();
+  private final RestTemplate http;
+  private final OllamaEndpoints endpoints;
+  private final MetricsService metrics;
   private final ObjectMapper om = new ObjectMapper();
+  // last dimension seen, so the streaming decoder can size each vector up front
+  private volatile int dimHint = 1024;
+
+  public OllamaClient(HttpTransport transport, MetricsService metrics) {
+    this.http = transport.restTemplate(HttpTransport.timeout("LLM_READ_TIMEOUT_MS", 300_000));
+    this.metrics = metrics;
+    RestTemplate probeHttp = transport.restTemplate(HttpTransport.timeout("OLLAMA_HEALTH_TIMEOUT_MS", 2_000));
+    this.endpoints = new OllamaEndpoints(endpointSpec, metrics,
+        url -> probeHttp.getForEntity(url + "/api/tags", String.class).getStatusCode().is2xxSuccessful(),
+        healthIntervalMs);
+  }
+
+  @Override
+  public void destroy() {
+    endpoints.close();
+  }
+
+  @Override
+  public String embedModelName() {
+    return embedModel;
+  }
 
-  public double[] embed(String text) {
+  public float[] embed(String text) {
     logger.debug("Generating embeddings for text of length: {}", text.length());
+    float[] v = requestEmbeddings(List.of(text)).get(0);
+    logger.debug("Generated embeddings with dimension: {}", v.length);
+    return v;
+  }
+
+  @Override
+  public List<float[]> embedBatch(List<String> texts) {
+    logger.debug("Generating embeddings for batch of {} texts", texts.size());
+
+    List<float[]> out = new ArrayList<>(texts.size());
+    for (List<String> group : EmbedBatching.partition(texts, embedBatchSize, embedBatchMaxBytes)) {
+      out.addAll(requestEmbeddings(group));
+      logger.debug("Embedded batch of {} texts", group.size());
+    }
+    return out;
+  }
+
+  /** One /api/embed round trip; the array form of "input" returns one embedding per element. */
+  private List<float[]> requestEmbeddings(List<String> inputs) {
     logger.debug("Using embed model: {}", embedModel);
-    
     try {
       String payload = """
-        {"model":"%s","input":%s,"options":{"truncate":true}}
-      """.formatted(embedModel, om.writeValueAsString(text));
-      
-      HttpHeaders h = new HttpHeaders(); 
-      h.setContentType(MediaType.APPLICATION_JSON);
-      
-      ResponseEntity<String> resp = http.postForEntity(base + "/api/embed", new HttpEntity<>(payload, h), String.class);
-      JsonNode n = om.readTree(resp.getBody());
-      JsonNode arr = n.get("embeddings").get(0);
-      double[] v = new double[arr.size()];
-      for (int i=0;i<arr.size();i++) v[i] = arr.get(i).asDouble();
-      
-      logger.debug("Generated embeddings with dimension: {}", v.length);
-      return v;
+        {"model":"%s","input":%s,"keep_alive":%s,"options":{"truncate":true}}
+      """.formatted(embedModel, om.writeValueAsString(inputs), keepAliveJson());
+
+      List<float[]> vectors = endpoints.call(embedModel, "embed", url -> http.execute(url + "/api/embed", HttpMethod.POST, jsonBody(payload),
+          resp -> EmbeddingJson.readOllama(resp.getBody(), dimHint)));
+      if (vectors == null || vectors.size() != inputs.size()) {
+        throw new IllegalStateException("Expected " + inputs.size() + " embeddings, got " + (vectors == null ? 0 : vectors.size()));
+      }
+      dimHint = vectors.get(0).length;
+      return vectors;
     } catch (Exception e) {
+      if (LlmAsync.isCancellation(e)) throw LlmAsync.cancellation(e);
       logger.error("Failed to generate embeddings", e);
       throw new RuntimeException(e);
     }
   }
 
+  private static RequestCallback jsonBody(String payload) {
+    return req -> {
+      req.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+      req.getBody().write(payload.getBytes(StandardCharsets.UTF_8));
+    };
+  }
+
+  /**
+   * Loads the chat and embed models on every endpoint that serves them, using the same num_ctx as real
+   * calls so Ollama does not reload the model on the first request. Failures are logged and skipped, so a
+   * missing host delays nothing beyond its connect timeout. Also used to refresh keep_alive.
+   */
+  public void warmUp() {
+    for (String url : endpoints.basesServing(chatModel)) {
+      warm(url, chatModel, "/api/generate", """
+        {"model":"%s","prompt":"hi","stream":false,"keep_alive":%s,"options":{"num_predict":1,"num_ctx":%d}}
+      """.formatted(chatModel, keepAliveJson(), numCtx));
+    }
+    for (String url : endpoints.basesServing(embedModel)) {
+      warm(url, embedModel, "/api/embed", """
+        {"model":"%s","input":"hi","keep_alive":%s}
+      """.formatted(embedModel, keepAliveJson()));
+    }
+  }
+
+  private void warm(String url, String model, String path, String payload) {
+    long start = System.nanoTime();
+    try {
+      HttpHeaders h = new HttpHeaders();
+      h.setContentType(MediaType.APPLICATION_JSON);
+      JsonNode n = readJson(http.postForEntity(url + path, new HttpEntity<>(payload, h), String.class).getBody());
+      long loadNanos = n.path("load_duration").asLong(0);
+      recordLoad(url, model, loadNanos);
+      logger.info("Model {} ready on {} in {}ms (load {}ms, keep_alive {})", model, url,
+          (System.nanoTime() - start) / 1_000_000, loadNanos / 1_000_000, keepAlive);
+    } catch (Exception e) {
+      logger.warn("Could not warm up model {} on {}: {}", model, url, e.getMessage());
+    }
+  }
+
+  private void recordLoad(String url, String model, long loadNanos) {
+    if (loadNanos >= coldLoadNanos) metrics.recordOllamaModelLoad(url, model, loadNanos);
+  }
+
+  private JsonNode readJson(String body) {
+    try {
+      return om.readTree(body);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** keep_alive as JSON: plain numbers (seconds, -1 = forever) go unquoted, durations like "30m" as strings. */
+  private String keepAliveJson() {
+    return keepAlive.matches("-?\\d+") ? keepAlive : "\"" + keepAlive + "\"";
+  }
+
   public String chat(String system, String user, int tokens) {
     logger.info("Starting chat completion with {} tokens", tokens);
     logger.debug("Using chat model: {}", chatModel);
@@ -53,25 +174,82 @@ public class OllamaClient implements LlmProvider {
     
     try {
       String payload = """
-       {"model":"%s","stream":false,"options":{"num_predict":%d},"messages":[
+       {"model":"%s","stream":false,"keep_alive":%s,"options":{"num_predict":%d,"num_ctx":%d},"messages":[
           {"role":"system","content":%s},
           {"role":"user","content":%s}
        ]}
-      """.formatted(chatModel, tokens, om.writeValueAsString(system), om.writeValueAsString(user));
+      """.formatted(chatModel, keepAliveJson(), tokens, numCtx, om.writeValueAsString(system), om.writeValueAsString(user));
       
       HttpHeaders h = new HttpHeaders(); 
       h.setContentType(MediaType.APPLICATION_JSON);
       
-      ResponseEntity<String> resp = http.postForEntity(base + "/api/chat", new HttpEntity<>(payload,h), String.class);
-      JsonNode n = om.readTree(resp.getBody());
+      JsonNode n = endpoints.call(chatModel, "chat", url -> {
+        ResponseEntity<String> resp = http.postForEntity(url + "/api/chat", new HttpEntity<>(payload,h), String.class);
+        JsonNode body = readJson(resp.getBody());
+        recordLoad(url, chatModel, body.path("load_duration").asLong(0));
+        return body;
+      });
       String response = n.get("message").get("content").asText();
       
       logger.info("Chat completion successful, response length: {}", response.length());
       logger.debug("Response: {}", response);
       return response;
     } catch (Exception e) {
+      if (LlmAsync.isCancellation(e)) throw LlmAsync.cancellation(e);
       logger.error("Chat completion failed", e);
       throw new RuntimeException(e);
     }
   }
+
+  @Override
+  public String chatStream(String system, String user, int tokens, Consumer<String> onToken) {
+    logger.info("Starting streaming chat completion with {} tokens", tokens);
+    logger.debug("Using chat model: {}", chatModel);
+
+    try {
+      String payload = """
+       {"model":"%s","stream":true,"keep_alive":%s,"options":{"num_predict":%d,"num_ctx":%d},"messages":[
+          {"role":"system","content":%s},
+          {"role":"user","content":%s}
+       ]}
+      """.formatted(chatModel, keepAliveJson(), tokens, numCtx, om.writeValueAsString(system), om.writeValueAsString(user));
+
+      String response = endpoints.call(chatModel, "chat", url -> http.execute(url + "/api/chat", HttpMethod.POST, jsonBody(payload),
+          resp -> readNdjsonChat(resp.getBody(), om, onToken, loadNanos -> recordLoad(url, chatModel, loadNanos))));
+
+      logger.info("Streaming chat completion successful, response length: {}", response == null ? 0 : response.length());
+      return response;
+    } catch (Exception e) {
+      if (LlmAsync.isCancellation(e)) throw LlmAsync.cancellation(e);
+      logger.error("Streaming chat completion failed", e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  static String readNdjsonChat(InputStream body, ObjectMapper om, Consumer<String> onToken) throws IOException {
+    return readNdjsonChat(body, om, onToken, loadNanos -> {});
+  }
+
+  /** Reads Ollama's NDJSON chat stream: one JSON object per line until {@code "done":true}, whose stats carry load_duration. */
+  static String readNdjsonChat(InputStream body, ObjectMapper om, Consumer<String> onToken, LongConsumer onLoad) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    try (BufferedReader r = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = r.readLine()) != null) {
+        if (line.isBlank()) continue;
+        JsonNode n = om.readTree(line);
+        if (n.hasNonNull("error")) throw new IllegalStateException("Ollama stream error: " + n.get("error").asText());
+        String token = n.path("message").path("content").asText("");
+        if (!token.isEmpty()) {
+          sb.append(token);
+          onToken.accept(token);
+        }
+        if (n.path("done").asBoolean(false)) {
+          onLoad.accept(n.path("load_duration").asLong(0));
+          break;
+        }
+      }
+    }
+    return sb.toString();
+  }
 }
@@ -0,0 +1,169 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * The set of Ollama hosts a client spreads its calls over.
+ * Each call goes to the healthy endpoint serving the requested model that has the fewest requests
+ * outstanding; ties rotate so idle hosts share the load. An endpoint that refuses a connection, or
+ * fails a periodic health probe, is taken out of rotation until a probe succeeds again.
+ * <p>
+ * Configured as {@code url[=model|model...]} entries separated by commas, e.g.
+ * {@code http://gpu1:11434=llama3.1:8b|mxbai-embed-large,http://gpu2:11434}. An endpoint without
+ * model tags is assumed to serve every model.
+ */
+public class OllamaEndpoints implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(OllamaEndpoints.class);
+
+  static final class Endpoint {
+    final String base;
+    final Set<String> models;
+    final AtomicInteger inFlight = new AtomicInteger();
+    volatile boolean healthy = true;
+
+    Endpoint(String base, Set<String> models) {
+      this.base = base;
+      this.models = models;
+    }
+
+    boolean serves(String model) {
+      return models.isEmpty() || models.contains(model);
+    }
+  }
+
+  private final List<Endpoint> endpoints;
+  private final MetricsService metrics;
+  private final AtomicInteger rotation = new AtomicInteger();
+  private final ScheduledExecutorService prober;
+
+  /**
+   * @param probe returns true when the endpoint base URL answers; only run when there is more than one
+   *              endpoint, since a single host has nowhere else to send traffic
+   */
+  public OllamaEndpoints(String spec, MetricsService metrics, Predicate<String> probe, long probeIntervalMs) {
+    this.endpoints = parse(spec);
+    this.metrics = metrics;
+    for (Endpoint e : endpoints) {
+      metrics.gaugeOllamaEndpoint(e.base, e.inFlight::get, () -> e.healthy ? 1 : 0);
+    }
+    if (endpoints.size() > 1 && probeIntervalMs > 0) {
+      this.prober = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ollama-health");
+        t.setDaemon(true);
+        return t;
+      });
+      prober.scheduleWithFixedDelay(() -> probeAll(probe), probeIntervalMs, probeIntervalMs, TimeUnit.MILLISECONDS);
+    } else {
+      this.prober = null;
+    }
+    logger.info("Ollama endpoints: {}", endpoints.stream().map(e -> e.models.isEmpty() ? e.base : e.base + " " + e.models).toList());
+  }
+
+  static List<Endpoint> parse(String spec) {
+    List<Endpoint> out = new ArrayList<>();
+    for (String entry : spec.split(",")) {
+      entry = entry.trim();
+      if (entry.isEmpty()) continue;
+      int eq = entry.indexOf('=');
+      String base = (eq < 0 ? entry : entry.substring(0, eq)).trim().replaceAll("/+$", "");
+      Set<String> models = new LinkedHashSet<>();
+      if (eq >= 0) {
+        for (String m : entry.substring(eq + 1).split("\\|")) {
+          if (!m.isBlank()) models.add(m.trim());
+        }
+      }
+      out.add(new Endpoint(base, Collections.unmodifiableSet(models)));
+    }
+    if (out.isEmpty()) throw new IllegalArgumentException("No Ollama endpoints configured");
+    return List.copyOf(out);
+  }
+
+  /** Runs {@code call} against the chosen endpoint's base URL, tracking in-flight count and latency. */
+  public <T> T call(String model, String operation, Function<String, T> call) {
+    Endpoint e = choose(model);
+    e.inFlight.incrementAndGet();
+    long start = System.nanoTime();
+    boolean ok = false;
+    boolean cancelled = false;
+    try {
+      T result = call.apply(e.base);
+      ok = true;
+      return result;
+    } catch (RuntimeException ex) {
+      // a cancelled call (hedge loser, timeout) closed its own socket, which says nothing about the host
+      cancelled = LlmAsync.isCancellation(ex);
+      // connection-level failure: stop routing here until a probe brings it back
+      if (!cancelled && ex instanceof ResourceAccessException && prober != null && e.healthy) {
+        e.healthy = false;
+        logger.warn("Ejecting Ollama endpoint {}: {}", e.base, ex.getMessage());
+      }
+      throw ex;
+    } finally {
+      e.inFlight.decrementAndGet();
+      if (!cancelled) metrics.recordOllamaEndpoint(e.base, operation, System.nanoTime() - start, ok);
+    }
+  }
+
+  Endpoint choose(String model) {
+    List<Endpoint> candidates = endpoints.stream().filter(e -> e.serves(model)).toList();
+    if (candidates.isEmpty()) {
+      throw new IllegalStateException("No Ollama endpoint serves model " + model);
+    }
+    List<Endpoint> healthy = candidates.stream().filter(e -> e.healthy).toList();
+    // with every candidate ejected, keep trying them rather than failing outright
+    List<Endpoint> pool = healthy.isEmpty() ? candidates : healthy;
+
+    int offset = Math.floorMod(rotation.getAndIncrement(), pool.size());
+    Endpoint best = null;
+    for (int i = 0; i < pool.size(); i++) {
+      Endpoint e = pool.get((offset + i) % pool.size());
+      if (best == null || e.inFlight.get() < best.inFlight.get()) best = e;
+    }
+    return best;
+  }
+
+  void probeAll(Predicate<String> probe) {
+    for (Endpoint e : endpoints) {
+      boolean up;
+      try {
+        up = probe.test(e.base);
+      } catch (Exception ex) {
+        up = false;
+      }
+      if (up != e.healthy) {
+        if (up) logger.info("Ollama endpoint {} is healthy again", e.base);
+        else logger.warn("Ejecting Ollama endpoint {}: health check failed", e.base);
+      }
+      e.healthy = up;
+    }
+  }
+
+  /** Base URLs of every endpoint that serves {@code model}, healthy or not. */
+  public List<String> basesServing(String model) {
+    return endpoints.stream().filter(e -> e.serves(model)).map(e -> e.base).toList();
+  }
+
+  List<Endpoint> endpoints() {
+    return endpoints;
+  }
+
+  @Override
+  public void close() {
+    if (prober != null) prober.shutdownNow();
+  }
+}
@@ -0,0 +1,81 @@
+package com.nby.agent.llm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the Ollama models before the app reports ready: Spring only switches readiness to
+ * ACCEPTING_TRAFFIC after runners finish. The first CaseWatcher tick therefore does not pay the model
+ * load. The warm-up then repeats every OLLAMA_KEEP_ALIVE_REFRESH_MS, so the models stay resident
+ * even when no cases arrive.
+ */
+@Component
+public class OllamaWarmup implements ApplicationRunner, DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(OllamaWarmup.class);
+
+  private final boolean enabled = Boolean.parseBoolean(setting("OLLAMA_WARMUP", "true"));
+  private final long refreshMs = Long.parseLong(setting("OLLAMA_KEEP_ALIVE_REFRESH_MS", "600000"));
+
+  private final OllamaClient ollama;
+  private ScheduledExecutorService refresher;
+
+  public OllamaWarmup(OllamaClient ollama) {
+    this.ollama = ollama;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (!enabled || !usesOllama()) {
+      logger.info("Ollama warm-up skipped (enabled={}, ollama in use={})", enabled, usesOllama());
+      return;
+    }
+    long start = System.nanoTime();
+    ollama.warmUp();
+    logger.info("Ollama warm-up finished in {}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+    if (refreshMs > 0) {
+      refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ollama-keep-alive");
+        t.setDaemon(true);
+        return t;
+      });
+      refresher.scheduleWithFixedDelay(this::refresh, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void refresh() {
+    try {
+      ollama.warmUp();
+    } catch (Exception e) {
+      logger.warn("Ollama keep-alive refresh failed: {}", e.getMessage());
+    }
+  }
+
+  /** Mirrors LlmFactory's provider selection: LLM_PROVIDERS if set, otherwise LLM_PROVIDER. */
+  static boolean usesOllama() {
+    String chain = setting("LLM_PROVIDERS", "").trim();
+    if (!chain.isEmpty()) {
+      return Arrays.stream(chain.toLowerCase().split(",")).map(String::trim).anyMatch("ollama"::equals);
+    }
+    String single = setting("LLM_PROVIDER", "ollama").toLowerCase();
+    return !single.equals("openai") && !single.equals("synthetic");
+  }
+
+  @Override
+  public void destroy() {
+    if (refresher != null) refresher.shutdownNow();
+  }
+
+  private static String setting(String key, String def) {
+    return System.getProperty(key, System.getenv().getOrDefault(key, def));
+  }
+}
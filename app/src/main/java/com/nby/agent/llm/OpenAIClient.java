@@ -2,12 +2,23 @@ package com.nby.agent.llm;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nby.agent.http.HttpTransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
 @Service("openAIClient")
 public class OpenAIClient implements LlmProvider {
   private static final Logger logger = LoggerFactory.getLogger(OpenAIClient.class);
@@ -16,8 +27,21 @@ public class OpenAIClient implements LlmProvider {
   private final String apiKey = System.getenv("OPENAI_API_KEY");
   private final String chatModel = System.getenv().getOrDefault("OPENAI_CHAT_MODEL","gpt-4o-mini");
   private final String embedModel = System.getenv().getOrDefault("OPENAI_EMBED_MODEL","text-embedding-3-large");
-  private final RestTemplate http = new RestTemplate();
+  private final int embedBatchSize = EmbedBatching.batchSize();
+  private final long embedBatchMaxBytes = EmbedBatching.maxBytes();
+  private final RestTemplate http;
   private final ObjectMapper om = new ObjectMapper();
+  // last dimension seen, so the streaming decoder can size each vector up front
+  private volatile int dimHint = 3072;
+
+  public OpenAIClient(HttpTransport transport) {
+    this.http = transport.restTemplate(HttpTransport.timeout("LLM_READ_TIMEOUT_MS", 300_000));
+  }
+
+  @Override
+  public String embedModelName() {
+    return embedModel;
+  }
 
   private HttpEntity<String> entity(String json){
     HttpHeaders h = new HttpHeaders();
@@ -26,24 +50,49 @@ public class OpenAIClient implements LlmProvider {
     return new HttpEntity<>(json,h);
   }
 
+  /** Request body writer carrying the same headers as {@link #entity}, for streamed responses. */
+  private RequestCallback jsonBody(String json) {
+    return req -> {
+      req.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+      req.getHeaders().setBearerAuth(apiKey);
+      req.getBody().write(json.getBytes(StandardCharsets.UTF_8));
+    };
+  }
+
   @Override
-  public double[] embed(String text) {
+  public float[] embed(String text) {
     logger.debug("Generating embeddings for text of length: {}", text.length());
+    float[] out = requestEmbeddings(List.of(text)).get(0);
+    logger.debug("Generated embeddings with dimension: {}", out.length);
+    return out;
+  }
+
+  @Override
+  public List<float[]> embedBatch(List<String> texts) {
+    logger.debug("Generating embeddings for batch of {} texts", texts.size());
+
+    List<float[]> out = new ArrayList<>(texts.size());
+    for (List<String> group : EmbedBatching.partition(texts, embedBatchSize, embedBatchMaxBytes)) {
+      out.addAll(requestEmbeddings(group));
+      logger.debug("Embedded batch of {} texts", group.size());
+    }
+    return out;
+  }
+
+  /** One /v1/embeddings round trip; results carry an "index" back into the array "input". */
+  private List<float[]> requestEmbeddings(List<String> inputs) {
     logger.debug("Using embed model: {}", embedModel);
-    
     try {
       String payload = """
         {"model":%s,"input":%s}
-      """.formatted(om.writeValueAsString(embedModel), om.writeValueAsString(text));
-      
-      ResponseEntity<String> r = http.postForEntity(base + "/v1/embeddings", entity(payload), String.class);
-      JsonNode v = om.readTree(r.getBody()).get("data").get(0).get("embedding");
-      double[] out = new double[v.size()];
-      for (int i=0;i<v.size();i++) out[i]=v.get(i).asDouble();
-      
-      logger.debug("Generated embeddings with dimension: {}", out.length);
-      return out;
+      """.formatted(om.writeValueAsString(embedModel), om.writeValueAsString(inputs));
+
+      List<float[]> vectors = http.execute(base + "/v1/embeddings", HttpMethod.POST, jsonBody(payload),
+          resp -> EmbeddingJson.readOpenAi(resp.getBody(), inputs.size(), dimHint));
+      dimHint = vectors.get(0).length;
+      return vectors;
     } catch(Exception e){
+      if (LlmAsync.isCancellation(e)) throw LlmAsync.cancellation(e);
       logger.error("Failed to generate embeddings", e);
       throw new RuntimeException(e);
     }
@@ -95,8 +144,66 @@ public class OpenAIClient implements LlmProvider {
       logger.error("No content found in OpenAI response");
       throw new RuntimeException("No content found in OpenAI response");
     } catch(Exception e){
+      if (LlmAsync.isCancellation(e)) throw LlmAsync.cancellation(e);
       logger.error("OpenAI chat completion failed", e);
       throw new RuntimeException(e);
     }
   }
+
+  @Override
+  public String chatStream(String system, String user, int tokens, Consumer<String> onToken) {
+    logger.info("Starting OpenAI streaming chat completion with {} tokens", tokens);
+    logger.debug("Using chat model: {}", chatModel);
+
+    try {
+      String payload = """
+      {
+        "model": %s,
+        "max_tokens": %d,
+        "stream": true,
+        "messages": [
+          {"role":"system","content":%s},
+          {"role":"user","content":%s}
+        ]
+      }
+      """.formatted(
+        om.writeValueAsString(chatModel),
+        Math.max(1,tokens),
+        om.writeValueAsString(system),
+        om.writeValueAsString(user)
+      );
+
+      String response = http.execute(base + "/v1/chat/completions", HttpMethod.POST, jsonBody(payload),
+          resp -> readSseChat(resp.getBody(), om, onToken));
+
+      logger.info("OpenAI streaming chat completion successful, response length: {}", response == null ? 0 : response.length());
+      return response;
+    } catch(Exception e){
+      if (LlmAsync.isCancellation(e)) throw LlmAsync.cancellation(e);
+      logger.error("OpenAI streaming chat completion failed", e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Reads the {@code stream:true} SSE body: {@code data: {...}} chunks terminated by {@code data: [DONE]}. */
+  static String readSseChat(InputStream body, ObjectMapper om, Consumer<String> onToken) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    try (BufferedReader r = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = r.readLine()) != null) {
+        if (!line.startsWith("data:")) continue;
+        String data = line.substring(5).trim();
+        if (data.equals("[DONE]")) break;
+        if (data.isEmpty()) continue;
+        JsonNode choices = om.readTree(data).get("choices");
+        if (choices == null || !choices.isArray() || choices.size() == 0) continue;
+        String token = choices.get(0).path("delta").path("content").asText("");
+        if (!token.isEmpty()) {
+          sb.append(token);
+          onToken.accept(token);
+        }
+      }
+    }
+    return sb.toString();
+  }
 }
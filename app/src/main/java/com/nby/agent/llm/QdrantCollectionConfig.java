@@ -0,0 +1,174 @@
+package com.nby.agent.llm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collection and search settings for the Qdrant knowledge-base collection.
+ * <p>
+ * {@link #createBody(int)} builds the body that creates the collection. {@link #reconcile(Map)} compares
+ * these settings with the config of a collection that already exists and returns the PATCH body that
+ * brings it in line (empty when nothing differs). {@link #searchParams()} returns the per-query
+ * {@code params} object, or null when Qdrant defaults apply. The defaults match Qdrant's own defaults,
+ * so an untouched environment creates the same collection as before.
+ */
+public record QdrantCollectionConfig(
+    int vectorSize,
+    String distance,
+    boolean vectorsOnDisk,
+    int hnswM,
+    int hnswEfConstruct,
+    boolean hnswOnDisk,
+    String quantization,
+    boolean quantizationAlwaysRam,
+    boolean payloadOnDisk,
+    int shards,
+    int searchEf,
+    boolean searchRescore,
+    double searchOversampling) {
+
+  public QdrantCollectionConfig {
+    quantization = quantization == null ? "none" : quantization.trim().toLowerCase();
+    if (!quantization.equals("none") && !quantization.equals("scalar") && !quantization.equals("binary")) {
+      throw new IllegalArgumentException("QDRANT_QUANTIZATION must be none, scalar or binary: " + quantization);
+    }
+  }
+
+  public static QdrantCollectionConfig fromEnv() {
+    return new QdrantCollectionConfig(
+        Integer.parseInt(env("QDRANT_VECTOR_SIZE", "0")),
+        env("QDRANT_DISTANCE", "Cosine"),
+        Boolean.parseBoolean(env("QDRANT_VECTORS_ON_DISK", "false")),
+        Integer.parseInt(env("QDRANT_HNSW_M", "16")),
+        Integer.parseInt(env("QDRANT_HNSW_EF_CONSTRUCT", "100")),
+        Boolean.parseBoolean(env("QDRANT_HNSW_ON_DISK", "false")),
+        env("QDRANT_QUANTIZATION", "none"),
+        Boolean.parseBoolean(env("QDRANT_QUANTIZATION_ALWAYS_RAM", "true")),
+        Boolean.parseBoolean(env("QDRANT_PAYLOAD_ON_DISK", "false")),
+        Integer.parseInt(env("QDRANT_SHARDS", "1")),
+        Integer.parseInt(env("QDRANT_SEARCH_EF", "0")),
+        Boolean.parseBoolean(env("QDRANT_SEARCH_RESCORE", "true")),
+        Double.parseDouble(env("QDRANT_SEARCH_OVERSAMPLING", "2.0")));
+  }
+
+  private static String env(String key, String def) {
+    return System.getenv().getOrDefault(key, def);
+  }
+
+  /** Same settings with the vector size filled in, e.g. once it has been detected from the embed model. */
+  public QdrantCollectionConfig withVectorSize(int size) {
+    return new QdrantCollectionConfig(size, distance, vectorsOnDisk, hnswM, hnswEfConstruct, hnswOnDisk, quantization,
+        quantizationAlwaysRam, payloadOnDisk, shards, searchEf, searchRescore, searchOversampling);
+  }
+
+  public Map<String, Object> createBody(int dim) {
+    Map<String, Object> vectors = new LinkedHashMap<>();
+    vectors.put("size", dim);
+    vectors.put("distance", distance);
+    vectors.put("on_disk", vectorsOnDisk);
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("vectors", vectors);
+    body.put("hnsw_config", hnswConfig());
+    body.put("on_disk_payload", payloadOnDisk);
+    body.put("shard_number", shards);
+    Object q = quantizationConfig();
+    if (q != null) body.put("quantization_config", q);
+    return body;
+  }
+
+  /**
+   * PATCH body for the differences between these settings and {@code existing} (the {@code result.config}
+   * of GET /collections/{name}). Vector size, distance and shard count cannot be changed in place; those
+   * are left out and reported by {@link #immutableDrift(Map)}.
+   */
+  public Map<String, Object> reconcile(Map<?, ?> existing) {
+    Map<String, Object> patch = new LinkedHashMap<>();
+    Map<?, ?> params = map(existing.get("params"));
+    Map<?, ?> vectors = map(params.get("vectors"));
+    if (vectorsOnDisk != bool(vectors.get("on_disk"))) {
+      patch.put("vectors", Map.of("", Map.of("on_disk", vectorsOnDisk)));
+    }
+    Map<?, ?> hnsw = map(existing.get("hnsw_config"));
+    if (num(hnsw.get("m")) != hnswM || num(hnsw.get("ef_construct")) != hnswEfConstruct || bool(hnsw.get("on_disk")) != hnswOnDisk) {
+      patch.put("hnsw_config", hnswConfig());
+    }
+    if (!Objects.equals(quantizationKind(existing.get("quantization_config")), quantization)
+        || (!quantization.equals("none") && quantizationAlwaysRam != quantizationAlwaysRam(existing.get("quantization_config")))) {
+      Object q = quantizationConfig();
+      patch.put("quantization_config", q == null ? "Disabled" : q);
+    }
+    if (payloadOnDisk != bool(params.get("on_disk_payload"))) {
+      patch.put("params", Map.of("on_disk_payload", payloadOnDisk));
+    }
+    return patch;
+  }
+
+  /** Describes settings that differ from {@code existing} but need the collection to be recreated, or null. */
+  public String immutableDrift(Map<?, ?> existing) {
+    Map<?, ?> params = map(existing.get("params"));
+    Map<?, ?> vectors = map(params.get("vectors"));
+    StringBuilder sb = new StringBuilder();
+    if (vectors.get("size") != null && num(vectors.get("size")) != vectorSize) {
+      sb.append("vector size ").append(vectors.get("size")).append(" != ").append(vectorSize).append("; ");
+    }
+    if (vectors.get("distance") != null && !distance.equalsIgnoreCase(String.valueOf(vectors.get("distance")))) {
+      sb.append("distance ").append(vectors.get("distance")).append(" != ").append(distance).append("; ");
+    }
+    if (params.get("shard_number") != null && num(params.get("shard_number")) != shards) {
+      sb.append("shards ").append(params.get("shard_number")).append(" != ").append(shards).append("; ");
+    }
+    return sb.isEmpty() ? null : sb.substring(0, sb.length() - 2);
+  }
+
+  /** The {@code params} object for a search request, or null to leave Qdrant's defaults. */
+  public Map<String, Object> searchParams() {
+    Map<String, Object> params = new LinkedHashMap<>();
+    if (searchEf > 0) params.put("hnsw_ef", searchEf);
+    if (!quantization.equals("none")) {
+      params.put("quantization", Map.of("rescore", searchRescore, "oversampling", searchOversampling));
+    }
+    return params.isEmpty() ? null : params;
+  }
+
+  private Map<String, Object> hnswConfig() {
+    Map<String, Object> hnsw = new LinkedHashMap<>();
+    hnsw.put("m", hnswM);
+    hnsw.put("ef_construct", hnswEfConstruct);
+    hnsw.put("on_disk", hnswOnDisk);
+    return hnsw;
+  }
+
+  private Object quantizationConfig() {
+    return switch (quantization) {
+      case "scalar" -> Map.of("scalar", Map.of("type", "int8", "always_ram", quantizationAlwaysRam));
+      case "binary" -> Map.of("binary", Map.of("always_ram", quantizationAlwaysRam));
+      default -> null;
+    };
+  }
+
+  private static String quantizationKind(Object q) {
+    Map<?, ?> m = map(q);
+    if (m.containsKey("scalar")) return "scalar";
+    if (m.containsKey("binary")) return "binary";
+    return "none";
+  }
+
+  private static boolean quantizationAlwaysRam(Object q) {
+    Map<?, ?> m = map(q);
+    Map<?, ?> inner = map(m.containsKey("scalar") ? m.get("scalar") : m.get("binary"));
+    return bool(inner.get("always_ram"));
+  }
+
+  private static Map<?, ?> map(Object o) {
+    return o instanceof Map<?, ?> m ? m : Map.of();
+  }
+
+  private static boolean bool(Object o) {
+    return o instanceof Boolean b && b;
+  }
+
+  private static long num(Object o) {
+    return o instanceof Number n ? n.longValue() : -1;
+  }
+}
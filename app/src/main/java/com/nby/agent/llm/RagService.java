@@ -1,24 +1,38 @@
 package com.nby.agent.llm;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nby.agent.config.PromptBudget;
+import com.nby.agent.http.HttpTransport;
 import com.nby.agent.metrics.MetricsService;
+import com.nby.agent.storage.SourceManifestRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
 
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.stereotype.Service;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 @Service
-public class RagService {
+public class RagService implements DisposableBean {
   private static final Logger logger = LoggerFactory.getLogger(RagService.class);
   
   private final LlmProvider llmProvider;
@@ -27,163 +41,229 @@ public class RagService {
   private final String collection = System.getenv().getOrDefault("QDRANT_COLLECTION","sf_kb");
   private final String kbPath = System.getenv().getOrDefault("KB_PATH","/data/knowledge");
   private final ObjectMapper om = new ObjectMapper();
+  private final RestTemplate http;
+  private volatile QdrantCollectionConfig qdrantConfig;
+  private final VectorStore points;
+  private final IngestPipeline ingestPipeline;
+  private final SourceManifestRepository manifest;
+  private final String searchMode = System.getenv().getOrDefault("RAG_SEARCH_MODE","vector").trim().toLowerCase();
+  private final int rrfK = Integer.parseInt(System.getenv().getOrDefault("RAG_RRF_K","60"));
+  private final int hybridCandidates = Integer.parseInt(System.getenv().getOrDefault("RAG_HYBRID_CANDIDATES","0"));
+  private final Bm25Index bm25;
+  private final ExecutorService lexicalSearch;
 
-  public RagService(LlmProvider llmProvider, MetricsService metrics) { 
+  public RagService(LlmProvider llmProvider, MetricsService metrics, HttpTransport transport, SourceManifestRepository manifest) { 
     this.llmProvider = llmProvider;
     this.metrics = metrics; 
+    this.manifest = manifest;
+    this.http = transport.restTemplate(HttpTransport.timeout("QDRANT_READ_TIMEOUT_MS", 60_000));
     logger.info("Initializing RAG service with LLM provider: {}", llmProvider.getClass().getSimpleName());
     logger.info("Qdrant URL: {}", qdrantUrl);
     logger.info("Knowledge base path: {}", kbPath);
     logger.info("Collection name: {}", collection);
-    initCollection(); 
-    ingestIfEmpty(); 
+    // search params do not depend on the vector size, which KnowledgeBaseBootstrap fills in via prepareCollection()
+    this.qdrantConfig = QdrantCollectionConfig.fromEnv();
+    VectorStore store = VectorStore.create(qdrantUrl, collection, qdrantConfig, http, metrics);
+    if (searchMode.equals("hybrid")) {
+      this.bm25 = Bm25Index.fromEnv(metrics);
+      this.points = bm25.tee(store);
+      this.lexicalSearch = Executors.newVirtualThreadPerTaskExecutor();
+      logger.info("Hybrid search: BM25 ({} chunks indexed) fused with vector search, RRF k={}", bm25.size(), rrfK);
+    } else {
+      this.bm25 = null;
+      this.points = store;
+      this.lexicalSearch = null;
+    }
+    this.ingestPipeline = IngestPipeline.fromEnv(llmProvider, points, metrics);
   }
 
-  private void initCollection() {
-    try {
-      logger.debug("Initializing Qdrant collection: {}", collection);
-      // create collection if not exists
-      String payload = """
-        {"vectors":{"size":1024,"distance":"Cosine"}}""";
-      // We optimistically create; ignore if already there.
-      httpPut("/collections/" + collection, payload);
-      logger.info("Qdrant collection '{}' initialized successfully", collection);
-    } catch (Exception e) {
-      logger.warn("Failed to initialize collection (may already exist): {}", e.getMessage());
+  /** QDRANT_VECTOR_SIZE when set, otherwise the length of a probe embedding from the active embed model. */
+  private int detectVectorSize(int configured) throws Exception {
+    if (configured > 0) return configured;
+    int dim = llmProvider.embed("dimension probe").length;
+    logger.info("Detected embedding dimension {} from model {}", dim, llmProvider.embedModelName());
+    return dim;
+  }
+
+  /**
+   * Resolves the vector size and creates or reconciles the collection. Throws when the embed model or
+   * Qdrant cannot be reached, so the caller can retry instead of continuing with a guessed size.
+   */
+  public void prepareCollection() throws Exception {
+    if (!VectorStore.usesQdrant()) {
+      logger.info("Embedded vector store in use, no Qdrant collection to prepare");
+      return;
     }
+    QdrantCollectionConfig cfg = qdrantConfig;
+    if (cfg.vectorSize() <= 0) qdrantConfig = cfg = cfg.withVectorSize(detectVectorSize(cfg.vectorSize()));
+    initCollection(cfg);
   }
 
-  private void ingestIfEmpty() {
-    try {
-      logger.debug("Checking if collection needs ingestion...");
-      Map<?,?> coll = httpGet("/collections/" + collection);
-      Map<?,?> status = (Map<?,?>) coll.get("result");
-      // if empty points – try ingest
-      ingestFolder();
-    } catch (Exception e) {
-      logger.warn("Failed to check collection status or ingest documents: {}", e.getMessage());
+  /** Creates the collection, or patches an existing one so its HNSW, quantization and on-disk settings match the config. */
+  private void initCollection(QdrantCollectionConfig qdrantConfig) throws Exception {
+    logger.debug("Initializing Qdrant collection: {}", collection);
+    Map<?,?> existing = existingCollectionConfig();
+    if (existing == null) {
+      httpPut("/collections/" + collection, om.writeValueAsString(qdrantConfig.createBody(qdrantConfig.vectorSize())));
+      logger.info("Qdrant collection '{}' created: {}", collection, qdrantConfig);
+    } else {
+      String drift = qdrantConfig.immutableDrift(existing);
+      if (drift != null) {
+        logger.error("Qdrant collection '{}' does not match the config and must be recreated to change: {}", collection, drift);
+      }
+      Map<String,Object> patch = qdrantConfig.reconcile(existing);
+      if (patch.isEmpty()) {
+        logger.info("Qdrant collection '{}' settings are up to date", collection);
+      } else {
+        httpPatch("/collections/" + collection, om.writeValueAsString(patch));
+        logger.info("Qdrant collection '{}' updated: {}", collection, patch.keySet());
+      }
+    }
+    // keyword indexes keep the per-source deletes of incremental reindexing from scanning the whole collection
+    for (String field : List.of("source_id", "content_hash")) {
+      try {
+        httpPut("/collections/" + collection + "/index?wait=true", om.writeValueAsString(Map.of("field_name", field, "field_schema", "keyword")));
+      } catch (Exception e) {
+        logger.warn("Failed to create payload index on {}: {}", field, e.getMessage());
+      }
+    }
+  }
+
+  /** The {@code result.config} of the collection, or null when it does not exist yet. */
+  private Map<?,?> existingCollectionConfig() throws Exception {
+    return metrics.timeQdrantGet(() -> {
+      try {
+        Map<?,?> res = http.getForObject(URI.create(qdrantUrl + "/collections/" + collection), Map.class);
+        Map<?,?> result = res == null ? null : (Map<?,?>) res.get("result");
+        Object config = result == null ? null : result.get("config");
+        return config instanceof Map<?,?> m ? m : Map.of();
+      } catch (HttpClientErrorException.NotFound e) {
+        return null;
+      }
+    });
+  }
+
+  /** Number of points in the vector store. */
+  public long pointCount() throws Exception {
+    return points.count();
+  }
+
+  /**
+   * Startup ingest. An empty collection (new, recreated or wiped) means the manifest no longer
+   * describes what Qdrant holds, so it is cleared and every file is embedded; otherwise only files
+   * changed since the last run are. The first run over a non-empty collection also deletes points
+   * that predate content hashes, once.
+   */
+  public ReindexReport ingestIfEmpty() throws Exception {
+    long count = pointCount();
+    if (count == 0) {
+      logger.info("Collection '{}' is empty, ingesting the whole knowledge base", collection);
+      manifest.clear();
+    } else if (bm25 != null && (bm25.size() == 0 || bm25.manifestGeneration() != manifest.generation())) {
+      // stable point ids make this an overwrite in Qdrant; it is what fills a new, lost or stale BM25 index
+      logger.info("BM25 index is empty or does not match the manifest (generation {} vs {}) but collection '{}' has {} points, re-ingesting the whole knowledge base",
+          bm25.manifestGeneration(), manifest.generation(), collection, count);
+      manifest.clear();
+    } else {
+      logger.info("Collection '{}' has {} points, reindexing changed files only", collection, count);
     }
+    if (count > 0 && !manifest.unversionedPointsPurged()) {
+      // ids were sequential or random before chunks carried a content hash; no per-source delete reaches those
+      logger.info("Deleting points without a content_hash from collection '{}' (one-time cleanup)", collection);
+      points.deleteUnversioned();
+    }
+    ReindexReport report = ingestFolder();
+    manifest.markUnversionedPointsPurged();
+    return report;
   }
 
-  public void ingestFolder() throws IOException, Exception {
+  public ReindexReport ingestFolder() throws IOException, Exception {
     logger.info("Starting knowledge base ingestion from: {}", kbPath);
     Path dir = Paths.get(kbPath);
     if (!Files.isDirectory(dir)) {
       logger.warn("Knowledge base path is not a directory: {}", kbPath);
-      return;
+      return new ReindexReport(0, 0, 0, 0);
     }
 
-    List<String> docs = new ArrayList<>();
-    try (var stream = Files.walk(dir)) {
-      stream.filter(Files::isRegularFile).forEach(p -> {
-        try {
-          String content = Files.readString(p, StandardCharsets.UTF_8);
-          logger.debug("Processing file: {} ({} characters)", p.getFileName(), content.length());
-          // simple chunking
-          for (String chunk : chunk(content, 1000, 200)) {
-            docs.add(chunk);
-          }
-        } catch (Exception e) {
-          logger.warn("Failed to process file: {}", p.getFileName(), e);
-        }
-      });
+    ReindexReport report = reindexAll();
+    logger.info("Knowledge base ingestion finished: {}", report);
+    return report;
+  }
+
+  /**
+   * Vector search, or with RAG_SEARCH_MODE=hybrid BM25 and vector search run in parallel, each
+   * RAG_HYBRID_CANDIDATES deep, merged by reciprocal rank fusion.
+   */
+  private List<VectorStore.Hit> findHits(String query, int k, Callable<float[]> embed) throws Exception {
+    if (bm25 == null) return points.search(embed.call(), k);
+    int depth = hybridCandidates > 0 ? Math.max(hybridCandidates, k) : Math.max(20, 4 * k);
+    Future<List<VectorStore.Hit>> lexical = lexicalSearch.submit(() -> bm25.search(query, depth));
+    List<VectorStore.Hit> vector = points.search(embed.call(), depth);
+    try {
+      return reciprocalRankFusion(List.of(vector, lexical.get()), rrfK, k);
+    } catch (ExecutionException e) {
+      logger.warn("BM25 search failed, using vector results only: {}", e.getCause().getMessage());
+      return vector.subList(0, Math.min(k, vector.size()));
     }
-    
-    logger.info("Found {} document chunks to ingest", docs.size());
-    
-    // upsert into Qdrant
-    int id = 1;
-    List<Map<String,Object>> points = new ArrayList<>();
-    for (String d : docs) {
-      logger.debug("Generating embeddings for chunk {}/{} using {}", id, docs.size(), llmProvider.getClass().getSimpleName());
-      double[] v = metrics.timeLlmEmbed(() -> llmProvider.embed(d));
-      Map<String,Object> p = new HashMap<>();
-      p.put("id", id++);
-      p.put("vector", v);
-      Map<String, Object> payload = new HashMap<>();
-      payload.put("text", d);
-      p.put("payload", payload);
-      points.add(p);
+  }
+
+  /**
+   * Merges ranked lists by summing 1/(rrfK + rank) per chunk, so a chunk ranked well by either list
+   * rises; chunks are matched by (source_id, chunk_index) and keep the first list's payload.
+   */
+  static List<VectorStore.Hit> reciprocalRankFusion(List<List<VectorStore.Hit>> rankings, int rrfK, int limit) {
+    Map<String, Double> scores = new HashMap<>();
+    Map<String, Map<String,Object>> payloads = new HashMap<>();
+    for (List<VectorStore.Hit> ranking : rankings) {
+      for (int rank = 0; rank < ranking.size(); rank++) {
+        Map<String,Object> pl = ranking.get(rank).payload();
+        if (pl == null) continue;
+        String key = pl.get("source_id") + "#" + pl.get("chunk_index");
+        scores.merge(key, 1.0 / (rrfK + rank + 1), Double::sum);
+        payloads.putIfAbsent(key, pl);
+      }
     }
-    
-    Map<String,Object> up = new HashMap<>();
-    up.put("points", points);
-    httpPut("/collections/" + collection + "/points?wait=true", om.writeValueAsString(up));
-    logger.info("Successfully ingested {} document chunks into Qdrant", points.size());
+    return scores.entrySet().stream()
+        .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+        .limit(limit)
+        .map(e -> new VectorStore.Hit(e.getValue(), payloads.get(e.getKey())))
+        .toList();
   }
 
   public String retrieve(String query, int k) throws Exception {
-    logger.debug("Retrieving {} relevant documents for query of length: {} using {}", k, query.length(), llmProvider.getClass().getSimpleName());
-    
-    double[] v = metrics.timeLlmEmbed(() -> llmProvider.embed(query));
-    String payload = """
-      {"vector":%s,"limit":%d,"with_payload":true}
-    """.formatted(Arrays.toString(v), k);
-    
-    Map<?,?> res = httpPost("/collections/" + collection + "/points/search", payload);
     StringBuilder sb = new StringBuilder();
-    List<?> r = (List<?>) res.get("result");
     int count = 0;
+    for (String text : retrieveChunks(query, k)) {
+      sb.append(++count).append(") ").append(text).append("\n\n");
+    }
+    return sb.toString();
+  }
+
+  /** The texts of the top {@code k} chunks for {@code query}, best match first. */
+  public List<String> retrieveChunks(String query, int k) throws Exception {
+    logger.debug("Retrieving {} relevant documents for query of length: {} using {}", k, query.length(), llmProvider.getClass().getSimpleName());
     
-    for (Object o : r) {
-      Map<?,?> m = (Map<?,?>) o;
-      Map<?,?> pl = (Map<?,?>) m.get("payload");
+    List<String> chunks = new ArrayList<>();
+    for (VectorStore.Hit hit : findHits(query, k, () -> metrics.timeLlmEmbed(() -> llmProvider.embed(query)))) {
+      Map<String,Object> pl = hit.payload();
       if (pl != null && pl.get("text") != null) {
         String text = (String) pl.get("text");
-        sb.append(++count).append(") ").append(text).append("\n\n");
-        logger.debug("Retrieved document {}/{}: {} characters", count, k, text.length());
+        chunks.add(text);
+        logger.debug("Retrieved document {}/{}: {} characters", chunks.size(), k, text.length());
       }
-      if (count >= k) break;
+      if (chunks.size() >= k) break;
     }
     
-    logger.info("Retrieved {} relevant documents for RAG context", count);
-    return sb.toString();
+    logger.info("Retrieved {} relevant documents for RAG context", chunks.size());
+    return chunks;
   }
 
   /* ---------- tiny HTTP helpers ---------- */
-  private Map<?,?> httpGet(String path) throws IOException, Exception {
-    logger.debug("Making GET request to Qdrant: {}", path);
-    return metrics.timeQdrantGet(() -> {
-      try {
-        HttpURLConnection c = (HttpURLConnection)URI.create(qdrantUrl + path).toURL().openConnection();
-        c.setRequestMethod("GET");
-        Map<?,?> result = om.readValue(c.getInputStream(), Map.class);
-        logger.debug("Qdrant GET request successful: {}", path);
-        return result;
-      } catch (Exception e) {
-        logger.error("Qdrant GET request failed: {}", path, e);
-        throw new RuntimeException(e);
-      }
-    });
-  }
-  private Map<?,?> httpPost(String path, String json) throws Exception {
-    logger.debug("Making POST request to Qdrant: {}", path);
-    return metrics.timeQdrantPost(() -> {
-      try {
-        HttpURLConnection c = (HttpURLConnection)URI.create(qdrantUrl + path).toURL().openConnection();
-        c.setRequestMethod("POST");
-        c.setRequestProperty("Content-Type", "application/json");
-        c.setDoOutput(true);
-        try (OutputStream os = c.getOutputStream()) { os.write(json.getBytes(StandardCharsets.UTF_8)); }
-        Map<?,?> result = om.readValue(c.getInputStream(), Map.class);
-        logger.debug("Qdrant POST request successful: {}", path);
-        return result;
-      } catch (Exception e) { 
-        logger.error("Qdrant POST request failed: {}", path, e);
-        throw new RuntimeException(e); 
-      }
-    });
-  }
   private void httpPut(String path, String json) throws Exception {
     logger.debug("Making PUT request to Qdrant: {}", path);
     metrics.timeQdrantPut(() -> {
       try {
-        HttpURLConnection c = (HttpURLConnection)URI.create(qdrantUrl + path).toURL().openConnection();
-        c.setRequestMethod("PUT");
-        c.setRequestProperty("Content-Type", "application/json");
-        c.setDoOutput(true);
-        try (OutputStream os = c.getOutputStream()) { os.write(json.getBytes(StandardCharsets.UTF_8)); }
-        c.getInputStream().close();
+        http.put(URI.create(qdrantUrl + path), jsonEntity(json));
         logger.debug("Qdrant PUT request successful: {}", path);
         return null;
       } catch (Exception e) { 
@@ -192,13 +272,32 @@ public class RagService {
       }
     });
   }
+  private void httpPatch(String path, String json) throws Exception {
+    logger.debug("Making PATCH request to Qdrant: {}", path);
+    metrics.timeQdrantPut(() -> {
+      try {
+        http.exchange(URI.create(qdrantUrl + path), HttpMethod.PATCH, jsonEntity(json), Map.class);
+        logger.debug("Qdrant PATCH request successful: {}", path);
+        return null;
+      } catch (Exception e) {
+        logger.error("Qdrant PATCH request failed: {}", path, e);
+        throw new RuntimeException(e);
+      }
+    });
+  }
+  private static HttpEntity<String> jsonEntity(String json) {
+    HttpHeaders h = new HttpHeaders();
+    h.setContentType(MediaType.APPLICATION_JSON);
+    return new HttpEntity<>(json, h);
+  }
 
-  private static List<String> chunk(String text, int size, int overlap) {
+  static List<String> chunk(String text, int size, int overlap) {
     List<String> out = new ArrayList<>();
     int i = 0; 
     while (i < text.length()) {
       int end = Math.min(text.length(), i + size);
       out.add(text.substring(i, end));
+      if (end == text.length()) break; // otherwise the overlap step re-emits the tail forever
       i = end - overlap;
       if (i < 0) i = 0;
       if (i >= text.length()) break;
@@ -208,43 +307,87 @@ public class RagService {
 
     /* ====== Public API ====== */
 
-    public void reindexAll() throws IOException, Exception {
+    /**
+     * Brings the collection in line with KB_PATH using the manifest: unchanged files are skipped, new
+     * and changed files are re-embedded, and points of changed or removed files are deleted by
+     * {@code source_id}. Stale chunks of a changed file are deleted only after its new chunks are in,
+     * so searches never see the file missing.
+     */
+    public ReindexReport reindexAll() throws IOException, Exception {
       Path dir = Paths.get(kbPath);
-      if (!Files.isDirectory(dir)) return;
-      List<QPoint> points = new ArrayList<>();
+      if (!Files.isDirectory(dir)) return new ReindexReport(0, 0, 0, 0);
+      Map<String, SourceManifestRepository.Entry> known = manifest.all("file");
+      Set<String> present = ConcurrentHashMap.newKeySet();
+      AtomicInteger skipped = new AtomicInteger();
+      List<SourceManifestRepository.Entry> indexed = new CopyOnWriteArrayList<>();
       try (var stream = Files.walk(dir)) {
-        stream.filter(Files::isRegularFile).forEach(p -> {
+        Iterator<IngestPipeline.Source> changed = stream.filter(Files::isRegularFile).map(p -> {
+          String sourceId = p.toAbsolutePath().toString();
+          present.add(sourceId);
+          String content;
           try {
-            String content = Files.readString(p, StandardCharsets.UTF_8);
-            String sourceId = p.toAbsolutePath().toString();
-            String name = p.getFileName().toString();
-            points.addAll(chunksToPoints(content, sourceId, name, "file", null));
-          } catch (Exception ignore) {}
-        });
+            content = Files.readString(p, StandardCharsets.UTF_8);
+          } catch (IOException e) {
+            logger.warn("Skipping unreadable file {}: {}", p.getFileName(), e.getMessage());
+            skipped.incrementAndGet();
+            return null;
+          }
+          SourceManifestRepository.Entry prev = known.get(sourceId);
+          if (prev != null && prev.contentHash().equals(IngestPipeline.contentHash(content))) {
+            skipped.incrementAndGet();
+            return null;
+          }
+          return new IngestPipeline.Source(sourceId, p.getFileName().toString(), "file", null, () -> content);
+        }).filter(Objects::nonNull).iterator();
+        ingestPipeline.run(changed, IngestPipeline.STABLE_IDS,
+            (source, hash, chunks) -> indexed.add(new SourceManifestRepository.Entry(source.sourceId(), "file", hash, chunks)));
+      }
+
+      int added = 0, updated = 0;
+      for (SourceManifestRepository.Entry e : indexed) {
+        // also for sources the manifest does not know: a lost manifest row must not leave old chunks behind
+        points.deleteBySource(e.sourceId(), e.contentHash());
+        if (known.containsKey(e.sourceId())) updated++;
+        else added++;
       }
-      upsert(points);
+      List<String> gone = known.keySet().stream().filter(id -> !present.contains(id)).toList();
+      for (String sourceId : gone) points.deleteBySource(sourceId, null);
+      commitManifest(indexed, gone);
+      ReindexReport report = new ReindexReport(added, updated, gone.size(), skipped.get());
+      metrics.recordReindex(report.added(), report.updated(), report.deleted(), report.skipped());
+      logger.info("Reindex of {}: {}", kbPath, report);
+      return report;
     }
 
+    /** Indexes one document (upload or URL), replacing whatever was indexed before under {@code sourceId}. */
     public void ingestText(String content, String sourceId, String name, String sourceType, String uri) throws Exception {
-      List<QPoint> points = chunksToPoints(content, sourceId, name, sourceType, uri);
-      upsert(points);
+      IngestPipeline.Source source = new IngestPipeline.Source(sourceId, name, sourceType, uri, () -> content);
+      List<SourceManifestRepository.Entry> indexed = new ArrayList<>(1);
+      ingestPipeline.run(List.of(source).iterator(), IngestPipeline.STABLE_IDS,
+          (s, hash, chunks) -> indexed.add(new SourceManifestRepository.Entry(sourceId, sourceType, hash, chunks)));
+      for (SourceManifestRepository.Entry e : indexed) points.deleteBySource(sourceId, e.contentHash());
+      commitManifest(indexed, List.of());
+    }
+
+    /**
+     * Flushes the store, which also saves BM25 stamped with the next manifest generation, and only then
+     * records the sources, so the manifest never claims chunks that were not persisted. A crash between
+     * the two leaves BM25 a generation ahead, which {@link #ingestIfEmpty} treats as stale.
+     */
+    private synchronized void commitManifest(List<SourceManifestRepository.Entry> indexed, List<String> gone) throws Exception {
+      long generation = manifest.generation() + 1;
+      if (bm25 != null) bm25.setManifestGeneration(generation);
+      points.flush();
+      for (SourceManifestRepository.Entry e : indexed) manifest.put(e);
+      for (String sourceId : gone) manifest.remove(sourceId);
+      manifest.setGeneration(generation);
     }
 
     public List<SearchHit> search(String query, int k) throws Exception {
-      double[] v = llmProvider.embed(query);
-      String payload = """
-        {"vector":%s,"limit":%d,"with_payload":true}
-      """.formatted(Arrays.toString(v), k);
-      Map<?,?> res = httpPost("/collections/" + collection + "/points/search", payload);
       List<SearchHit> out = new ArrayList<>();
-      List<?> r = (List<?>) res.get("result");
-      if (r == null) return out;
-      for (Object o : r) {
-        @SuppressWarnings("unchecked")
-        Map<String,Object> m = (Map<String,Object>) o;
-        double score = ((Number)m.getOrDefault("score", 0)).doubleValue();
-        @SuppressWarnings("unchecked")
-        Map<String,Object> pl = (Map<String,Object>) m.get("payload");
+      for (VectorStore.Hit hit : findHits(query, k, () -> llmProvider.embed(query))) {
+        double score = hit.score();
+        Map<String,Object> pl = hit.payload();
         if (pl == null) continue;
         out.add(new SearchHit(
           String.valueOf(pl.getOrDefault("source_id","")),
@@ -260,19 +403,46 @@ public class RagService {
 
     
   public String answerInHebrew(String question, int k, int tokens) throws Exception {
-    List<SearchHit> hits = search(question, k);
-    StringBuilder ctx = new StringBuilder();
-    int i = 1;
-    for (SearchHit h : hits) {
-      ctx.append(i++).append(") [").append(h.name()).append("] ")
-         .append(h.snippet()).append("\n\n");
-    }
-    String system = """
+    return answerInHebrew(question, search(question, k), tokens);
+  }
+
+  /** Answers from hits the caller already retrieved, so the search is not repeated. */
+  public String answerInHebrew(String question, List<SearchHit> hits, int tokens) {
+    return llmProvider.chat(HEBREW_ANSWER_SYSTEM, hebrewAnswerPrompt(question, hits, tokens), tokens);
+  }
+
+  /** Streams the Hebrew answer for hits the caller already retrieved, so the search is not repeated. */
+  public String streamAnswerInHebrew(String question, List<SearchHit> hits, int tokens, Consumer<String> onToken) {
+    return llmProvider.chatStream(HEBREW_ANSWER_SYSTEM, hebrewAnswerPrompt(question, hits, tokens), tokens, onToken);
+  }
+
+  private static final String HEBREW_ANSWER_SYSTEM = """
 את/ה עוזר/ת תמיכה בעברית. ענה/י בעברית בלבד.
 שלב/י בתשובה מידע רק מתוך "ההקשר" להלן. אם אין מידע מתאים—ציין/י שאין מספיק מידע.
 החזר/י תשובה מובנית וברורה, וצרף/י רשימת מקורות בסוף.
 """;
-    String user = """
+
+  /** Question first, then hits in score order until the context budget runs out. */
+  private String hebrewAnswerPrompt(String question, List<SearchHit> hits, int answerTokens) {
+    PromptBudget budget = PromptBudget.forAnswer(answerTokens)
+        .reserve(HEBREW_ANSWER_SYSTEM)
+        .reserve(hebrewAnswerPrompt("", ""));
+    String q = budget.fit(question);
+    List<String> numbered = new ArrayList<>(hits.size());
+    int i = 1;
+    for (SearchHit h : hits) {
+      numbered.add(i++ + ") [" + h.name() + "] " + h.snippet() + "\n\n");
+    }
+    String ctx = String.join("", budget.fitInOrder(numbered));
+    if (budget.trimmed()) {
+      logger.info("RAG prompt trimmed to ~{} tokens, {} of {} hits dropped", budget.used(), budget.dropped(), hits.size());
+    }
+    metrics.recordPromptTokens("rag", budget.used(), budget.trimmed());
+    return hebrewAnswerPrompt(q, ctx);
+  }
+
+  private static String hebrewAnswerPrompt(String question, String ctx) {
+    return """
 שאלה:
 %s
 
@@ -283,51 +453,17 @@ public class RagService {
 1) תשובה קצרה ומדויקת בעברית.
 2) אם רלוונטי – צעדי פתרון/בדיקה.
 3) "מקורות": רשום/י שם מקור ו-URI (אם יש) מהם נלקח המידע.
-""".formatted(question, ctx.toString());
-
-    return llmProvider.chat(system, user, tokens);
+""".formatted(question, ctx);
   }
 
-   /* ====== Ingest helpers ====== */
-
-   private List<QPoint> chunksToPoints(String content, String sourceId, String name, String sourceType, String uri) {
-    List<QPoint> out = new ArrayList<>();
-    List<String> chunks = chunk(content, 1000, 200);
-    int idx = 0;
-    for (String ch : chunks) {
-      double[] v = llmProvider.embed(ch);
-      Map<String,Object> payload = new HashMap<>();
-      payload.put("text", ch);
-      payload.put("source_id", sourceId);
-      payload.put("name", name);
-      payload.put("source_type", sourceType);
-      if (uri != null) payload.put("uri", uri);
-      payload.put("chunk_index", idx++);
-      out.add(new QPoint(UUID.randomUUID().toString(), v, payload));
-    }
-    return out;
-  }
-
-  private void upsert(List<QPoint> points) throws Exception {
-    if (points.isEmpty()) return;
-    List<Map<String,Object>> arr = new ArrayList<>();
-    for (QPoint p : points) {
-      Map<String,Object> m = new HashMap<>();
-      m.put("id", p.id());
-      m.put("vector", p.vector());
-      m.put("payload", p.payload());
-      arr.add(m);
-    }
-    String body;
-    try {
-      Map<String, Object> requestBody = new HashMap<>();
-      requestBody.put("points", arr);
-      body = om.writeValueAsString(requestBody);
-    } catch (Exception e) { throw new RuntimeException(e); }
-    httpPut("/collections/" + collection + "/points?wait=true", body);
+  @Override
+  public void destroy() {
+    points.close();
+    if (lexicalSearch != null) lexicalSearch.shutdownNow();
   }
 
   public record SearchHit(String sourceId, String name, String sourceType, String uri, String snippet, double score) {}
-  public record QPoint(String id, double[] vector, Map<String,Object> payload) {}
+  public record QPoint(String id, float[] vector, Map<String,Object> payload) {}
+  public record ReindexReport(int added, int updated, int deleted, int skipped) {}
 
 }
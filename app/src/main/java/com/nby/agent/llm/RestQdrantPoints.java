@@ -0,0 +1,150 @@
+package com.nby.agent.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+
+/** Search and upsert over Qdrant's JSON REST API (port 6333). */
+class RestQdrantPoints implements VectorStore {
+  private static final Logger logger = LoggerFactory.getLogger(RestQdrantPoints.class);
+
+  private final RestTemplate http;
+  private final String baseUrl;
+  private final String collection;
+  private final QdrantCollectionConfig config;
+  private final MetricsService metrics;
+  private final ObjectMapper om = new ObjectMapper();
+
+  RestQdrantPoints(RestTemplate http, String baseUrl, String collection, QdrantCollectionConfig config, MetricsService metrics) {
+    this.http = http;
+    this.baseUrl = baseUrl;
+    this.collection = collection;
+    this.config = config;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public List<Hit> search(float[] vector, int limit) throws Exception {
+    String path = "/collections/" + collection + "/points/search";
+    String body = searchBody(vector, limit);
+    Map<?,?> res = metrics.timeQdrantPost(() -> {
+      try {
+        return http.postForObject(URI.create(baseUrl + path), jsonEntity(body), Map.class);
+      } catch (Exception e) {
+        logger.error("Qdrant POST request failed: {}", path, e);
+        throw new RuntimeException(e);
+      }
+    });
+    List<Hit> hits = new ArrayList<>();
+    List<?> r = res == null ? null : (List<?>) res.get("result");
+    if (r == null) return hits;
+    for (Object o : r) {
+      @SuppressWarnings("unchecked")
+      Map<String,Object> m = (Map<String,Object>) o;
+      double score = ((Number) m.getOrDefault("score", 0)).doubleValue();
+      @SuppressWarnings("unchecked")
+      Map<String,Object> payload = (Map<String,Object>) m.get("payload");
+      hits.add(new Hit(score, payload));
+    }
+    return hits;
+  }
+
+  /** Jackson writes float32 components in their shortest form, unlike Arrays.toString on doubles. */
+  private String searchBody(float[] vector, int limit) throws IOException {
+    Map<String,Object> body = new LinkedHashMap<>();
+    body.put("vector", vector);
+    body.put("limit", limit);
+    body.put("with_payload", true);
+    Map<String,Object> params = config.searchParams();
+    if (params != null) body.put("params", params);
+    return om.writeValueAsString(body);
+  }
+
+  @Override
+  public void upsert(List<RagService.QPoint> points, boolean wait) throws Exception {
+    if (points.isEmpty()) return;
+    List<Map<String,Object>> arr = new ArrayList<>(points.size());
+    for (RagService.QPoint p : points) {
+      Map<String,Object> m = new HashMap<>();
+      m.put("id", jsonId(p.id()));
+      m.put("vector", p.vector());
+      m.put("payload", p.payload());
+      arr.add(m);
+    }
+    String body = om.writeValueAsString(Map.of("points", arr));
+    String path = "/collections/" + collection + "/points?wait=" + wait;
+    metrics.timeQdrantPut(() -> {
+      try {
+        http.put(URI.create(baseUrl + path), jsonEntity(body));
+        return null;
+      } catch (Exception e) {
+        logger.error("Qdrant PUT request failed: {}", path, e);
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  @Override
+  public void deleteBySource(String sourceId, String keepContentHash) throws Exception {
+    Map<String,Object> filter = new LinkedHashMap<>();
+    filter.put("must", List.of(Map.of("key", "source_id", "match", Map.of("value", sourceId))));
+    if (keepContentHash != null) {
+      filter.put("must_not", List.of(Map.of("key", "content_hash", "match", Map.of("value", keepContentHash))));
+    }
+    deleteByFilter(filter);
+  }
+
+  @Override
+  public void deleteUnversioned() throws Exception {
+    deleteByFilter(Map.of("must", List.of(Map.of("is_empty", Map.of("key", "content_hash")))));
+  }
+
+  private void deleteByFilter(Map<String,Object> filter) throws Exception {
+    String body = om.writeValueAsString(Map.of("filter", filter));
+    String path = "/collections/" + collection + "/points/delete?wait=true";
+    metrics.timeQdrantPost(() -> {
+      try {
+        return http.postForObject(URI.create(baseUrl + path), jsonEntity(body), Map.class);
+      } catch (Exception e) {
+        logger.error("Qdrant POST request failed: {}", path, e);
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  @Override
+  public long count() throws Exception {
+    String path = "/collections/" + collection;
+    Map<?,?> res = metrics.timeQdrantGet(() -> {
+      try {
+        return http.getForObject(URI.create(baseUrl + path), Map.class);
+      } catch (Exception e) {
+        logger.error("Qdrant GET request failed: {}", path, e);
+        throw new RuntimeException(e);
+      }
+    });
+    Map<?,?> result = res == null ? null : (Map<?,?>) res.get("result");
+    Object count = result == null ? null : result.get("points_count");
+    return count instanceof Number n ? n.longValue() : 0L;
+  }
+
+  /** Qdrant ids are unsigned integers or UUIDs; numeric ids must go out as JSON numbers. */
+  static Object jsonId(String id) {
+    return !id.isEmpty() && id.chars().allMatch(Character::isDigit) ? (Object) Long.parseLong(id) : id;
+  }
+
+  private static HttpEntity<String> jsonEntity(String json) {
+    HttpHeaders h = new HttpHeaders();
+    h.setContentType(MediaType.APPLICATION_JSON);
+    return new HttpEntity<>(json, h);
+  }
+}
@@ -0,0 +1,162 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.config.TokenEstimator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Offline provider for load tests and benchmarks, with no GPU and no API key.
+ * Embeddings use feature hashing over character n-grams: each n-gram of the lower-cased text adds
+ * ±1 to a hashed dimension, and the result is L2-normalised. The same text always gives the same
+ * vector, and texts that share wording land close together, so retrieval still behaves sensibly.
+ * Chat returns a deterministic completion built from the prompt's own words. It waits out a latency
+ * model first: fixed time to first token, plus prefill time for the prompt's tokens, plus one
+ * decode interval per generated token.
+ */
+public class SyntheticLlmProvider implements LlmProvider {
+  private static final Logger logger = LoggerFactory.getLogger(SyntheticLlmProvider.class);
+
+  private final int dim;
+  private final int ngram;
+  private final long embedCallNanos;
+  private final long embedItemNanos;
+  private final long firstTokenNanos;
+  private final double prefillTokensPerSec;
+  private final double decodeTokensPerSec;
+  private final int answerTokens;
+
+  public SyntheticLlmProvider(int dim, int ngram, long embedCallMs, long embedItemMs, long firstTokenMs,
+                              double prefillTokensPerSec, double decodeTokensPerSec, int answerTokens) {
+    this.dim = dim;
+    this.ngram = Math.max(1, ngram);
+    this.embedCallNanos = TimeUnit.MILLISECONDS.toNanos(embedCallMs);
+    this.embedItemNanos = TimeUnit.MILLISECONDS.toNanos(embedItemMs);
+    this.firstTokenNanos = TimeUnit.MILLISECONDS.toNanos(firstTokenMs);
+    this.prefillTokensPerSec = prefillTokensPerSec;
+    this.decodeTokensPerSec = decodeTokensPerSec;
+    this.answerTokens = answerTokens;
+    logger.info("Synthetic LLM provider: dim={}, ngram={}, firstToken={}ms, prefill={} tok/s, decode={} tok/s",
+        dim, ngram, firstTokenMs, prefillTokensPerSec, decodeTokensPerSec);
+  }
+
+  /** Reads the SYNTHETIC_* settings from the environment. */
+  public static SyntheticLlmProvider fromEnv() {
+    return new SyntheticLlmProvider(
+        Integer.parseInt(System.getenv().getOrDefault("SYNTHETIC_EMBED_DIM", "1024")),
+        Integer.parseInt(System.getenv().getOrDefault("SYNTHETIC_NGRAM", "3")),
+        Long.parseLong(System.getenv().getOrDefault("SYNTHETIC_EMBED_LATENCY_MS", "5")),
+        Long.parseLong(System.getenv().getOrDefault("SYNTHETIC_EMBED_ITEM_MS", "1")),
+        Long.parseLong(System.getenv().getOrDefault("SYNTHETIC_FIRST_TOKEN_MS", "200")),
+        Double.parseDouble(System.getenv().getOrDefault("SYNTHETIC_PREFILL_TOKENS_PER_SEC", "2000")),
+        Double.parseDouble(System.getenv().getOrDefault("SYNTHETIC_DECODE_TOKENS_PER_SEC", "40")),
+        Integer.parseInt(System.getenv().getOrDefault("SYNTHETIC_ANSWER_TOKENS", "200")));
+  }
+
+  @Override
+  public String embedModelName() {
+    return "synthetic-" + dim + "-n" + ngram;
+  }
+
+  @Override
+  public float[] embed(String text) {
+    pauseUntil(System.nanoTime() + embedCallNanos + embedItemNanos);
+    return hashEmbed(text);
+  }
+
+  @Override
+  public List<float[]> embedBatch(List<String> texts) {
+    pauseUntil(System.nanoTime() + embedCallNanos + embedItemNanos * texts.size());
+    List<float[]> out = new ArrayList<>(texts.size());
+    for (String t : texts) out.add(hashEmbed(t));
+    return out;
+  }
+
+  float[] hashEmbed(String text) {
+    float[] v = new float[dim];
+    String s = " " + text.toLowerCase(Locale.ROOT) + " ";
+    if (s.length() < ngram) s = s + " ".repeat(ngram - s.length());
+    for (int i = 0; i + ngram <= s.length(); i++) {
+      int h = mix(hash(s, i, i + ngram));
+      int idx = Math.floorMod(h, dim);
+      v[idx] += (h & 0x40000000) == 0 ? 1f : -1f;
+    }
+    double norm = 0;
+    for (float x : v) norm += x * x;
+    if (norm > 0) {
+      float inv = (float) (1.0 / Math.sqrt(norm));
+      for (int i = 0; i < dim; i++) v[i] *= inv;
+    }
+    return v;
+  }
+
+  /** FNV-1a over the n-gram's UTF-16 units: fixed across JVMs and runs, and allocation-free. */
+  private static int hash(String s, int from, int to) {
+    int h = 0x811c9dc5;
+    for (int i = from; i < to; i++) {
+      h ^= s.charAt(i);
+      h *= 0x01000193;
+    }
+    return h;
+  }
+
+  /** Murmur3 finalizer, so nearby n-gram hashes spread over all dimensions. */
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  @Override
+  public String chat(String system, String user, int tokens) {
+    return chatStream(system, user, tokens, t -> {});
+  }
+
+  @Override
+  public String chatStream(String system, String user, int tokens, Consumer<String> onToken) {
+    long start = System.nanoTime();
+    int promptTokens = TokenEstimator.estimate(system) + TokenEstimator.estimate(user);
+    long firstAt = start + firstTokenNanos + (long) (promptTokens / prefillTokensPerSec * 1e9);
+    long decodeNanos = (long) (1e9 / decodeTokensPerSec);
+
+    List<String> words = words(user);
+    int n = Math.min(tokens, answerTokens);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      pauseUntil(firstAt + i * decodeNanos);
+      String token = (i == 0 ? "" : " ") + words.get(i % words.size());
+      sb.append(token);
+      onToken.accept(token);
+    }
+    return sb.toString();
+  }
+
+  private static List<String> words(String text) {
+    List<String> out = new ArrayList<>();
+    for (String w : text.split("\\s+")) {
+      if (!w.isBlank()) out.add(w);
+    }
+    if (out.isEmpty()) out.add("synthetic");
+    return out;
+  }
+
+  private static void pauseUntil(long deadlineNanos) {
+    long remaining;
+    while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Synthetic LLM call interrupted", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.nby.agent.llm;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Dot-product kernels for the embedded vector stores. They use the JDK Vector API when the JVM was
+ * started with {@code --add-modules jdk.incubator.vector} (the Dockerfile and the Maven build do),
+ * and a plain loop otherwise, so a JVM without the module still runs, only slower.
+ */
+final class VectorMath {
+
+  static final boolean SIMD = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+  private VectorMath() {
+  }
+
+  /** Dot product of {@code a[aOff .. aOff+len)} and {@code b[0 .. len)}. */
+  static float dot(float[] a, int aOff, float[] b, int len) {
+    if (SIMD) return Simd.dot(a, aOff, b, len);
+    float s = 0;
+    for (int i = 0; i < len; i++) s += a[aOff + i] * b[i];
+    return s;
+  }
+
+  /** Dot product of the int8 components {@code a[aOff .. aOff+len)} and {@code b[0 .. len)}, unscaled. */
+  static float dotInt8(byte[] a, int aOff, float[] b, int len) {
+    if (SIMD) return Simd.dotInt8(a, aOff, b, len);
+    float s = 0;
+    for (int i = 0; i < len; i++) s += a[aOff + i] * b[i];
+    return s;
+  }
+
+  /** Only loaded when the module is present; referencing it otherwise fails class resolution. */
+  private static final class Simd {
+    private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+    // int8 lanes widen 4x to float, so pair the byte species with a float species of the same lane count
+    private static final VectorSpecies<Byte> B8 = VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, F.vectorBitSize() / 4)));
+    private static final VectorSpecies<Float> F8 = VectorSpecies.of(float.class, VectorShape.forBitSize(B8.length() * 32));
+
+    static float dot(float[] a, int aOff, float[] b, int len) {
+      FloatVector acc = FloatVector.zero(F);
+      int i = 0;
+      for (int upper = F.loopBound(len); i < upper; i += F.length()) {
+        acc = FloatVector.fromArray(F, a, aOff + i).fma(FloatVector.fromArray(F, b, i), acc);
+      }
+      float s = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < len; i++) s += a[aOff + i] * b[i];
+      return s;
+    }
+
+    static float dotInt8(byte[] a, int aOff, float[] b, int len) {
+      FloatVector acc = FloatVector.zero(F8);
+      int i = 0;
+      for (int upper = B8.loopBound(len); i < upper; i += B8.length()) {
+        FloatVector x = (FloatVector) ByteVector.fromArray(B8, a, aOff + i).convertShape(VectorOperators.B2F, F8, 0);
+        acc = x.fma(FloatVector.fromArray(F8, b, i), acc);
+      }
+      float s = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < len; i++) s += a[aOff + i] * b[i];
+      return s;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where RagService keeps chunk vectors: search, upsert and per-source delete. VECTOR_STORE=qdrant
+ * (default) uses the Qdrant collection, over REST or gRPC by QDRANT_TRANSPORT; collection management
+ * stays on REST in RagService. VECTOR_STORE=hnsw keeps an embedded HNSW index on local disk instead
+ * (see {@link HnswVectorStore}) and VECTOR_STORE=flat an exact-scan store (see {@link FlatVectorStore}),
+ * both with no Qdrant container or network hop.
+ */
+public interface VectorStore extends AutoCloseable {
+
+  /** One search result: similarity score and the point payload. */
+  record Hit(double score, Map<String, Object> payload) {}
+
+  List<Hit> search(float[] vector, int limit) throws Exception;
+
+  /** Upserts {@code points}; with {@code wait} false Qdrant acknowledges once they are in its WAL. */
+  void upsert(List<RagService.QPoint> points, boolean wait) throws Exception;
+
+  default void upsert(List<RagService.QPoint> points) throws Exception {
+    upsert(points, true);
+  }
+
+  /**
+   * Deletes the points whose {@code source_id} payload is {@code sourceId}, except those whose
+   * {@code content_hash} equals {@code keepContentHash} (null deletes them all). Waits until applied.
+   */
+  void deleteBySource(String sourceId, String keepContentHash) throws Exception;
+
+  /**
+   * Deletes points with no {@code content_hash} payload: the numbered and random ids written before
+   * sources were versioned, which no per-source delete matches. Stores that never held them do nothing.
+   */
+  default void deleteUnversioned() throws Exception {
+  }
+
+  /** Points currently stored. */
+  long count() throws Exception;
+
+  /** Makes what was written so far durable; called after each ingest run. */
+  default void flush() throws Exception {
+  }
+
+  @Override
+  default void close() {
+  }
+
+  /** True when the store lives in Qdrant, so RagService has a collection to create and reconcile. */
+  static boolean usesQdrant() {
+    return !kind().equals("hnsw") && !kind().equals("flat");
+  }
+
+  private static String kind() {
+    return System.getenv().getOrDefault("VECTOR_STORE", "qdrant").trim().toLowerCase();
+  }
+
+  static VectorStore create(String restUrl, String collection, QdrantCollectionConfig config, RestTemplate http, MetricsService metrics) {
+    if (kind().equals("hnsw")) return HnswVectorStore.fromEnv(metrics);
+    if (kind().equals("flat")) return FlatVectorStore.fromEnv(metrics);
+    VectorStore rest = new RestQdrantPoints(http, restUrl, collection, config, metrics);
+    String transport = System.getenv().getOrDefault("QDRANT_TRANSPORT", "rest").trim().toLowerCase();
+    if (!transport.equals("grpc")) return rest;
+    String host = System.getenv().getOrDefault("QDRANT_GRPC_HOST", URI.create(restUrl).getHost());
+    int port = Integer.parseInt(System.getenv().getOrDefault("QDRANT_GRPC_PORT", "6334"));
+    boolean tls = Boolean.parseBoolean(System.getenv().getOrDefault("QDRANT_GRPC_TLS", "false"));
+    Duration timeout = Duration.ofMillis(Long.parseLong(System.getenv().getOrDefault("QDRANT_READ_TIMEOUT_MS", "60000")));
+    int batch = Integer.parseInt(System.getenv().getOrDefault("QDRANT_UPSERT_BATCH", "256"));
+    int inFlight = Integer.parseInt(System.getenv().getOrDefault("QDRANT_GRPC_UPSERT_IN_FLIGHT", "4"));
+    return new GrpcQdrantPoints(host, port, tls, timeout, collection, config, batch, inFlight, rest, metrics);
+  }
+}
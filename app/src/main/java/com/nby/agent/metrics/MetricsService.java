@@ -29,8 +29,10 @@ public class MetricsService {
   private final Timer ragIngestTimer;
   private final Timer llmChatTimer;
   private final Timer llmEmbedTimer;
+  private final MeterRegistry registry;
 
   public MetricsService(MeterRegistry registry) {
+    this.registry = registry;
     casesProcessed = Counter.builder("sfagent_cases_processed").description("Cases processed").register(registry);
     casesSkippedHandled = Counter.builder("sfagent_cases_skipped_handled").description("Cases skipped - already handled").register(registry);
     caseCommentsPosted = Counter.builder("sfagent_case_comments_posted").description("CaseComments posted to Salesforce").register(registry);
@@ -122,4 +124,150 @@ public class MetricsService {
     return ragRetrieveTimer.recordCallable(c);
   }
 
+
+  /* ---------- HTTP transport ---------- */
+
+  /** Exports leased/available/pending/max connection gauges for the shared outbound pool. */
+  public void bindHttpPool(org.apache.hc.core5.pool.ConnPoolControl<org.apache.hc.client5.http.HttpRoute> pool) {
+    new io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder(pool, "sfagent").bindTo(registry);
+  }
+
+  /* ---------- prompt size ---------- */
+
+  public void recordPromptTokens(String source, int tokens, boolean trimmed) {
+    DistributionSummary.builder("sfagent_llm_prompt_tokens").description("Estimated prompt tokens per LLM call").baseUnit("tokens")
+        .tags("source", source).publishPercentileHistogram().register(registry).record(tokens);
+    if (trimmed) {
+      Counter.builder("sfagent_llm_prompt_trimmed").description("Prompts cut down to fit the context budget").tags("source", source).register(registry).increment();
+    }
+  }
+
+  /* ---------- embed coalescing ---------- */
+
+  public void recordEmbedCoalescedBatch(int size) {
+    DistributionSummary.builder("sfagent_embed_coalesced_batch_size").description("Concurrent embed calls merged into one provider batch")
+        .publishPercentileHistogram().serviceLevelObjectives(1, 2, 4, 8, 16, 32).register(registry).record(size);
+  }
+
+  /* ---------- LLM concurrency limiter ---------- */
+
+  public void gaugeLlmLimiter(String provider, String operation,
+                              java.util.function.Supplier<Number> limit,
+                              java.util.function.Supplier<Number> inFlight,
+                              java.util.function.Supplier<Number> queued) {
+    Gauge.builder("sfagent_llm_limiter_limit", limit).description("Current adaptive concurrency limit").tags("provider", provider, "operation", operation).register(registry);
+    Gauge.builder("sfagent_llm_limiter_in_flight", inFlight).description("LLM calls currently in flight").tags("provider", provider, "operation", operation).register(registry);
+    Gauge.builder("sfagent_llm_limiter_queued", queued).description("LLM calls waiting for a slot").tags("provider", provider, "operation", operation).register(registry);
+  }
+  public void recordLlmLimiterWait(String provider, String operation, long nanos) {
+    Timer.builder("sfagent_llm_limiter_queue_wait_seconds").description("Time LLM calls waited for a concurrency slot").tags("provider", provider, "operation", operation).register(registry).record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+  }
+  public void incLlmLimiterRejected(String provider, String operation) {
+    Counter.builder("sfagent_llm_limiter_rejected").description("LLM calls rejected by the concurrency limiter").tags("provider", provider, "operation", operation).register(registry).increment();
+    logger.warn("LLM call rejected by concurrency limiter: provider={}, operation={}", provider, operation);
+  }
+
+  /* ---------- circuit breakers / failover ---------- */
+
+  public void gaugeLlmBreaker(String provider, java.util.function.Supplier<Number> state) {
+    Gauge.builder("sfagent_llm_breaker_state", state).description("LLM circuit breaker state: 0 closed, 1 half-open, 2 open").tags("provider", provider).register(registry);
+  }
+  public void incLlmFailover(String fromProvider) {
+    Counter.builder("sfagent_llm_failover").description("LLM calls that moved on to the next provider after a failure").tags("provider", fromProvider).register(registry).increment();
+  }
+
+  /* ---------- hedged requests ---------- */
+
+  public void incLlmHedgeFired(String operation) {
+    Counter.builder("sfagent_llm_hedge_fired").description("Duplicate LLM requests started because the first was slow").tags("operation", operation).register(registry).increment();
+  }
+  public void incLlmHedgeWon(String operation) {
+    Counter.builder("sfagent_llm_hedge_won").description("Hedged LLM requests where the duplicate answered first").tags("operation", operation).register(registry).increment();
+  }
+
+  /* ---------- ingestion pipeline ---------- */
+
+  /** Items (files, chunks, embedded chunks, upserted points) that passed a pipeline stage, and how long it took. */
+  public void recordIngestStage(String stage, int items, long nanos) {
+    Counter.builder("sfagent_ingest_items").description("Items processed per ingestion stage").tags("stage", stage).register(registry).increment(items);
+    Timer.builder("sfagent_ingest_stage_seconds").description("Time per ingestion stage step (file, batch or page)").tags("stage", stage).register(registry).record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+  }
+  public void gaugeIngestQueue(String queue, java.util.function.Supplier<Number> depth) {
+    Gauge.builder("sfagent_ingest_queue_depth", depth).description("Items waiting between ingestion stages").tags("queue", queue).register(registry);
+  }
+  /** Per-source outcome of an incremental reindex (added, updated, deleted, skipped). */
+  public void recordReindex(int added, int updated, int deleted, int skipped) {
+    Counter.builder("sfagent_rag_reindex_sources").description("Knowledge-base sources per reindex outcome").tags("result", "added").register(registry).increment(added);
+    Counter.builder("sfagent_rag_reindex_sources").description("Knowledge-base sources per reindex outcome").tags("result", "updated").register(registry).increment(updated);
+    Counter.builder("sfagent_rag_reindex_sources").description("Knowledge-base sources per reindex outcome").tags("result", "deleted").register(registry).increment(deleted);
+    Counter.builder("sfagent_rag_reindex_sources").description("Knowledge-base sources per reindex outcome").tags("result", "skipped").register(registry).increment(skipped);
+  }
+
+  /* ---------- knowledge-base bootstrap ---------- */
+
+  public void recordStartupPhase(String phase, long nanos, boolean success) {
+    Timer.builder("sfagent_startup_phase_seconds").description("Duration of background startup phases (collection setup, KB ingest)").tags("phase", phase, "outcome", success ? "success" : "error").register(registry).record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+  }
+  public void gaugeBootstrapProgress(java.util.function.Supplier<Number> fraction) {
+    Gauge.builder("sfagent_kb_bootstrap_progress", fraction).description("Fraction of startup phases finished; 1 means the app reports ready").register(registry);
+  }
+
+  /* ---------- BM25 / hybrid search ---------- */
+
+  public void recordBm25Search(long nanos) {
+    Timer.builder("sfagent_bm25_search_seconds").description("In-process BM25 query latency").register(registry).record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+  }
+  public void gaugeBm25(java.util.function.Supplier<Number> chunks, java.util.function.Supplier<Number> terms) {
+    Gauge.builder("sfagent_bm25_chunks", chunks).description("Chunks in the BM25 index").register(registry);
+    Gauge.builder("sfagent_bm25_terms", terms).description("Distinct terms in the BM25 index").register(registry);
+  }
+
+  /* ---------- embedded vector stores ---------- */
+
+  public void recordVectorStore(String store, String operation, long nanos) {
+    Timer.builder("sfagent_vector_store_seconds").description("Embedded vector store operation latency").tags("store", store, "operation", operation).register(registry).record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+  }
+  public void gaugeVectorStorePoints(String store, java.util.function.Supplier<Number> points) {
+    Gauge.builder("sfagent_vector_store_points", points).description("Live points in the embedded vector store").tags("store", store).register(registry);
+  }
+
+  /* ---------- Qdrant gRPC ---------- */
+
+  public void recordQdrantGrpc(String operation, long nanos, boolean success) {
+    Timer.builder("sfagent_qdrant_grpc_seconds").description("Qdrant gRPC call latency").tags("operation", operation, "outcome", success ? "success" : "error").register(registry).record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+  }
+  public void incQdrantGrpcFallback(String operation) {
+    Counter.builder("sfagent_qdrant_grpc_fallback").description("Qdrant gRPC calls retried over REST after a failure").tags("operation", operation).register(registry).increment();
+  }
+
+  /* ---------- Ollama endpoints ---------- */
+
+  public void gaugeOllamaEndpoint(String endpoint,
+                                  java.util.function.Supplier<Number> inFlight,
+                                  java.util.function.Supplier<Number> up) {
+    Gauge.builder("sfagent_ollama_endpoint_in_flight", inFlight).description("Requests outstanding on an Ollama endpoint").tags("endpoint", endpoint).register(registry);
+    Gauge.builder("sfagent_ollama_endpoint_up", up).description("1 while an Ollama endpoint is in rotation, 0 when ejected").tags("endpoint", endpoint).register(registry);
+  }
+  public void recordOllamaEndpoint(String endpoint, String operation, long nanos, boolean success) {
+    Timer.builder("sfagent_ollama_endpoint_seconds").description("Ollama call latency per endpoint").tags("endpoint", endpoint, "operation", operation, "outcome", success ? "success" : "error").register(registry).record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+  }
+  public void recordOllamaModelLoad(String endpoint, String model, long nanos) {
+    Timer.builder("sfagent_ollama_model_load_seconds").description("Model load time reported by Ollama (load_duration)").tags("endpoint", endpoint, "model", model).register(registry).record(nanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+  }
+
+  /* ---------- embedding cache ---------- */
+
+  public void incEmbedCacheHits(String tier, int n) {
+    if (n > 0) Counter.builder("sfagent_embed_cache_hits").description("Embeddings served from cache").tag("tier", tier).register(registry).increment(n);
+  }
+  public void incEmbedCacheMisses(int n) {
+    if (n > 0) Counter.builder("sfagent_embed_cache_misses").description("Embeddings not found in cache").register(registry).increment(n);
+  }
+  public void gaugeEmbedCache(java.util.function.Supplier<Number> memoryEntries,
+                              java.util.function.Supplier<Number> memoryBytes,
+                              java.util.function.Supplier<Number> diskBytes) {
+    Gauge.builder("sfagent_embed_cache_entries", memoryEntries).description("Embeddings held in the in-memory cache tier").tag("tier", "memory").register(registry);
+    Gauge.builder("sfagent_embed_cache_bytes", memoryBytes).description("Vector bytes held per cache tier").tag("tier", "memory").register(registry);
+    Gauge.builder("sfagent_embed_cache_bytes", diskBytes).description("Vector bytes held per cache tier").tag("tier", "disk").register(registry);
+  }
 }
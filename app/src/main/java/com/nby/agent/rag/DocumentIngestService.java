@@ -20,7 +20,8 @@ public class DocumentIngestService {
   public String ingestFile(String originalName, InputStream content) throws IOException, Exception {
     Path destDir = Paths.get(kbPath);
     Files.createDirectories(destDir);
-    Path dest = destDir.resolve(System.currentTimeMillis() + "_" + sanitize(originalName));
+    // same name -> same source id, so a re-upload replaces the earlier version instead of adding to it
+    Path dest = destDir.resolve(sanitize(originalName));
     Files.copy(content, dest, StandardCopyOption.REPLACE_EXISTING);
 
     String text = extractor.fromFile(dest.toFile());
@@ -34,5 +35,5 @@ public class DocumentIngestService {
     rag.ingestText(text, url, url, "url", url);
   }
 
-  private static String sanitize(String s) { return s.replaceAll("[^\\w\\-.]+","_"); }
+  private static String sanitize(String s) { return s.replaceAll("(?U)[^\\w\\-.]+","_"); }
 }
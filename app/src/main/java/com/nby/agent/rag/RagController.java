@@ -1,23 +1,39 @@
 package com.nby.agent.rag;
 
+import com.nby.agent.llm.LlmAsync;
 import com.nby.agent.llm.RagService;
 import com.nby.agent.metrics.MetricsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/rag")
-public class RagController {
+public class RagController implements DisposableBean {
   private static final Logger logger = LoggerFactory.getLogger(RagController.class);
   
   private final DocumentIngestService ingest;
   private final RagService rag;
   private final MetricsService metrics;
+  private final long streamTimeoutMs = Long.parseLong(System.getenv().getOrDefault("RAG_STREAM_TIMEOUT_MS","300000"));
+  private final long queryTimeoutMs = Long.parseLong(System.getenv().getOrDefault("RAG_QUERY_TIMEOUT_MS","300000"));
+  // Streams outlive the request thread; virtual threads keep a slow model from pinning Tomcat workers
+  private final ExecutorService streamExecutor = Executors.newVirtualThreadPerTaskExecutor();
+  // Emitters still streaming, so shutdown can close them instead of leaving clients hanging until the timeout
+  private final Set<SseEmitter> openStreams = ConcurrentHashMap.newKeySet();
 
   public RagController(DocumentIngestService ingest, RagService rag, MetricsService metrics) {
     this.ingest = ingest;
@@ -78,17 +94,17 @@ public class RagController {
     long startTime = System.currentTimeMillis();
     
     try {
-      metrics.timeRagRetrieve(() -> {
+      RagService.ReindexReport report = metrics.timeRagRetrieve(() -> {
         try {
-          rag.reindexAll();
-          return null;
+          return rag.reindexAll();
         } catch (Exception e) {
           throw new RuntimeException(e);
         }
       });
       long duration = System.currentTimeMillis() - startTime;
-      logger.info("RAG reindex completed successfully: duration={}ms", duration);
-      return Map.of("ok", true);
+      logger.info("RAG reindex completed successfully: duration={}ms, {}", duration, report);
+      return Map.of("ok", true, "added", report.added(), "updated", report.updated(),
+          "deleted", report.deleted(), "skipped", report.skipped());
     } catch (Exception e) {
       metrics.incRagError();
       logger.error("RAG reindex failed", e);
@@ -100,50 +116,120 @@ public class RagController {
   public record Source(String name, String uri, String snippet, double score) {}
   public record AnswerResponse(String answer, List<Source> sources) {}
 
+  /**
+   * Completes asynchronously: retrieval and generation run on one virtual thread, so no servlet thread
+   * waits on the model. Past RAG_QUERY_TIMEOUT_MS the future fails, and the in-flight Qdrant or LLM
+   * call is interrupted rather than left running.
+   */
   @PostMapping("/query")
-  public AnswerResponse query(@RequestBody QueryRequest req) {
+  public CompletableFuture<AnswerResponse> query(@RequestBody QueryRequest req) {
     logger.info("RAG query request: question='{}', topK={}, maxTokens={}", 
                 req.question(), req.topK(), req.maxTokens());
     long startTime = System.currentTimeMillis();
-    
-    try {
-      int k = Optional.ofNullable(req.topK()).orElse(5);
-      int tokens = Optional.ofNullable(req.maxTokens()).orElse(800);
+    int k = Optional.ofNullable(req.topK()).orElse(5);
+    int tokens = Optional.ofNullable(req.maxTokens()).orElse(800);
 
+    return LlmAsync.supply("rag-query", () -> {
       // נבצע חיפוש לקבלת מקורות, ואז תשובה בעברית
-      List<com.nby.agent.llm.RagService.SearchHit> hits = metrics.timeRagRetrieve(() -> {
-        try {
-          return rag.search(req.question(), k);
-        } catch (Exception e) {
-          throw new RuntimeException(e);
-        }
-      });
-      List<Source> sources = new ArrayList<>();
-      for (com.nby.agent.llm.RagService.SearchHit h : hits) {
-        sources.add(new Source(
-          h.name(),
-          (h.uri()==null || h.uri().isBlank()) ? null : h.uri(),
-          TextExtractorService.safeSnippet(h.snippet(), 300),
-          h.score()
-        ));
+      List<com.nby.agent.llm.RagService.SearchHit> hits = metrics.timeRagRetrieve(() -> rag.search(req.question(), k));
+      List<Source> sources = toSources(hits);
+      String answer = metrics.timeLlmChat(() -> rag.answerInHebrew(req.question(), hits, tokens));
+      return new AnswerResponse(answer, sources);
+    })
+    .orTimeout(queryTimeoutMs, TimeUnit.MILLISECONDS)
+    .whenComplete((resp, e) -> {
+      long duration = System.currentTimeMillis() - startTime;
+      if (e == null) {
+        logger.info("RAG query completed successfully: question='{}', sources={}, duration={}ms", 
+                    req.question(), resp.sources().size(), duration);
+      } else {
+        metrics.incRagError();
+        logger.error("RAG query failed: question='{}', duration={}ms", req.question(), duration, e);
       }
-      String answer = metrics.timeLlmChat(() -> {
-        try {
-          return rag.answerInHebrew(req.question(), k, tokens);
-        } catch (Exception e) {
-          throw new RuntimeException(e);
+    });
+  }
+
+  /**
+   * SSE variant of {@link #query}: emits a {@code sources} event once retrieval finishes,
+   * then a {@code token} event per model fragment, then {@code done}.
+   */
+  @PostMapping(path="/query/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter queryStream(@RequestBody QueryRequest req) {
+    logger.info("RAG streaming query request: question='{}', topK={}, maxTokens={}",
+                req.question(), req.topK(), req.maxTokens());
+    int k = Optional.ofNullable(req.topK()).orElse(5);
+    int tokens = Optional.ofNullable(req.maxTokens()).orElse(800);
+    SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+    openStreams.add(emitter);
+    emitter.onCompletion(() -> openStreams.remove(emitter));
+    emitter.onTimeout(() -> openStreams.remove(emitter));
+    emitter.onError(e -> openStreams.remove(emitter));
+
+    streamExecutor.execute(() -> {
+      long startTime = System.currentTimeMillis();
+      try {
+        List<com.nby.agent.llm.RagService.SearchHit> hits = metrics.timeRagRetrieve(() -> {
+          try {
+            return rag.search(req.question(), k);
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        });
+        emitter.send(SseEmitter.event().name("sources").data(toSources(hits)));
+
+        long[] firstTokenAt = {0};
+        String answer = metrics.timeLlmChat(() -> rag.streamAnswerInHebrew(req.question(), hits, tokens, token -> {
+          if (firstTokenAt[0] == 0) firstTokenAt[0] = System.currentTimeMillis();
+          try {
+            emitter.send(SseEmitter.event().name("token").data(Map.of("token", token)));
+          } catch (IOException e) {
+            // client went away; abort the model stream instead of generating into the void
+            throw new UncheckedIOException(e);
+          }
+        }));
+
+        emitter.send(SseEmitter.event().name("done").data(Map.of("length", answer.length())));
+        emitter.complete();
+        logger.info("RAG streaming query completed: question='{}', sources={}, firstToken={}ms, duration={}ms",
+                    req.question(), hits.size(),
+                    firstTokenAt[0] == 0 ? -1 : firstTokenAt[0] - startTime,
+                    System.currentTimeMillis() - startTime);
+      } catch (Exception e) {
+        if (streamExecutor.isShutdown()) {
+          logger.info("RAG streaming query aborted by shutdown: question='{}'", req.question());
+        } else {
+          metrics.incRagError();
+          logger.error("RAG streaming query failed: question='{}'", req.question(), e);
         }
-      });
-      
-      long duration = System.currentTimeMillis() - startTime;
-      logger.info("RAG query completed successfully: question='{}', sources={}, duration={}ms", 
-                  req.question(), sources.size(), duration);
-      
-      return new AnswerResponse(answer, sources);
-    } catch (Exception e) {
-      metrics.incRagError();
-      logger.error("RAG query failed: question='{}'", req.question(), e);
-      throw new RuntimeException("Failed to process RAG query: " + req.question(), e);
+        emitter.completeWithError(e);
+      }
+    });
+    return emitter;
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    // Interrupting the stream tasks aborts their model calls; whatever is still open afterwards is closed here
+    streamExecutor.shutdownNow();
+    if (!streamExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+      logger.warn("RAG stream tasks still running after shutdown");
+    }
+    for (SseEmitter emitter : List.copyOf(openStreams)) {
+      emitter.complete();
+    }
+    openStreams.clear();
+  }
+
+  private static List<Source> toSources(List<com.nby.agent.llm.RagService.SearchHit> hits) {
+    List<Source> sources = new ArrayList<>();
+    for (com.nby.agent.llm.RagService.SearchHit h : hits) {
+      sources.add(new Source(
+        h.name(),
+        (h.uri()==null || h.uri().isBlank()) ? null : h.uri(),
+        TextExtractorService.safeSnippet(h.snippet(), 300),
+        h.score()
+      ));
     }
+    return sources;
   }
 }
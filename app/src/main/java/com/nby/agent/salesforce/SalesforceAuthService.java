@@ -2,6 +2,7 @@ package com.nby.agent.salesforce;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nby.agent.http.HttpTransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
@@ -16,12 +17,16 @@ import java.util.Map;
 public class SalesforceAuthService {
   private static final Logger logger = LoggerFactory.getLogger(SalesforceAuthService.class);
   
-  private final RestTemplate http = new RestTemplate();
+  private final RestTemplate http;
   private final ObjectMapper om = new ObjectMapper();
 
   private String accessToken;
   private String instanceUrl;
 
+  public SalesforceAuthService(HttpTransport transport) {
+    this.http = transport.restTemplate(HttpTransport.timeout("SF_READ_TIMEOUT_MS", 30_000));
+  }
+
   public synchronized void login() {
     logger.info("Starting Salesforce authentication...");
     String loginUrl = System.getenv().getOrDefault("SF_LOGIN_URL","https://login.salesforce.com");
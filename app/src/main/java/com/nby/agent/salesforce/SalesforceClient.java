@@ -2,6 +2,7 @@ package com.nby.agent.salesforce;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nby.agent.http.HttpTransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
@@ -13,10 +14,13 @@ public class SalesforceClient {
   private static final Logger logger = LoggerFactory.getLogger(SalesforceClient.class);
   
   private final SalesforceAuthService auth;
-  private final RestTemplate http = new RestTemplate();
+  private final RestTemplate http;
   private final ObjectMapper om = new ObjectMapper();
 
-  public SalesforceClient(SalesforceAuthService auth) { this.auth = auth; }
+  public SalesforceClient(SalesforceAuthService auth, HttpTransport transport) {
+    this.auth = auth;
+    this.http = transport.restTemplate(HttpTransport.timeout("SF_READ_TIMEOUT_MS", 30_000));
+  }
 
   private HttpHeaders headers() {
     HttpHeaders h = new HttpHeaders();
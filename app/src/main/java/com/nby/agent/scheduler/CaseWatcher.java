@@ -41,20 +41,21 @@ public class CaseWatcher {
 
     logger.info("Initializing CaseWatcher...");
     logger.info("ListView label: '{}'", listViewLabel);
-
-    // Decide mode
-    if (!listViewLabel.isBlank()) {
-      try {
-        this.listViewId = listViews.findCaseListViewIdByLabel(listViewLabel);
-        this.useListView = true;
-        logger.info("Using List View: '{}' (id={})", listViewLabel, listViewId);
-      } catch (Exception e) {
-        logger.warn("List View not available ({}). Fallback to SOQL: All Open Cases.", e.getMessage());
-        this.useListView = false;
-      }
-    } else {
+    if (listViewLabel.isBlank()) {
       logger.info("SF_CASE_LISTVIEW_LABEL empty. Using SOQL default: All Open Cases.");
-      this.useListView = false;
+    }
+    // the List View id is looked up on the first tick, so startup does not wait on Salesforce
+  }
+
+  /** Resolves the List View id once; until that succeeds each tick falls back to SOQL and tries again. */
+  void resolveListView() {
+    if (useListView || listViewLabel.isBlank()) return;
+    try {
+      this.listViewId = listViews.findCaseListViewIdByLabel(listViewLabel);
+      this.useListView = true;
+      logger.info("Using List View: '{}' (id={})", listViewLabel, listViewId);
+    } catch (Exception e) {
+      logger.warn("List View not available ({}). Fallback to SOQL: All Open Cases.", e.getMessage());
     }
   }
 
@@ -62,6 +63,7 @@ public class CaseWatcher {
   public void tick() {
     logger.debug("Starting scheduled case check...");
     try {
+      resolveListView();
       if (useListView) {
         logger.debug("Processing cases via List View");
         processViaListView();
@@ -119,10 +121,10 @@ public class CaseWatcher {
       logger.debug("Case description length: {} characters", desc.length());
 
       logger.debug("Retrieving RAG context...");
-      String ragCtx;
+      List<String> ragChunks;
       try {
-        ragCtx = metrics.timeRag(() -> rag.retrieve(subj + "\n" + desc, 5));
-        logger.debug("RAG context length: {} characters", ragCtx.length());
+        ragChunks = metrics.timeRag(() -> rag.retrieveChunks(subj + "\n" + desc, 5));
+        logger.debug("RAG context: {} chunks", ragChunks.size());
       } catch (Exception e) {
         metrics.incRagError();
         logger.error("RAG retrieval failed for case: {}", caseId, e);
@@ -130,7 +132,9 @@ public class CaseWatcher {
       }
 
       String sys = PromptTemplates.systemPrompt();
-      String usr = PromptTemplates.userPrompt(subj, desc, ragCtx);
+      PromptTemplates.FittedPrompt prompt = PromptTemplates.fitUserPrompt(sys, subj, desc, ragChunks, 600);
+      metrics.recordPromptTokens("case", prompt.tokens(), prompt.trimmed());
+      String usr = prompt.user();
 
       logger.info("Generating AI response for case: {}", caseId);
       String answer;
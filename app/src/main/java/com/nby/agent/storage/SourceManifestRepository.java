@@ -0,0 +1,156 @@
+package com.nby.agent.storage;
+
+import com.nby.agent.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What is currently indexed in Qdrant, per knowledge-base source: the hash of the text that was
+ * chunked and how many chunks it produced. Lives in the same SQLite file as {@code handled_cases}.
+ * A generation number, bumped after each batch of manifest writes, lets side indexes saved
+ * alongside it (BM25) tell whether they match the rows.
+ */
+@Component
+public class SourceManifestRepository {
+  private static final Logger logger = LoggerFactory.getLogger(SourceManifestRepository.class);
+
+  public record Entry(String sourceId, String sourceType, String contentHash, int chunkCount) {}
+
+  private final String url;
+  private final MetricsService metrics;
+
+  public SourceManifestRepository(MetricsService metrics) {
+    this.metrics = metrics;
+    this.url = "jdbc:sqlite:" + System.getProperty("MEMORY_DB", System.getenv().getOrDefault("MEMORY_DB","/data/app/app.db"));
+    init();
+  }
+
+  private void init() {
+    try (Connection c = DriverManager.getConnection(url);
+         Statement s = c.createStatement()) {
+      s.executeUpdate("CREATE TABLE IF NOT EXISTS kb_manifest (source_id TEXT PRIMARY KEY, source_type TEXT, content_hash TEXT, chunk_count INTEGER, indexed_at_ms INTEGER)");
+      s.executeUpdate("CREATE TABLE IF NOT EXISTS kb_manifest_meta (key TEXT PRIMARY KEY, value INTEGER)");
+      logger.info("Database table 'kb_manifest' initialized successfully");
+    } catch (SQLException e) {
+      logger.error("Failed to initialize kb_manifest table", e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Every indexed source of {@code sourceType}, keyed by source id. */
+  public Map<String, Entry> all(String sourceType) throws Exception {
+    return metrics.timeDbQuery(() -> {
+      Map<String, Entry> out = new HashMap<>();
+      try (Connection c = DriverManager.getConnection(url);
+           PreparedStatement ps = c.prepareStatement("SELECT source_id, source_type, content_hash, chunk_count FROM kb_manifest WHERE source_type=?")) {
+        ps.setString(1, sourceType);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) out.put(rs.getString(1), new Entry(rs.getString(1), rs.getString(2), rs.getString(3), rs.getInt(4)));
+        }
+      } catch (SQLException e) {
+        logger.error("Failed to read kb_manifest", e);
+        throw new RuntimeException(e);
+      }
+      return out;
+    });
+  }
+
+  public void put(Entry e) throws Exception {
+    metrics.timeDbInsert(() -> {
+      try (Connection c = DriverManager.getConnection(url);
+           PreparedStatement ps = c.prepareStatement("INSERT OR REPLACE INTO kb_manifest(source_id, source_type, content_hash, chunk_count, indexed_at_ms) VALUES(?,?,?,?,?)")) {
+        ps.setString(1, e.sourceId());
+        ps.setString(2, e.sourceType());
+        ps.setString(3, e.contentHash());
+        ps.setInt(4, e.chunkCount());
+        ps.setLong(5, System.currentTimeMillis());
+        ps.executeUpdate();
+        return null;
+      } catch (SQLException ex) {
+        logger.error("Failed to record manifest entry: {}", e.sourceId(), ex);
+        throw new RuntimeException(ex);
+      }
+    });
+  }
+
+  /** The generation last committed with {@link #setGeneration}, 0 before the first. */
+  public long generation() throws Exception {
+    return meta("generation");
+  }
+
+  public void setGeneration(long generation) throws Exception {
+    setMeta("generation", generation);
+  }
+
+  /** Whether the points written before sources carried a content hash have been purged from the store. */
+  public boolean unversionedPointsPurged() throws Exception {
+    return meta("unversioned_purged") != 0;
+  }
+
+  public void markUnversionedPointsPurged() throws Exception {
+    setMeta("unversioned_purged", 1);
+  }
+
+  private long meta(String key) throws Exception {
+    return metrics.timeDbQuery(() -> {
+      try (Connection c = DriverManager.getConnection(url);
+           PreparedStatement ps = c.prepareStatement("SELECT value FROM kb_manifest_meta WHERE key=?")) {
+        ps.setString(1, key);
+        try (ResultSet rs = ps.executeQuery()) {
+          return rs.next() ? rs.getLong(1) : 0L;
+        }
+      } catch (SQLException e) {
+        logger.error("Failed to read kb_manifest_meta {}", key, e);
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  private void setMeta(String key, long value) throws Exception {
+    metrics.timeDbInsert(() -> {
+      try (Connection c = DriverManager.getConnection(url);
+           PreparedStatement ps = c.prepareStatement("INSERT OR REPLACE INTO kb_manifest_meta(key, value) VALUES(?, ?)")) {
+        ps.setString(1, key);
+        ps.setLong(2, value);
+        ps.executeUpdate();
+        return null;
+      } catch (SQLException ex) {
+        logger.error("Failed to record kb_manifest_meta {}={}", key, value, ex);
+        throw new RuntimeException(ex);
+      }
+    });
+  }
+
+  /** Forgets every source, e.g. after the collection was found empty. */
+  public void clear() throws Exception {
+    metrics.timeDbInsert(() -> {
+      try (Connection c = DriverManager.getConnection(url);
+           Statement st = c.createStatement()) {
+        st.executeUpdate("DELETE FROM kb_manifest");
+        return null;
+      } catch (SQLException ex) {
+        logger.error("Failed to clear kb_manifest", ex);
+        throw new RuntimeException(ex);
+      }
+    });
+  }
+
+  public void remove(String sourceId) throws Exception {
+    metrics.timeDbInsert(() -> {
+      try (Connection c = DriverManager.getConnection(url);
+           PreparedStatement ps = c.prepareStatement("DELETE FROM kb_manifest WHERE source_id=?")) {
+        ps.setString(1, sourceId);
+        ps.executeUpdate();
+        return null;
+      } catch (SQLException ex) {
+        logger.error("Failed to remove manifest entry: {}", sourceId, ex);
+        throw new RuntimeException(ex);
+      }
+    });
+  }
+}
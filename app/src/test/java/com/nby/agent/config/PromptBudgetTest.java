@@ -0,0 +1,94 @@
+package com.nby.agent.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptBudgetTest {
+
+    @Test
+    void testEstimate_ByCharacterClass() {
+        // English ~4 chars/token, Hebrew ~2, digits ~3, punctuation 1 each
+        assertEquals(0, TokenEstimator.estimate(""));
+        assertEquals(2, TokenEstimator.estimate("password"));
+        assertEquals(4, TokenEstimator.estimate("reset password"));
+        assertEquals(3, TokenEstimator.estimate("סיסמה"));
+        assertEquals(2, TokenEstimator.estimate("12345"));
+        assertEquals(3, TokenEstimator.estimate("a.b"));
+        assertEquals(3, TokenEstimator.estimate("ab\n\n\ncd"));
+    }
+
+    @Test
+    void testEstimate_HebrewCostsMorePerCharacterThanEnglish() {
+        // Given
+        String hebrew = "המשתמש לא מצליח להתחבר למערכת אחרי איפוס סיסמה";
+        String english = "The user cannot log in to the system after reset";
+
+        // Then
+        assertTrue(TokenEstimator.estimate(hebrew) > TokenEstimator.estimate(english));
+    }
+
+    @Test
+    void testTruncate_ReturnsLongestPrefixWithinBudget() {
+        // Given
+        String text = "שלום עולם hello world 2024";
+
+        // When
+        String cut = TokenEstimator.truncate(text, 4);
+
+        // Then
+        assertTrue(text.startsWith(cut));
+        assertTrue(TokenEstimator.estimate(cut) <= 4);
+        assertTrue(TokenEstimator.estimate(text.substring(0, cut.length() + 1)) > 4);
+        assertEquals(text, TokenEstimator.truncate(text, 1000));
+        assertEquals("", TokenEstimator.truncate(text, 0));
+    }
+
+    @Test
+    void testFit_CutsTextToRemainingBudget() {
+        // Given
+        PromptBudget budget = new PromptBudget(20).reserve("x".repeat(40)); // 10 tokens
+
+        // When
+        String fitted = budget.fit("word ".repeat(50));
+
+        // Then
+        assertTrue(budget.trimmed());
+        assertTrue(budget.used() <= 20);
+        assertEquals(0, budget.remaining());
+        assertTrue(fitted.length() < 250);
+    }
+
+    @Test
+    void testFitInOrder_DropsLowestPriorityItemsFirst() {
+        // Given - each item costs 30 tokens
+        String item = "x".repeat(120);
+        PromptBudget budget = new PromptBudget(100);
+
+        // When
+        List<String> kept = budget.fitInOrder(List.of(item + "1", item + "2", item + "3", item + "4", item + "5"));
+
+        // Then - three whole items, no room for a partial (10 < MIN_PARTIAL_TOKENS), two dropped
+        assertEquals(3, kept.size());
+        assertTrue(kept.get(2).endsWith("3"));
+        assertEquals(2, budget.dropped());
+        assertTrue(budget.trimmed());
+    }
+
+    @Test
+    void testFitInOrder_KeepsPartOfFirstItemThatDoesNotFit() {
+        // Given
+        PromptBudget budget = new PromptBudget(100);
+
+        // When
+        List<String> kept = budget.fitInOrder(List.of("x".repeat(160), "y".repeat(400), "z".repeat(40)));
+
+        // Then - 40 tokens used, 60 left for a cut of the second item, third dropped
+        assertEquals(2, kept.size());
+        assertEquals(240, kept.get(1).length());
+        assertEquals(1, budget.dropped());
+        assertEquals(100, budget.used());
+    }
+}
@@ -1,6 +1,9 @@
 package com.nby.agent.config;
 
 import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class PromptTemplatesTest {
@@ -91,4 +94,34 @@ class PromptTemplatesTest {
         assertTrue(userPrompt.contains("תיאור:\nTest Description"));
         assertTrue(userPrompt.contains("הקשר רלוונטי מהידע הארגוני (RAG):\nTest RAG Context"));
     }
+
+    @Test
+    void testFitUserPrompt_LongCase_DropsRagChunksBeforeDescription() {
+        // Given - a description that alone takes most of the default 8192-token context
+        String system = PromptTemplates.systemPrompt();
+        String description = "המשתמש לא מצליח להתחבר. ".repeat(500);
+        List<String> chunks = List.of("מקור ראשון " + "א".repeat(2000), "מקור שני " + "ב".repeat(2000), "מקור שלישי " + "ג".repeat(2000));
+
+        // When
+        PromptTemplates.FittedPrompt fitted = PromptTemplates.fitUserPrompt(system, "בעיית התחברות", description, chunks, 600);
+
+        // Then
+        assertTrue(fitted.trimmed());
+        assertTrue(fitted.user().contains(description));
+        assertTrue(fitted.user().contains("1) מקור ראשון"));
+        assertFalse(fitted.user().contains("מקור שלישי"));
+        assertTrue(fitted.droppedChunks() >= 1);
+        assertTrue(fitted.tokens() <= PromptBudget.contextTokens() - 600);
+    }
+
+    @Test
+    void testFitUserPrompt_ShortCase_KeepsEverything() {
+        // When
+        PromptTemplates.FittedPrompt fitted = PromptTemplates.fitUserPrompt(
+            PromptTemplates.systemPrompt(), "בעיה", "תיאור קצר", List.of("הקשר"), 600);
+
+        // Then
+        assertFalse(fitted.trimmed());
+        assertEquals(PromptTemplates.userPrompt("בעיה", "תיאור קצר", "1) הקשר\n\n"), fitted.user());
+    }
 }
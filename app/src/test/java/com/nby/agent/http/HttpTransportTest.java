@@ -0,0 +1,65 @@
+package com.nby.agent.http;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpTransportTest {
+
+    private MeterRegistry meterRegistry;
+    private HttpTransport transport;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        transport = new HttpTransport(new MetricsService(meterRegistry));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        transport.destroy();
+    }
+
+    @Test
+    void testPoolMetrics_AreRegistered() {
+        // Then
+        assertNotNull(meterRegistry.find("httpcomponents.httpclient.pool.total.max").tag("httpclient", "sfagent").gauge());
+        assertNotNull(meterRegistry.find("httpcomponents.httpclient.pool.total.connections").tag("state", "leased").gauge());
+        assertEquals(0.0, meterRegistry.find("httpcomponents.httpclient.pool.total.pending").gauge().value());
+    }
+
+    @Test
+    void testRestTemplate_UsesPooledFactory() {
+        // When
+        RestTemplate a = transport.restTemplate(Duration.ofSeconds(5));
+        RestTemplate b = transport.restTemplate(Duration.ofSeconds(60));
+
+        // Then
+        assertInstanceOf(HttpComponentsClientHttpRequestFactory.class, a.getRequestFactory());
+        assertSame(((HttpComponentsClientHttpRequestFactory) a.getRequestFactory()).getHttpClient(),
+                   ((HttpComponentsClientHttpRequestFactory) b.getRequestFactory()).getHttpClient());
+    }
+
+    @Test
+    void testTimeout_FallsBackToDefault() {
+        assertEquals(Duration.ofMillis(1234), HttpTransport.timeout("SFAGENT_TEST_UNSET_TIMEOUT", 1234));
+    }
+
+    @Test
+    void testLlmMaxPerRoute_CoversBothLimitersAndHedges() {
+        // Then - limiter off keeps the old default; on, the route holds embed + chat at their max plus hedges
+        assertEquals(20, HttpTransport.llmMaxPerRoute(0, 0));
+        assertEquals(64, HttpTransport.llmMaxPerRoute(32, 0));
+        assertEquals(71, HttpTransport.llmMaxPerRoute(32, 10));
+        assertTrue(HttpTransport.llmMaxPerRoute(4, 10) >= 20);
+    }
+}
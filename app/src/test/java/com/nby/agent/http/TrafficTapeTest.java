@@ -0,0 +1,146 @@
+package com.nby.agent.http;
+
+import com.nby.agent.metrics.MetricsService;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrafficTapeTest {
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private final AtomicInteger hits = new AtomicInteger();
+    private String base;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/echo", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            byte[] reply = ("{\"n\":" + hits.incrementAndGet() + ",\"q\":\"" + body + "\"}").getBytes(StandardCharsets.UTF_8);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, reply.length);
+            exchange.getResponseBody().write(reply);
+            exchange.close();
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private HttpTransport transport(TrafficTape tape) {
+        return new HttpTransport(new MetricsService(new SimpleMeterRegistry()), tape);
+    }
+
+    private String record(Path file, String... bodies) throws Exception {
+        HttpTransport recorder = transport(new TrafficTape(TrafficTape.Mode.RECORD, file, false));
+        RestTemplate rt = recorder.restTemplate(Duration.ofSeconds(5));
+        StringBuilder all = new StringBuilder();
+        for (String b : bodies) all.append(rt.postForObject(base + "/echo", b, String.class));
+        recorder.destroy();
+        return all.toString();
+    }
+
+    @Test
+    void testReplay_ServesRecordedResponsesWithoutServer() throws Exception {
+        // Given
+        Path file = dir.resolve("traffic.tape");
+        String live = record(file, "a", "b");
+        server.stop(0);
+
+        // When
+        HttpTransport replayer = transport(new TrafficTape(TrafficTape.Mode.REPLAY, file, false));
+        RestTemplate rt = replayer.restTemplate(Duration.ofSeconds(5));
+        String replayed = rt.postForObject(base + "/echo", "a", String.class)
+            + rt.postForObject(base + "/echo", "b", String.class);
+        replayer.destroy();
+
+        // Then
+        assertEquals(live, replayed);
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    void testReplay_MatchesOnBodyBeforeOrder() throws Exception {
+        // Given
+        Path file = dir.resolve("traffic.tape");
+        record(file, "a", "b");
+
+        // When
+        HttpTransport replayer = transport(new TrafficTape(TrafficTape.Mode.REPLAY, file, false));
+        String second = replayer.restTemplate(Duration.ofSeconds(5)).postForObject(base + "/echo", "b", String.class);
+        replayer.destroy();
+
+        // Then
+        assertEquals("{\"n\":2,\"q\":\"b\"}", second);
+    }
+
+    @Test
+    void testReplay_FallsBackToUriWhenBodyDiffers() throws Exception {
+        // Given
+        Path file = dir.resolve("traffic.tape");
+        record(file, "a");
+
+        // When
+        HttpTransport replayer = transport(new TrafficTape(TrafficTape.Mode.REPLAY, file, false));
+        String reply = replayer.restTemplate(Duration.ofSeconds(5)).postForObject(base + "/echo", "random-id", String.class);
+        replayer.destroy();
+
+        // Then
+        assertEquals("{\"n\":1,\"q\":\"a\"}", reply);
+    }
+
+    @Test
+    void testReplay_UnknownUri_Fails() throws Exception {
+        // Given
+        Path file = dir.resolve("traffic.tape");
+        record(file, "a");
+
+        // When / Then
+        HttpTransport replayer = transport(new TrafficTape(TrafficTape.Mode.REPLAY, file, false));
+        RestTemplate rt = replayer.restTemplate(Duration.ofSeconds(5));
+        assertThrows(ResourceAccessException.class, () -> rt.getForObject(base + "/missing", String.class));
+        replayer.destroy();
+    }
+
+    @Test
+    void testReplay_Paced_KeepsRecordedLatency() throws Exception {
+        // Given
+        Path file = dir.resolve("traffic.tape");
+        record(file, "a");
+
+        // When
+        HttpTransport replayer = transport(new TrafficTape(TrafficTape.Mode.REPLAY, file, true));
+        long start = System.nanoTime();
+        replayer.restTemplate(Duration.ofSeconds(5)).postForObject(base + "/echo", "a", String.class);
+        long tookMs = (System.nanoTime() - start) / 1_000_000;
+        replayer.destroy();
+
+        // Then
+        assertTrue(tookMs >= 45, "paced replay took " + tookMs + "ms");
+    }
+}
@@ -0,0 +1,182 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveLimiterTest {
+
+    private MeterRegistry meterRegistry;
+    private MetricsService metricsService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metricsService = new MetricsService(meterRegistry);
+    }
+
+    private AdaptiveLimiter limiter(int initial, int max, int queue, long queueTimeoutMs) {
+        return new AdaptiveLimiter("test", "embed", initial, 1, max, queue, queueTimeoutMs, 2.0, metricsService);
+    }
+
+    /** Occupies one slot until {@code release} is counted down. */
+    private Thread hold(AdaptiveLimiter limiter, CountDownLatch started, CountDownLatch release) {
+        Thread t = Thread.ofVirtual().start(() -> limiter.call(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+        return t;
+    }
+
+    @Test
+    void testCall_Failure_ShrinksLimit() {
+        // Given
+        AdaptiveLimiter limiter = limiter(10, 32, 0, 0);
+
+        // When
+        for (int i = 0; i < 5; i++) {
+            assertThrows(IllegalStateException.class, () -> limiter.call(() -> { throw new IllegalStateException("boom"); }));
+        }
+
+        // Then
+        assertEquals(5, limiter.limit()); // 10 * 0.9^5 = 5.9
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    void testCall_FastCallsUnderLoad_GrowLimit() throws Exception {
+        // Given - one slot held keeps the limiter at least half used
+        AdaptiveLimiter limiter = limiter(2, 4, 0, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(limiter, started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // When
+        for (int i = 0; i < 30; i++) {
+            limiter.call(() -> {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "ok";
+            });
+        }
+
+        // Then
+        assertEquals(4, limiter.limit());
+        assertEquals(4.0, meterRegistry.find("sfagent_llm_limiter_limit").tag("operation", "embed").gauge().value());
+        release.countDown();
+        holder.join();
+    }
+
+    private static <T> T sleepThen(long ms, T result) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result;
+    }
+
+    @Test
+    void testCall_LargeBatches_ComparedPerItemNotToSingleCallBaseline() {
+        // Given - a fast single-call baseline
+        AdaptiveLimiter limiter = limiter(10, 32, 0, 0);
+        for (int i = 0; i < 5; i++) limiter.call(() -> sleepThen(2, "one"));
+        List<String> batch = Collections.nCopies(64, "x");
+
+        // When - each batch takes far longer in total, but not per item
+        for (int i = 0; i < 5; i++) limiter.call(() -> sleepThen(40, batch), List::size);
+
+        // Then
+        assertEquals(10, limiter.limit());
+    }
+
+    @Test
+    void testCall_SlowBatchAgainstBatchBaseline_ShrinksLimit() {
+        // Given
+        AdaptiveLimiter limiter = limiter(10, 32, 0, 0);
+        List<String> batch = Collections.nCopies(64, "x");
+        limiter.call(() -> sleepThen(20, batch), List::size);
+
+        // When
+        limiter.call(() -> sleepThen(200, batch), List::size);
+
+        // Then
+        assertEquals(9, limiter.limit());
+    }
+
+    @Test
+    void testCall_QueueFull_RejectsImmediately() throws Exception {
+        // Given
+        AdaptiveLimiter limiter = limiter(1, 1, 0, 1000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(limiter, started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // When / Then
+        assertThrows(RejectedExecutionException.class, () -> limiter.call(() -> "late"));
+        assertEquals(1.0, meterRegistry.counter("sfagent_llm_limiter_rejected", "provider", "test", "operation", "embed").count());
+        release.countDown();
+        holder.join();
+    }
+
+    @Test
+    void testCall_QueuedCall_RunsWhenSlotFrees() throws Exception {
+        // Given
+        AdaptiveLimiter limiter = limiter(1, 1, 4, 5000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(limiter, started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // When
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            release.countDown();
+        });
+        String result = limiter.call(() -> "queued");
+
+        // Then
+        holder.join();
+        assertEquals("queued", result);
+        assertEquals(0, limiter.queued());
+        assertTrue(meterRegistry.find("sfagent_llm_limiter_queue_wait_seconds").timer().max(TimeUnit.MILLISECONDS) > 0);
+    }
+
+    @Test
+    void testCall_QueueTimeout_Rejects() throws Exception {
+        // Given
+        AdaptiveLimiter limiter = limiter(1, 1, 4, 50);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(limiter, started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // When / Then
+        assertThrows(RejectedExecutionException.class, () -> limiter.call(() -> "late"));
+        release.countDown();
+        holder.join();
+    }
+}
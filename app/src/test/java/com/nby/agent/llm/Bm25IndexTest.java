@@ -0,0 +1,204 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Bm25IndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MeterRegistry registry;
+    private MetricsService metrics;
+    private Bm25Index index;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = new MetricsService(registry);
+        index = new Bm25Index(tempDir.resolve("bm25.idx"), 1.2, 0.75, metrics);
+    }
+
+    private static RagService.QPoint point(String id, String sourceId, String hash, int chunkIndex, String text) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("text", text);
+        payload.put("source_id", sourceId);
+        payload.put("name", sourceId);
+        payload.put("source_type", "file");
+        payload.put("chunk_index", chunkIndex);
+        payload.put("content_hash", hash);
+        return new RagService.QPoint(id, new float[0], payload);
+    }
+
+    private static List<String> texts(List<VectorStore.Hit> hits) {
+        List<String> out = new ArrayList<>();
+        for (VectorStore.Hit h : hits) out.add((String) h.payload().get("text"));
+        return out;
+    }
+
+    @Test
+    void testTokenize_HebrewNiqqudFinalsAndPrefixes() {
+        // When
+        List<String> tokens = Bm25Index.tokenize("בְּבַיִת, הַשָּׁלוֹם וצה\"ל");
+
+        // Then
+        assertTrue(tokens.containsAll(List.of("בבית", "בית", "השלומ", "שלומ", "וצהל", "צהל")), tokens.toString());
+    }
+
+    @Test
+    void testTokenize_CodesKeptWholeAndSplit() {
+        // When
+        List<String> tokens = Bm25Index.tokenize("Error ERR-1042 on Account.Owner__c.");
+
+        // Then
+        assertTrue(tokens.containsAll(List.of("error", "err-1042", "err", "1042", "account.owner__c", "account", "owner", "c")), tokens.toString());
+        assertFalse(tokens.contains("account.owner__c."));
+    }
+
+    @Test
+    void testSearch_ExactCodeRanksFirst() {
+        // Given
+        index.add(List.of(
+            point("1", "a", "h", 0, "Login fails with a generic error after password reset"),
+            point("2", "b", "h", 0, "Sync job stops with ERR-1042 when the quota is exceeded"),
+            point("3", "c", "h", 0, "Error handling overview for integrations and errors in general")));
+
+        // When
+        List<VectorStore.Hit> hits = index.search("what does ERR-1042 mean", 3);
+
+        // Then
+        assertEquals("Sync job stops with ERR-1042 when the quota is exceeded", texts(hits).get(0));
+        assertEquals("b", hits.get(0).payload().get("source_id"));
+        assertEquals(1, registry.find("sfagent_bm25_search_seconds").timer().count());
+    }
+
+    @Test
+    void testSearch_HebrewPrefixedFormMatches() {
+        // Given
+        index.add(List.of(
+            point("1", "a", "h", 0, "הלקוח פתח קריאה בנושא החשבונית"),
+            point("2", "b", "h", 0, "עדכון סיסמה במערכת")));
+
+        // When
+        List<VectorStore.Hit> hits = index.search("חשבונית", 2);
+
+        // Then
+        assertEquals(1, hits.size());
+        assertEquals("a", hits.get(0).payload().get("source_id"));
+    }
+
+    @Test
+    void testAdd_SamePointIdReplacesChunk() {
+        // Given
+        index.add(List.of(point("1", "a", "h1", 0, "alpha beta")));
+
+        // When
+        index.add(List.of(point("1", "a", "h2", 0, "gamma delta")));
+
+        // Then
+        assertEquals(1, index.size());
+        assertTrue(index.search("alpha", 5).isEmpty());
+        assertEquals(1, index.search("gamma", 5).size());
+    }
+
+    @Test
+    void testDeleteBySource_KeepsCurrentContentHash() {
+        // Given
+        index.add(List.of(
+            point("1", "a", "old", 0, "old chunk zeta"),
+            point("2", "a", "new", 0, "new chunk zeta"),
+            point("3", "b", "x", 0, "other zeta")));
+
+        // When
+        index.deleteBySource("a", "new");
+
+        // Then
+        assertEquals(List.of("new chunk zeta", "other zeta"), texts(index.search("zeta", 5)).stream().sorted().toList());
+
+        // When
+        index.deleteBySource("b", null);
+
+        // Then
+        assertEquals(1, index.size());
+        assertEquals(1.0, registry.find("sfagent_bm25_chunks").gauge().value());
+    }
+
+    @Test
+    void testSave_LoadRoundTripAfterDeletes() throws Exception {
+        // Given
+        for (int i = 0; i < 50; i++) {
+            index.add(List.of(point("p" + i, "s" + (i % 5), "h", i, "chunk number " + i + " topic" + (i % 7))));
+        }
+        index.deleteBySource("s0", null);
+        List<VectorStore.Hit> before = index.search("topic3 chunk", 10);
+
+        // When
+        index.save();
+        Bm25Index reloaded = new Bm25Index(tempDir.resolve("bm25.idx"), 1.2, 0.75, new MetricsService(new SimpleMeterRegistry()));
+
+        // Then
+        assertTrue(Files.exists(tempDir.resolve("bm25.idx")));
+        assertEquals(40, reloaded.size());
+        assertEquals(texts(before), texts(reloaded.search("topic3 chunk", 10)));
+        assertEquals(before.get(0).score(), reloaded.search("topic3 chunk", 10).get(0).score(), 1e-9);
+    }
+
+    @Test
+    void testSave_ManifestGenerationChangeAloneIsPersisted() throws Exception {
+        // Given - saved once, then only the generation moves (a reindex that changed no chunk)
+        index.add(List.of(point("p1", "s1", "h", 0, "ERR-1042 login failure")));
+        index.setManifestGeneration(3);
+        index.save();
+
+        // When
+        index.setManifestGeneration(4);
+        index.save();
+        Bm25Index reloaded = new Bm25Index(tempDir.resolve("bm25.idx"), 1.2, 0.75, new MetricsService(new SimpleMeterRegistry()));
+
+        // Then
+        assertEquals(4, reloaded.manifestGeneration());
+        assertEquals(1, reloaded.size());
+    }
+
+    @Test
+    void testLoad_CorruptFile_StartsEmpty() throws Exception {
+        // Given
+        Files.writeString(tempDir.resolve("broken.idx"), "not an index");
+
+        // When
+        Bm25Index broken = new Bm25Index(tempDir.resolve("broken.idx"), 1.2, 0.75, new MetricsService(new SimpleMeterRegistry()));
+
+        // Then
+        assertEquals(0, broken.size());
+    }
+
+    @Test
+    void testReciprocalRankFusion_ChunkInBothListsWins() {
+        // Given
+        VectorStore.Hit a = new VectorStore.Hit(0.9, point("1", "a", "h", 0, "a").payload());
+        VectorStore.Hit b = new VectorStore.Hit(0.8, point("2", "b", "h", 0, "b").payload());
+        VectorStore.Hit c = new VectorStore.Hit(12.0, point("3", "c", "h", 0, "c").payload());
+        VectorStore.Hit bLexical = new VectorStore.Hit(9.0, point("2", "b", "h", 0, "b").payload());
+
+        // When
+        List<VectorStore.Hit> fused = RagService.reciprocalRankFusion(List.of(List.of(a, b), List.of(c, bLexical)), 60, 2);
+
+        // Then
+        assertEquals(2, fused.size());
+        assertEquals("b", fused.get(0).payload().get("source_id"));
+        assertEquals(1.0 / 62 + 1.0 / 62, fused.get(0).score(), 1e-12);
+    }
+}
@@ -0,0 +1,131 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingLlmProviderTest {
+
+    @TempDir
+    Path dir;
+
+    private MeterRegistry meterRegistry;
+    private MetricsService metricsService;
+    private CountingProvider delegate;
+
+    /** Embeds each text as [length, first char] and records what it was asked to embed. */
+    static class CountingProvider implements LlmProvider {
+        final List<String> embedded = new ArrayList<>();
+
+        @Override
+        public float[] embed(String text) {
+            embedded.add(text);
+            return new float[]{text.length(), text.charAt(0)};
+        }
+
+        @Override
+        public String chat(String system, String user, int tokens) {
+            return "chat:" + user;
+        }
+
+        @Override
+        public String embedModelName() {
+            return "test-model";
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metricsService = new MetricsService(meterRegistry);
+        delegate = new CountingProvider();
+    }
+
+    private CachingLlmProvider newProvider(int memoryEntries) {
+        return new CachingLlmProvider(delegate, new EmbeddingCache(dir.resolve("cache.db").toString(), memoryEntries, metricsService));
+    }
+
+    @Test
+    void testEmbedBatch_OnlyEmbedsMisses() {
+        // Given
+        CachingLlmProvider provider = newProvider(100);
+        provider.embedBatch(List.of("alpha", "beta"));
+        delegate.embedded.clear();
+
+        // When
+        List<float[]> vectors = provider.embedBatch(List.of("alpha", "gamma", "beta"));
+
+        // Then
+        assertEquals(List.of("gamma"), delegate.embedded);
+        assertArrayEquals(new float[]{5, 'a'}, vectors.get(0));
+        assertArrayEquals(new float[]{5, 'g'}, vectors.get(1));
+        assertArrayEquals(new float[]{4, 'b'}, vectors.get(2));
+        assertEquals(2.0, meterRegistry.counter("sfagent_embed_cache_hits", "tier", "memory").count());
+        assertEquals(3.0, meterRegistry.counter("sfagent_embed_cache_misses").count());
+    }
+
+    @Test
+    void testEmbedBatch_DuplicateTextsEmbeddedOnce() {
+        // Given
+        CachingLlmProvider provider = newProvider(100);
+
+        // When
+        List<float[]> vectors = provider.embedBatch(List.of("same", "same", "other"));
+
+        // Then
+        assertEquals(List.of("same", "other"), delegate.embedded);
+        assertEquals(3, vectors.size());
+        assertArrayEquals(vectors.get(0), vectors.get(1));
+    }
+
+    @Test
+    void testCache_SurvivesRestartThroughDiskTier() {
+        // Given
+        newProvider(100).embedBatch(List.of("persisted"));
+        delegate.embedded.clear();
+
+        // When - a fresh cache instance over the same file
+        CachingLlmProvider restarted = newProvider(100);
+        float[] v = restarted.embed("persisted");
+
+        // Then
+        assertTrue(delegate.embedded.isEmpty());
+        assertArrayEquals(new float[]{9, 'p'}, v);
+        assertEquals(1.0, meterRegistry.counter("sfagent_embed_cache_hits", "tier", "disk").count());
+    }
+
+    @Test
+    void testCache_MemoryTierIsBounded() {
+        // Given
+        EmbeddingCache cache = new EmbeddingCache(dir.resolve("bounded.db").toString(), 2, metricsService);
+        CachingLlmProvider provider = new CachingLlmProvider(delegate, cache);
+
+        // When
+        provider.embedBatch(List.of("one", "two", "three"));
+
+        // Then
+        assertEquals(2, cache.memoryEntries());
+        assertEquals(2L * 2 * Float.BYTES, cache.memoryBytes());
+        assertTrue(cache.diskBytes() > 0);
+    }
+
+    @Test
+    void testKey_DependsOnModel() {
+        assertNotEquals(EmbeddingCache.key("model-a", "text"), EmbeddingCache.key("model-b", "text"));
+        assertEquals(EmbeddingCache.key("model-a", "text"), EmbeddingCache.key("model-a", "text"));
+    }
+
+    @Test
+    void testChat_PassesThrough() {
+        assertEquals("chat:hi", newProvider(10).chat("sys", "hi", 10));
+    }
+}
@@ -0,0 +1,93 @@
+package com.nby.agent.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatStreamParsingTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    private static InputStream body(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testOllamaNdjson_EmitsTokensInOrder() throws Exception {
+        // Given
+        String stream = """
+            {"model":"m","message":{"role":"assistant","content":"שלום"},"done":false}
+            {"model":"m","message":{"role":"assistant","content":" עולם"},"done":false}
+
+            {"model":"m","message":{"role":"assistant","content":""},"done":true}
+            """;
+        List<String> tokens = new ArrayList<>();
+
+        // When
+        String full = OllamaClient.readNdjsonChat(body(stream), om, tokens::add);
+
+        // Then
+        assertEquals(List.of("שלום", " עולם"), tokens);
+        assertEquals("שלום עולם", full);
+    }
+
+    @Test
+    void testOllamaNdjson_ReportsLoadDurationFromFinalChunk() throws Exception {
+        // Given - a cold start: Ollama spent 2.5s loading the model
+        String stream = """
+            {"model":"m","message":{"role":"assistant","content":"hi"},"done":false}
+            {"model":"m","message":{"role":"assistant","content":""},"done":true,"total_duration":3100000000,"load_duration":2500000000}
+            """;
+        long[] load = {-1};
+
+        // When
+        OllamaClient.readNdjsonChat(body(stream), om, t -> {}, nanos -> load[0] = nanos);
+
+        // Then
+        assertEquals(2_500_000_000L, load[0]);
+    }
+
+    @Test
+    void testOllamaNdjson_ErrorLineThrows() {
+        // Given
+        String stream = """
+            {"error":"model not found"}
+            """;
+
+        // When & Then
+        assertThrows(IllegalStateException.class, () -> OllamaClient.readNdjsonChat(body(stream), om, t -> {}));
+    }
+
+    @Test
+    void testOpenAiSse_EmitsDeltasUntilDone() throws Exception {
+        // Given
+        String stream = """
+            data: {"choices":[{"index":0,"delta":{"role":"assistant","content":null}}]}
+
+            data: {"choices":[{"index":0,"delta":{"content":"Hello"}}]}
+
+            : keep-alive comment
+
+            data: {"choices":[{"index":0,"delta":{"content":" there"}}]}
+
+            data: [DONE]
+
+            data: {"choices":[{"index":0,"delta":{"content":"ignored"}}]}
+            """;
+        List<String> tokens = new ArrayList<>();
+
+        // When
+        String full = OpenAIClient.readSseChat(body(stream), om, tokens::add);
+
+        // Then
+        assertEquals(List.of("Hello", " there"), tokens);
+        assertEquals("Hello there", full);
+    }
+}
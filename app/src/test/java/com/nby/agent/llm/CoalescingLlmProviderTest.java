@@ -0,0 +1,250 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoalescingLlmProviderTest {
+
+    private MeterRegistry meterRegistry;
+    private MetricsService metricsService;
+    private BatchRecordingProvider delegate;
+    private CoalescingLlmProvider provider;
+    private ExecutorService callers;
+
+    /** Embeds each text as [length] and records the size of every batch it receives. */
+    static class BatchRecordingProvider implements LlmProvider {
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean fail;
+
+        @Override
+        public float[] embed(String text) {
+            throw new AssertionError("single embed should have been coalesced");
+        }
+
+        @Override
+        public List<float[]> embedBatch(List<String> texts) {
+            batchSizes.add(texts.size());
+            if (fail) throw new IllegalStateException("embed backend down");
+            return texts.stream().map(t -> new float[]{t.length()}).toList();
+        }
+
+        @Override
+        public String chat(String system, String user, int tokens) {
+            return "chat";
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metricsService = new MetricsService(meterRegistry);
+        delegate = new BatchRecordingProvider();
+        callers = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (provider != null) provider.close();
+        callers.shutdownNow();
+    }
+
+    private List<Future<float[]>> embedConcurrently(List<String> texts) throws InterruptedException {
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<float[]>> results = new ArrayList<>();
+        for (String t : texts) {
+            results.add(callers.submit(() -> {
+                go.await();
+                return provider.embed(t);
+            }));
+        }
+        go.countDown();
+        return results;
+    }
+
+    @Test
+    void testEmbed_ConcurrentCalls_ShareOneBatch() throws Exception {
+        // Given - a generous wait so every caller lands in the window
+        provider = new CoalescingLlmProvider(delegate, 200, 64, metricsService);
+        List<String> texts = List.of("a", "bb", "ccc", "dddd", "eeeee", "ffffff", "ggggggg", "hhhhhhhh");
+
+        // When
+        List<Future<float[]>> results = embedConcurrently(texts);
+
+        // Then - each caller gets its own vector, from far fewer provider calls
+        for (int i = 0; i < texts.size(); i++) {
+            assertArrayEquals(new float[]{texts.get(i).length()}, results.get(i).get());
+        }
+        assertTrue(delegate.batchSizes.size() < texts.size());
+        assertEquals(texts.size(), delegate.batchSizes.stream().mapToInt(Integer::intValue).sum());
+        DistributionSummary sizes = meterRegistry.find("sfagent_embed_coalesced_batch_size").summary();
+        assertEquals(texts.size(), (int) sizes.totalAmount());
+    }
+
+    @Test
+    void testEmbed_MaxBatchSize_SplitsBatches() throws Exception {
+        // Given
+        provider = new CoalescingLlmProvider(delegate, 200, 3, metricsService);
+        List<String> texts = List.of("1", "2", "3", "4", "5", "6", "7");
+
+        // When
+        for (Future<float[]> f : embedConcurrently(texts)) f.get();
+
+        // Then
+        assertTrue(delegate.batchSizes.stream().allMatch(n -> n <= 3));
+        assertTrue(delegate.batchSizes.size() >= 3);
+    }
+
+    @Test
+    void testEmbed_DuplicateTexts_EmbeddedOnce() throws Exception {
+        // Given
+        provider = new CoalescingLlmProvider(delegate, 200, 64, metricsService);
+
+        // When
+        List<Future<float[]>> results = embedConcurrently(List.of("same", "same", "same", "same"));
+
+        // Then
+        for (Future<float[]> f : results) assertArrayEquals(new float[]{4}, f.get());
+        assertEquals(1, (int) delegate.batchSizes.stream().mapToInt(Integer::intValue).max().orElse(0));
+    }
+
+    @Test
+    void testEmbed_BatchFailure_FailsEveryCaller() throws Exception {
+        // Given
+        provider = new CoalescingLlmProvider(delegate, 50, 64, metricsService);
+        delegate.fail = true;
+
+        // When / Then
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> provider.embed("x"));
+        assertEquals("embed backend down", e.getMessage());
+    }
+
+    @Test
+    void testEmbedBatch_PassesThrough() {
+        // Given
+        provider = new CoalescingLlmProvider(delegate, 50, 2, metricsService);
+
+        // When
+        List<float[]> out = provider.embedBatch(List.of("a", "b", "c", "d"));
+
+        // Then - already a batch: one call, not re-split by maxBatch
+        assertEquals(4, out.size());
+        assertEquals(List.of(4), delegate.batchSizes);
+    }
+
+    @Test
+    void testClose_ThroughCachingDecorator_StopsCollectorAndDelegate(@TempDir Path dir) throws Exception {
+        // Given - the coalescer sits under the cache, as LlmFactory wires it
+        AtomicBoolean delegateClosed = new AtomicBoolean();
+        Set<Thread> before = Thread.getAllStackTraces().keySet();
+        provider = new CoalescingLlmProvider(new BatchRecordingProvider() {
+            @Override
+            public void close() {
+                delegateClosed.set(true);
+            }
+        }, 50, 64, metricsService);
+        LlmProvider chain = new CachingLlmProvider(provider, new EmbeddingCache(dir.resolve("cache.db").toString(), 100, metricsService));
+        Thread collector = Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.getName().equals("embed-coalescer") && !before.contains(t)).findFirst().orElseThrow();
+
+        // When
+        chain.close();
+        collector.join(TimeUnit.SECONDS.toMillis(5));
+
+        // Then
+        assertFalse(collector.isAlive());
+        assertTrue(delegateClosed.get());
+        assertThrows(IllegalStateException.class, () -> provider.embed("late"));
+    }
+
+    @Test
+    void testEmbed_CallerInterrupted_ThrowsCancellation() throws Exception {
+        // Given - a wait long enough that the caller is still blocked when interrupted
+        provider = new CoalescingLlmProvider(delegate, 10_000, 64, metricsService);
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        AtomicBoolean stillInterrupted = new AtomicBoolean();
+        Thread caller = Thread.ofVirtual().start(() -> {
+            try {
+                provider.embed("x");
+            } catch (RuntimeException e) {
+                thrown.set(e);
+                stillInterrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        Thread.sleep(50);
+
+        // When
+        caller.interrupt();
+        caller.join(TimeUnit.SECONDS.toMillis(5));
+
+        // Then - the caller returns promptly and keeps its interrupt flag
+        assertFalse(caller.isAlive());
+        assertInstanceOf(CancellationException.class, thrown.get());
+        assertTrue(stillInterrupted.get());
+    }
+
+    @Test
+    void testClose_WhileEmbedsInFlight_EveryCallerReturns() throws Exception {
+        // Given - the first batch of two blocks in the backend, the third text waits in the collector
+        CountDownLatch inBackend = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean batchFinished = new AtomicBoolean();
+        AtomicBoolean closedAfterBatch = new AtomicBoolean();
+        provider = new CoalescingLlmProvider(new BatchRecordingProvider() {
+            @Override
+            public List<float[]> embedBatch(List<String> texts) {
+                inBackend.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                batchFinished.set(true);
+                return super.embedBatch(texts);
+            }
+
+            @Override
+            public void close() {
+                closedAfterBatch.set(batchFinished.get());
+            }
+        }, 10_000, 2, metricsService);
+        List<Future<float[]>> first = embedConcurrently(List.of("a", "bb"));
+        inBackend.await(5, TimeUnit.SECONDS);
+        Future<float[]> third = callers.submit(() -> provider.embed("ccc"));
+        Thread.sleep(50);
+
+        // When
+        Future<?> closing = callers.submit(() -> provider.close());
+        Thread.sleep(50);
+        release.countDown();
+        closing.get(5, TimeUnit.SECONDS);
+
+        // Then - the dispatched batch completes, the collected text fails, nobody hangs
+        for (Future<float[]> f : first) assertEquals(1, f.get(5, TimeUnit.SECONDS).length);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> third.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertTrue(closedAfterBatch.get(), "delegate closed only after the batch in flight finished");
+    }
+}
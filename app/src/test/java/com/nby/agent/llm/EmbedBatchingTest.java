@@ -0,0 +1,66 @@
+package com.nby.agent.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbedBatchingTest {
+
+    @Test
+    void testPartition_SplitsByItemCount() {
+        // Given
+        List<String> texts = List.of("a", "b", "c", "d", "e");
+
+        // When
+        List<List<String>> groups = EmbedBatching.partition(texts, 2, Long.MAX_VALUE);
+
+        // Then
+        assertEquals(List.of(List.of("a", "b"), List.of("c", "d"), List.of("e")), groups);
+    }
+
+    @Test
+    void testPartition_SplitsByPayloadBytes() {
+        // Given - each text is 10 bytes + 4 bytes of JSON overhead
+        List<String> texts = List.of("aaaaaaaaaa", "bbbbbbbbbb", "cccccccccc");
+
+        // When
+        List<List<String>> groups = EmbedBatching.partition(texts, 100, 30);
+
+        // Then
+        assertEquals(2, groups.size());
+        assertEquals(List.of("aaaaaaaaaa", "bbbbbbbbbb"), groups.get(0));
+        assertEquals(List.of("cccccccccc"), groups.get(1));
+    }
+
+    @Test
+    void testPartition_OversizedTextGetsOwnGroup() {
+        // Given
+        List<String> texts = List.of("small", "x".repeat(100), "tiny");
+
+        // When
+        List<List<String>> groups = EmbedBatching.partition(texts, 100, 20);
+
+        // Then
+        assertEquals(3, groups.size());
+        assertEquals(100, groups.get(1).get(0).length());
+    }
+
+    @Test
+    void testPartition_CountsHebrewAsMultiByte() {
+        // Given - Hebrew letters are 2 bytes each in UTF-8
+        List<String> texts = List.of("שלום", "עולם");
+
+        // When
+        List<List<String>> groups = EmbedBatching.partition(texts, 100, 15);
+
+        // Then
+        assertEquals(2, groups.size());
+    }
+
+    @Test
+    void testPartition_EmptyInput() {
+        assertTrue(EmbedBatching.partition(List.of(), 10, 100).isEmpty());
+    }
+}
@@ -0,0 +1,82 @@
+package com.nby.agent.llm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Micro-benchmark: bytes allocated per embed-response decode, tree-based (the previous
+ * String + JsonNode path) versus the streaming {@link EmbeddingJson} decoder.
+ * Uses the HotSpot per-thread allocation counter. The allocation comparison is tagged
+ * {@code benchmark} and only runs with {@code mvn test -Pbenchmark}.
+ */
+class EmbeddingDecodeBenchmarkTest {
+
+    private static final int WARMUP = 300;
+    private static final int ITERATIONS = 300;
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    private static byte[] ollamaResponse(int dim) {
+        Random r = new Random(42);
+        StringBuilder sb = new StringBuilder("{\"model\":\"mxbai-embed-large\",\"embeddings\":[[");
+        for (int i = 0; i < dim; i++) {
+            if (i > 0) sb.append(',');
+            // servers print float32 components, e.g. -0.012345679
+            sb.append((float) (r.nextGaussian() * 0.05));
+        }
+        sb.append("]],\"total_duration\":41234567,\"load_duration\":1234,\"prompt_eval_count\":12}");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private float[] decodeWithTree(byte[] body) throws Exception {
+        String text = new String(body, StandardCharsets.UTF_8);
+        JsonNode arr = om.readTree(text).get("embeddings").get(0);
+        float[] v = new float[arr.size()];
+        for (int i = 0; i < arr.size(); i++) v[i] = (float) arr.get(i).asDouble();
+        return v;
+    }
+
+    private float[] decodeStreaming(byte[] body, int dim) throws Exception {
+        return EmbeddingJson.readOllama(new ByteArrayInputStream(body), dim).get(0);
+    }
+
+    private static long bytesPerCall(Callable<float[]> decode) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) sink += decode.call().length;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) sink += decode.call().length;
+        long after = threads.getCurrentThreadAllocatedBytes();
+        assertTrue(sink > 0);
+        return (after - before) / ITERATIONS;
+    }
+
+    @Test
+    void testDecode_StreamingMatchesTree() throws Exception {
+        for (int dim : new int[]{1024, 3072}) {
+            byte[] body = ollamaResponse(dim);
+            assertArrayEquals(decodeWithTree(body), decodeStreaming(body, dim));
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkAllocationPerEmbedDecode() throws Exception {
+        for (int dim : new int[]{1024, 3072}) {
+            byte[] body = ollamaResponse(dim);
+            long tree = bytesPerCall(() -> decodeWithTree(body));
+            long streaming = bytesPerCall(() -> decodeStreaming(body, dim));
+            assertTrue(streaming * 10 < tree, String.format("dim=%d: tree=%dB/call streaming=%dB/call, streaming should allocate far less", dim, tree, streaming));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.nby.agent.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddingJsonTest {
+
+    private static InputStream body(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testReadOllama_DecodesAllVectorsAndSkipsOtherFields() throws Exception {
+        // Given
+        String json = """
+            {"model":"mxbai","embeddings":[[0.1,-2.5,3],[4e-3,5.0,6.25]],
+             "total_duration":123,"prompt_eval_count":{"nested":[1,2]}}
+            """;
+
+        // When
+        List<float[]> vectors = EmbeddingJson.readOllama(body(json), 3);
+
+        // Then
+        assertEquals(2, vectors.size());
+        assertArrayEquals(new float[]{0.1f, -2.5f, 3f}, vectors.get(0));
+        assertArrayEquals(new float[]{0.004f, 5f, 6.25f}, vectors.get(1));
+    }
+
+    @Test
+    void testReadOllama_GrowsPastWrongDimensionHint() throws Exception {
+        // When
+        List<float[]> vectors = EmbeddingJson.readOllama(body("{\"embeddings\":[[1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20]]}"), 2);
+
+        // Then
+        assertEquals(20, vectors.get(0).length);
+        assertEquals(20f, vectors.get(0)[19]);
+    }
+
+    @Test
+    void testReadOllama_ErrorFieldThrows() {
+        assertThrows(IllegalStateException.class, () -> EmbeddingJson.readOllama(body("{\"error\":\"model not found\"}"), 8));
+    }
+
+    @Test
+    void testReadOpenAi_OrdersByIndex() throws Exception {
+        // Given - index appears after the embedding in one item and before it in the other
+        String json = """
+            {"object":"list","data":[
+              {"object":"embedding","embedding":[2.0,2.5],"index":1},
+              {"index":0,"object":"embedding","embedding":[1.0,1.5]}
+            ],"model":"text-embedding-3-large","usage":{"prompt_tokens":4,"total_tokens":4}}
+            """;
+
+        // When
+        List<float[]> vectors = EmbeddingJson.readOpenAi(body(json), 2, 2);
+
+        // Then
+        assertArrayEquals(new float[]{1.0f, 1.5f}, vectors.get(0));
+        assertArrayEquals(new float[]{2.0f, 2.5f}, vectors.get(1));
+    }
+
+    @Test
+    void testReadOpenAi_MissingItemThrows() {
+        String json = "{\"data\":[{\"index\":0,\"embedding\":[1.0]}]}";
+        assertThrows(IllegalStateException.class, () -> EmbeddingJson.readOpenAi(body(json), 2, 1));
+    }
+
+    @Test
+    void testReadOpenAi_ErrorFieldKeepsProviderMessage() {
+        // Given
+        String json = "{\"error\":{\"message\":\"Incorrect API key provided\",\"type\":\"invalid_request_error\"}}";
+
+        // When
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> EmbeddingJson.readOpenAi(body(json), 1, 8));
+
+        // Then
+        assertTrue(e.getMessage().contains("Incorrect API key provided"), e.getMessage());
+    }
+
+    @Test
+    void testParseFloat_MatchesJdkParsing() {
+        // Given - plain, exponent, long-mantissa and edge-case literals
+        String[] literals = {"0", "-0.0", "1", "0.1", "-2.5", "3.4028235E38", "1.0e-7", "-1.2345678E-5",
+            "0.012345679", "123456789012345678901234", "0.30000000000000004", "7E+2", "1e-45", "0.000000000000000000000001"};
+
+        for (String s : literals) {
+            // When
+            char[] padded = ("[" + s + "]").toCharArray();
+            float parsed = EmbeddingJson.parseFloat(padded, 1, s.length());
+
+            // Then
+            assertEquals((float) Double.parseDouble(s), parsed, "literal " + s);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FailoverLlmProviderTest {
+
+    private MeterRegistry meterRegistry;
+    private MetricsService metricsService;
+    private final AtomicLong now = new AtomicLong();
+
+    /** Provider that fails while {@code down} is set and counts the calls it receives. */
+    static class FlakyProvider implements LlmProvider {
+        final String name;
+        boolean down;
+        int calls;
+
+        FlakyProvider(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public float[] embed(String text) {
+            calls++;
+            if (down) throw new RuntimeException(name + " down");
+            return new float[]{name.length()};
+        }
+
+        @Override
+        public String chat(String system, String user, int tokens) {
+            calls++;
+            if (down) throw new RuntimeException(name + " down");
+            return name;
+        }
+
+        @Override
+        public String chatStream(String system, String user, int tokens, java.util.function.Consumer<String> onToken) {
+            calls++;
+            onToken.accept(name + "-1");
+            if (down) throw new RuntimeException(name + " broke mid-stream");
+            return name;
+        }
+    }
+
+    private FlakyProvider ollama;
+    private FlakyProvider openai;
+    private CircuitBreaker ollamaBreaker;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metricsService = new MetricsService(meterRegistry);
+        ollama = new FlakyProvider("ollama");
+        openai = new FlakyProvider("openai");
+        ollamaBreaker = new CircuitBreaker("ollama", 3, 1000, metricsService, now::get);
+    }
+
+    private FailoverLlmProvider newProvider(boolean failoverEmbeddings) {
+        return new FailoverLlmProvider(List.of(
+            new FailoverLlmProvider.Member("ollama", ollama, ollamaBreaker),
+            new FailoverLlmProvider.Member("openai", openai, new CircuitBreaker("openai", 3, 1000, metricsService, now::get))),
+            failoverEmbeddings, metricsService);
+    }
+
+    private double breakerGauge(String provider) {
+        return meterRegistry.find("sfagent_llm_breaker_state").tag("provider", provider).gauge().value();
+    }
+
+    @Test
+    void testChat_PrimaryDown_OpensBreakerAndStopsCallingIt() {
+        // Given
+        FailoverLlmProvider provider = newProvider(false);
+        ollama.down = true;
+
+        // When
+        for (int i = 0; i < 10; i++) {
+            assertEquals("openai", provider.chat("s", "u", 10));
+        }
+
+        // Then - three failures opened the breaker, the rest skipped ollama entirely
+        assertEquals(3, ollama.calls);
+        assertEquals(CircuitBreaker.State.OPEN, ollamaBreaker.state());
+        assertEquals(2.0, breakerGauge("ollama"));
+        assertEquals(3.0, meterRegistry.counter("sfagent_llm_failover", "provider", "ollama").count());
+    }
+
+    @Test
+    void testChat_AfterOpenInterval_HalfOpenTrialClosesBreaker() {
+        // Given
+        FailoverLlmProvider provider = newProvider(false);
+        ollama.down = true;
+        for (int i = 0; i < 3; i++) provider.chat("s", "u", 10);
+        ollama.down = false;
+
+        // When - still inside the open interval
+        assertEquals("openai", provider.chat("s", "u", 10));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        String trial = provider.chat("s", "u", 10);
+
+        // Then
+        assertEquals("ollama", trial);
+        assertEquals(CircuitBreaker.State.CLOSED, ollamaBreaker.state());
+        assertEquals(0.0, breakerGauge("ollama"));
+    }
+
+    @Test
+    void testBreaker_HalfOpenFailure_ReopensAndAdmitsOneTrial() {
+        // Given
+        for (int i = 0; i < 3; i++) {
+            assertTrue(ollamaBreaker.tryAcquire());
+            ollamaBreaker.onFailure();
+        }
+        assertFalse(ollamaBreaker.tryAcquire());
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+
+        // When
+        assertTrue(ollamaBreaker.tryAcquire());
+
+        // Then - only one trial at a time
+        assertEquals(CircuitBreaker.State.HALF_OPEN, ollamaBreaker.state());
+        assertFalse(ollamaBreaker.tryAcquire());
+        ollamaBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, ollamaBreaker.state());
+        assertFalse(ollamaBreaker.tryAcquire());
+    }
+
+    @Test
+    void testChat_ErrorDuringHalfOpenTrial_ReleasesTrial() {
+        // Given - the breaker is open and its interval has passed
+        FailoverLlmProvider provider = new FailoverLlmProvider(List.of(
+            new FailoverLlmProvider.Member("ollama", new FlakyProvider("ollama") {
+                @Override
+                public String chat(String system, String user, int tokens) {
+                    if (calls++ == 0) throw new StackOverflowError("deep prompt");
+                    return name;
+                }
+            }, ollamaBreaker)), false, metricsService);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(ollamaBreaker.tryAcquire());
+            ollamaBreaker.onFailure();
+        }
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+
+        // When - the trial call dies with an Error
+        assertThrows(StackOverflowError.class, () -> provider.chat("s", "u", 10));
+
+        // Then - the next call still gets a trial and closes the breaker
+        assertEquals("ollama", provider.chat("s", "u", 10));
+        assertEquals(CircuitBreaker.State.CLOSED, ollamaBreaker.state());
+    }
+
+    @Test
+    void testChat_AllDown_FailsWithLastError() {
+        // Given
+        FailoverLlmProvider provider = newProvider(false);
+        ollama.down = true;
+        openai.down = true;
+
+        // When / Then
+        RuntimeException e = assertThrows(RuntimeException.class, () -> provider.chat("s", "u", 10));
+        assertEquals("openai down", e.getMessage());
+    }
+
+    @Test
+    void testEmbed_StaysOnPrimaryUnlessEnabled() {
+        // Given
+        ollama.down = true;
+
+        // When / Then
+        assertThrows(RuntimeException.class, () -> newProvider(false).embed("x"));
+        assertEquals(0, openai.calls);
+        assertArrayEquals(new float[]{"openai".length()}, newProvider(true).embed("x"));
+    }
+
+    @Test
+    void testChatStream_FailureAfterFirstToken_DoesNotFailOver() {
+        // Given
+        FailoverLlmProvider provider = newProvider(false);
+        ollama.down = true;
+        List<String> tokens = new ArrayList<>();
+
+        // When / Then
+        assertThrows(RuntimeException.class, () -> provider.chatStream("s", "u", 10, tokens::add));
+        assertEquals(List.of("ollama-1"), tokens);
+        assertEquals(0, openai.calls);
+    }
+}
@@ -0,0 +1,271 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlatVectorStoreTest {
+
+    private static final int DIM = 37; // not a multiple of any vector width, so the scalar tails run
+
+    @TempDir
+    Path tempDir;
+
+    private MeterRegistry registry;
+    private MetricsService metrics;
+    private FlatVectorStore store;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = new MetricsService(registry);
+        store = new FlatVectorStore(tempDir, false, metrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    private static List<RagService.QPoint> corpus(Random r, int n) {
+        List<RagService.QPoint> points = new ArrayList<>();
+        for (int i = 0; i < n; i++) points.add(HnswVectorStoreTest.point("p" + i, "s" + (i % 50), "h", HnswVectorStoreTest.randomVector(r, DIM)));
+        return points;
+    }
+
+    private static Set<String> texts(List<VectorStore.Hit> hits) {
+        Set<String> out = new HashSet<>();
+        for (VectorStore.Hit h : hits) out.add((String) h.payload().get("text"));
+        return out;
+    }
+
+    @Test
+    void testVectorMath_KernelsMatchScalarLoop() {
+        // Given
+        Random r = new Random(3);
+        float[] a = HnswVectorStoreTest.randomVector(r, 1000);
+        float[] b = HnswVectorStoreTest.randomVector(r, 1000);
+        byte[] q = new byte[1000];
+        r.nextBytes(q);
+
+        for (int len : new int[] {1, 7, 16, 37, 999}) {
+            // When
+            double expected = 0, expectedInt8 = 0;
+            for (int i = 0; i < len; i++) {
+                expected += a[i + 1] * b[i];
+                expectedInt8 += q[i + 1] * b[i];
+            }
+
+            // Then
+            assertEquals(expected, VectorMath.dot(a, 1, b, len), 1e-3, "len " + len);
+            assertEquals(expectedInt8, VectorMath.dotInt8(q, 1, b, len), 1e-1, "len " + len);
+        }
+        assertTrue(VectorMath.SIMD, "the test JVM is started with the Vector API module");
+    }
+
+    @Test
+    void testSearch_ParallelScanMatchesExactTopK() throws Exception {
+        // Given: enough rows to span two segments and several fork-join partitions
+        Random r = new Random(1);
+        List<RagService.QPoint> points = corpus(r, FlatVectorStore.SEGMENT_ROWS + 3000);
+        for (int i = 0; i < points.size(); i += 1000) store.upsert(points.subList(i, Math.min(points.size(), i + 1000)));
+
+        for (int i = 0; i < 20; i++) {
+            // When
+            float[] q = HnswVectorStoreTest.randomVector(r, DIM);
+            List<VectorStore.Hit> hits = store.search(q, 10);
+
+            // Then
+            assertEquals(HnswVectorStoreTest.exactTop(points, q, 10), texts(hits));
+            for (int h = 1; h < hits.size(); h++) assertTrue(hits.get(h - 1).score() >= hits.get(h).score());
+        }
+        assertEquals(points.size(), store.count());
+    }
+
+    @Test
+    void testSearch_Int8_HighRecallAndCosineScores() throws Exception {
+        // Given
+        store.close();
+        store = new FlatVectorStore(tempDir.resolve("int8"), true, metrics);
+        Random r = new Random(2);
+        List<RagService.QPoint> points = corpus(r, 2000);
+        store.upsert(points);
+
+        // When
+        int found = 0;
+        for (int i = 0; i < 50; i++) {
+            float[] q = HnswVectorStoreTest.randomVector(r, DIM);
+            Set<String> exact = HnswVectorStoreTest.exactTop(points, q, 10);
+            for (String t : texts(store.search(q, 10))) if (exact.contains(t)) found++;
+        }
+        List<VectorStore.Hit> self = store.search(points.get(7).vector(), 1);
+
+        // Then
+        assertTrue(found / 500.0 >= 0.9, "int8 recall@10 " + found / 500.0);
+        assertEquals("chunk p7", self.get(0).payload().get("text"));
+        assertEquals(1.0, self.get(0).score(), 0.02);
+    }
+
+    @Test
+    void testUpsert_SameId_ReplacesPoint() throws Exception {
+        // Given
+        float[] a = {1, 0, 0};
+        float[] b = {0, 1, 0};
+        store.upsert(List.of(new RagService.QPoint("x", a, Map.of("text", "old", "source_id", "s"))));
+
+        // When
+        store.upsert(List.of(new RagService.QPoint("x", b, Map.of("text", "new", "source_id", "s"))));
+        List<VectorStore.Hit> hits = store.search(a, 5);
+
+        // Then
+        assertEquals(1, store.count());
+        assertEquals(1, hits.size());
+        assertEquals("new", hits.get(0).payload().get("text"));
+    }
+
+    @Test
+    void testUpsert_SameId_RewritesRowInPlace() throws Exception {
+        // Given
+        Random r = new Random(7);
+        List<RagService.QPoint> points = corpus(r, 10);
+        store.upsert(points);
+        long sidecar = Files.size(tempDir.resolve("flat-rows.bin"));
+
+        // When - the whole corpus re-ingested, as after a lost manifest
+        store.upsert(corpus(new Random(7), 10));
+        store.close();
+        store = new FlatVectorStore(tempDir, false, metrics);
+
+        // Then
+        assertEquals(sidecar, Files.size(tempDir.resolve("flat-rows.bin")));
+        assertEquals(10, store.count());
+        assertEquals("chunk p3", store.search(points.get(3).vector(), 1).get(0).payload().get("text"));
+    }
+
+    @Test
+    void testFlush_ManyTombstones_CompactsLiveRows() throws Exception {
+        for (boolean int8 : new boolean[] {false, true}) {
+            // Given - 1200 of 1500 rows deleted: past both compaction thresholds
+            store.close();
+            Path dir = tempDir.resolve(int8 ? "int8" : "f32");
+            store = new FlatVectorStore(dir, int8, metrics);
+            Random r = new Random(8);
+            List<RagService.QPoint> points = corpus(r, 1500);
+            store.upsert(points);
+            for (int s = 0; s < 40; s++) store.deleteBySource("s" + s, null);
+            List<VectorStore.Hit> before = store.search(points.get(45).vector(), 5);
+
+            // When
+            store.flush();
+
+            // Then - same answers from a sidecar holding only the live rows
+            assertEquals(16 + 300 * 20, Files.size(dir.resolve("flat-rows.bin")), "int8 " + int8);
+            assertFalse(Files.exists(dir.resolve("compacting")));
+            assertEquals(300, store.count());
+            List<VectorStore.Hit> after = store.search(points.get(45).vector(), 5);
+            assertEquals(texts(before), texts(after));
+            assertEquals(before.get(0).score(), after.get(0).score(), 1e-6);
+
+            // And it keeps taking writes and survives a reopen
+            store.upsert(List.of(HnswVectorStoreTest.point("extra", "s99", "h", HnswVectorStoreTest.randomVector(r, DIM))));
+            store.close();
+            store = new FlatVectorStore(dir, int8, metrics);
+            assertEquals(301, store.count());
+            assertEquals("chunk p1499", store.search(points.get(1499).vector(), 1).get(0).payload().get("text"));
+        }
+        assertNotNull(registry.find("sfagent_vector_store_seconds").tags("store", "flat", "operation", "compact").timer());
+    }
+
+    @Test
+    void testUpsert_WrongDimension_Throws() throws Exception {
+        // Given
+        store.upsert(List.of(new RagService.QPoint("a", new float[] {1, 0}, Map.of("text", "a"))));
+
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> store.upsert(List.of(new RagService.QPoint("b", new float[] {1, 0, 0}, Map.of("text", "b")))));
+        assertThrows(IllegalArgumentException.class, () -> store.search(new float[] {1, 0, 0}, 1));
+    }
+
+    @Test
+    void testDeleteBySource_KeepsCurrentContentHash() throws Exception {
+        // Given
+        Random r = new Random(4);
+        store.upsert(List.of(
+            HnswVectorStoreTest.point("a1", "a", "old", HnswVectorStoreTest.randomVector(r, DIM)),
+            HnswVectorStoreTest.point("a2", "a", "new", HnswVectorStoreTest.randomVector(r, DIM)),
+            HnswVectorStoreTest.point("b1", "b", "old", HnswVectorStoreTest.randomVector(r, DIM))));
+
+        // When
+        store.deleteBySource("a", "new");
+        store.deleteBySource("b", null);
+
+        // Then
+        assertEquals(1, store.count());
+        assertEquals(Set.of("chunk a2"), texts(store.search(HnswVectorStoreTest.randomVector(r, DIM), 10)));
+    }
+
+    @Test
+    void testReopen_KeepsPointsAndTombstones() throws Exception {
+        // Given
+        Random r = new Random(5);
+        List<RagService.QPoint> points = corpus(r, 500);
+        store.upsert(points);
+        store.deleteBySource("s0", null);
+        store.close();
+
+        // When
+        store = new FlatVectorStore(tempDir, false, metrics);
+        float[] q = points.get(1).vector();
+        List<VectorStore.Hit> hits = store.search(q, 3);
+
+        // Then
+        assertEquals(490, store.count());
+        assertEquals("chunk p1", hits.get(0).payload().get("text"));
+        assertEquals("s1", hits.get(0).payload().get("source_id"));
+        for (VectorStore.Hit h : store.search(points.get(0).vector(), 490)) assertNotEquals("s0", h.payload().get("source_id"));
+    }
+
+    @Test
+    void testSearch_ConcurrentWithUpserts() throws Exception {
+        // Given
+        Random r = new Random(6);
+        List<RagService.QPoint> points = corpus(r, 3000);
+        store.upsert(points.subList(0, 500));
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+
+        // When
+        Future<?> writer = pool.submit(() -> {
+            for (int i = 500; i < points.size(); i += 100) store.upsert(points.subList(i, i + 100));
+            return null;
+        });
+        List<Future<Integer>> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            readers.add(pool.submit(() -> {
+                int searches = 0;
+                do {
+                    assertEquals(5, store.search(HnswVectorStoreTest.randomVector(new Random(), DIM), 5).size());
+                    searches++;
+                } while (!writer.isDone());
+                return searches;
+            }));
+        }
+        writer.get(30, TimeUnit.SECONDS);
+
+        // Then
+        for (Future<Integer> f : readers) assertTrue(f.get(30, TimeUnit.SECONDS) > 0);
+        pool.shutdown();
+        assertEquals(3000, store.count());
+        assertNotNull(registry.find("sfagent_vector_store_seconds").tags("store", "flat", "operation", "search").timer());
+    }
+}
@@ -0,0 +1,142 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.qdrant.client.grpc.Points.PointStruct;
+import io.qdrant.client.grpc.Points.SearchPoints;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GrpcQdrantPointsTest {
+
+    private static QdrantCollectionConfig config(String quantization, int searchEf) {
+        return new QdrantCollectionConfig(3, "Cosine", false, 16, 100, false, quantization, true, false, 1, searchEf, true, 2.0);
+    }
+
+    /** Records what reached the REST fallback. */
+    private static class RecordingPoints implements VectorStore {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public List<Hit> search(float[] vector, int limit) {
+            calls.add("search");
+            return List.of(new Hit(0.5, Map.of("text", "from rest")));
+        }
+
+        @Override
+        public void upsert(List<RagService.QPoint> points, boolean wait) {
+            calls.add("upsert:" + points.size());
+        }
+
+        @Override
+        public void deleteBySource(String sourceId, String keepContentHash) {
+        }
+
+        @Override
+        public void deleteUnversioned() {
+            calls.add("deleteUnversioned");
+        }
+
+        @Override
+        public long count() {
+            return 0;
+        }
+    }
+
+    @Test
+    void testToPoint_EncodesVectorIdAndPayload() {
+        // Given
+        String id = UUID.randomUUID().toString();
+        RagService.QPoint p = new RagService.QPoint(id, new float[]{0.25f, -1f, 3f},
+            Map.of("text", "שלום", "chunk_index", 7, "uri", "https://x"));
+
+        // When
+        PointStruct s = GrpcQdrantPoints.toPoint(p);
+
+        // Then
+        assertEquals(id, s.getId().getUuid());
+        assertEquals(List.of(0.25f, -1f, 3f), s.getVectors().getVector().getDataList());
+        assertEquals("שלום", s.getPayloadMap().get("text").getStringValue());
+        assertEquals(7, s.getPayloadMap().get("chunk_index").getIntegerValue());
+    }
+
+    @Test
+    void testPointId_NumericIdsStayNumeric() {
+        assertEquals(42, GrpcQdrantPoints.pointId("42").getNum());
+    }
+
+    @Test
+    void testPayload_RoundTrips() {
+        // Given
+        Map<String, Object> payload = Map.of("text", "a", "n", 3L, "score", 0.5, "ok", true,
+            "tags", List.of("x", "y"), "meta", Map.of("k", "v"));
+
+        // When
+        PointStruct s = GrpcQdrantPoints.toPoint(new RagService.QPoint("1", new float[]{1f}, payload));
+
+        // Then
+        assertEquals(payload, GrpcQdrantPoints.toJava(s.getPayloadMap()));
+    }
+
+    @Test
+    void testSearchRequest_ParamsOnlyWhenTuned() {
+        // When
+        SearchPoints plain = GrpcQdrantPoints.searchRequest("kb", new float[]{1f, 2f}, 5, config("none", 0));
+        SearchPoints tuned = GrpcQdrantPoints.searchRequest("kb", new float[]{1f, 2f}, 5, config("binary", 128));
+
+        // Then
+        assertEquals(List.of(1f, 2f), plain.getVectorList());
+        assertEquals(5, plain.getLimit());
+        assertFalse(plain.hasParams());
+        assertEquals(128, tuned.getParams().getHnswEf());
+        assertEquals(2.0, tuned.getParams().getQuantization().getOversampling());
+    }
+
+    @Test
+    void testUnreachableServer_FallsBackToRest() throws Exception {
+        // Given
+        MeterRegistry registry = new SimpleMeterRegistry();
+        RecordingPoints rest = new RecordingPoints();
+        List<RagService.QPoint> batch = List.of(
+            new RagService.QPoint("1", new float[]{1f, 0f, 0f}, Map.of("text", "a")),
+            new RagService.QPoint("2", new float[]{0f, 1f, 0f}, Map.of("text", "b")));
+
+        // When
+        try (GrpcQdrantPoints grpc = new GrpcQdrantPoints("127.0.0.1", 1, false, Duration.ofSeconds(2), "kb",
+                config("none", 0), 1, 2, rest, new MetricsService(registry))) {
+            List<VectorStore.Hit> hits = grpc.search(new float[]{1f, 0f, 0f}, 3);
+            grpc.upsert(batch);
+
+            // Then
+            assertEquals("from rest", hits.get(0).payload().get("text"));
+        }
+        assertEquals(List.of("search", "upsert:2"), rest.calls);
+        assertEquals(1.0, registry.find("sfagent_qdrant_grpc_fallback").tag("operation", "search").counter().count());
+        assertEquals(1.0, registry.find("sfagent_qdrant_grpc_seconds").tag("outcome", "error").tag("operation", "upsert").timer().count());
+    }
+
+    @Test
+    void testDeleteUnversioned_UnreachableServer_FallsBackToRest() throws Exception {
+        // Given
+        MeterRegistry registry = new SimpleMeterRegistry();
+        RecordingPoints rest = new RecordingPoints();
+
+        // When
+        try (GrpcQdrantPoints grpc = new GrpcQdrantPoints("127.0.0.1", 1, false, Duration.ofSeconds(2), "kb",
+                config("none", 0), 1, 2, rest, new MetricsService(registry))) {
+            grpc.deleteUnversioned();
+        }
+
+        // Then
+        assertEquals(List.of("deleteUnversioned"), rest.calls);
+        assertEquals(1.0, registry.find("sfagent_qdrant_grpc_fallback").tag("operation", "delete").counter().count());
+    }
+}
@@ -0,0 +1,288 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.http.HttpTransport;
+import com.nby.agent.metrics.MetricsService;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgerTest {
+
+    private MeterRegistry meterRegistry;
+    private MetricsService metricsService;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metricsService = new MetricsService(meterRegistry);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /** Hedger with a 10ms floor on the hedge delay and one hedge earned per call. */
+    private Hedger warmedUp() {
+        Hedger hedger = new Hedger("chat", 0.95, 10, 1.0, metricsService, executor);
+        for (int i = 0; i < 20; i++) {
+            hedger.call(commit -> "fast");
+        }
+        assertTrue(hedger.delayNanos() >= TimeUnit.MILLISECONDS.toNanos(10));
+        return hedger;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted");
+        }
+    }
+
+    private double counter(String name) {
+        return meterRegistry.counter(name, "operation", "chat").count();
+    }
+
+    @Test
+    void testCall_SustainedHedging_DelayDoesNotShrink() {
+        // Given - a delay learned from calls that all took 50ms
+        Hedger hedger = new Hedger("chat", 0.5, 1, 1.0, metricsService, executor);
+        for (int i = 0; i < 20; i++) {
+            hedger.call(commit -> {
+                sleep(50);
+                return "ok";
+            });
+        }
+        long learned = hedger.delayNanos();
+
+        // When - every primary now stalls and every duplicate answers at once
+        for (int i = 0; i < 50; i++) {
+            AtomicInteger attempts = new AtomicInteger();
+            hedger.call(commit -> {
+                if (attempts.getAndIncrement() == 0) sleep(1000);
+                return "ok";
+            });
+        }
+
+        // Then - the hedges won, and their samples still carry the wait up to the hedge
+        assertTrue(counter("sfagent_llm_hedge_won") >= 45);
+        assertTrue(learned >= TimeUnit.MILLISECONDS.toNanos(45), "learned " + learned);
+        assertTrue(hedger.delayNanos() >= learned * 9 / 10,
+            "delay shrank from " + learned + " to " + hedger.delayNanos());
+    }
+
+    @Test
+    void testCall_NoHistory_RunsOnceWithoutHedging() {
+        // Given
+        Hedger hedger = new Hedger("chat", 0.95, 10, 1.0, metricsService, executor);
+        AtomicInteger calls = new AtomicInteger();
+
+        // When
+        String result = hedger.call(commit -> "r" + calls.incrementAndGet());
+
+        // Then
+        assertEquals("r1", result);
+        assertEquals(-1, hedger.delayNanos());
+        assertEquals(0.0, counter("sfagent_llm_hedge_fired"));
+    }
+
+    @Test
+    void testCall_StalledPrimary_HedgeWinsAndLoserIsCancelled() throws Exception {
+        // Given
+        Hedger hedger = warmedUp();
+        AtomicInteger attempt = new AtomicInteger();
+        CountDownLatch loserInterrupted = new CountDownLatch(1);
+
+        // When - the first attempt stalls, the duplicate answers normally
+        String result = hedger.call(commit -> {
+            if (attempt.getAndIncrement() == 0) {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    loserInterrupted.countDown();
+                }
+                return "stalled";
+            }
+            return "hedge";
+        });
+
+        // Then
+        assertEquals("hedge", result);
+        assertEquals(1.0, counter("sfagent_llm_hedge_fired"));
+        assertEquals(1.0, counter("sfagent_llm_hedge_won"));
+        assertTrue(loserInterrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testCall_LoserBlockedOnRealSocket_CountsAsCancelNotFailure() throws Exception {
+        // Given - endpoint A accepts connections and never answers, endpoint B answers at once
+        HttpServer fast = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        fast.createContext("/api/chat", exchange -> {
+            byte[] reply = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, reply.length);
+            exchange.getResponseBody().write(reply);
+            exchange.close();
+        });
+        fast.start();
+        HttpTransport transport = new HttpTransport(metricsService);
+        try (ServerSocket stalled = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             OllamaEndpoints endpoints = new OllamaEndpoints(
+                 "http://127.0.0.1:" + stalled.getLocalPort() + ",http://127.0.0.1:" + fast.getAddress().getPort(),
+                 metricsService, url -> true, 60_000)) {
+            RestTemplate http = transport.restTemplate(Duration.ofSeconds(30));
+            LlmProvider ollama = new LlmProvider() {
+                @Override
+                public float[] embed(String text) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public String chat(String system, String user, int tokens) {
+                    return endpoints.call("m", "chat", url -> http.postForObject(url + "/api/chat", "{}", String.class));
+                }
+            };
+            AdaptiveLimiter limiter = new AdaptiveLimiter("ollama", "chat", 4, 1, 32, 0, 0, 2.0, metricsService);
+            CircuitBreaker breaker = new CircuitBreaker("ollama", 1, 60_000, metricsService);
+            FailoverLlmProviderTest.FlakyProvider backup = new FailoverLlmProviderTest.FlakyProvider("backup");
+            FailoverLlmProvider failover = new FailoverLlmProvider(List.of(
+                new FailoverLlmProvider.Member("ollama", new ConcurrencyLimitedLlmProvider(ollama, limiter, limiter), breaker),
+                new FailoverLlmProvider.Member("backup", backup, new CircuitBreaker("backup", 1, 60_000, metricsService))),
+                false, metricsService);
+            CountDownLatch attemptsDone = new CountDownLatch(2);
+            LlmProvider tracked = new LlmProvider() {
+                @Override
+                public float[] embed(String text) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public String chat(String system, String user, int tokens) {
+                    try {
+                        return failover.chat(system, user, tokens);
+                    } finally {
+                        attemptsDone.countDown();
+                    }
+                }
+            };
+            Hedger chat = warmedUp();
+            LlmProvider hedged = new HedgingLlmProvider(tracked, warmedUp(), warmedUp(), chat, warmedUp());
+
+            // When - the first attempt goes to the stalled endpoint, the hedge to the fast one
+            String result = hedged.chat("s", "u", 10);
+
+            // Then - once the loser has unwound, nothing counted its interrupted read as a failure
+            assertEquals("ok", result);
+            assertTrue(attemptsDone.await(5, TimeUnit.SECONDS), "losing attempt was not interrupted");
+            OllamaEndpoints.Endpoint stalledEndpoint = endpoints.endpoints().get(0);
+            assertTrue(stalledEndpoint.healthy);
+            assertEquals(0, stalledEndpoint.inFlight.get());
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+            assertEquals(0, backup.calls);
+            assertEquals(0.0, meterRegistry.counter("sfagent_llm_failover", "provider", "ollama").count());
+            assertEquals(4, limiter.limit());
+            assertEquals(0, limiter.inFlight());
+        } finally {
+            fast.stop(0);
+            transport.destroy();
+        }
+    }
+
+    @Test
+    void testHedgingProvider_BatchEmbedsLearnSeparatelyFromSingleEmbeds() {
+        // Given
+        Hedger embed = new Hedger("embed", 0.95, 10, 1.0, metricsService, executor);
+        Hedger embedBatch = new Hedger("embed_batch", 0.95, 10, 1.0, metricsService, executor);
+        LlmProvider hedged = new HedgingLlmProvider(new FailoverLlmProviderTest.FlakyProvider("p"), embed, embedBatch, warmedUp(), warmedUp());
+
+        // When
+        for (int i = 0; i < 20; i++) hedged.embedBatch(List.of("a", "b"));
+
+        // Then - only the batch hedger has a latency history
+        assertTrue(embedBatch.delayNanos() > 0);
+        assertEquals(-1, embed.delayNanos());
+    }
+
+    @Test
+    void testCall_BudgetExhausted_DoesNotHedge() {
+        // Given - budget earns a tenth of a hedge per call, none banked yet
+        Hedger hedger = new Hedger("chat", 0.95, 10, 0.1, metricsService, executor);
+        for (int i = 0; i < 20; i++) {
+            hedger.call(commit -> "fast");
+        }
+        // 20 calls earned two hedges
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            hedger.call(commit -> {
+                attempts.incrementAndGet();
+                sleep(40);
+                return "slow";
+            });
+        }
+
+        // Then
+        assertEquals(2.0, counter("sfagent_llm_hedge_fired"));
+        assertEquals(5, attempts.get());
+    }
+
+    @Test
+    void testCall_StreamCommit_OnlyWinnerTokensDelivered() {
+        // Given
+        Hedger hedger = warmedUp();
+        AtomicInteger attempt = new AtomicInteger();
+        List<String> delivered = new ArrayList<>();
+
+        // When - primary emits its first token late, the hedge right away
+        String result = hedger.call(commit -> {
+            int me = attempt.getAndIncrement();
+            if (me == 0) sleep(200);
+            StringBuilder sb = new StringBuilder();
+            for (String t : List.of("a", "b", "c")) {
+                if (!commit.getAsBoolean()) throw new IllegalStateException("lost");
+                synchronized (delivered) { delivered.add(me + t); }
+                sb.append(t);
+            }
+            return sb.toString();
+        });
+
+        // Then
+        assertEquals("abc", result);
+        assertEquals(List.of("1a", "1b", "1c"), delivered);
+    }
+
+    @Test
+    void testCall_PrimaryFailsBeforeHedge_PropagatesError() {
+        // Given
+        Hedger hedger = warmedUp();
+
+        // When / Then
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+            () -> hedger.call(commit -> { throw new IllegalStateException("boom"); }));
+        assertEquals("boom", e.getMessage());
+        assertEquals(0.0, counter("sfagent_llm_hedge_fired"));
+    }
+}
@@ -0,0 +1,273 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswVectorStoreTest {
+
+    private static final int DIM = 32;
+
+    @TempDir
+    Path tempDir;
+
+    private MeterRegistry registry;
+    private MetricsService metrics;
+    private HnswVectorStore store;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = new MetricsService(registry);
+        store = new HnswVectorStore(tempDir, 16, 100, 64, metrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    static float[] randomVector(Random r, int dim) {
+        float[] v = new float[dim];
+        for (int i = 0; i < dim; i++) v[i] = (float) r.nextGaussian();
+        return v;
+    }
+
+    static RagService.QPoint point(String id, String sourceId, String hash, float[] v) {
+        return new RagService.QPoint(id, v, Map.of("text", "chunk " + id, "source_id", sourceId, "content_hash", hash, "chunk_index", 0));
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / Math.sqrt(na * nb);
+    }
+
+    /** Exact top-k texts by cosine, for recall checks. */
+    static Set<String> exactTop(List<RagService.QPoint> points, float[] q, int k) {
+        return points.stream()
+            .sorted(Comparator.comparingDouble((RagService.QPoint p) -> -cosine(p.vector(), q)))
+            .limit(k)
+            .map(p -> (String) p.payload().get("text"))
+            .collect(java.util.stream.Collectors.toSet());
+    }
+
+    @Test
+    void testSearch_RecallAgainstExactScan() throws Exception {
+        // Given
+        Random r = new Random(1);
+        List<RagService.QPoint> points = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) points.add(point("p" + i, "s" + (i % 50), "h", randomVector(r, DIM)));
+        store.upsert(points);
+
+        // When
+        int found = 0;
+        int queries = 100;
+        for (int i = 0; i < queries; i++) {
+            float[] q = randomVector(r, DIM);
+            Set<String> exact = exactTop(points, q, 10);
+            for (VectorStore.Hit h : store.search(q, 10)) {
+                if (exact.contains((String) h.payload().get("text"))) found++;
+            }
+        }
+
+        // Then
+        double recall = found / (10.0 * queries);
+        assertTrue(recall >= 0.9, "recall@10 " + recall);
+        assertEquals(3000, store.count());
+    }
+
+    @Test
+    void testSearch_ScoreIsCosineAndBestFirst() throws Exception {
+        // Given
+        store.upsert(List.of(
+            point("a", "s", "h", new float[]{1, 0, 0}),
+            point("b", "s", "h", new float[]{0.6f, 0.8f, 0}),
+            point("c", "s", "h", new float[]{0, 0, 5})));
+
+        // When
+        List<VectorStore.Hit> hits = store.search(new float[]{2, 0, 0}, 2);
+
+        // Then
+        assertEquals(2, hits.size());
+        assertEquals("chunk a", hits.get(0).payload().get("text"));
+        assertEquals(1.0, hits.get(0).score(), 1e-6);
+        assertEquals(0.6, hits.get(1).score(), 1e-6);
+    }
+
+    @Test
+    void testUpsert_SameIdReplacesPoint() throws Exception {
+        // Given
+        store.upsert(List.of(point("a", "s", "h1", new float[]{1, 0})));
+
+        // When
+        store.upsert(List.of(new RagService.QPoint("a", new float[]{0, 1}, Map.of("text", "new a", "source_id", "s", "content_hash", "h2"))));
+
+        // Then
+        assertEquals(1, store.count());
+        List<VectorStore.Hit> hits = store.search(new float[]{1, 0}, 5);
+        assertEquals(1, hits.size());
+        assertEquals("new a", hits.get(0).payload().get("text"));
+    }
+
+    /** Nodes in the graph snapshot, live or tombstoned. */
+    private int snapshotNodes() throws Exception {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(tempDir.resolve("graph.bin")))) {
+            in.skipNBytes(3 * Integer.BYTES);
+            return in.readInt();
+        }
+    }
+
+    @Test
+    void testUpsert_SameIdSameVector_OverwritesInPlace() throws Exception {
+        // Given
+        store.upsert(List.of(point("a", "s", "h1", new float[]{1, 0}), point("b", "s", "h1", new float[]{0, 1})));
+
+        // When - re-ingesting the same chunk only changes the payload
+        store.upsert(List.of(new RagService.QPoint("a", new float[]{2, 0}, Map.of("text", "new a", "source_id", "s", "content_hash", "h2"))));
+        store.flush();
+
+        // Then
+        assertEquals(2, snapshotNodes());
+        assertEquals(2, store.count());
+        assertEquals("new a", store.search(new float[]{1, 0}, 1).get(0).payload().get("text"));
+        store.deleteBySource("s", "h2");
+        assertEquals(List.of("new a"), store.search(new float[]{0, 1}, 5).stream().map(h -> h.payload().get("text")).toList());
+    }
+
+    @Test
+    void testFlush_ManyTombstones_RebuildsFromLivePoints() throws Exception {
+        // Given - 1200 of 1500 points deleted: past both compaction thresholds
+        Random r = new Random(4);
+        List<RagService.QPoint> points = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) points.add(point("p" + i, "s" + (i % 15), "h", randomVector(r, DIM)));
+        store.upsert(points);
+        for (int s = 0; s < 12; s++) store.deleteBySource("s" + s, null);
+
+        // When
+        store.flush();
+
+        // Then
+        assertEquals(300, snapshotNodes());
+        assertEquals(300, store.count());
+        assertFalse(Files.exists(tempDir.resolve("compacting")));
+        assertEquals("chunk p14", store.search(points.get(14).vector(), 1).get(0).payload().get("text"));
+        assertNotNull(registry.find("sfagent_vector_store_seconds").tags("store", "hnsw", "operation", "compact").timer());
+
+        // And the rebuilt store keeps taking writes and survives a reopen
+        store.upsert(List.of(point("extra", "s99", "h", randomVector(r, DIM))));
+        store.close();
+        store = new HnswVectorStore(tempDir, 16, 100, 64, metrics);
+        assertEquals(301, store.count());
+        assertEquals("chunk p1499", store.search(points.get(1499).vector(), 1).get(0).payload().get("text"));
+    }
+
+    @Test
+    void testUpsert_WrongDimension_Throws() throws Exception {
+        // Given
+        store.upsert(List.of(point("a", "s", "h", new float[]{1, 0})));
+
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> store.upsert(List.of(point("b", "s", "h", new float[]{1, 0, 0}))));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> store.search(new float[]{1, 0, 0}, 1));
+        assertEquals("Query of 3 dims, store has 2", e.getMessage());
+    }
+
+    @Test
+    void testDeleteBySource_KeepsCurrentContentHash() throws Exception {
+        // Given
+        Random r = new Random(2);
+        store.upsert(List.of(
+            point("old", "doc", "v1", randomVector(r, DIM)),
+            point("new", "doc", "v2", randomVector(r, DIM)),
+            point("other", "x", "v1", randomVector(r, DIM))));
+
+        // When
+        store.deleteBySource("doc", "v2");
+
+        // Then
+        assertEquals(2, store.count());
+        Set<String> texts = new HashSet<>();
+        for (VectorStore.Hit h : store.search(randomVector(r, DIM), 10)) texts.add((String) h.payload().get("text"));
+        assertEquals(Set.of("chunk new", "chunk other"), texts);
+    }
+
+    @Test
+    void testFlush_ReopenRestoresSnapshotOnly() throws Exception {
+        // Given
+        Random r = new Random(3);
+        List<RagService.QPoint> points = new ArrayList<>();
+        for (int i = 0; i < 500; i++) points.add(point("p" + i, "s", "h", randomVector(r, DIM)));
+        store.upsert(points);
+        store.deleteBySource("s", "nothing-matches");
+        store.upsert(points.subList(0, 200));
+        store.flush();
+        float[] q = randomVector(r, DIM);
+        List<VectorStore.Hit> before = store.search(q, 5);
+        store.upsert(List.of(point("late", "s", "h", q)));
+
+        // When
+        HnswVectorStore reopened = new HnswVectorStore(tempDir, 16, 100, 64, new MetricsService(new SimpleMeterRegistry()));
+
+        // Then
+        try {
+            assertEquals(200, reopened.count());
+            assertEquals(before, reopened.search(q, 5));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void testSearch_ConcurrentWithInserts() throws Exception {
+        // Given
+        Random r = new Random(4);
+        List<RagService.QPoint> points = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) points.add(point("p" + i, "s", "h", randomVector(r, DIM)));
+        store.upsert(points.subList(0, 100));
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService readers = Executors.newFixedThreadPool(3);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        // When
+        for (int t = 0; t < 3; t++) {
+            long seed = t;
+            results.add(readers.submit(() -> {
+                Random qr = new Random(seed);
+                int searches = 0;
+                do {
+                    List<VectorStore.Hit> hits = store.search(randomVector(qr, DIM), 5);
+                    assertEquals(5, hits.size());
+                    hits.forEach(h -> assertNotNull(h.payload().get("text")));
+                    searches++;
+                } while (!done.get());
+                return searches;
+            }));
+        }
+        for (int i = 100; i < points.size(); i += 50) store.upsert(points.subList(i, i + 50));
+        done.set(true);
+        readers.shutdown();
+
+        // Then
+        for (Future<Integer> f : results) assertTrue(f.get(30, TimeUnit.SECONDS) > 0);
+        assertEquals(2000, store.count());
+        assertEquals(2000.0, registry.find("sfagent_vector_store_points").tag("store", "hnsw").gauge().value());
+    }
+}
@@ -0,0 +1,227 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestPipelineTest {
+
+    private MeterRegistry registry;
+    private MetricsService metrics;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = new MetricsService(registry);
+    }
+
+    static class ConstantProvider implements LlmProvider {
+        volatile CountDownLatch gate;
+        volatile boolean fail;
+
+        @Override
+        public float[] embed(String text) {
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            if (fail) throw new IllegalStateException("embed down");
+            return new float[]{text.length(), 1f};
+        }
+
+        @Override
+        public String chat(String system, String user, int tokens) {
+            return "";
+        }
+    }
+
+    /** Records each upsert call: its size and wait flag. */
+    static class RecordingPoints implements VectorStore {
+        final List<List<RagService.QPoint>> pages = new CopyOnWriteArrayList<>();
+        final List<Boolean> waits = new CopyOnWriteArrayList<>();
+
+        @Override
+        public List<Hit> search(float[] vector, int limit) {
+            return List.of();
+        }
+
+        @Override
+        public void upsert(List<RagService.QPoint> points, boolean wait) {
+            pages.add(List.copyOf(points));
+            waits.add(wait);
+        }
+
+        @Override
+        public void deleteBySource(String sourceId, String keepContentHash) {
+        }
+
+        @Override
+        public long count() {
+            return 0;
+        }
+    }
+
+    /** Each source is exactly one chunk (under 1000 chars). */
+    private static Iterator<IngestPipeline.Source> sources(int n, AtomicInteger reads) {
+        return IntStream.range(0, n).mapToObj(i -> new IngestPipeline.Source("doc-" + i, "doc-" + i + ".txt", "file", null, () -> {
+            reads.incrementAndGet();
+            return "text " + i;
+        })).iterator();
+    }
+
+    @Test
+    void testRun_UpsertsEveryChunkInPages() throws Exception {
+        // Given
+        RecordingPoints points = new RecordingPoints();
+        IngestPipeline pipeline = new IngestPipeline(new ConstantProvider(), points, metrics, 3, 16, 10, true);
+
+        // When
+        IngestPipeline.Result result = pipeline.run(sources(95, new AtomicInteger()), (s, idx, text) -> s.sourceId() + "#" + idx);
+
+        // Then
+        assertEquals(new IngestPipeline.Result(95, 95, 95), result);
+        assertEquals(10, points.pages.size());
+        assertTrue(points.pages.stream().allMatch(p -> p.size() <= 10));
+        Set<String> ids = new HashSet<>();
+        points.pages.forEach(p -> p.forEach(q -> ids.add(q.id())));
+        assertEquals(95, ids.size());
+        RagService.QPoint any = points.pages.get(0).get(0);
+        assertEquals("file", any.payload().get("source_type"));
+        assertEquals(0, any.payload().get("chunk_index"));
+        assertTrue(points.waits.stream().allMatch(w -> w));
+    }
+
+    @Test
+    void testRun_NoWait_EndsWithBarrier() throws Exception {
+        // Given
+        RecordingPoints points = new RecordingPoints();
+        IngestPipeline pipeline = new IngestPipeline(new ConstantProvider(), points, metrics, 2, 16, 10, false);
+
+        // When
+        pipeline.run(sources(20, new AtomicInteger()), (s, idx, text) -> s.sourceId());
+
+        // Then: two full pages without waiting, then the last one again with wait=true
+        assertEquals(List.of(false, false, true), points.waits);
+        assertEquals(points.pages.get(1), points.pages.get(2));
+    }
+
+    @Test
+    void testRun_SlowEmbedding_BackpressuresReader() throws Exception {
+        // Given
+        ConstantProvider provider = new ConstantProvider();
+        provider.gate = new CountDownLatch(1);
+        RecordingPoints points = new RecordingPoints();
+        IngestPipeline pipeline = new IngestPipeline(provider, points, metrics, 1, 8, 10, true);
+        AtomicInteger reads = new AtomicInteger();
+        Thread runner = Thread.ofVirtual().start(() -> {
+            try {
+                pipeline.run(sources(1000, reads), (s, idx, text) -> s.sourceId());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        // When
+        Thread.sleep(200);
+        int readWhileBlocked = reads.get();
+        provider.gate.countDown();
+        runner.join(10_000);
+
+        // Then: queue (8) + one batch in the embedder + one chunk in the reader's hand
+        assertTrue(readWhileBlocked <= 8 + EmbedBatching.batchSize() + 1, "read " + readWhileBlocked);
+        assertEquals(1000, points.pages.stream().mapToInt(List::size).sum());
+    }
+
+    @Test
+    void testRun_EmbedFailure_Propagates() {
+        // Given
+        ConstantProvider provider = new ConstantProvider();
+        provider.fail = true;
+        IngestPipeline pipeline = new IngestPipeline(provider, new RecordingPoints(), metrics, 2, 4, 10, true);
+
+        // When / Then
+        long start = System.nanoTime();
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+            () -> pipeline.run(sources(500, new AtomicInteger()), (s, idx, text) -> s.sourceId()));
+        assertEquals("embed down", e.getMessage());
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+    }
+
+    @Test
+    void testRun_RecordsStageMetrics() throws Exception {
+        // Given
+        IngestPipeline pipeline = new IngestPipeline(new ConstantProvider(), new RecordingPoints(), metrics, 2, 16, 10, true);
+
+        // When
+        pipeline.run(sources(25, new AtomicInteger()), (s, idx, text) -> s.sourceId());
+
+        // Then
+        for (String stage : List.of("read", "chunk", "embed", "upsert")) {
+            assertEquals(25.0, registry.find("sfagent_ingest_items").tag("stage", stage).counter().count(), stage);
+        }
+        assertEquals(3, registry.find("sfagent_ingest_stage_seconds").tag("stage", "upsert").timer().count());
+        assertEquals(0.0, registry.find("sfagent_ingest_queue_depth").tag("queue", "chunks").gauge().value());
+    }
+
+    @Test
+    void testUuid5_MatchesRfcReferenceValue() {
+        // Given
+        UUID dns = UUID.fromString("6ba7b810-9dad-11d1-80b4-00c04fd430c8");
+
+        // When
+        UUID id = IngestPipeline.uuid5(dns, "python.org");
+
+        // Then
+        assertEquals(UUID.fromString("886313e1-3b8a-5372-9b90-0c9aee199e5d"), id);
+        assertEquals(5, id.version());
+    }
+
+    @Test
+    void testRun_StableIds_ReingestOverwritesSamePoints() throws Exception {
+        // Given
+        RecordingPoints first = new RecordingPoints();
+        RecordingPoints second = new RecordingPoints();
+
+        // When
+        new IngestPipeline(new ConstantProvider(), first, metrics, 2, 16, 10, true).run(sources(30, new AtomicInteger()), IngestPipeline.STABLE_IDS);
+        new IngestPipeline(new ConstantProvider(), second, metrics, 2, 16, 10, true).run(sources(30, new AtomicInteger()), IngestPipeline.STABLE_IDS);
+
+        // Then
+        Set<String> firstIds = new HashSet<>();
+        Set<String> secondIds = new HashSet<>();
+        first.pages.forEach(p -> p.forEach(q -> firstIds.add(q.id())));
+        second.pages.forEach(p -> p.forEach(q -> secondIds.add(q.id())));
+        assertEquals(30, firstIds.size());
+        assertEquals(firstIds, secondIds);
+    }
+
+    @Test
+    void testStableIds_DifferByChunkIndexAndText() {
+        // Given
+        IngestPipeline.Source source = new IngestPipeline.Source("/kb/a.md", "a.md", "file", null, () -> "");
+
+        // When
+        String base = IngestPipeline.STABLE_IDS.id(source, 0, "שלום");
+
+        // Then
+        assertEquals(base, IngestPipeline.STABLE_IDS.id(source, 0, "שלום"));
+        assertNotEquals(base, IngestPipeline.STABLE_IDS.id(source, 1, "שלום"));
+        assertNotEquals(base, IngestPipeline.STABLE_IDS.id(source, 0, "שלום!"));
+        assertDoesNotThrow(() -> UUID.fromString(base));
+    }
+}
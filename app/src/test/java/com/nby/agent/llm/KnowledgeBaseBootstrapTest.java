@@ -0,0 +1,83 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class KnowledgeBaseBootstrapTest {
+
+    @Mock
+    private RagService mockRagService;
+
+    private MeterRegistry registry;
+    private KnowledgeBaseBootstrap bootstrap;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        bootstrap = new KnowledgeBaseBootstrap(mockRagService, new MetricsService(registry));
+    }
+
+    @Test
+    void testHealth_BeforeRun_OutOfService() {
+        // When
+        Health health = bootstrap.health();
+
+        // Then
+        assertEquals(Status.OUT_OF_SERVICE, health.getStatus());
+        assertEquals("collection", health.getDetails().get("phase"));
+        assertEquals(0.0, registry.find("sfagent_kb_bootstrap_progress").gauge().value());
+    }
+
+    @Test
+    void testAdvance_AllPhasesSucceed_ReportsUp() throws Exception {
+        // Given
+        when(mockRagService.ingestIfEmpty()).thenReturn(new RagService.ReindexReport(3, 0, 0, 0));
+
+        // When
+        bootstrap.advance();
+
+        // Then
+        assertTrue(bootstrap.isReady());
+        assertEquals(Status.UP, bootstrap.health().getStatus());
+        assertEquals(1.0, registry.find("sfagent_kb_bootstrap_progress").gauge().value());
+        assertEquals(1, registry.find("sfagent_startup_phase_seconds").tags("phase", "ingest", "outcome", "success").timer().count());
+        verify(mockRagService).prepareCollection();
+    }
+
+    @Test
+    void testAdvance_CollectionFails_DoesNotIngestAndResumesFromFailedPhase() throws Exception {
+        // Given
+        doThrow(new RuntimeException("qdrant down")).doNothing().when(mockRagService).prepareCollection();
+
+        // When
+        bootstrap.advance();
+
+        // Then
+        Health failed = bootstrap.health();
+        assertEquals(Status.OUT_OF_SERVICE, failed.getStatus());
+        assertEquals("collection: qdrant down", failed.getDetails().get("lastError"));
+        verify(mockRagService, never()).ingestIfEmpty();
+        assertEquals(1, registry.find("sfagent_startup_phase_seconds").tags("phase", "collection", "outcome", "error").timer().count());
+
+        // When
+        bootstrap.advance();
+
+        // Then
+        assertTrue(bootstrap.isReady());
+        assertEquals(3, bootstrap.health().getDetails().get("attempts"));
+        verify(mockRagService, times(2)).prepareCollection();
+        verify(mockRagService).ingestIfEmpty();
+    }
+}
@@ -0,0 +1,113 @@
+package com.nby.agent.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmAsyncTest {
+
+    /** Minimal provider whose calls complete immediately. */
+    static class EchoProvider implements LlmProvider {
+        @Override
+        public float[] embed(String text) {
+            return new float[]{text.length()};
+        }
+
+        @Override
+        public String chat(String system, String user, int tokens) {
+            return system + ":" + user;
+        }
+    }
+
+    @Test
+    void testDefaultAsyncMethods_RunOnVirtualThreads() throws Exception {
+        // Given
+        LlmProvider provider = new EchoProvider() {
+            @Override
+            public String chat(String system, String user, int tokens) {
+                return Thread.currentThread().isVirtual() ? "virtual" : "platform";
+            }
+        };
+
+        // When
+        CompletableFuture<float[]> embed = provider.embedAsync("abc");
+        CompletableFuture<List<float[]>> batch = provider.embedBatchAsync(List.of("a", "bb"));
+        CompletableFuture<String> chat = provider.chatAsync("s", "u", 10);
+
+        // Then
+        assertArrayEquals(new float[]{3}, embed.get(5, TimeUnit.SECONDS));
+        assertEquals(2, batch.get(5, TimeUnit.SECONDS).size());
+        assertEquals("virtual", chat.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testSupply_Failure_CompletesWithCause() {
+        // When
+        CompletableFuture<String> f = LlmAsync.supply("test", () -> { throw new IllegalStateException("boom"); });
+
+        // Then
+        ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+
+    @Test
+    void testSupply_Cancel_InterruptsWorker() throws Exception {
+        // Given
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<String> f = LlmAsync.supply("test", () -> {
+            started.countDown();
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "late";
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // When
+        f.cancel(true);
+
+        // Then
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertThrows(CancellationException.class, f::join);
+    }
+
+    @Test
+    void testSupply_Timeout_AbortsBlockedSocketRead() throws Exception {
+        // Given - a server that accepts the connection and never answers
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CountDownLatch reading = new CountDownLatch(1);
+            CompletableFuture<Integer> f = LlmAsync.supply("test", () -> {
+                try (Socket s = new Socket(server.getInetAddress(), server.getLocalPort());
+                     InputStream in = s.getInputStream()) {
+                    reading.countDown();
+                    return in.read();
+                }
+            });
+            try (Socket accepted = server.accept()) {
+                assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+                // When
+                f.orTimeout(100, TimeUnit.MILLISECONDS);
+
+                // Then - the future times out promptly instead of waiting on the socket
+                ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(5, TimeUnit.SECONDS));
+                assertInstanceOf(TimeoutException.class, e.getCause());
+            }
+        }
+    }
+}
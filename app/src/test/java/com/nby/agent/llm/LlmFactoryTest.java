@@ -1,11 +1,15 @@
 package com.nby.agent.llm;
 
+import com.nby.agent.metrics.MetricsService;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.TestPropertySource;
 
+import java.nio.file.Path;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -15,6 +19,7 @@ class LlmFactoryTest {
     private LlmFactory llmFactory;
     private OllamaClient mockOllamaClient;
     private OpenAIClient mockOpenAIClient;
+    private MetricsService mockMetricsService;
 
     @BeforeEach
     void setUp() {
@@ -23,12 +28,16 @@ class LlmFactoryTest {
         llmFactory = new LlmFactory();
         mockOllamaClient = mock(OllamaClient.class);
         mockOpenAIClient = mock(OpenAIClient.class);
+        mockMetricsService = mock(MetricsService.class);
     }
 
     @AfterEach
     void tearDown() {
         // Clear system property after each test
         System.clearProperty("LLM_PROVIDER");
+        System.clearProperty("EMBED_CACHE_ENABLED");
+        System.clearProperty("EMBED_CACHE_DB");
+        System.clearProperty("LLM_PROVIDERS");
     }
 
     @Test
@@ -37,33 +46,63 @@ class LlmFactoryTest {
         System.setProperty("LLM_PROVIDER", "ollama");
         
         // When
-        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient);
+        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient, mockMetricsService);
         
         // Then
         assertNotNull(provider);
         assertSame(mockOllamaClient, provider);
     }
 
+    @Test
+    void testLlmProvider_ProviderChain_FailsOverToOpenAI() {
+        // Given
+        System.setProperty("LLM_PROVIDERS", "ollama,openai");
+        when(mockOllamaClient.chat("s", "u", 10)).thenThrow(new RuntimeException("connection refused"));
+        when(mockOpenAIClient.chat("s", "u", 10)).thenReturn("from openai");
+
+        // When
+        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient, mockMetricsService);
+
+        // Then
+        assertInstanceOf(FailoverLlmProvider.class, provider);
+        assertEquals("from openai", provider.chat("s", "u", 10));
+        verify(mockMetricsService).incLlmFailover("ollama");
+    }
+
     @Test
     void testLlmProvider_OpenAIProvider_ReturnsOpenAI() {
         // Given
         System.setProperty("LLM_PROVIDER", "openai");
         
         // When
-        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient);
+        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient, mockMetricsService);
         
         // Then
         assertNotNull(provider);
         assertSame(mockOpenAIClient, provider);
     }
 
+    @Test
+    void testLlmProvider_SyntheticProvider_NeedsNoBackend() {
+        // Given
+        System.setProperty("LLM_PROVIDER", "synthetic");
+
+        // When
+        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient, mockMetricsService);
+
+        // Then
+        assertInstanceOf(SyntheticLlmProvider.class, provider);
+        assertEquals(1024, provider.embed("text").length);
+        verifyNoInteractions(mockOllamaClient, mockOpenAIClient);
+    }
+
     @Test
     void testLlmProvider_UnknownProvider_ReturnsOllama() {
         // Given
         System.setProperty("LLM_PROVIDER", "unknown");
         
         // When
-        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient);
+        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient, mockMetricsService);
         
         // Then
         assertNotNull(provider);
@@ -76,7 +115,7 @@ class LlmFactoryTest {
         System.setProperty("LLM_PROVIDER", "");
         
         // When
-        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient);
+        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient, mockMetricsService);
         
         // Then
         assertNotNull(provider);
@@ -89,7 +128,7 @@ class LlmFactoryTest {
         System.setProperty("LLM_PROVIDER", "OPENAI");
         
         // When
-        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient);
+        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient, mockMetricsService);
         
         // Then
         assertNotNull(provider);
@@ -102,7 +141,7 @@ class LlmFactoryTest {
         System.setProperty("LLM_PROVIDER", "OLLAMA");
         
         // When
-        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient);
+        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient, mockMetricsService);
         
         // Then
         assertNotNull(provider);
@@ -115,7 +154,7 @@ class LlmFactoryTest {
         System.setProperty("LLM_PROVIDER", "OpenAI");
         
         // When
-        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient);
+        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient, mockMetricsService);
         
         // Then
         assertNotNull(provider);
@@ -128,10 +167,23 @@ class LlmFactoryTest {
         System.clearProperty("LLM_PROVIDER");
         
         // When
-        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient);
+        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient, mockMetricsService);
         
         // Then
         assertNotNull(provider);
         assertSame(mockOllamaClient, provider);
     }
+
+    @Test
+    void testLlmProvider_EmbedCacheEnabled_WrapsProvider(@TempDir Path dir) {
+        // Given
+        System.setProperty("EMBED_CACHE_ENABLED", "true");
+        System.setProperty("EMBED_CACHE_DB", dir.resolve("cache.db").toString());
+
+        // When
+        LlmProvider provider = llmFactory.llmProvider(mockOllamaClient, mockOpenAIClient, mockMetricsService);
+
+        // Then
+        assertInstanceOf(CachingLlmProvider.class, provider);
+    }
 }
@@ -0,0 +1,150 @@
+package com.nby.agent.llm;
+
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OllamaEndpointsTest {
+
+    private static final String TWO_HOSTS = "http://gpu1:11434=llama3.1:8b|mxbai-embed-large, http://gpu2:11434/";
+
+    private MeterRegistry meterRegistry;
+    private MetricsService metricsService;
+    private OllamaEndpoints endpoints;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metricsService = new MetricsService(meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (endpoints != null) endpoints.close();
+    }
+
+    private OllamaEndpoints newEndpoints(String spec) {
+        // probe interval far beyond the test, so only probeAll() called by the test changes health
+        endpoints = new OllamaEndpoints(spec, metricsService, url -> true, TimeUnit.HOURS.toMillis(1));
+        return endpoints;
+    }
+
+    @Test
+    void testParse_ModelTags_AndTrailingSlash() {
+        // When
+        List<OllamaEndpoints.Endpoint> parsed = OllamaEndpoints.parse(TWO_HOSTS);
+
+        // Then
+        assertEquals(2, parsed.size());
+        assertEquals("http://gpu1:11434", parsed.get(0).base);
+        assertEquals(Set.of("llama3.1:8b", "mxbai-embed-large"), parsed.get(0).models);
+        assertEquals("http://gpu2:11434", parsed.get(1).base);
+        assertTrue(parsed.get(1).serves("anything"));
+        assertFalse(parsed.get(0).serves("qwen2:7b"));
+    }
+
+    @Test
+    void testChoose_PrefersFewestOutstanding() throws Exception {
+        // Given - one call parked on whichever host is chosen first
+        OllamaEndpoints eps = newEndpoints("http://a:11434,http://b:11434");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> used = new ArrayList<>();
+        Thread busy = Thread.ofVirtual().start(() -> eps.call("m", "chat", url -> {
+            synchronized (used) { used.add(url); }
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // When - every further call while it is outstanding
+        Set<String> others = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            others.add(eps.call("m", "chat", url -> url));
+        }
+        release.countDown();
+        busy.join();
+
+        // Then
+        assertEquals(1, others.size());
+        assertFalse(others.contains(used.get(0)));
+    }
+
+    @Test
+    void testChoose_RoutesByModelTag() {
+        // Given
+        OllamaEndpoints eps = newEndpoints("http://a:11434=llama3.1:8b,http://b:11434=mxbai-embed-large");
+
+        // When / Then
+        for (int i = 0; i < 4; i++) {
+            assertEquals("http://b:11434", eps.call("mxbai-embed-large", "embed", url -> url));
+            assertEquals("http://a:11434", eps.call("llama3.1:8b", "chat", url -> url));
+        }
+        assertThrows(IllegalStateException.class, () -> eps.choose("qwen2:7b"));
+    }
+
+    @Test
+    void testCall_ConnectionFailure_EjectsUntilProbeSucceeds() {
+        // Given
+        OllamaEndpoints eps = newEndpoints("http://a:11434,http://b:11434");
+
+        // When
+        assertThrows(ResourceAccessException.class, () -> eps.call("m", "chat", url -> {
+            throw new ResourceAccessException("Connection refused");
+        }));
+        long ejected = eps.endpoints().stream().filter(e -> !e.healthy).count();
+
+        // Then
+        assertEquals(1, ejected);
+        String survivor = eps.endpoints().stream().filter(e -> e.healthy).findFirst().orElseThrow().base;
+        for (int i = 0; i < 4; i++) {
+            assertEquals(survivor, eps.call("m", "chat", url -> url));
+        }
+        assertEquals(0.0, meterRegistry.find("sfagent_ollama_endpoint_up").gauges().stream().mapToDouble(g -> g.value()).min().orElse(-1));
+
+        // When - the probe finds it answering again
+        eps.probeAll(url -> true);
+
+        // Then
+        assertTrue(eps.endpoints().stream().allMatch(e -> e.healthy));
+    }
+
+    @Test
+    void testProbeAll_FailedProbe_Ejects_AllEjectedStillRoutes() {
+        // Given
+        OllamaEndpoints eps = newEndpoints("http://a:11434,http://b:11434");
+
+        // When
+        eps.probeAll(url -> url.contains("//a:"));
+
+        // Then
+        for (int i = 0; i < 4; i++) {
+            assertEquals("http://a:11434", eps.call("m", "embed", url -> url));
+        }
+
+        // When - nothing is healthy, calls still go out rather than failing locally
+        eps.probeAll(url -> { throw new ResourceAccessException("down"); });
+
+        // Then
+        assertNotNull(eps.call("m", "embed", url -> url));
+        assertTrue(meterRegistry.find("sfagent_ollama_endpoint_seconds").tag("endpoint", "http://a:11434").timer().count() >= 4);
+    }
+}
@@ -0,0 +1,97 @@
+package com.nby.agent.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QdrantCollectionConfigTest {
+
+    private static QdrantCollectionConfig config(boolean vectorsOnDisk, int m, String quantization, boolean payloadOnDisk, int searchEf) {
+        return new QdrantCollectionConfig(768, "Cosine", vectorsOnDisk, m, 100, false, quantization, true,
+            payloadOnDisk, 1, searchEf, true, 2.0);
+    }
+
+    /** The shape of {@code result.config} returned by GET /collections/{name} for a default collection. */
+    private static Map<String, Object> existing(int size, Object quantization) {
+        Map<String, Object> params = Map.of(
+            "vectors", Map.of("size", size, "distance", "Cosine"),
+            "shard_number", 1,
+            "on_disk_payload", false);
+        Map<String, Object> hnsw = Map.of("m", 16, "ef_construct", 100, "full_scan_threshold", 10000, "on_disk", false);
+        return quantization == null
+            ? Map.of("params", params, "hnsw_config", hnsw)
+            : Map.of("params", params, "hnsw_config", hnsw, "quantization_config", quantization);
+    }
+
+    @Test
+    void testCreateBody_DefaultsMatchQdrantDefaults() {
+        // When
+        Map<String, Object> body = config(false, 16, "none", false, 0).createBody(768);
+
+        // Then
+        assertEquals(Map.of("size", 768, "distance", "Cosine", "on_disk", false), body.get("vectors"));
+        assertEquals(Map.of("m", 16, "ef_construct", 100, "on_disk", false), body.get("hnsw_config"));
+        assertEquals(1, body.get("shard_number"));
+        assertFalse(body.containsKey("quantization_config"));
+    }
+
+    @Test
+    void testCreateBody_ScalarQuantization() {
+        // When
+        Map<String, Object> body = config(true, 32, "scalar", true, 0).createBody(768);
+
+        // Then
+        assertEquals(Map.of("scalar", Map.of("type", "int8", "always_ram", true)), body.get("quantization_config"));
+        assertEquals(true, body.get("on_disk_payload"));
+    }
+
+    @Test
+    void testReconcile_MatchingCollection_NoPatch() {
+        assertTrue(config(false, 16, "none", false, 0).reconcile(existing(768, null)).isEmpty());
+    }
+
+    @Test
+    void testReconcile_ChangedSettings_PatchesOnlyDifferences() {
+        // When
+        Map<String, Object> patch = config(true, 32, "binary", false, 0).reconcile(existing(768, null));
+
+        // Then
+        assertEquals(Map.of("", Map.of("on_disk", true)), patch.get("vectors"));
+        assertEquals(Map.of("m", 32, "ef_construct", 100, "on_disk", false), patch.get("hnsw_config"));
+        assertEquals(Map.of("binary", Map.of("always_ram", true)), patch.get("quantization_config"));
+        assertFalse(patch.containsKey("params"));
+    }
+
+    @Test
+    void testReconcile_QuantizationRemoved_Disables() {
+        // Given
+        Map<String, Object> existing = existing(768, Map.of("scalar", Map.of("type", "int8", "always_ram", true)));
+
+        // When
+        Map<String, Object> patch = config(false, 16, "none", false, 0).reconcile(existing);
+
+        // Then
+        assertEquals("Disabled", patch.get("quantization_config"));
+    }
+
+    @Test
+    void testImmutableDrift_ReportsVectorSize() {
+        assertNull(config(false, 16, "none", false, 0).immutableDrift(existing(768, null)));
+        assertEquals("vector size 1024 != 768", config(false, 16, "none", false, 0).immutableDrift(existing(1024, null)));
+    }
+
+    @Test
+    void testSearchParams_OnlyWhenConfigured() {
+        assertNull(config(false, 16, "none", false, 0).searchParams());
+        assertEquals(Map.of("hnsw_ef", 128), config(false, 16, "none", false, 128).searchParams());
+        assertEquals(Map.of("rescore", true, "oversampling", 2.0),
+            config(false, 16, "scalar", false, 0).searchParams().get("quantization"));
+    }
+
+    @Test
+    void testUnknownQuantization_Rejected() {
+        assertThrows(IllegalArgumentException.class, () -> config(false, 16, "pq", false, 0));
+    }
+}
@@ -0,0 +1,106 @@
+package com.nby.agent.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nby.agent.http.HttpTransport;
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Side-by-side REST vs gRPC comparison for the Qdrant data path.
+ * The wire-size check always runs. The latency/throughput run needs a live Qdrant and only runs with
+ * QDRANT_BENCH_URL set (e.g. http://localhost:6333; gRPC port from QDRANT_BENCH_GRPC_PORT, default 6334).
+ * It uses a throwaway collection and deletes it afterwards.
+ */
+class QdrantTransportBenchmarkTest {
+
+    private static final int DIM = 1024;
+    private static final int POINTS = 2000;
+    private static final int SEARCHES = 300;
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    private static float[] randomVector(Random r) {
+        float[] v = new float[DIM];
+        for (int i = 0; i < DIM; i++) v[i] = (float) r.nextGaussian();
+        return v;
+    }
+
+    private static QdrantCollectionConfig config() {
+        return new QdrantCollectionConfig(DIM, "Cosine", false, 16, 100, false, "none", true, false, 1, 0, true, 2.0);
+    }
+
+    @Test
+    void testSearchRequestSize_ProtobufVersusJson() throws Exception {
+        // Given
+        float[] v = randomVector(new Random(42));
+
+        // When
+        int json = om.writeValueAsBytes(Map.of("vector", v, "limit", 5, "with_payload", true)).length;
+        int proto = GrpcQdrantPoints.searchRequest("sf_kb", v, 5, config()).getSerializedSize();
+
+        // Then
+        System.out.printf("Qdrant search request, %d dims: JSON %d bytes, protobuf %d bytes (%.1fx)%n", DIM, json, proto, (double) json / proto);
+        assertTrue(proto < json / 2, "protobuf " + proto + " vs JSON " + json);
+    }
+
+    @Test
+    @EnabledIfEnvironmentVariable(named = "QDRANT_BENCH_URL", matches = ".+")
+    void testLiveLatencyAndThroughput() throws Exception {
+        String url = System.getenv("QDRANT_BENCH_URL");
+        int grpcPort = Integer.parseInt(System.getenv().getOrDefault("QDRANT_BENCH_GRPC_PORT", "6334"));
+        String collection = "sfagent_bench_" + System.nanoTime();
+        MetricsService metrics = new MetricsService(new SimpleMeterRegistry());
+        HttpTransport transport = new HttpTransport(metrics);
+        RestTemplate http = transport.restTemplate(Duration.ofSeconds(60));
+        HttpHeaders json = new HttpHeaders();
+        json.setContentType(MediaType.APPLICATION_JSON);
+        http.put(URI.create(url + "/collections/" + collection), new HttpEntity<>(om.writeValueAsString(config().createBody(DIM)), json));
+
+        Random r = new Random(7);
+        List<RagService.QPoint> points = new ArrayList<>();
+        for (int i = 0; i < POINTS; i++) points.add(new RagService.QPoint(UUID.randomUUID().toString(), randomVector(r), Map.of("text", "chunk " + i)));
+        List<float[]> queries = new ArrayList<>();
+        for (int i = 0; i < SEARCHES; i++) queries.add(randomVector(r));
+
+        VectorStore rest = new RestQdrantPoints(http, url, collection, config(), metrics);
+        VectorStore grpc = new GrpcQdrantPoints(URI.create(url).getHost(), grpcPort, false, Duration.ofSeconds(60), collection,
+            config(), 256, 4, null, metrics);
+        try {
+            for (VectorStore p : List.of(rest, grpc)) {
+                String name = p == rest ? "REST" : "gRPC";
+                long start = System.nanoTime();
+                p.upsert(points);
+                double upsertSec = (System.nanoTime() - start) / 1e9;
+
+                for (int i = 0; i < 30; i++) p.search(queries.get(i), 5); // warm-up
+                long[] lat = new long[SEARCHES];
+                start = System.nanoTime();
+                for (int i = 0; i < SEARCHES; i++) {
+                    long t = System.nanoTime();
+                    assertFalse(p.search(queries.get(i), 5).isEmpty());
+                    lat[i] = System.nanoTime() - t;
+                }
+                double searchSec = (System.nanoTime() - start) / 1e9;
+                Arrays.sort(lat);
+                System.out.printf("%s: upsert %d points %.0f/s | search p50 %.2f ms, p99 %.2f ms, %.0f q/s%n", name, POINTS,
+                    POINTS / upsertSec, lat[SEARCHES / 2] / 1e6, lat[SEARCHES * 99 / 100] / 1e6, SEARCHES / searchSec);
+            }
+        } finally {
+            grpc.close();
+            http.delete(URI.create(url + "/collections/" + collection));
+            transport.destroy();
+        }
+    }
+}
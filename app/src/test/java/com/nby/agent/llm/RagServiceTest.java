@@ -1,12 +1,17 @@
 package com.nby.agent.llm;
 
+import com.nby.agent.http.HttpTransport;
 import com.nby.agent.metrics.MetricsService;
+import com.nby.agent.storage.SourceManifestRepository;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -25,10 +30,14 @@ class RagServiceTest {
     @Mock
     private MetricsService mockMetricsService;
     
+    @TempDir
+    Path tempDir;
+
     private RagService ragService;
 
     @BeforeEach
     void setUp() throws Exception {
+        System.setProperty("MEMORY_DB", tempDir.resolve("manifest.db").toString());
         // Mock metrics service to return the actual result with lenient stubbing
         lenient().when(mockMetricsService.timeLlmEmbed(any())).thenAnswer(invocation -> {
             Callable<?> callable = invocation.getArgument(0, Callable.class);
@@ -76,9 +85,15 @@ class RagServiceTest {
         });
         
         // Mock LLM provider
-        lenient().when(mockLlmProvider.embed(anyString())).thenReturn(new double[]{1.0, 2.0, 3.0});
+        lenient().when(mockLlmProvider.embed(anyString())).thenReturn(new float[]{1.0f, 2.0f, 3.0f});
         
-        ragService = new RagService(mockLlmProvider, mockMetricsService);
+        ragService = new RagService(mockLlmProvider, mockMetricsService, new HttpTransport(mockMetricsService),
+                new SourceManifestRepository(mockMetricsService));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("MEMORY_DB");
     }
 
     @Test
@@ -261,4 +276,18 @@ class RagServiceTest {
             }
         });
     }
+
+    @Test
+    void testChunk_OverlapsAndTerminates() {
+        // Given
+        String text = "x".repeat(2500);
+
+        // When
+        java.util.List<String> chunks = RagService.chunk(text, 1000, 200);
+
+        // Then: [0,1000) [800,1800) [1600,2500)
+        assertEquals(3, chunks.size());
+        assertEquals(900, chunks.get(2).length());
+        assertEquals(java.util.List.of("short"), RagService.chunk("short", 1000, 200));
+    }
 }
@@ -0,0 +1,96 @@
+package com.nby.agent.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntheticLlmProviderTest {
+
+    /** No artificial latency unless a test asks for it. */
+    private SyntheticLlmProvider provider(long firstTokenMs, double decodeTokensPerSec) {
+        return new SyntheticLlmProvider(256, 3, 0, 0, firstTokenMs, 1_000_000, decodeTokensPerSec, 50);
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) dot += a[i] * b[i];
+        return dot; // vectors are unit length
+    }
+
+    @Test
+    void testEmbed_SameText_SameUnitVector() {
+        // Given
+        SyntheticLlmProvider provider = provider(0, 1_000_000);
+
+        // When
+        float[] a = provider.embed("איפוס סיסמה למשתמש");
+        float[] b = provider(0, 1_000_000).embed("איפוס סיסמה למשתמש");
+
+        // Then
+        assertEquals(256, a.length);
+        assertArrayEquals(a, b);
+        assertEquals(1.0, cosine(a, a), 1e-5);
+    }
+
+    @Test
+    void testEmbed_SharedWording_IsCloserThanUnrelatedText() {
+        // Given
+        SyntheticLlmProvider provider = provider(0, 1_000_000);
+        float[] query = provider.embed("how to reset a user password");
+
+        // When
+        double related = cosine(query, provider.embed("password reset steps for a locked user"));
+        double unrelated = cosine(query, provider.embed("quarterly invoice export to csv"));
+
+        // Then
+        assertTrue(related > unrelated, related + " <= " + unrelated);
+    }
+
+    @Test
+    void testEmbedBatch_MatchesSingleEmbeds() {
+        // Given
+        SyntheticLlmProvider provider = provider(0, 1_000_000);
+
+        // When
+        List<float[]> batch = provider.embedBatch(List.of("one", "two"));
+
+        // Then
+        assertArrayEquals(provider.embed("one"), batch.get(0));
+        assertArrayEquals(provider.embed("two"), batch.get(1));
+        assertEquals("synthetic-256-n3", provider.embedModelName());
+    }
+
+    @Test
+    void testChatStream_DeterministicTokensWithinMaxTokens() {
+        // Given
+        SyntheticLlmProvider provider = provider(0, 1_000_000);
+        List<String> tokens = new ArrayList<>();
+
+        // When
+        String answer = provider.chatStream("system", "alpha beta gamma", 5, tokens::add);
+
+        // Then
+        assertEquals(5, tokens.size());
+        assertEquals("alpha beta gamma alpha beta", answer);
+        assertEquals(answer, String.join("", tokens));
+        assertEquals(answer, provider.chat("system", "alpha beta gamma", 5));
+    }
+
+    @Test
+    void testChat_LatencyModel_FirstTokenPlusDecodeRate() {
+        // Given - 50ms to first token, then 10 tokens at 200 tok/s = 45ms more
+        SyntheticLlmProvider provider = provider(50, 200);
+
+        // When
+        long start = System.nanoTime();
+        provider.chat("s", "word", 10);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // Then
+        assertTrue(elapsedMs >= 95, "elapsed " + elapsedMs + "ms");
+        assertTrue(elapsedMs < 1000, "elapsed " + elapsedMs + "ms");
+    }
+}
@@ -0,0 +1,98 @@
+package com.nby.agent.llm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nby.agent.http.HttpTransport;
+import com.nby.agent.metrics.MetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Embedded HNSW, embedded flat scan and Qdrant on the same points and queries: recall@10 against an exact scan, and
+ * search latency. Needs a live Qdrant, so it only runs with QDRANT_BENCH_URL set
+ * (e.g. http://localhost:6333). It uses a throwaway collection and deletes it afterwards.
+ */
+class VectorStoreBenchmarkTest {
+
+    private static final int DIM = 384;
+    private static final int POINTS = 20_000;
+    private static final int SEARCHES = 200;
+    private static final int K = 10;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @EnabledIfEnvironmentVariable(named = "QDRANT_BENCH_URL", matches = ".+")
+    void testRecallAndLatency_EmbeddedVersusQdrant() throws Exception {
+        String url = System.getenv("QDRANT_BENCH_URL");
+        String collection = "sfagent_bench_" + System.nanoTime();
+        ObjectMapper om = new ObjectMapper();
+        MetricsService metrics = new MetricsService(new SimpleMeterRegistry());
+        HttpTransport transport = new HttpTransport(metrics);
+        RestTemplate http = transport.restTemplate(Duration.ofSeconds(60));
+        QdrantCollectionConfig config = new QdrantCollectionConfig(DIM, "Cosine", false, 16, 200, false, "none", true, false, 1, 64, true, 2.0);
+        HttpHeaders json = new HttpHeaders();
+        json.setContentType(MediaType.APPLICATION_JSON);
+        http.put(URI.create(url + "/collections/" + collection), new HttpEntity<>(om.writeValueAsString(config.createBody(DIM)), json));
+
+        Random r = new Random(11);
+        List<RagService.QPoint> points = new ArrayList<>();
+        for (int i = 0; i < POINTS; i++) {
+            points.add(HnswVectorStoreTest.point(UUID.nameUUIDFromBytes(("p" + i).getBytes()).toString(), "s", "h", HnswVectorStoreTest.randomVector(r, DIM)));
+        }
+        List<float[]> queries = new ArrayList<>();
+        List<Set<String>> exact = new ArrayList<>();
+        for (int i = 0; i < SEARCHES; i++) {
+            float[] q = HnswVectorStoreTest.randomVector(r, DIM);
+            queries.add(q);
+            exact.add(HnswVectorStoreTest.exactTop(points, q, K));
+        }
+
+        Map<String, VectorStore> stores = new LinkedHashMap<>();
+        stores.put("HNSW (embedded)", new HnswVectorStore(tempDir.resolve("hnsw"), 16, 200, 64, metrics));
+        stores.put("Flat (embedded)", new FlatVectorStore(tempDir.resolve("flat"), false, metrics));
+        stores.put("Flat int8 (embedded)", new FlatVectorStore(tempDir.resolve("flat-int8"), true, metrics));
+        stores.put("Qdrant (REST)", new RestQdrantPoints(http, url, collection, config, metrics));
+        try {
+            for (Map.Entry<String, VectorStore> e : stores.entrySet()) {
+                String name = e.getKey();
+                VectorStore store = e.getValue();
+                long start = System.nanoTime();
+                for (int i = 0; i < POINTS; i += 500) store.upsert(points.subList(i, Math.min(POINTS, i + 500)));
+                double upsertSec = (System.nanoTime() - start) / 1e9;
+
+                for (int i = 0; i < 20; i++) store.search(queries.get(i), K); // warm-up
+                long[] lat = new long[SEARCHES];
+                int found = 0;
+                for (int i = 0; i < SEARCHES; i++) {
+                    long t = System.nanoTime();
+                    List<VectorStore.Hit> hits = store.search(queries.get(i), K);
+                    lat[i] = System.nanoTime() - t;
+                    for (VectorStore.Hit h : hits) if (exact.get(i).contains((String) h.payload().get("text"))) found++;
+                }
+                Arrays.sort(lat);
+                double recall = found / (double) (K * SEARCHES);
+                System.out.printf("%s: %d x %d dims, upsert %.0f points/s | recall@%d %.3f | search p50 %.2f ms, p99 %.2f ms%n", name, POINTS, DIM,
+                    POINTS / upsertSec, K, recall, lat[SEARCHES / 2] / 1e6, lat[SEARCHES * 99 / 100] / 1e6);
+                assertTrue(recall > 0.8, name + " recall " + recall);
+            }
+        } finally {
+            stores.values().forEach(VectorStore::close);
+            http.delete(URI.create(url + "/collections/" + collection));
+            transport.destroy();
+        }
+    }
+}
@@ -95,7 +95,7 @@ class CaseWatcherTest {
         lenient().when(mockLlmProvider.chat(anyString(), anyString(), anyInt())).thenReturn("AI response");
         
         // Mock RAG service
-        lenient().when(mockRagService.retrieve(anyString(), anyInt())).thenReturn("RAG context");
+        lenient().when(mockRagService.retrieveChunks(anyString(), anyInt())).thenReturn(List.of("RAG context"));
         
         // Mock case service
         JsonNode mockCase = objectMapper.createObjectNode()
@@ -131,6 +131,12 @@ class CaseWatcherTest {
         assertNotNull(caseWatcher);
     }
 
+    @Test
+    void testCaseWatcher_Constructor_DoesNotCallSalesforce() throws Exception {
+        // Then
+        verifyNoInteractions(mockListViewService, mockCaseService);
+    }
+
     @Test
     void testProcessViaListView_CallsMetricsService() throws Exception {
         // Given
@@ -185,7 +191,7 @@ class CaseWatcherTest {
         // Then
         verify(mockMetricsService).incSkippedHandled();
         verify(mockCaseService, never()).getCase(anyString());
-        verify(mockRagService, never()).retrieve(anyString(), anyInt());
+        verify(mockRagService, never()).retrieveChunks(anyString(), anyInt());
         verify(mockLlmProvider, never()).chat(anyString(), anyString(), anyInt());
     }
 
@@ -194,7 +200,7 @@ class CaseWatcherTest {
         // Given
         String caseId = "test-case-123";
         when(mockMemoryRepository.isHandled(caseId)).thenReturn(false);
-        when(mockRagService.retrieve(anyString(), anyInt())).thenThrow(new RuntimeException("RAG failed"));
+        when(mockRagService.retrieveChunks(anyString(), anyInt())).thenThrow(new RuntimeException("RAG failed"));
         
         // When
         caseWatcher.handleCase(caseId);
@@ -269,7 +275,7 @@ class CaseWatcherTest {
         caseWatcher.handleCase(caseId);
         
         // Then
-        verify(mockRagService).retrieve(eq("Test Case\n"), anyInt());
+        verify(mockRagService).retrieveChunks(eq("Test Case\n"), anyInt());
         verify(mockMetricsService).incProcessed();
     }
 
@@ -287,7 +293,7 @@ class CaseWatcherTest {
         caseWatcher.handleCase(caseId);
         
         // Then
-        verify(mockRagService).retrieve(eq("Test Case\n"), anyInt());
+        verify(mockRagService).retrieveChunks(eq("Test Case\n"), anyInt());
         verify(mockMetricsService).incProcessed();
     }
 }
@@ -0,0 +1,109 @@
+package com.nby.agent.storage;
+
+import com.nby.agent.metrics.MetricsService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+class SourceManifestRepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private MetricsService mockMetricsService;
+
+    private SourceManifestRepository repository;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        System.setProperty("MEMORY_DB", tempDir.resolve("manifest.db").toString());
+        lenient().when(mockMetricsService.timeDbQuery(any())).thenAnswer(invocation ->
+                invocation.getArgument(0, java.util.concurrent.Callable.class).call());
+        lenient().when(mockMetricsService.timeDbInsert(any())).thenAnswer(invocation ->
+                invocation.getArgument(0, java.util.concurrent.Callable.class).call());
+        repository = new SourceManifestRepository(mockMetricsService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("MEMORY_DB");
+    }
+
+    @Test
+    void testAll_EmptyManifest_ReturnsEmptyMap() throws Exception {
+        // When
+        Map<String, SourceManifestRepository.Entry> all = repository.all("file");
+
+        // Then
+        assertTrue(all.isEmpty());
+    }
+
+    @Test
+    void testPut_SameSourceTwice_KeepsLatestEntry() throws Exception {
+        // Given
+        repository.put(new SourceManifestRepository.Entry("/kb/a.md", "file", "h1", 3));
+
+        // When
+        repository.put(new SourceManifestRepository.Entry("/kb/a.md", "file", "h2", 5));
+
+        // Then
+        Map<String, SourceManifestRepository.Entry> all = repository.all("file");
+        assertEquals(1, all.size());
+        assertEquals(new SourceManifestRepository.Entry("/kb/a.md", "file", "h2", 5), all.get("/kb/a.md"));
+    }
+
+    @Test
+    void testAll_FiltersBySourceType() throws Exception {
+        // Given
+        repository.put(new SourceManifestRepository.Entry("/kb/a.md", "file", "h1", 1));
+        repository.put(new SourceManifestRepository.Entry("https://example.com", "url", "h2", 2));
+
+        // When
+        Map<String, SourceManifestRepository.Entry> files = repository.all("file");
+
+        // Then
+        assertEquals(1, files.size());
+        assertTrue(files.containsKey("/kb/a.md"));
+        assertEquals(1, repository.all("url").size());
+    }
+
+    @Test
+    void testRemove_DropsOnlyThatSource() throws Exception {
+        // Given
+        repository.put(new SourceManifestRepository.Entry("/kb/a.md", "file", "h1", 1));
+        repository.put(new SourceManifestRepository.Entry("/kb/b.md", "file", "h2", 1));
+
+        // When
+        repository.remove("/kb/a.md");
+
+        // Then
+        assertEquals(Map.of("/kb/b.md", new SourceManifestRepository.Entry("/kb/b.md", "file", "h2", 1)), repository.all("file"));
+    }
+
+    @Test
+    void testGeneration_StartsAtZeroAndSurvivesReopen() throws Exception {
+        // Given
+        assertEquals(0, repository.generation());
+
+        // When
+        repository.setGeneration(7);
+        repository.clear();
+        SourceManifestRepository reopened = new SourceManifestRepository(mockMetricsService);
+
+        // Then - clearing the rows does not rewind it, so a stale BM25 file can never match again
+        assertEquals(7, reopened.generation());
+    }
+}